@@ -74,8 +74,11 @@ android {
         }
 
         testOptions {
+            // 单元测试只覆盖不依赖 Android 的代码，误触 Android API 时返回默认值而不是抛异常
+            unitTests.isReturnDefaultValues = true
+            // 微基准默认跳过，-Pbenchmark=true 时运行
             unitTests.all {
-                it.enabled = false
+                it.systemProperty("benchmark", project.findProperty("benchmark") ?: "false")
             }
         }
     }
@@ -195,6 +198,8 @@ dependencies {
     val composeBom = platform("androidx.compose:compose-bom:2025.05.00")
     implementation(composeBom)
     testImplementation(composeBom)
+    testImplementation(libs.junit)
+    testImplementation(libs.json)
     androidTestImplementation(composeBom)
     implementation("androidx.compose.material3:material3")
     implementation("androidx.compose.ui:ui-tooling-preview")
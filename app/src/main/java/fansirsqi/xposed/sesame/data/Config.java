@@ -9,6 +9,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import fansirsqi.xposed.sesame.entity.UserEntity;
+import fansirsqi.xposed.sesame.model.Model;
 import fansirsqi.xposed.sesame.model.ModelConfig;
 import fansirsqi.xposed.sesame.model.ModelField;
 import fansirsqi.xposed.sesame.model.ModelFields;
@@ -41,7 +42,6 @@ public class Config {
      * @param newModels 新的模型字段映射
      */
     public void setModelFieldsMap(Map<String, ModelFields> newModels) {
-        modelFieldsMap.clear();
         Map<String, ModelConfig> modelConfigMap = ModelTask.getModelConfigMap();
         // 如果传入的 newModels 为 null，初始化为空
         if (newModels == null) {
@@ -61,7 +61,7 @@ public class Config {
                         if (modelField != null) {
                             Object value = modelField.getValue();
                             if (value != null) {
-                                configModelField.setObjectValue(value);
+                                configModelField.updateObjectValue(value);
                             }
                         }
                     } catch (Exception e) {
@@ -77,6 +77,8 @@ public class Config {
             }
             modelFieldsMap.put(modelCode, newModelFields);
         }
+        // 逐个替换而不是先清空，读取方不会看到空表
+        modelFieldsMap.keySet().retainAll(modelConfigMap.keySet());
     }
 
     /**
@@ -247,6 +249,41 @@ public class Config {
         return INSTANCE;
     }
 
+    /**
+     * 热更新配置：重新读取配置文件，只有值发生变化的字段会通知所属模型，模型和子任务保持运行
+     *
+     * @param userId 用户 ID
+     * @return 所有改动都已就地生效时返回 true，返回 false 时需要重新初始化
+     */
+    public static synchronized boolean reload(String userId) {
+        if (!INSTANCE.init) {
+            return false;
+        }
+        File configV2File = StringUtil.isEmpty(userId) ? Files.getDefaultConfigV2File() : Files.getConfigV2File(userId);
+        if (!configV2File.exists()) {
+            return false;
+        }
+        String json = Files.readFromFile(configV2File);
+        if (json.isEmpty()) {
+            return false;
+        }
+        boolean[] parsed = {false};
+        boolean applied = Model.applyConfigChanges(() -> {
+            try {
+                JsonUtil.copyMapper().readerForUpdating(INSTANCE).readValue(json);
+                parsed[0] = true;
+            } catch (Exception e) {
+                Log.printStackTrace(TAG, "热更新配置失败", e);
+            }
+        });
+        if (!parsed[0]) {
+            return false;
+        }
+        TaskCommon.update();
+        Log.record(TAG, applied ? "配置已热更新" : "配置变化需要重新初始化");
+        return applied;
+    }
+
     /**
      * 卸载当前配置
      */
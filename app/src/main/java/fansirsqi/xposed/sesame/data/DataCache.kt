@@ -79,22 +79,10 @@ object DataCache {
 
     @Synchronized
     private fun save(): Boolean {
-        val targetFile = File(FILE_PATH, FILENAME)
-        val tempFile = File(targetFile.parent, "${targetFile.name}.tmp")
         return try {
-            // 1. 序列化对象为格式化后的 JSON 字符串
             val json = JsonUtil.formatJson(this) ?: throw IllegalStateException("JSON 序列化失败")
-            // 2. 写入临时文件
-            tempFile.writeText(json)
-            // 3. 原子性替换
-            if (tempFile.exists()) {
-                targetFile.delete()
-                tempFile.renameTo(targetFile)
-                true
-            } else {
-                Log.error(TAG, "临时文件写入失败")
-                false
-            }
+            // 临时文件写入后原子替换，由 Files 统一处理
+            Files.write2File(json, File(FILE_PATH, FILENAME))
         } catch (e: Exception) {
             Log.error(TAG, "保存缓存数据失败：${e.message}")
             false
@@ -0,0 +1,606 @@
+package fansirsqi.xposed.sesame.data;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fansirsqi.xposed.sesame.util.Files;
+import fansirsqi.xposed.sesame.util.GlobalThreadPools;
+import fansirsqi.xposed.sesame.util.JsonUtil;
+import fansirsqi.xposed.sesame.util.Log;
+import fansirsqi.xposed.sesame.util.stats.P2Quantile;
+import lombok.Data;
+
+/**
+ * 能量统计。
+ * <p>
+ * 每次收取、复活、浇水记为一条事件，先追加到内存中的按列缓冲区，由持久化线程在 {@link #FLUSH_DELAY} 后批量写入。
+ * 事件文件为各账号目录下的 statistics.dat，由若干按天划分的数据块组成，每块依次存放时间、好友、克数、耗时、标记五列。
+ * 按日、按月的汇总保存在 statistics.json，日汇总保留 {@link #ROLLUP_DAYS} 天，月汇总一直保留。
+ * 事件文件超过 {@link #COMPACT_SIZE} 时丢弃 {@link #RETAIN_DAYS} 天前的数据块，并把同一天的数据块合并。
+ */
+public final class Statistics {
+    private static final String TAG = Statistics.class.getSimpleName();
+    private static final int MAGIC = 0x53544231; // "STB1"
+    /**
+     * 块头：魔数、日期、条数、当天零点
+     */
+    private static final int HEADER_SIZE = 20;
+    /**
+     * 每条事件的字节数：时间偏移 int、好友 long、克数 int、耗时 int、标记 byte
+     */
+    private static final int ROW_SIZE = 21;
+    private static final long FLUSH_DELAY = 5000;
+    private static final long COMPACT_SIZE = 2 * 1024 * 1024;
+    private static final int RETAIN_DAYS = 90;
+    private static final int ROLLUP_DAYS = 400;
+
+    public static final int FLAG_DOUBLE = 1;
+    public static final int FLAG_TIMER = 1 << 1;
+    public static final int FLAG_SELF = 1 << 2;
+    public static final int FLAG_HELP = 1 << 3;
+    public static final int FLAG_WATER = 1 << 4;
+    private static final int KIND_MASK = FLAG_HELP | FLAG_WATER;
+
+    private static final Map<String, Buffer> BUFFERS = new ConcurrentHashMap<>();
+    private static final AtomicBoolean FLUSH_SCHEDULED = new AtomicBoolean(false);
+    /**
+     * 文件读写与汇总修改都在该锁内进行
+     */
+    private static final Object FILE_LOCK = new Object();
+    /**
+     * 各事件文件已校验过的长度，与实际长度不一致时先截掉末尾不完整的数据块再追加
+     */
+    private static final Map<String, Long> VALID_LENGTH = new HashMap<>();
+    private static Rollups rollups;
+
+    private Statistics() {
+    }
+
+    /**
+     * 单个时间段的汇总
+     */
+    @Data
+    public static class Rollup {
+        private long grams;
+        private int count;
+        private long timerGrams;
+        private int doubleCount;
+        private long latencySum;
+        private long helpGrams;
+        private long wateredGrams;
+
+        void add(int grams, int latency, int flags) {
+            switch (flags & KIND_MASK) {
+                case FLAG_HELP:
+                    helpGrams += grams;
+                    return;
+                case FLAG_WATER:
+                    wateredGrams += grams;
+                    return;
+                default:
+                    break;
+            }
+            this.grams += grams;
+            count++;
+            latencySum += latency;
+            if ((flags & FLAG_TIMER) != 0) {
+                timerGrams += grams;
+            }
+            if ((flags & FLAG_DOUBLE) != 0) {
+                doubleCount++;
+            }
+        }
+
+        /**
+         * 平均收取耗时，没有收取记录时为 0
+         */
+        @JsonIgnore
+        public long getAverageLatency() {
+            return count == 0 ? 0 : latencySum / count;
+        }
+    }
+
+    @Data
+    public static class UserRollups {
+        private TreeMap<String, Rollup> daily = new TreeMap<>();
+        private TreeMap<String, Rollup> monthly = new TreeMap<>();
+    }
+
+    @Data
+    public static class Rollups {
+        private Map<String, UserRollups> users = new HashMap<>();
+    }
+
+    /**
+     * 事件遍历回调
+     */
+    public interface Visitor {
+        void visit(long time, long friendId, int grams, int latency, int flags);
+    }
+
+    /**
+     * 未写入文件的事件，按列存放
+     */
+    private static final class Buffer {
+        long[] time = new long[64];
+        long[] friend = new long[64];
+        int[] grams = new int[64];
+        int[] latency = new int[64];
+        byte[] flags = new byte[64];
+        int size;
+
+        void add(long t, long f, int g, int l, int fl) {
+            if (size == time.length) {
+                int capacity = size * 2;
+                time = Arrays.copyOf(time, capacity);
+                friend = Arrays.copyOf(friend, capacity);
+                grams = Arrays.copyOf(grams, capacity);
+                latency = Arrays.copyOf(latency, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+            }
+            time[size] = t;
+            friend[size] = f;
+            grams[size] = g;
+            latency[size] = l;
+            flags[size] = (byte) fl;
+            size++;
+        }
+    }
+
+    /**
+     * 记录一次能量收取
+     *
+     * @param userId    当前账号
+     * @param friendId  被收取的用户
+     * @param grams     收取克数
+     * @param latency   请求耗时(ms)
+     * @param isDouble  是否为双击
+     * @param fromTimer 是否由蹲点任务发起
+     */
+    public static void recordCollect(String userId, String friendId, int grams, long latency, boolean isDouble, boolean fromTimer) {
+        int flags = (isDouble ? FLAG_DOUBLE : 0) | (fromTimer ? FLAG_TIMER : 0) | (Objects.equals(userId, friendId) ? FLAG_SELF : 0);
+        record(userId, friendId, grams, latency, flags);
+    }
+
+    /**
+     * 记录一次复活好友能量
+     */
+    public static void recordHelp(String userId, String friendId, int grams) {
+        record(userId, friendId, grams, 0, FLAG_HELP);
+    }
+
+    /**
+     * 记录一次给好友浇水
+     */
+    public static void recordWater(String userId, String friendId, int grams) {
+        record(userId, friendId, grams, 0, FLAG_WATER);
+    }
+
+    private static void record(String userId, String friendId, int grams, long latency, int flags) {
+        if (userId == null || userId.isEmpty() || grams <= 0) {
+            return;
+        }
+        Buffer buffer = BUFFERS.computeIfAbsent(userId, k -> new Buffer());
+        synchronized (buffer) {
+            buffer.add(System.currentTimeMillis(), toFriendId(friendId), grams, (int) Math.min(latency, Integer.MAX_VALUE), flags);
+        }
+        if (FLUSH_SCHEDULED.compareAndSet(false, true)) {
+            try {
+                GlobalThreadPools.getScheduledPool(GlobalThreadPools.Workload.TIMER).schedule(
+                        () -> GlobalThreadPools.getPool(GlobalThreadPools.Workload.PERSIST).execute(Statistics::scheduledFlush),
+                        FLUSH_DELAY, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                FLUSH_SCHEDULED.set(false);
+                Log.printStackTrace(TAG, e);
+            }
+        }
+    }
+
+    /**
+     * 支付宝用户ID为纯数字，直接存为 long；无法解析时记为 0，不参与好友排行
+     */
+    private static long toFriendId(String friendId) {
+        if (friendId == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(friendId);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void scheduledFlush() {
+        FLUSH_SCHEDULED.set(false);
+        try {
+            flush();
+        } catch (Exception e) {
+            Log.printStackTrace(TAG, e);
+        }
+    }
+
+    /**
+     * 立即写入所有账号未保存的事件
+     */
+    public static void flush() {
+        synchronized (FILE_LOCK) {
+            boolean changed = false;
+            for (String userId : BUFFERS.keySet()) {
+                changed |= flushUser(userId);
+            }
+            if (changed) {
+                saveRollups();
+            }
+        }
+    }
+
+    private static boolean flushUser(String userId) {
+        Buffer buffer = BUFFERS.get(userId);
+        if (buffer == null) {
+            return false;
+        }
+        Buffer pending;
+        synchronized (buffer) {
+            if (buffer.size == 0) {
+                return false;
+            }
+            pending = new Buffer();
+            swap(buffer, pending);
+        }
+        UserRollups userRollups = getRollups().users.computeIfAbsent(userId, k -> new UserRollups());
+        Calendar calendar = Calendar.getInstance();
+        ByteBuffer out = ByteBuffer.allocate(pending.size * (HEADER_SIZE + ROW_SIZE));
+        int start = 0;
+        while (start < pending.size) {
+            calendar.setTimeInMillis(pending.time[start]);
+            int day = dayKey(calendar);
+            long dayStart = startOfDay(calendar);
+            int end = start + 1;
+            while (end < pending.size && pending.time[end] >= dayStart && pending.time[end] - dayStart < TimeUnit.DAYS.toMillis(1)) {
+                end++;
+            }
+            writeBlock(out, pending, start, end, day, dayStart);
+            Rollup daily = userRollups.daily.computeIfAbsent(String.valueOf(day), k -> new Rollup());
+            Rollup monthly = userRollups.monthly.computeIfAbsent(String.valueOf(day / 100), k -> new Rollup());
+            for (int i = start; i < end; i++) {
+                daily.add(pending.grams[i], pending.latency[i], pending.flags[i]);
+                monthly.add(pending.grams[i], pending.latency[i], pending.flags[i]);
+            }
+            start = end;
+        }
+        while (userRollups.daily.size() > ROLLUP_DAYS) {
+            userRollups.daily.pollFirstEntry();
+        }
+        File file = Files.getStatisticsDataFile(userId);
+        if (file == null) {
+            return true;
+        }
+        try {
+            append(file, out.array(), out.position());
+            if (file.length() > COMPACT_SIZE) {
+                compact(file);
+            }
+        } catch (Exception e) {
+            Log.printStackTrace(TAG, "写入统计事件失败", e);
+        }
+        return true;
+    }
+
+    private static void swap(Buffer from, Buffer to) {
+        Buffer empty = new Buffer();
+        to.time = from.time;
+        to.friend = from.friend;
+        to.grams = from.grams;
+        to.latency = from.latency;
+        to.flags = from.flags;
+        to.size = from.size;
+        from.time = empty.time;
+        from.friend = empty.friend;
+        from.grams = empty.grams;
+        from.latency = empty.latency;
+        from.flags = empty.flags;
+        from.size = 0;
+    }
+
+    private static void writeBlock(ByteBuffer out, Buffer b, int start, int end, int day, long dayStart) {
+        out.putInt(MAGIC).putInt(day).putInt(end - start).putLong(dayStart);
+        for (int i = start; i < end; i++) out.putInt((int) (b.time[i] - dayStart));
+        for (int i = start; i < end; i++) out.putLong(b.friend[i]);
+        for (int i = start; i < end; i++) out.putInt(b.grams[i]);
+        for (int i = start; i < end; i++) out.putInt(b.latency[i]);
+        for (int i = start; i < end; i++) out.put(b.flags[i]);
+    }
+
+    private static void append(File file, byte[] data, int length) throws IOException {
+        String path = file.getAbsolutePath();
+        Long valid = VALID_LENGTH.get(path);
+        if (valid == null || valid != file.length()) {
+            valid = validLength(file);
+            if (valid != file.length()) {
+                Log.runtime(TAG, "截断 " + file.getName() + " 末尾不完整的数据 " + (file.length() - valid) + "字节");
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(valid);
+                }
+            }
+        }
+        try (FileOutputStream fos = new FileOutputStream(file, true)) {
+            fos.write(data, 0, length);
+        }
+        VALID_LENGTH.put(path, valid + length);
+    }
+
+    private static long validLength(File file) throws IOException {
+        ByteBuffer buffer = map(file);
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int position = buffer.position();
+            if (buffer.getInt(position) != MAGIC) {
+                break;
+            }
+            int count = buffer.getInt(position + 8);
+            long size = HEADER_SIZE + (long) count * ROW_SIZE;
+            if (count < 0 || size > buffer.remaining()) {
+                break;
+            }
+            buffer.position(position + (int) size);
+        }
+        return buffer.position();
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        if (file.length() == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * 丢弃过期数据块，并把同一天的数据块合并为一块
+     */
+    private static void compact(File file) throws IOException {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_MONTH, -RETAIN_DAYS);
+        int oldestDay = dayKey(calendar);
+        TreeMap<Integer, Buffer> days = new TreeMap<>();
+        Map<Integer, Long> dayStarts = new HashMap<>();
+        scanFile(file, Long.MIN_VALUE, Long.MAX_VALUE, (day, dayStart) -> {
+            if (day < oldestDay) {
+                return null;
+            }
+            dayStarts.put(day, dayStart);
+            return days.computeIfAbsent(day, k -> new Buffer());
+        });
+        int total = 0;
+        for (Buffer b : days.values()) {
+            total += HEADER_SIZE + b.size * ROW_SIZE;
+        }
+        ByteBuffer out = ByteBuffer.allocate(total);
+        for (Map.Entry<Integer, Buffer> entry : days.entrySet()) {
+            Buffer b = entry.getValue();
+            writeBlock(out, b, 0, b.size, entry.getKey(), dayStarts.get(entry.getKey()));
+        }
+        long before = file.length();
+        if (Files.write2File(out.array(), file)) {
+            VALID_LENGTH.put(file.getAbsolutePath(), (long) total);
+            Log.runtime(TAG, "整理 " + file.getName() + " " + before + " -> " + total + "字节");
+        }
+    }
+
+    private interface BlockSink {
+        /**
+         * @return 接收该块事件的缓冲区，返回 null 时跳过该块
+         */
+        Buffer accept(int day, long dayStart);
+    }
+
+    private static void scanFile(File file, long from, long to, BlockSink sink) throws IOException {
+        ByteBuffer buffer = map(file);
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int position = buffer.position();
+            if (buffer.getInt(position) != MAGIC) {
+                break;
+            }
+            int day = buffer.getInt(position + 4);
+            int count = buffer.getInt(position + 8);
+            long dayStart = buffer.getLong(position + 12);
+            long size = HEADER_SIZE + (long) count * ROW_SIZE;
+            if (count < 0 || size > buffer.remaining()) {
+                break;
+            }
+            buffer.position(position + (int) size);
+            if (dayStart > to || dayStart + TimeUnit.DAYS.toMillis(1) <= from) {
+                continue;
+            }
+            Buffer target = sink.accept(day, dayStart);
+            if (target == null) {
+                continue;
+            }
+            int timeAt = position + HEADER_SIZE;
+            int friendAt = timeAt + count * 4;
+            int gramsAt = friendAt + count * 8;
+            int latencyAt = gramsAt + count * 4;
+            int flagsAt = latencyAt + count * 4;
+            for (int i = 0; i < count; i++) {
+                long time = dayStart + buffer.getInt(timeAt + i * 4);
+                if (time < from || time > to) {
+                    continue;
+                }
+                target.add(time, buffer.getLong(friendAt + i * 8), buffer.getInt(gramsAt + i * 4),
+                        buffer.getInt(latencyAt + i * 4), buffer.get(flagsAt + i));
+            }
+        }
+    }
+
+    /**
+     * 遍历时间范围内的事件，未写入的事件会先写入文件
+     *
+     * @param userId  账号
+     * @param from    起始时间(含)
+     * @param to      结束时间(含)
+     * @param visitor 回调
+     */
+    public static void scan(String userId, long from, long to, Visitor visitor) {
+        Buffer events = new Buffer();
+        synchronized (FILE_LOCK) {
+            flush();
+            File file = Files.getStatisticsDataFile(userId);
+            if (file == null) {
+                return;
+            }
+            try {
+                scanFile(file, from, to, (day, dayStart) -> events);
+            } catch (Exception e) {
+                Log.printStackTrace(TAG, "读取统计事件失败", e);
+            }
+        }
+        for (int i = 0; i < events.size; i++) {
+            visitor.visit(events.time[i], events.friend[i], events.grams[i], events.latency[i], events.flags[i]);
+        }
+    }
+
+    /**
+     * 按小时统计收取克数
+     *
+     * @return 长度为 24 的数组，下标为小时
+     */
+    public static long[] gramsPerHour(String userId, long from, long to) {
+        long[] hours = new long[24];
+        Calendar calendar = Calendar.getInstance();
+        scan(userId, from, to, (time, friendId, grams, latency, flags) -> {
+            if ((flags & KIND_MASK) == 0) {
+                calendar.setTimeInMillis(time);
+                hours[calendar.get(Calendar.HOUR_OF_DAY)] += grams;
+            }
+        });
+        return hours;
+    }
+
+    /**
+     * 收取克数最多的好友，不含自己
+     *
+     * @param limit 返回条数
+     * @return 好友ID与克数，按克数降序
+     */
+    public static List<Map.Entry<String, Long>> topFriends(String userId, long from, long to, int limit) {
+        Map<Long, long[]> totals = new HashMap<>();
+        scan(userId, from, to, (time, friendId, grams, latency, flags) -> {
+            if ((flags & (KIND_MASK | FLAG_SELF)) == 0 && friendId != 0) {
+                totals.computeIfAbsent(friendId, k -> new long[1])[0] += grams;
+            }
+        });
+        List<Map.Entry<String, Long>> list = new ArrayList<>(totals.size());
+        for (Map.Entry<Long, long[]> entry : totals.entrySet()) {
+            list.add(new AbstractMap.SimpleImmutableEntry<>(String.valueOf(entry.getKey()), entry.getValue()[0]));
+        }
+        list.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return list.size() > limit ? new ArrayList<>(list.subList(0, limit)) : list;
+    }
+
+    /**
+     * 收取耗时的百分位数，按 P² 流式估计，不保存全部耗时
+     *
+     * @param percentile 0~100，例如 95
+     * @return 耗时(ms)，没有记录时返回 -1
+     */
+    public static int latencyPercentile(String userId, long from, long to, double percentile) {
+        P2Quantile quantile = new P2Quantile(Math.max(0, Math.min(100, percentile)) / 100);
+        scan(userId, from, to, (time, friendId, grams, latency, flags) -> {
+            if ((flags & KIND_MASK) == 0 && latency > 0) {
+                quantile.add(latency);
+            }
+        });
+        return quantile.count() == 0 ? -1 : (int) Math.round(quantile.value());
+    }
+
+    /**
+     * 指定时间所在日期的汇总，没有记录时返回空汇总
+     */
+    public static Rollup getDaily(String userId, long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        return getRollup(userId, String.valueOf(dayKey(calendar)), false);
+    }
+
+    /**
+     * 指定时间所在月份的汇总，没有记录时返回空汇总
+     */
+    public static Rollup getMonthly(String userId, long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        return getRollup(userId, String.valueOf(dayKey(calendar) / 100), true);
+    }
+
+    private static Rollup getRollup(String userId, String key, boolean monthly) {
+        synchronized (FILE_LOCK) {
+            flush();
+            UserRollups userRollups = getRollups().users.get(userId);
+            Rollup rollup = userRollups == null ? null : (monthly ? userRollups.monthly : userRollups.daily).get(key);
+            Rollup copy = new Rollup();
+            if (rollup != null) {
+                copy.grams = rollup.grams;
+                copy.count = rollup.count;
+                copy.timerGrams = rollup.timerGrams;
+                copy.doubleCount = rollup.doubleCount;
+                copy.latencySum = rollup.latencySum;
+                copy.helpGrams = rollup.helpGrams;
+                copy.wateredGrams = rollup.wateredGrams;
+            }
+            return copy;
+        }
+    }
+
+    private static Rollups getRollups() {
+        if (rollups == null) {
+            File file = Files.getStatisticsFile();
+            try {
+                if (file != null && file.length() > 0) {
+                    rollups = JsonUtil.parseObject(Files.readFromFile(file), Rollups.class);
+                }
+            } catch (Throwable t) {
+                Log.printStackTrace(TAG, "读取统计汇总失败", t);
+            }
+            if (rollups == null) {
+                rollups = new Rollups();
+            }
+        }
+        return rollups;
+    }
+
+    private static void saveRollups() {
+        if (!Files.write2File(JsonUtil.formatJson(getRollups(), false), Files.getStatisticsFile())) {
+            Log.error(TAG, "保存统计汇总失败");
+        }
+    }
+
+    private static int dayKey(Calendar calendar) {
+        return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100 + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    private static long startOfDay(Calendar calendar) {
+        Calendar start = (Calendar) calendar.clone();
+        start.set(Calendar.HOUR_OF_DAY, 0);
+        start.set(Calendar.MINUTE, 0);
+        start.set(Calendar.SECOND, 0);
+        start.set(Calendar.MILLISECOND, 0);
+        return start.getTimeInMillis();
+    }
+}
@@ -1,17 +1,24 @@
 package fansirsqi.xposed.sesame.data;
 
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 
+import java.io.File;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import fansirsqi.xposed.sesame.model.BaseModel;
 import fansirsqi.xposed.sesame.task.ModelTask;
 import fansirsqi.xposed.sesame.task.antForest.AntForest;
 import fansirsqi.xposed.sesame.util.Files;
+import fansirsqi.xposed.sesame.util.GlobalThreadPools;
 import fansirsqi.xposed.sesame.util.JsonUtil;
 import fansirsqi.xposed.sesame.util.Log;
 import fansirsqi.xposed.sesame.util.maps.UserMap;
@@ -19,17 +26,39 @@ import fansirsqi.xposed.sesame.util.StringUtil;
 import fansirsqi.xposed.sesame.util.TimeUtil;
 import lombok.Data;
 
+/**
+ * 每日状态。
+ * <p>
+ * 各集合可被多个任务线程同时修改，均为并发集合。开启延迟合并保存时，修改只标记为待保存，
+ * 由持久化线程在 {@link #FLUSH_DELAY} 后把这段时间内的所有修改合并写入一次。
+ */
 @Data
 public class Status {
     private static final String TAG = Status.class.getSimpleName();
     private static final Status INSTANCE = new Status();
+    /**
+     * 反序列化时集合字段使用并发实现
+     */
+    private static final ObjectMapper MAPPER = JsonUtil.copyMapper().registerModule(new SimpleModule()
+            .addAbstractTypeMapping(Set.class, ConcurrentSkipListSet.class)
+            .addAbstractTypeMapping(Map.class, ConcurrentHashMap.class));
+    /**
+     * 修改后延迟保存的时间（毫秒）
+     */
+    private static final long FLUSH_DELAY = 2000L;
+    private static final AtomicBoolean DIRTY = new AtomicBoolean(false);
+    private static final AtomicBoolean FLUSH_SCHEDULED = new AtomicBoolean(false);
+    /**
+     * 当前状态所属的用户，切换用户前的待保存修改写回该用户的文件
+     */
+    private static volatile String loadedUid;
     // ===========================forest
-    private Map<String, Integer> waterFriendLogList = new HashMap<>();
+    private Map<String, Integer> waterFriendLogList = new ConcurrentHashMap<>();
 
-    private Set<String> cooperateWaterList = new HashSet<>();//合作浇水
-    private Map<String, Integer> reserveLogList = new HashMap<>();
-    private Set<String> ancientTreeCityCodeList = new HashSet<>();//古树
-    private Set<String> protectBubbleList = new HashSet<>();
+    private Set<String> cooperateWaterList = new ConcurrentSkipListSet<>();//合作浇水
+    private Map<String, Integer> reserveLogList = new ConcurrentHashMap<>();
+    private Set<String> ancientTreeCityCodeList = new ConcurrentSkipListSet<>();//古树
+    private Set<String> protectBubbleList = new ConcurrentSkipListSet<>();
     private int exchangeDoubleCard = 0; // 活力值兑换双倍卡
     private int exchangeTimes = 0;
     private int exchangeTimesLongTime = 0;
@@ -39,13 +68,13 @@ public class Status {
     private boolean exchangeCollectToFriendTimes7Days = false;
     private boolean youthPrivilege = true;
     private boolean studentTask = true;
-    private Map<String, Integer> VitalityStoreList = new HashMap<>();
+    private Map<String, Integer> VitalityStoreList = new ConcurrentHashMap<>();
     // ===========================farm
     private Boolean answerQuestion = false;
-    private Map<String, Integer> feedFriendLogList = new HashMap<>();
-    private Map<String, Integer> visitFriendLogList = new HashMap<>();
-    private Set<String> dailyAnswerList = new HashSet<>();
-    private Set<String> donationEggList = new HashSet<>();
+    private Map<String, Integer> feedFriendLogList = new ConcurrentHashMap<>();
+    private Map<String, Integer> visitFriendLogList = new ConcurrentHashMap<>();
+    private Set<String> dailyAnswerList = new ConcurrentSkipListSet<>();
+    private Set<String> donationEggList = new ConcurrentSkipListSet<>();
     private int useAccelerateToolCount = 0;
     /**
      * 小鸡换装
@@ -53,20 +82,20 @@ public class Status {
     private Boolean canOrnament = true;
     private Boolean animalSleep = false;
     // =============================stall
-    private Map<String, Integer> stallHelpedCountLogList = new HashMap<>();
-    private Set<String> spreadManureList = new HashSet<>();
-    private Set<String> stallP2PHelpedList = new HashSet<>();
+    private Map<String, Integer> stallHelpedCountLogList = new ConcurrentHashMap<>();
+    private Set<String> spreadManureList = new ConcurrentSkipListSet<>();
+    private Set<String> stallP2PHelpedList = new ConcurrentSkipListSet<>();
     private Boolean canStallDonate = true;
     // ==========================sport
-    private Set<String> syncStepList = new HashSet<>();
-    private Set<String> exchangeList = new HashSet<>();
+    private Set<String> syncStepList = new ConcurrentSkipListSet<>();
+    private Set<String> exchangeList = new ConcurrentSkipListSet<>();
     /**
      * 捐运动币
      */
     private boolean donateCharityCoin = false;
     // =======================other
-    private Set<String> memberSignInList = new HashSet<>();
-    private final Set<String> flagList = new HashSet<>();
+    private Set<String> memberSignInList = new ConcurrentSkipListSet<>();
+    private final Set<String> flagList = new ConcurrentSkipListSet<>();
     /**
      * 口碑签到
      */
@@ -78,28 +107,28 @@ public class Status {
     /**
      * 新村助力好友，已上限的用户
      */
-    private Set<String> antStallAssistFriend = new HashSet<>();
+    private Set<String> antStallAssistFriend = new ConcurrentSkipListSet<>();
     /**
      * 新村-罚单已贴完的用户
      */
-    private Set<String> canPasteTicketTime = new HashSet<>();
+    private Set<String> canPasteTicketTime = new ConcurrentSkipListSet<>();
     /**
      * 绿色经营，收取好友金币已完成用户
      */
-    private Set<String> greenFinancePointFriend = new HashSet<>();
+    private Set<String> greenFinancePointFriend = new ConcurrentSkipListSet<>();
     /**
      * 绿色经营，评级领奖已完成用户
      */
-    private Map<String, Integer> greenFinancePrizesMap = new HashMap<>();
+    private Map<String, Integer> greenFinancePrizesMap = new ConcurrentHashMap<>();
     /**
      * 农场助力
      */
-    private Set<String> antOrchardAssistFriend = new HashSet<>();
+    private Set<String> antOrchardAssistFriend = new ConcurrentSkipListSet<>();
 
     /**
      * 会员权益
      */
-    private Set<String> memberPointExchangeBenefitLogList = new HashSet<>();
+    private Set<String> memberPointExchangeBenefitLogList = new ConcurrentSkipListSet<>();
 
 
     public static long getCurrentDayTimestamp() {
@@ -125,8 +154,7 @@ public class Status {
     }
 
     public static void vitalityExchangeToday(String skuId) {
-        int count = getVitalityCount(skuId) + 1;
-        getINSTANCE().getVitalityStoreList().put(skuId, count);
+        getINSTANCE().getVitalityStoreList().merge(skuId, 1, Integer::sum);
         save();
     }
 
@@ -169,11 +197,7 @@ public class Status {
     }
 
     public static void reserveToday(String id, int newCount) {
-        Integer count = getINSTANCE().getReserveLogList().get(id);
-        if (count == null) {
-            count = 0;
-        }
-        getINSTANCE().getReserveLogList().put(id, count + newCount);
+        getINSTANCE().getReserveLogList().merge(id, newCount, Integer::sum);
         save();
     }
 
@@ -183,8 +207,7 @@ public class Status {
 
     public static void cooperateWaterToday(String uid, String coopId) {
         String v = uid + "_" + coopId;
-        if (!getINSTANCE().getCooperateWaterList().contains(v)) {
-            getINSTANCE().getCooperateWaterList().add(v);
+        if (getINSTANCE().getCooperateWaterList().add(v)) {
             save();
         }
     }
@@ -194,8 +217,7 @@ public class Status {
     }
 
     public static void ancientTreeToday(String cityCode) {
-        if (!getINSTANCE().getAncientTreeCityCodeList().contains(cityCode)) {
-            getINSTANCE().getAncientTreeCityCodeList().add(cityCode);
+        if (getINSTANCE().getAncientTreeCityCodeList().add(cityCode)) {
             save();
         }
     }
@@ -220,11 +242,7 @@ public class Status {
     }
 
     public static void feedFriendToday(String id) {
-        Integer count = getINSTANCE().feedFriendLogList.get(id);
-        if (count == null) {
-            count = 0;
-        }
-        getINSTANCE().feedFriendLogList.put(id, count + 1);
+        getINSTANCE().feedFriendLogList.merge(id, 1, Integer::sum);
         save();
     }
 
@@ -248,8 +266,7 @@ public class Status {
     }
 
     public static void memberSignInToday(String uid) {
-        if (!getINSTANCE().memberSignInList.contains(uid)) {
-            getINSTANCE().memberSignInList.add(uid);
+        if (getINSTANCE().memberSignInList.add(uid)) {
             save();
         }
     }
@@ -259,7 +276,10 @@ public class Status {
     }
 
     public static void useAccelerateTool() {
-        getINSTANCE().useAccelerateToolCount += 1;
+        Status status = getINSTANCE();
+        synchronized (status) {
+            status.useAccelerateToolCount += 1;
+        }
         save();
     }
 
@@ -268,8 +288,7 @@ public class Status {
     }
 
     public static void donationEgg(String uid) {
-        if (!getINSTANCE().donationEggList.contains(uid)) {
-            getINSTANCE().donationEggList.add(uid);
+        if (getINSTANCE().donationEggList.add(uid)) {
             save();
         }
     }
@@ -279,8 +298,7 @@ public class Status {
     }
 
     public static void spreadManureToday(String uid) {
-        if (!getINSTANCE().spreadManureList.contains(uid)) {
-            getINSTANCE().spreadManureList.add(uid);
+        if (getINSTANCE().spreadManureList.add(uid)) {
             save();
         }
     }
@@ -299,8 +317,7 @@ public class Status {
      */
     public static void antStallAssistFriendToday() {
         String uid = UserMap.getCurrentUid();
-        if (!getINSTANCE().antStallAssistFriend.contains(uid)) {
-            getINSTANCE().antStallAssistFriend.add(uid);
+        if (getINSTANCE().antStallAssistFriend.add(uid)) {
             save();
         }
     }
@@ -312,8 +329,7 @@ public class Status {
 
     public static void antOrchardAssistFriendToday() {
         String uid = UserMap.getCurrentUid();
-        if (!getINSTANCE().antOrchardAssistFriend.contains(uid)) {
-            getINSTANCE().antOrchardAssistFriend.add(uid);
+        if (getINSTANCE().antOrchardAssistFriend.add(uid)) {
             save();
         }
     }
@@ -323,8 +339,7 @@ public class Status {
     }
 
     public static void protectBubbleToday(String uid) {
-        if (!getINSTANCE().getProtectBubbleList().contains(uid)) {
-            getINSTANCE().getProtectBubbleList().add(uid);
+        if (getINSTANCE().getProtectBubbleList().add(uid)) {
             save();
         }
     }
@@ -342,11 +357,9 @@ public class Status {
      * 罚单贴完了
      */
     public static void pasteTicketTime() {
-        if (getINSTANCE().canPasteTicketTime.contains(UserMap.getCurrentUid())) {
-            return;
+        if (getINSTANCE().canPasteTicketTime.add(UserMap.getCurrentUid())) {
+            save();
         }
-        getINSTANCE().canPasteTicketTime.add(UserMap.getCurrentUid());
-        save();
     }
 
     public static boolean canDoubleToday() {
@@ -358,7 +371,10 @@ public class Status {
     }
 
     public static void DoubleToday() {
-        getINSTANCE().setDoubleTimes(getINSTANCE().getDoubleTimes() + 1);
+        Status status = getINSTANCE();
+        synchronized (status) {
+            status.doubleTimes += 1;
+        }
         save();
     }
 
@@ -375,7 +391,7 @@ public class Status {
     }
 
     public static void setDadaDailySet(Set<String> dailyAnswerList) {
-        getINSTANCE().dailyAnswerList = dailyAnswerList;
+        getINSTANCE().dailyAnswerList = new ConcurrentSkipListSet<>(dailyAnswerList);
         save();
     }
 
@@ -395,8 +411,7 @@ public class Status {
     }
 
     public static void exchangeToday(String uid) {
-        if (!getINSTANCE().exchangeList.contains(uid)) {
-            getINSTANCE().exchangeList.add(uid);
+        if (getINSTANCE().exchangeList.add(uid)) {
             save();
         }
     }
@@ -458,17 +473,18 @@ public class Status {
             Log.runtime(TAG, "用户为空，状态加载失败");
             throw new RuntimeException("用户为空，状态加载失败");
         }
+        loadedUid = currentUid;
         try {
-            java.io.File statusFile = Files.getStatusFile(currentUid);
+            File statusFile = Files.getStatusFile(currentUid);
             if (statusFile.exists()) {
                 Log.runtime(TAG, "加载 status.json");
                 String json = Files.readFromFile(statusFile);
                 if (!json.trim().isEmpty()) {
-                    JsonUtil.copyMapper().readerForUpdating(getINSTANCE()).readValue(json);
+                    MAPPER.readerForUpdating(getINSTANCE()).readValue(json);
                     String formatted = JsonUtil.formatJson(getINSTANCE());
                     if (formatted != null && !formatted.equals(json)) {
                         Log.runtime(TAG, "重新格式化 status.json");
-                        Files.write2File(formatted, statusFile);
+                        Files.write2File(formatted, statusFile, true);
                     }
                 } else {
                     Log.runtime(TAG, "配置文件为空，初始化默认配置");
@@ -494,11 +510,11 @@ public class Status {
      *
      * @param statusFile 状态文件
      */
-    private static void initializeDefaultConfig(java.io.File statusFile) {
+    private static void initializeDefaultConfig(File statusFile) {
         try {
-            JsonUtil.copyMapper().updateValue(getINSTANCE(), new Status());
+            MAPPER.updateValue(getINSTANCE(), new Status());
             Log.runtime(TAG, "初始化 status.json");
-            Files.write2File(JsonUtil.formatJson(getINSTANCE()), statusFile);
+            Files.write2File(JsonUtil.formatJson(getINSTANCE()), statusFile, true);
         } catch (JsonMappingException e) {
             Log.printStackTrace(TAG, e);
             throw new RuntimeException("初始化配置失败", e);
@@ -510,8 +526,8 @@ public class Status {
      */
     private static void resetAndSaveConfig() {
         try {
-            JsonUtil.copyMapper().updateValue(getINSTANCE(), new Status());
-            Files.write2File(JsonUtil.formatJson(getINSTANCE()), Files.getStatusFile(UserMap.getCurrentUid()));
+            MAPPER.updateValue(getINSTANCE(), new Status());
+            Files.write2File(JsonUtil.formatJson(getINSTANCE()), Files.getStatusFile(UserMap.getCurrentUid()), true);
         } catch (JsonMappingException e) {
             Log.printStackTrace(TAG, e);
             throw new RuntimeException("重置配置失败", e);
@@ -519,19 +535,66 @@ public class Status {
     }
 
     public static synchronized void unload() {
+        flush();
         try {
-            JsonUtil.copyMapper().updateValue(getINSTANCE(), new Status());
+            MAPPER.updateValue(getINSTANCE(), new Status());
         } catch (JsonMappingException e) {
             Log.printStackTrace(TAG, e);
         }
+        loadedUid = null;
     }
 
-    public static synchronized void save() {
-        save(Calendar.getInstance());
+    /**
+     * 保存状态。开启延迟合并保存时只标记为待保存，稍后由持久化线程统一写入
+     */
+    public static void save() {
+        if (!isWriteBehind()) {
+            save(Calendar.getInstance());
+            return;
+        }
+        DIRTY.set(true);
+        if (FLUSH_SCHEDULED.compareAndSet(false, true)) {
+            try {
+                GlobalThreadPools.getScheduledPool(GlobalThreadPools.Workload.TIMER).schedule(
+                        () -> GlobalThreadPools.getPool(GlobalThreadPools.Workload.PERSIST).execute(Status::scheduledFlush),
+                        FLUSH_DELAY, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                FLUSH_SCHEDULED.set(false);
+                Log.printStackTrace(TAG, e);
+                flush();
+            }
+        }
+    }
+
+    private static void scheduledFlush() {
+        FLUSH_SCHEDULED.set(false);
+        try {
+            flush();
+        } catch (Exception e) {
+            Log.printStackTrace(TAG, e);
+        }
+    }
+
+    /**
+     * 立即写入待保存的修改
+     */
+    public static void flush() {
+        if (DIRTY.getAndSet(false)) {
+            save(Calendar.getInstance());
+        }
+    }
+
+    private static boolean isWriteBehind() {
+        try {
+            return BaseModel.getStatusWriteBehind().getValue();
+        } catch (Throwable t) {
+            return false;
+        }
     }
 
     public static synchronized void save(Calendar nowCalendar) {
-        String currentUid = UserMap.getCurrentUid();
+        DIRTY.set(false);
+        String currentUid = loadedUid != null ? loadedUid : UserMap.getCurrentUid();
         if (StringUtil.isEmpty(currentUid)) {
             Log.record(TAG, "用户为空，状态保存失败");
             throw new RuntimeException("用户为空，状态保存失败");
@@ -544,7 +607,7 @@ public class Status {
         long lastSaveTime = getINSTANCE().saveTime;
         try {
             getINSTANCE().saveTime = System.currentTimeMillis();
-            Files.write2File(JsonUtil.formatJson(getINSTANCE()), Files.getStatusFile(currentUid));
+            Files.write2File(JsonUtil.formatJson(getINSTANCE()), Files.getStatusFile(currentUid), true);
         } catch (Exception e) {
             getINSTANCE().saveTime = lastSaveTime;
             throw e;
@@ -588,8 +651,7 @@ public class Status {
     }
 
     public static void setFlagToday(String flag) {
-        if (!hasFlagToday(flag)) {
-            getINSTANCE().flagList.add(flag);
+        if (getINSTANCE().flagList.add(flag)) {
             save();
         }
     }
@@ -599,8 +661,7 @@ public class Status {
     }
 
     public static void memberPointExchangeBenefitToday(String benefitId) {
-        if (canMemberPointExchangeBenefitToday(benefitId)) {
-            getINSTANCE().memberPointExchangeBenefitLogList.add(benefitId);
+        if (getINSTANCE().memberPointExchangeBenefitLogList.add(benefitId)) {
             save();
         }
     }
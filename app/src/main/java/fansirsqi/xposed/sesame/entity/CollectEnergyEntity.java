@@ -25,6 +25,9 @@ public class CollectEnergyEntity {
     // 是否需要重试
     @Setter
     private Boolean needRetry = false;
+    // 是否由蹲点任务发起
+    @Setter
+    private boolean fromTimer = false;
     /**
      * 构造方法，仅指定用户 ID。
      * @param userId 用户 ID
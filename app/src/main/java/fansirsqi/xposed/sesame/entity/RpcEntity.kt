@@ -1,5 +1,6 @@
 package fansirsqi.xposed.sesame.entity
 
+import fansirsqi.xposed.sesame.util.JsonUtil
 import lombok.Getter
 import org.json.JSONException
 import org.json.JSONObject
@@ -24,8 +25,42 @@ class RpcEntity @JvmOverloads constructor(
     var hasError = false
     @Volatile
     var responseObject: Any? = null
+
+    /**
+     * 响应字符串，仅在首次读取时由 [responseStringProvider] 生成
+     */
     @Volatile
     var responseString: String? = null
+        get() {
+            if (field == null) {
+                val provider = responseStringProvider
+                if (provider != null) {
+                    field = provider()
+                    responseStringProvider = null
+                }
+            }
+            return field
+        }
+        set(value) {
+            field = value
+            responseStringProvider = null
+        }
+
+    @Volatile
+    private var responseStringProvider: (() -> String?)? = null
+
+    /**
+     * 最近一次发出请求的本地时间，由 RpcBridge 在真正调用前写入
+     */
+    @Volatile
+    var requestTime: Long = 0
+
+    /**
+     * 收到响应的本地时间
+     */
+    @Volatile
+    var responseTime: Long = 0
+
     /**
      * 设置响应结果并标记请求已完成。
      *
@@ -33,11 +68,44 @@ class RpcEntity @JvmOverloads constructor(
      * @param resultStr 响应的字符串形式
      */
     fun setResponseObject(result: Any?, resultStr: String?) {
-        this.hasResult = true // 标记请求有结果
+        this.responseTime = System.currentTimeMillis()
         this.responseObject = result
         this.responseString = resultStr
+        this.hasResult = true // 标记请求有结果
+    }
+
+    /**
+     * 设置响应结果，字符串形式延迟到首次读取 [responseString] 时再生成。
+     *
+     * @param result           响应的对象
+     * @param resultStrProvider 生成响应字符串的函数
+     */
+    fun setResponseObject(result: Any?, resultStrProvider: () -> String?) {
+        this.responseTime = System.currentTimeMillis()
+        this.responseObject = result
+        this.responseString = null
+        this.responseStringProvider = resultStrProvider
+        this.hasResult = true
     }
 
+    /**
+     * 响应的 JSONObject 视图。每次读取都生成新对象，不在调用方之间共享，调用方可以修改。
+     * 响应对象本身是 Map（fastjson JSONObject）时直接按对象图构建，不经过字符串解析。
+     *
+     * @return 无响应时返回 null
+     * @throws JSONException 响应不是合法的 JSON 对象
+     */
+    @get:Throws(JSONException::class)
+    val responseJson: JSONObject?
+        get() {
+            val result = responseObject
+            if (result is Map<*, *>) {
+                return JsonUtil.toJSONObject(result)
+            }
+            val str = responseString ?: return null
+            return JSONObject(str)
+        }
+
     /**
      * 标记请求为错误状态。
      */
@@ -43,6 +43,7 @@ import fansirsqi.xposed.sesame.data.Config;
 import fansirsqi.xposed.sesame.data.DataCache;
 import fansirsqi.xposed.sesame.data.General;
 import fansirsqi.xposed.sesame.data.RunType;
+import fansirsqi.xposed.sesame.data.Statistics;
 import fansirsqi.xposed.sesame.data.Status;
 import fansirsqi.xposed.sesame.data.ViewAppInfo;
 import fansirsqi.xposed.sesame.entity.AlipayVersion;
@@ -66,6 +67,7 @@ import fansirsqi.xposed.sesame.util.Notify;
 import fansirsqi.xposed.sesame.util.PermissionUtil;
 import fansirsqi.xposed.sesame.util.StringUtil;
 import fansirsqi.xposed.sesame.util.TimeUtil;
+import fansirsqi.xposed.sesame.util.TimeWindows;
 import fansirsqi.xposed.sesame.util.maps.UserMap;
 import fi.iki.elonen.NanoHTTPD;
 import io.github.libxposed.api.XposedModuleInterface;
@@ -179,26 +181,10 @@ public class ApplicationHook {
                 // 如果已经错过了，就按现在+间隔补上
                 nextExecTime = now + checkInterval;
             }
-            if (execAtTimeList != null && !execAtTimeList.isEmpty()) {
-                Calendar nextCal = null;
-                for (String execAtTime : execAtTimeList) {
-                    Calendar execCal = TimeUtil.getTodayCalendarByTimeStr(execAtTime);
-                    if (execCal == null) {
-                        continue;
-                    }
-                    if (execCal.getTimeInMillis() <= now) {
-                        execCal.add(Calendar.DAY_OF_YEAR, 1);
-                    }
-                    if (nextCal == null || execCal.before(nextCal)) {
-                        nextCal = execCal;
-                    }
-                }
-                if (nextCal != null) {
-                    if (nextCal.getTimeInMillis() < nextExecTime) {
-                        nextExecTime = nextCal.getTimeInMillis();
-                        Log.record(TAG, "设置定时执行:" + TimeUtil.getTimeStr(nextExecTime));
-                    }
-                }
+            long execAtTime = TimeWindows.of(BaseModel.getExecAtTimeList()).nextPoint(now);
+            if (execAtTime > 0 && execAtTime < nextExecTime) {
+                nextExecTime = execAtTime;
+                Log.record(TAG, "设置定时执行:" + TimeUtil.getTimeStr(nextExecTime));
             }
             long delay = nextExecTime - now;
             if (delay < 0) {
@@ -458,15 +444,17 @@ public class ApplicationHook {
                 Log.printStackTrace(TAG, e);
             }
             if (wakenAtTimeList != null && !wakenAtTimeList.isEmpty()) {
-                Calendar nowCalendar = Calendar.getInstance();
+                long now = System.currentTimeMillis();
+                long todayStart = TimeWindows.dayStart(now);
                 for (int i = 1, len = wakenAtTimeList.size(); i < len; i++) {
                     try {
                         String wakenAtTime = wakenAtTimeList.get(i);
-                        Calendar wakenAtTimeCalendar = TimeUtil.getTodayCalendarByTimeStr(wakenAtTime);
-                        if (wakenAtTimeCalendar != null) {
-                            if (wakenAtTimeCalendar.compareTo(nowCalendar) > 0) {
+                        int timeOfDay = TimeWindows.parseTime(wakenAtTime, 0, wakenAtTime.length());
+                        if (timeOfDay >= 0) {
+                            long wakenAtTimeMillis = todayStart + timeOfDay;
+                            if (wakenAtTimeMillis > now) {
                                 PendingIntent wakenAtTimePendingIntent = PendingIntent.getBroadcast(appContext, i, new Intent("com.eg.android.AlipayGphone" + ".sesame.execute"), getPendingIntentFlag());
-                                if (setAlarmTask(wakenAtTimeCalendar.getTimeInMillis(), wakenAtTimePendingIntent)) {
+                                if (setAlarmTask(wakenAtTimeMillis, wakenAtTimePendingIntent)) {
                                     String wakenAtTimeKey = i + "|" + wakenAtTime;
                                     wakenAtTimeAlarmMap.put(wakenAtTimeKey, wakenAtTimePendingIntent);
                                     Log.record(TAG, "⏰ 设置定时唤醒:" + wakenAtTimeKey);
@@ -603,6 +591,7 @@ public class ApplicationHook {
                 }
                 rpcBridge.load();
                 rpcVersion = rpcBridge.getVersion();
+                RpcIntervalLimit.INSTANCE.setGlobalLimit(BaseModel.getRpcRateLimit().getValue(), BaseModel.getRpcRateLimit().getValue());
                 if (BaseModel.getNewRpc().getValue() && BaseModel.getDebugMode().getValue()) {
                     HookUtil.INSTANCE.hookRpcBridgeExtension(appLloadPackageParam, BaseModel.getSendHookData().getValue(), BaseModel.getSendHookDataUrl().getValue());
                     HookUtil.INSTANCE.hookDefaultBridgeCallback(appLloadPackageParam);
@@ -626,6 +615,26 @@ public class ApplicationHook {
         }
     }
 
+    /**
+     * 热更新当前用户的配置，模型与已排队的子任务保持运行
+     *
+     * @return 更新已就地生效时返回 true，否则需要重新初始化
+     */
+    private synchronized boolean reloadConfig(String userId) {
+        if (!init || service == null || !Config.isLoaded()) {
+            return false;
+        }
+        try {
+            if (Config.reload(userId)) {
+                Toast.show("配置已更新");
+                return true;
+            }
+        } catch (Throwable th) {
+            Log.printStackTrace(TAG, "reloadConfig", th);
+        }
+        return false;
+    }
+
     /**
      * 销毁处理程序
      *
@@ -638,6 +647,7 @@ public class ApplicationHook {
                     stopHandler();
                     BaseModel.destroyData();
                     Status.unload();
+                    Statistics.flush();
                     Notify.stop();
                     RpcIntervalLimit.INSTANCE.clearIntervalLimit();
                     Config.unload();
@@ -652,6 +662,7 @@ public class ApplicationHook {
                     rpcBridge.unload();
                     rpcBridge = null;
                 }
+                Log.flush();
             } else {
                 ModelTask.stopAllTask();
             }
@@ -870,7 +881,9 @@ public class ApplicationHook {
                 switch (action) {
                     case "com.eg.android.AlipayGphone.sesame.restart":
                         String userId = intent.getStringExtra("userId");
-                        if (StringUtil.isEmpty(userId) || Objects.equals(UserMap.getCurrentUid(), userId)) {
+                        if (StringUtil.isEmpty(userId)) {
+                            initHandler(true);
+                        } else if (Objects.equals(UserMap.getCurrentUid(), userId) && !reloadConfig(userId)) {
                             initHandler(true);
                         }
                         break;
@@ -1,54 +1,286 @@
 package fansirsqi.xposed.sesame.hook
 
+import fansirsqi.xposed.sesame.util.Files
 import fansirsqi.xposed.sesame.util.Log
-import okhttp3.Call
-import okhttp3.Callback
 import okhttp3.MediaType
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.OkHttpClient
 import okhttp3.Request
-import okhttp3.RequestBody
 import okhttp3.RequestBody.Companion.toRequestBody
-import okhttp3.Response
 import org.json.JSONObject
+import java.io.ByteArrayOutputStream
+import java.io.File
 import java.io.IOException
+import java.util.Locale
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.GZIPOutputStream
 
 /**
  * 用于发送Hook数据到DEBUG服务器
  * @author Byseven
  * @date 2025/1/17
- * @apiNote
+ * @apiNote 数据先进入有界队列，由 [Shipper] 攒批后以 gzip 压缩的 NDJSON 上传
  */
 object HookSender {
     private const val TAG = "HookSender"
-    var sendFlag: Boolean = true
-    private val client = OkHttpClient()
 
-    private val JSON_MEDIA_TYPE: MediaType? = "application/json; charset=utf-8".toMediaType()
+    @Volatile
+    private var shipper: Shipper? = null
 
     fun sendHookData(jo: JSONObject, url: String) {
-        try {
-            val body: RequestBody = jo.toString().toRequestBody(JSON_MEDIA_TYPE)
+        val current = shipper
+        val target = if (current != null && current.url == url) current else start(url)
+        target.offer(jo)
+    }
+
+    @Synchronized
+    private fun start(url: String): Shipper {
+        shipper?.let {
+            if (it.url == url) return it
+            it.stop()
+        }
+        return Shipper(url, File(Files.LOG_DIR, "hookSpill")).also {
+            it.start()
+            shipper = it
+        }
+    }
+
+    /**
+     * 已发送、已丢弃、待发送的条数
+     */
+    fun stats(): String = shipper?.stats() ?: "未启动"
+
+    /**
+     * 批量上传器。
+     *
+     * 调用方只把数据放入有界队列，队列满时丢弃并计数。单个上传线程按条数或时间攒批，同一时间只有一个请求在途，
+     * 服务器变慢时积压留在队列里而不是 OkHttp 的调度器中。上传失败时批次落盘，按指数退避重试，恢复后先补发落盘的批次。
+     *
+     * @param url 上传地址
+     * @param spillDir 落盘目录
+     * @param log 日志输出，第一个参数表示是否为错误
+     */
+    class Shipper(
+        val url: String,
+        private val spillDir: File,
+        private val batchSize: Int = 200,
+        private val flushIntervalMs: Long = 2_000,
+        queueCapacity: Int = 2_000,
+        private val maxSpillFiles: Int = 64,
+        private val client: OkHttpClient = OkHttpClient.Builder()
+            .connectTimeout(5, TimeUnit.SECONDS)
+            .writeTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(10, TimeUnit.SECONDS)
+            .build(),
+        private val log: (Boolean, String) -> Unit = { error, msg -> if (error) Log.error(TAG, msg) else Log.runtime(TAG, msg) }
+    ) {
+        private val queue = ArrayBlockingQueue<JSONObject>(queueCapacity)
+        val sent = AtomicLong()
+        val dropped = AtomicLong()
+        private val spilled = AtomicLong()
+
+        @Volatile
+        private var running = false
+        private var thread: Thread? = null
+        private var backoffMs = 0L
+        private var nextAttempt = 0L
+
+        /**
+         * 连续失败期间只记录第一次
+         */
+        private var failureLogged = false
+
+        /**
+         * 放入一条数据，不阻塞
+         */
+        fun offer(jo: JSONObject): Boolean {
+            if (queue.offer(jo)) return true
+            dropped.incrementAndGet()
+            return false
+        }
+
+        val pending: Long
+            get() = queue.size + spilled.get()
+
+        fun stats(): String = "发送:${sent.get()} 丢弃:${dropped.get()} 待发送:$pending"
+
+        @Synchronized
+        fun start() {
+            if (running) return
+            running = true
+            spilled.set(spillFiles().sumOf { countOf(it) })
+            thread = Thread({ loop() }, "HookSender").apply {
+                isDaemon = true
+                priority = Thread.MIN_PRIORITY
+                start()
+            }
+        }
+
+        /**
+         * 停止上传线程，未发送的数据落盘
+         */
+        @Synchronized
+        fun stop() {
+            running = false
+            thread?.interrupt()
+            thread = null
+        }
+
+        private fun loop() {
+            val batch = ArrayList<JSONObject>(batchSize)
+            try {
+                while (running) {
+                    collect(batch)
+                    // 落盘的批次全部补发后才发送新批次，否则新批次也落盘排在后面，保持数据顺序
+                    val drained = System.currentTimeMillis() >= nextAttempt && resendSpilled()
+                    if (batch.isNotEmpty()) {
+                        val body = encode(batch)
+                        val count = batch.size
+                        batch.clear()
+                        if (!drained || !post(body, count)) {
+                            spill(body, count)
+                        }
+                    }
+                }
+            } catch (_: InterruptedException) {
+            } catch (t: Throwable) {
+                Log.printStackTrace(TAG, t)
+            } finally {
+                queue.drainTo(batch)
+                if (batch.isNotEmpty()) spill(encode(batch), batch.size)
+            }
+        }
+
+        /**
+         * 攒满一批或距第一条超过刷新间隔时返回
+         */
+        private fun collect(batch: MutableList<JSONObject>) {
+            val first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS) ?: return
+            batch.add(first)
+            val deadline = System.currentTimeMillis() + flushIntervalMs
+            while (batch.size < batchSize) {
+                queue.drainTo(batch, batchSize - batch.size)
+                val wait = deadline - System.currentTimeMillis()
+                if (batch.size >= batchSize || wait <= 0) break
+                batch.add(queue.poll(wait, TimeUnit.MILLISECONDS) ?: break)
+            }
+        }
+
+        private fun encode(batch: List<JSONObject>): ByteArray {
+            val bytes = ByteArrayOutputStream()
+            GZIPOutputStream(bytes).bufferedWriter(Charsets.UTF_8).use { writer ->
+                for (jo in batch) {
+                    writer.write(jo.toString())
+                    writer.write("\n")
+                }
+            }
+            return bytes.toByteArray()
+        }
+
+        private fun post(body: ByteArray, count: Int): Boolean {
             val request = Request.Builder()
                 .url(url)
-                .post(body)
+                .header("Content-Encoding", "gzip")
+                .post(body.toRequestBody(NDJSON_MEDIA_TYPE))
                 .build()
-            client.newCall(request).enqueue(object : Callback {
-                override fun onFailure(call: Call, e: IOException) {
-                    if (!sendFlag) {//避免过多冗余失败记录
-                        Log.error(TAG, "Failed to send hook data: ${e.message}")
-                        sendFlag = false
+            try {
+                client.newCall(request).execute().use { response ->
+                    if (response.isSuccessful) {
+                        sent.addAndGet(count.toLong())
+                        if (failureLogged) {
+                            log(false, "Hook数据发送已恢复 ${stats()}")
+                        }
+                        failureLogged = false
+                        backoffMs = 0
+                        nextAttempt = 0
+                        return true
                     }
+                    onFailure("HTTP ${response.code}")
                 }
+            } catch (e: IOException) {
+                onFailure(e.message)
+            }
+            return false
+        }
 
-                override fun onResponse(call: Call, response: Response) {
-                    if (!response.isSuccessful) Log.error(TAG, "Failed to receive response: $response")
-//                    } else {
-//                        Log.runtime(TAG, "Hook data sent successfully.")
-//                    }
+        private fun onFailure(reason: String?) {
+            if (!failureLogged) {
+                log(true, "Failed to send hook data: $reason")
+                failureLogged = true
+            }
+            backoffMs = if (backoffMs == 0L) MIN_BACKOFF_MS else minOf(backoffMs * 2, MAX_BACKOFF_MS)
+            nextAttempt = System.currentTimeMillis() + backoffMs
+        }
+
+        private fun spillFiles(): List<File> {
+            return spillDir.listFiles { f: File -> f.name.endsWith(SPILL_SUFFIX) }?.sortedBy { it.name } ?: emptyList()
+        }
+
+        /**
+         * 落盘文件名为 时间_序号_条数，时间与序号补零，按文件名排序即为写入顺序。超过上限时删除最旧的文件并计入丢弃
+         */
+        private fun spill(body: ByteArray, count: Int) {
+            if (!spillDir.exists() && !spillDir.mkdirs()) {
+                dropped.addAndGet(count.toLong())
+                return
+            }
+            val name = String.format(Locale.ROOT, "%013d_%010d_%d", System.currentTimeMillis(), spillSeq.incrementAndGet(), count)
+            val file = File(spillDir, name + SPILL_SUFFIX)
+            val temp = File(spillDir, name + ".tmp")
+            try {
+                temp.writeBytes(body)
+                if (!temp.renameTo(file)) throw IOException("rename ${temp.name} failed")
+                spilled.addAndGet(count.toLong())
+            } catch (e: IOException) {
+                log(true, "落盘失败: ${e.message}")
+                temp.delete()
+                dropped.addAndGet(count.toLong())
+            }
+            val files = spillFiles()
+            for (i in 0 until files.size - maxSpillFiles) {
+                val lost = countOf(files[i])
+                if (files[i].delete()) {
+                    spilled.addAndGet(-lost)
+                    dropped.addAndGet(lost)
                 }
-            })
-        } catch (_: Exception) {
+            }
+        }
+
+        /**
+         * 按写入顺序补发落盘批次，每个批次成功后才删除文件
+         *
+         * @return 落盘批次是否已全部补发
+         */
+        private fun resendSpilled(): Boolean {
+            for (file in spillFiles()) {
+                if (!running) return false
+                val count = countOf(file)
+                val body = try {
+                    file.readBytes()
+                } catch (e: IOException) {
+                    log(true, "读取落盘文件失败: ${e.message}")
+                    file.delete()
+                    spilled.addAndGet(-count)
+                    dropped.addAndGet(count)
+                    continue
+                }
+                if (!post(body, count.toInt())) return false
+                file.delete()
+                spilled.addAndGet(-count)
+            }
+            return true
+        }
+
+        private fun countOf(file: File): Long {
+            return file.name.removeSuffix(SPILL_SUFFIX).substringAfterLast('_').toLongOrNull() ?: 0
         }
     }
-}
\ No newline at end of file
+
+    private const val SPILL_SUFFIX = ".ndjson.gz"
+    private const val MIN_BACKOFF_MS = 1_000L
+    private const val MAX_BACKOFF_MS = 60_000L
+    private val spillSeq = AtomicLong()
+    private val NDJSON_MEDIA_TYPE: MediaType = "application/x-ndjson; charset=utf-8".toMediaType()
+}
@@ -5,7 +5,6 @@ import de.robv.android.xposed.XC_MethodReplacement
 import de.robv.android.xposed.XposedBridge
 import de.robv.android.xposed.XposedHelpers
 import fansirsqi.xposed.sesame.data.General
-import fansirsqi.xposed.sesame.entity.UserEntity
 import fansirsqi.xposed.sesame.util.Log
 import fansirsqi.xposed.sesame.util.maps.UserMap
 import io.github.libxposed.api.XposedModuleInterface
@@ -64,7 +63,8 @@ object HookUtil {
                             val recordArray = arrayOfNulls<Any>(4).apply {
                                 this[0] = System.currentTimeMillis()
                                 this[1] = args[0] ?: "null" // method name
-                                this[2] = args[4] ?: "null" // params
+                                // 参数对象在请求过程中可能被宿主修改，这里立即转为字符串
+                                this[2] = args[4]?.toString() ?: "null" // params
                             }
                             rpcHookMap[callback] = recordArray
                         }
@@ -82,29 +82,17 @@ object HookUtil {
                                     val params = it.getOrNull(2)
                                     val data = it.getOrNull(3)
 
-                                    val dataIsNullValue: Boolean = data == null
-                                    if (!dataIsNullValue) {
-
-                                        val res = JSONObject().apply {
-                                            put("TimeStamp", time)
-                                            put("Method", method)
-                                            put("Params", params)
-                                            put("Data", data)
-                                        }
-
-                                        val prettyRecord = """
-{
-"TimeStamp": $time,
-"Method": "$method",
-"Params": $params,
-"Data": $data
-}
-""".trimIndent()
-
+                                    if (data != null) {
+                                        RpcCapture.record(time as Long, method.toString(), params.toString(), data.toString())
                                         if (isdebug) {
+                                            val res = JSONObject().apply {
+                                                put("TimeStamp", time)
+                                                put("Method", method)
+                                                put("Params", params)
+                                                put("Data", data)
+                                            }
                                             HookSender.sendHookData(res, debugUrl)
                                         }
-                                        Log.capture(prettyRecord)
                                     }
                                 } catch (e: Exception) {
                                     Log.runtime(TAG, "JSON 构建失败: ${e.message}")
@@ -267,40 +255,14 @@ object HookUtil {
 
     fun hookUser(lpparam: XposedModuleInterface.PackageLoadedParam) {
         runCatching {
-            UserMap.unload()
             val selfId = getUserId(lpparam.classLoader)
-            UserMap.setCurrentUserId(selfId) //有些地方要用到 要set一下
-            val clsUserIndependentCache = lpparam.classLoader.loadClass("com.alipay.mobile.socialcommonsdk.bizdata.UserIndependentCache")
-            val clsAliAccountDaoOp = lpparam.classLoader.loadClass("com.alipay.mobile.socialcommonsdk.bizdata.contact.data.AliAccountDaoOp")
-            val aliAccountDaoOp = XposedHelpers.callStaticMethod(clsUserIndependentCache, "getCacheObj", clsAliAccountDaoOp)
-            val allFriends = XposedHelpers.callMethod(aliAccountDaoOp, "getAllFriends") as? List<*> ?: emptyList<Any>()
-            if (allFriends.isEmpty()) return
-            val friendClass = allFriends.firstOrNull()?.javaClass ?: return
-            val userIdField = XposedHelpers.findField(friendClass, "userId")
-            val accountField = XposedHelpers.findField(friendClass, "account")
-            val nameField = XposedHelpers.findField(friendClass, "name")
-            val nickNameField = XposedHelpers.findField(friendClass, "nickName")
-            val remarkNameField = XposedHelpers.findField(friendClass, "remarkName")
-            val friendStatusField = XposedHelpers.findField(friendClass, "friendStatus")
-            var selfEntity: UserEntity? = null
-            allFriends.forEach { userObject ->
-                runCatching {
-                    val userId = userIdField.get(userObject) as? String
-                    val account = accountField.get(userObject) as? String
-                    val name = nameField.get(userObject) as? String
-                    val nickName = nickNameField.get(userObject) as? String
-                    val remarkName = remarkNameField.get(userObject) as? String
-                    val friendStatus = friendStatusField.get(userObject) as? Int
-                    val userEntity = UserEntity(userId, account, friendStatus, name, nickName, remarkName)
-                    if (userId == selfId) selfEntity = userEntity
-                    UserMap.add(userEntity)
-                }.onFailure {
-                    Log.runtime(TAG, "addUserObject err:")
-                    Log.printStackTrace(it)
-                }
+            if (selfId.isNullOrEmpty()) {
+                UserMap.unload()
+                UserMap.setCurrentUserId(selfId)
+                return
             }
-            UserMap.saveSelf(selfEntity)
-            UserMap.save(selfId)
+            // 先加载已保存的好友表，通讯录比对在后台进行
+            UserMap.initUser(selfId, lpparam.classLoader)
         }.onFailure {
             Log.printStackTrace(TAG, "hookUser 失败", it)
         }
@@ -1,6 +1,14 @@
 package fansirsqi.xposed.sesame.hook
 
 import fansirsqi.xposed.sesame.entity.RpcEntity
+import kotlinx.coroutines.suspendCancellableCoroutine
+import org.json.JSONObject
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.coroutineContext
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
 
 /**
  * @author Byseven
@@ -8,6 +16,17 @@ import fansirsqi.xposed.sesame.entity.RpcEntity
  * @apiNote
  */
 object RequestManager {
+    /**
+     * 协程上下文标记：带有此标记时挂起请求直接走同步的 [requestString]，
+     * 供阻塞模式（runBlocking）下的任务保持原来的请求行为
+     */
+    object SyncRequests : CoroutineContext.Element {
+        override val key: CoroutineContext.Key<*>
+            get() = Key
+
+        object Key : CoroutineContext.Key<SyncRequests>
+    }
+
     private fun checkResult(result: String, method: String?): String {
         check(!(result.trim { it <= ' ' }.isEmpty())) { "Empty response from RPC method: $method" }
         return result
@@ -54,9 +73,76 @@ object RequestManager {
         return checkResult(result, method)
     }
 
+    /**
+     * 请求并返回响应的 JSONObject 视图，省去响应字符串的生成与再解析
+     */
+    @JvmStatic
+    fun requestJson(rpcEntity: RpcEntity): JSONObject {
+        return requestJson(rpcEntity, 3, -1)
+    }
+
+    @JvmStatic
+    fun requestJson(rpcEntity: RpcEntity, tryCount: Int, retryInterval: Int): JSONObject {
+        val result = ApplicationHook.rpcBridge.requestObject(rpcEntity, tryCount, retryInterval)
+        return checkNotNull(result?.responseJson) { "Empty response from RPC method: ${rpcEntity.requestMethod}" }
+    }
+
     @JvmStatic
     fun requestObject(rpcEntity: RpcEntity?, tryCount: Int, retryInterval: Int) {
         ApplicationHook.rpcBridge.requestObject(rpcEntity, tryCount, retryInterval)
     }
 
+    /**
+     * 异步请求，响应为空时 Future 以异常完成
+     */
+    @JvmStatic
+    fun requestStringAsync(rpcEntity: RpcEntity): CompletableFuture<String> {
+        return requestStringAsync(rpcEntity, 3, -1)
+    }
+
+    @JvmStatic
+    fun requestStringAsync(rpcEntity: RpcEntity, tryCount: Int, retryInterval: Int): CompletableFuture<String> {
+        return requestObjectAsync(rpcEntity, tryCount, retryInterval)
+            .thenApply { checkResult(it?.responseString ?: "", rpcEntity.requestMethod) }
+    }
+
+    /**
+     * 挂起版本的 [requestString]，等待响应期间不占用线程；上下文带有 [SyncRequests] 时同步请求
+     */
+    suspend fun requestStringAwait(rpcEntity: RpcEntity, tryCount: Int = 3, retryInterval: Int = -1): String {
+        if (coroutineContext[SyncRequests.Key] != null) {
+            return requestString(rpcEntity, tryCount, retryInterval)
+        }
+        return requestStringAsync(rpcEntity, tryCount, retryInterval).awaitResult()
+    }
+
+    suspend fun requestStringAwait(method: String?, data: String?): String {
+        return requestStringAwait(RpcEntity(method, data))
+    }
+
+    suspend fun requestStringAwait(method: String?, data: String?, relation: String?): String {
+        return requestStringAwait(RpcEntity(method, data, relation))
+    }
+
+    private suspend fun <T> CompletableFuture<T>.awaitResult(): T {
+        return suspendCancellableCoroutine { cont ->
+            whenComplete { result, throwable ->
+                if (throwable == null) {
+                    cont.resume(result)
+                } else {
+                    cont.resumeWithException(if (throwable is CompletionException && throwable.cause != null) throwable.cause!! else throwable)
+                }
+            }
+            cont.invokeOnCancellation { cancel(false) }
+        }
+    }
+
+    /**
+     * 异步请求，无结果时 Future 以 null 完成，重试用完仍异常时以异常完成
+     */
+    @JvmStatic
+    fun requestObjectAsync(rpcEntity: RpcEntity, tryCount: Int, retryInterval: Int): CompletableFuture<RpcEntity?> {
+        return ApplicationHook.rpcBridge.requestAsync(rpcEntity, tryCount, retryInterval)
+    }
+
 }
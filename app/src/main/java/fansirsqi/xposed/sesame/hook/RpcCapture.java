@@ -0,0 +1,422 @@
+package fansirsqi.xposed.sesame.hook;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fansirsqi.xposed.sesame.util.Files;
+import fansirsqi.xposed.sesame.util.Log;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * RPC 抓包记录。
+ * <p>
+ * 参数在钩子中转为字符串，避免宿主之后修改参数对象；编码和写文件都在单独的写线程中完成，队列满时丢弃并计数。
+ * 记录写入 capture.bin，每条为 [总长度][时间][耗时][方法名][参数][响应]，长度均为 int，文本为 UTF-8。
+ * 文件超过 {@link #SEGMENT_SIZE} 时转为 capture.bin.1 并新建文件，抓包数据总量不超过两个分段。
+ * 追加前先截掉上次写入中断留下的不完整记录，读取时逐项检查长度，遇到损坏的记录即停止读取该分段。
+ * 读取时先按时间、方法名、耗时过滤，只有通过过滤的记录才解码参数和响应。
+ */
+public final class RpcCapture {
+    private static final String TAG = RpcCapture.class.getSimpleName();
+    private static final long SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int QUEUE_CAPACITY = 2048;
+    private static final int BATCH_SIZE = 128;
+    /**
+     * 记录体的最小长度：时间、耗时与三个文本长度
+     */
+    private static final int BODY_HEADER_SIZE = 8 + 4 + 12;
+
+    private static final BlockingQueue<Record> QUEUE = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static volatile Thread writerThread;
+    /**
+     * 写线程已确认完整的文件长度，与实际长度不同时重新检查
+     */
+    private static long validLength = -1;
+
+    private RpcCapture() {
+    }
+
+    /**
+     * 一条抓包记录
+     */
+    public static final class Record {
+        public final long time;
+        public final int duration;
+        public final String method;
+        public final String params;
+        public final String data;
+
+        Record(long time, int duration, String method, String params, String data) {
+            this.time = time;
+            this.duration = duration;
+            this.method = method;
+            this.params = params;
+            this.data = data;
+        }
+    }
+
+    /**
+     * 查询条件，未设置的条件不参与过滤
+     */
+    @Getter
+    @Setter
+    public static final class Filter {
+        /**
+         * 方法名包含的文本
+         */
+        private String method;
+        private long from;
+        private long to = Long.MAX_VALUE;
+        private int minDuration;
+        /**
+         * 参数或响应包含的文本
+         */
+        private String keyword;
+
+        /**
+         * 只按方法名过滤
+         */
+        public static Filter byMethod(String method) {
+            Filter filter = new Filter();
+            filter.method = method;
+            return filter;
+        }
+
+        boolean acceptHeader(long time, int duration, String method) {
+            return time >= from && time <= to && duration >= minDuration
+                    && (this.method == null || this.method.isEmpty() || method.contains(this.method));
+        }
+
+        boolean acceptBody(String params, String data) {
+            return keyword == null || keyword.isEmpty() || params.contains(keyword) || data.contains(keyword);
+        }
+    }
+
+    public interface Visitor {
+        /**
+         * @return 返回 false 时停止遍历
+         */
+        boolean visit(Record record);
+    }
+
+    /**
+     * 记录一次 RPC，在钩子线程中调用，不阻塞
+     *
+     * @param time   请求时间
+     * @param method 方法名
+     * @param params 参数文本
+     * @param data   响应文本
+     */
+    public static void record(long time, String method, String params, String data) {
+        Record record = new Record(time, (int) (System.currentTimeMillis() - time), method, params, data);
+        if (!QUEUE.offer(record)) {
+            DROPPED.incrementAndGet();
+            return;
+        }
+        if (writerThread == null) {
+            startWriter();
+        }
+    }
+
+    private static synchronized void startWriter() {
+        if (writerThread != null) {
+            return;
+        }
+        writerThread = new Thread(RpcCapture::drainLoop, "RpcCapture");
+        writerThread.setDaemon(true);
+        writerThread.setPriority(Thread.MIN_PRIORITY);
+        writerThread.start();
+    }
+
+    private static void drainLoop() {
+        List<Record> batch = new ArrayList<>(BATCH_SIZE);
+        long reportedDropped = 0;
+        while (true) {
+            try {
+                Record first = QUEUE.poll(30, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                QUEUE.drainTo(batch, BATCH_SIZE - 1);
+                write(batch);
+                long dropped = DROPPED.get();
+                if (dropped != reportedDropped) {
+                    Log.runtime(TAG, "抓包队列已满，累计丢弃" + dropped + "条");
+                    reportedDropped = dropped;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable t) {
+                Log.printStackTrace(TAG, "写入抓包记录失败", t);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private static void write(List<Record> batch) throws IOException {
+        File file = Files.getCaptureDataFile();
+        if (file.length() > SEGMENT_SIZE) {
+            File old = previousSegment(file);
+            if (old.exists() && !old.delete()) {
+                Log.error(TAG, "删除" + old.getName() + "失败");
+            }
+            if (!file.renameTo(old)) {
+                Log.error(TAG, "转存" + file.getName() + "失败");
+            }
+        }
+        long valid = validLength;
+        if (valid != file.length()) {
+            valid = validLength(file);
+            if (valid != file.length()) {
+                Log.runtime(TAG, "截断 " + file.getName() + " 末尾不完整的数据 " + (file.length() - valid) + "字节");
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(valid);
+                }
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024))) {
+            for (Record record : batch) {
+                byte[] method = record.method.getBytes(StandardCharsets.UTF_8);
+                byte[] params = record.params.getBytes(StandardCharsets.UTF_8);
+                byte[] data = record.data.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(BODY_HEADER_SIZE + method.length + params.length + data.length);
+                out.writeLong(record.time);
+                out.writeInt(record.duration);
+                out.writeInt(method.length);
+                out.write(method);
+                out.writeInt(params.length);
+                out.write(params);
+                out.writeInt(data.length);
+                out.write(data);
+            }
+            out.flush();
+            validLength = valid + out.size();
+        } catch (IOException e) {
+            validLength = -1;
+            throw e;
+        }
+    }
+
+    /**
+     * 从头检查记录，返回最后一条完整记录的结束位置
+     */
+    private static long validLength(File file) throws IOException {
+        if (file.length() == 0) {
+            return 0;
+        }
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        while (buffer.remaining() >= 4) {
+            int position = buffer.position();
+            int length = buffer.getInt(position);
+            if (length < BODY_HEADER_SIZE || length > buffer.remaining() - 4) {
+                break;
+            }
+            ByteBuffer body = buffer.duplicate();
+            body.position(position + 4).limit(position + 4 + length);
+            if (!wellFormed(body.slice())) {
+                break;
+            }
+            buffer.position(position + 4 + length);
+        }
+        return buffer.position();
+    }
+
+    /**
+     * 三个文本的长度都在记录范围内且恰好占满记录
+     */
+    private static boolean wellFormed(ByteBuffer body) {
+        body.position(12);
+        for (int i = 0; i < 3; i++) {
+            if (body.remaining() < 4) {
+                return false;
+            }
+            int length = body.getInt();
+            if (length < 0 || length > body.remaining()) {
+                return false;
+            }
+            body.position(body.position() + length);
+        }
+        return !body.hasRemaining();
+    }
+
+    private static File previousSegment(File file) {
+        return new File(file.getPath() + ".1");
+    }
+
+    /**
+     * 清空抓包记录，两个分段都清空
+     *
+     * @return 是否全部清空成功
+     */
+    public static boolean clear() {
+        File file = Files.getCaptureDataFile();
+        File old = previousSegment(file);
+        boolean ok = !old.exists() || old.delete();
+        if (file.exists()) {
+            // 截断而不是删除，写线程下次追加时仍写同一个文件
+            try (FileOutputStream ignored = new FileOutputStream(file, false)) {
+                Log.runtime(TAG, "已清空抓包记录");
+            } catch (IOException e) {
+                Log.printStackTrace(TAG, "清空" + file.getName() + "失败", e);
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * 按时间顺序遍历符合条件的记录
+     *
+     * @param filter  查询条件，为 null 时返回全部
+     * @param visitor 回调
+     */
+    public static void query(Filter filter, Visitor visitor) {
+        File file = Files.getCaptureDataFile();
+        for (File segment : new File[]{previousSegment(file), file}) {
+            if (!segment.exists()) {
+                continue;
+            }
+            try {
+                if (!read(segment, filter, visitor)) {
+                    return;
+                }
+            } catch (IOException e) {
+                Log.printStackTrace(TAG, "读取" + segment.getName() + "失败", e);
+            }
+        }
+    }
+
+    private static boolean read(File segment, Filter filter, Visitor visitor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment), 64 * 1024))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return true;
+                }
+                if (length < BODY_HEADER_SIZE || length > SEGMENT_SIZE * 2) {
+                    Log.error(TAG, segment.getName() + "记录长度异常，停止读取");
+                    return true;
+                }
+                byte[] body = new byte[length];
+                try {
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    // 写线程正在追加的最后一条
+                    return true;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(body);
+                if (!wellFormed(buffer.duplicate())) {
+                    Log.error(TAG, segment.getName() + "记录内容损坏，停止读取");
+                    return true;
+                }
+                long time = buffer.getLong();
+                int duration = buffer.getInt();
+                String method = text(buffer);
+                if (filter != null && !filter.acceptHeader(time, duration, method)) {
+                    continue;
+                }
+                String params = text(buffer);
+                String data = text(buffer);
+                if (filter != null && !filter.acceptBody(params, data)) {
+                    continue;
+                }
+                Record record = new Record(time, duration, method, params, data);
+                if (!visitor.visit(record)) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private static String text(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+
+    /**
+     * 把符合条件的记录导出为每行一条 JSON 的文本文件
+     *
+     * @return 导出的条数，失败时返回 -1
+     */
+    public static int export(Filter filter, File out) {
+        int[] count = {0};
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8))) {
+            IOException[] error = {null};
+            query(filter, record -> {
+                try {
+                    writer.write("{\"time\":" + record.time
+                            + ",\"method\":" + JSONObject.quote(record.method)
+                            + ",\"duration\":" + record.duration
+                            + ",\"params\":" + json(record.params)
+                            + ",\"data\":" + json(record.data) + "}\n");
+                    count[0]++;
+                    return true;
+                } catch (IOException e) {
+                    error[0] = e;
+                    return false;
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+        } catch (IOException e) {
+            Log.printStackTrace(TAG, "导出抓包记录失败", e);
+            return -1;
+        }
+        return count[0];
+    }
+
+    /**
+     * 参数与响应本身是完整的 JSON 对象或数组时按 JSON 输出，否则作为字符串输出
+     */
+    private static String json(String text) {
+        String trimmed = text.trim();
+        if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+            try {
+                JSONTokener tokener = new JSONTokener(trimmed);
+                Object value = tokener.nextValue();
+                if ((value instanceof JSONObject || value instanceof JSONArray) && !tokener.more()) {
+                    return value.toString();
+                }
+            } catch (JSONException ignored) {
+            }
+        }
+        return JSONObject.quote(text);
+    }
+}
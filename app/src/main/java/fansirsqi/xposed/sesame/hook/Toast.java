@@ -2,10 +2,45 @@ package fansirsqi.xposed.sesame.hook;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import fansirsqi.xposed.sesame.model.BaseModel;
 import fansirsqi.xposed.sesame.util.Log;
+/**
+ * 气泡提示。
+ * <p>
+ * 调用方只把消息放入队列，{@link #WINDOW} 内的消息在主线程合并为一条显示，相同消息只显示一次，
+ * 能量收取汇总为总克数与好友数。所有提示共用一个主线程 Handler。
+ */
 public class Toast {
     private static final String TAG = Toast.class.getSimpleName();
+    /**
+     * 合并窗口
+     */
+    private static final long WINDOW = 1500;
+    /**
+     * 一个窗口内最多保留的消息数，超出的丢弃
+     */
+    private static final int MAX_PENDING = 32;
+    /**
+     * 合并后最多显示的消息行数
+     */
+    private static final int MAX_LINES = 3;
+    private static volatile Handler mainHandler;
+    private static final ConcurrentLinkedQueue<CharSequence> PENDING = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger PENDING_SIZE = new AtomicInteger();
+    private static final AtomicBoolean SCHEDULED = new AtomicBoolean(false);
+    private static final AtomicLong ENERGY_GRAMS = new AtomicLong();
+    private static final AtomicInteger ENERGY_COUNT = new AtomicInteger();
+    private static final Set<String> ENERGY_FRIENDS = ConcurrentHashMap.newKeySet();
+    private static volatile CharSequence lastEnergyText;
     /**
      * 显示 Toast 消息
      *
@@ -21,36 +56,98 @@ public class Toast {
      * @param force   是否强制显示
      */
     public static void show(CharSequence message, boolean force) {
-        Context context = ApplicationHook.getAppContext();
-        if (context == null) {
-            Log.runtime(TAG, "Context is null, cannot show toast");
+        if (!force && !isEnabled()) {
             return;
         }
-        boolean shouldShow = force || (BaseModel.getShowToast() != null && BaseModel.getShowToast().getValue());
-        if (shouldShow) {
-            displayToast(context.getApplicationContext(), message);
+        if (PENDING_SIZE.incrementAndGet() > MAX_PENDING) {
+            PENDING_SIZE.decrementAndGet();
+            return;
         }
+        PENDING.offer(message);
+        schedule();
     }
     /**
-     * 显示 Toast 消息（确保在主线程中调用）
+     * 显示能量收取提示，窗口内的多次收取合并显示
      *
-     * @param context 上下文
-     * @param message 要显示的消息
+     * @param userId  被收取的用户
+     * @param grams   收取克数
+     * @param message 只有一次收取时显示的消息
      */
-    private static void displayToast(Context context, CharSequence message) {
-        try {
-            Handler mainHandler = new Handler(Looper.getMainLooper());
-            if (Looper.myLooper() == Looper.getMainLooper()) {
-                // 如果当前线程是主线程，直接显示
-                createAndShowToast(context, message);
-            } else {
-                // 在非主线程，通过 Handler 切换到主线程
-                mainHandler.post(() -> createAndShowToast(context, message));
+    public static void showEnergy(String userId, int grams, CharSequence message) {
+        if (!isEnabled()) {
+            return;
+        }
+        ENERGY_GRAMS.addAndGet(grams);
+        ENERGY_FRIENDS.add(userId);
+        lastEnergyText = message;
+        ENERGY_COUNT.incrementAndGet();
+        schedule();
+    }
+    private static boolean isEnabled() {
+        return BaseModel.getShowToast() != null && BaseModel.getShowToast().getValue();
+    }
+    private static Handler handler() {
+        Handler handler = mainHandler;
+        if (handler == null) {
+            synchronized (Toast.class) {
+                if (mainHandler == null) {
+                    mainHandler = new Handler(Looper.getMainLooper());
+                }
+                handler = mainHandler;
             }
-        } catch (Throwable t) {
-            Log.runtime(TAG, "displayToast err:");
-            Log.printStackTrace(TAG, t);
         }
+        return handler;
+    }
+    private static void schedule() {
+        if (SCHEDULED.compareAndSet(false, true)) {
+            try {
+                handler().postDelayed(Toast::flush, WINDOW);
+            } catch (Throwable t) {
+                SCHEDULED.set(false);
+                Log.printStackTrace(TAG, t);
+            }
+        }
+    }
+    /**
+     * 在主线程中合并并显示窗口内的消息
+     */
+    private static void flush() {
+        SCHEDULED.set(false);
+        Set<String> lines = new LinkedHashSet<>();
+        int count = ENERGY_COUNT.getAndSet(0);
+        if (count > 0) {
+            long grams = ENERGY_GRAMS.getAndSet(0);
+            int friends = ENERGY_FRIENDS.size();
+            ENERGY_FRIENDS.clear();
+            lines.add(count == 1 ? String.valueOf(lastEnergyText) : "收取能量+" + grams + "g 来自" + friends + "位好友 共" + count + "次");
+        }
+        CharSequence message;
+        while ((message = PENDING.poll()) != null) {
+            PENDING_SIZE.decrementAndGet();
+            lines.add(message.toString());
+        }
+        if (lines.isEmpty()) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        int shown = 0;
+        for (String line : lines) {
+            if (shown == MAX_LINES) {
+                text.append("\n…等").append(lines.size()).append("条");
+                break;
+            }
+            if (shown > 0) {
+                text.append('\n');
+            }
+            text.append(line);
+            shown++;
+        }
+        Context context = ApplicationHook.getAppContext();
+        if (context == null) {
+            Log.runtime(TAG, "Context is null, cannot show toast");
+            return;
+        }
+        createAndShowToast(context.getApplicationContext(), text);
     }
     /**
      * 创建并显示 Toast
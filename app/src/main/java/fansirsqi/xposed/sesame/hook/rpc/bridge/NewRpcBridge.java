@@ -1,11 +1,18 @@
 package fansirsqi.xposed.sesame.hook.rpc.bridge;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import de.robv.android.xposed.XposedHelpers;
 import fansirsqi.xposed.sesame.data.General;
@@ -13,6 +20,7 @@ import fansirsqi.xposed.sesame.entity.RpcEntity;
 import fansirsqi.xposed.sesame.hook.ApplicationHook;
 import fansirsqi.xposed.sesame.hook.rpc.intervallimit.RpcIntervalLimit;
 import fansirsqi.xposed.sesame.model.BaseModel;
+import fansirsqi.xposed.sesame.util.GlobalThreadPools;
 import fansirsqi.xposed.sesame.util.Log;
 import fansirsqi.xposed.sesame.util.Notify;
 import fansirsqi.xposed.sesame.util.RandomUtil;
@@ -26,8 +34,11 @@ public class NewRpcBridge implements RpcBridge {
     private ClassLoader loader;
     private Object newRpcInstance;
     private Method parseObjectMethod;
-    private Class<?>[] bridgeCallbackClazzArray;
+    private Method toJSONStringMethod;
+    private Method containsKeyMethod;
+    private Method getStringMethod;
     private Method newRpcCallMethod;
+    private BridgeCallbackDispatcher callbackDispatcher;
     private final AtomicInteger maxErrorCount = new AtomicInteger(0);
     private final Integer setMaxErrorCount = BaseModel.getSetMaxErrorCount().getValue();
 
@@ -73,8 +84,12 @@ public class NewRpcBridge implements RpcBridge {
                 }
             }
             parseObjectMethod = loader.loadClass("com.alibaba.fastjson.JSON").getMethod("parseObject", String.class);
+            Class<?> jsonObjectClazz = loader.loadClass(General.JSON_OBJECT_NAME);
+            toJSONStringMethod = jsonObjectClazz.getMethod("toJSONString");
+            containsKeyMethod = jsonObjectClazz.getMethod("containsKey", Object.class);
+            getStringMethod = jsonObjectClazz.getMethod("getString", String.class);
             Class<?> bridgeCallbackClazz = loader.loadClass("com.alibaba.ariver.engine.api.bridge.extension.BridgeCallback");
-            bridgeCallbackClazzArray = new Class[]{bridgeCallbackClazz};
+            callbackDispatcher = new BridgeCallbackDispatcher(loader, bridgeCallbackClazz);
             newRpcCallMethod = newRpcInstance.getClass().getMethod("rpc"
                     , String.class
                     , boolean.class
@@ -103,7 +118,13 @@ public class NewRpcBridge implements RpcBridge {
     @Override
     public void unload() {
         newRpcCallMethod = null;
-        bridgeCallbackClazzArray = null;
+        if (callbackDispatcher != null) {
+            callbackDispatcher.clear();
+            callbackDispatcher = null;
+        }
+        getStringMethod = null;
+        containsKeyMethod = null;
+        toJSONStringMethod = null;
         parseObjectMethod = null;
         newRpcInstance = null;
         loader = null;
@@ -128,110 +149,335 @@ public class NewRpcBridge implements RpcBridge {
                 count++;
                 try {
                     RpcIntervalLimit.INSTANCE.enterIntervalLimit(rpcEntity.getRequestMethod());
-                    newRpcCallMethod.invoke(
-                            newRpcInstance, rpcEntity.getRequestMethod(), false, false, "json", parseObjectMethod.invoke(null,
-                                    rpcEntity.getRpcFullRequestData()), "", null, true, false, 0, false, "", null, null, null, Proxy.newProxyInstance(loader,
-                                    bridgeCallbackClazzArray, (proxy, innerMethod, args) -> {
-                                        if ("equals".equals(innerMethod.getName())) {
-                                            return proxy == args[0];
-                                        }
-                                        if ("hashCode".equals(innerMethod.getName())) {
-                                            return System.identityHashCode(proxy);
-                                        }
-                                        if ("toString".equals(innerMethod.getName())) {
-                                            return "Proxy for " + bridgeCallbackClazzArray[0].getName();
-                                        }
-                                        if (args != null && args.length == 1 && "sendJSONResponse".equals(innerMethod.getName())) {
-                                            try {
-                                                Object obj = args[0];
-                                                rpcEntity.setResponseObject(obj, (String) XposedHelpers.callMethod(obj, "toJSONString"));
-                                                if (!(Boolean) XposedHelpers.callMethod(obj, "containsKey", "success")
-                                                        && !(Boolean) XposedHelpers.callMethod(obj, "containsKey", "isSuccess")) {
-                                                    rpcEntity.setError();
-                                                    Log.error(TAG, "new rpc response | id: " + rpcEntity.hashCode() + " | method: " + rpcEntity.getRequestMethod() + "\n " +
-                                                            "args: " + rpcEntity.getRequestData() + " |\n data: " + rpcEntity.getResponseString());
-                                                }
-                                            } catch (Exception e) {
-                                                rpcEntity.setError();
-                                                Log.error(TAG, "new rpc response | id: " + rpcEntity.hashCode() + " | method: " + rpcEntity.getRequestMethod() +
-                                                        " err:");
-                                                Log.printStackTrace(e);
-                                            }
-                                        }
-                                        return null;
-                                    })
-                    );
+                    long callId = invokeRpc(rpcEntity, null);
                     if (!rpcEntity.getHasResult()) {
+                        BridgeCallbackDispatcher dispatcher = callbackDispatcher;
+                        if (dispatcher != null) {
+                            dispatcher.cancel(callId);
+                        }
                         return null;
                     }
                     if (!rpcEntity.getHasError()) {
                         return rpcEntity;
                     }
                     try {
-                        String errorCode = (String) XposedHelpers.callMethod(rpcEntity.getResponseObject(), "getString", "error");
-                        String errorMessage = (String) XposedHelpers.callMethod(rpcEntity.getResponseObject(), "getString", "errorMessage");
-                        String response = rpcEntity.getResponseString();
-                        String methodName = rpcEntity.getRequestMethod();
-
-                        if (errorMark.contains(errorCode) || errorStringMark.contains(errorMessage)) {
-                            int currentErrorCount = maxErrorCount.incrementAndGet();
-                            if (!ApplicationHook.isOffline()) {
-                                if (currentErrorCount > setMaxErrorCount) {
-                                    ApplicationHook.setOffline(true);
-                                    Notify.updateStatusText("网络连接异常，已进入离线模式");
-                                    if (BaseModel.getErrNotify().getValue()) {
-                                        Notify.sendErrorNotification(TimeUtil.getTimeStr() + " | 网络异常次数超过阈值[" + setMaxErrorCount + "]", response);
-                                    }
-                                }
-                                if (BaseModel.getErrNotify().getValue()) {
-                                    Notify.sendErrorNotification(TimeUtil.getTimeStr() + " | 网络异常: " + methodName, response);
-                                }
-                                if (BaseModel.getTimeoutRestart().getValue()) {
-                                    Log.record(TAG, "尝试重新登录");
-                                    ApplicationHook.reLoginByBroadcast();
-                                }
-                            }
-                            return null;
-                        }
-                        return rpcEntity;
+                        return checkErrorResponse(rpcEntity);
                     } catch (Exception e) {
                         Log.error(TAG, "new rpc response | id: " + rpcEntity.hashCode() + " | method: " + rpcEntity.getRequestMethod() + " get err:");
                         Log.printStackTrace(e);
                     }
-                    if (retryInterval < 0) {
-                        try {
-                            Thread.sleep(600 + RandomUtil.delay());
-                        } catch (InterruptedException e) {
-                            Log.printStackTrace(e);
-                        }
-                    } else if (retryInterval > 0) {
-                        try {
-                            Thread.sleep(retryInterval);
-                        } catch (InterruptedException e) {
-                            Log.printStackTrace(e);
-                        }
-                    }
+                    sleepBeforeRetry(retryInterval);
                 } catch (Throwable t) {
                     Log.error(TAG, "new rpc request | id: " + rpcEntity.hashCode() + " | method: " + rpcEntity.getRequestMethod() + " err:");
                     Log.printStackTrace(t);
-                    if (retryInterval < 0) {
-                        try {
-                            Thread.sleep(600 + RandomUtil.delay());
-                        } catch (InterruptedException e) {
-                            Log.printStackTrace(e);
-                        }
-                    } else if (retryInterval > 0) {
-                        try {
-                            Thread.sleep(retryInterval);
-                        } catch (InterruptedException e) {
-                            Log.printStackTrace(e);
-                        }
-                    }
+                    sleepBeforeRetry(retryInterval);
                 }
             } while (count < tryCount);
             return null;
         } finally {
-            Log.system(TAG, "New RPC\n方法: " + rpcEntity.getRequestMethod() + "\n参数: " + rpcEntity.getRequestData() + "\n数据: " + rpcEntity.getResponseString() + "\n");
+            logRequest(rpcEntity);
+        }
+    }
+
+    /**
+     * 异步请求：响应由 BridgeCallback.sendJSONResponse 回调直接完成 Future，
+     * 重试通过延时调度实现，等待期间不占用线程。
+     */
+    @Override
+    public CompletableFuture<RpcEntity> requestAsync(RpcEntity rpcEntity, int tryCount, int retryInterval) {
+        CompletableFuture<RpcEntity> future = new CompletableFuture<>();
+        if (ApplicationHook.isOffline()) {
+            future.complete(null);
+            return future;
+        }
+        future.whenComplete((result, throwable) -> logRequest(rpcEntity));
+        scheduleAsyncAttempt(rpcEntity, future, 1, tryCount, retryInterval, 0);
+        return future;
+    }
+
+    private void scheduleAsyncAttempt(RpcEntity rpcEntity, CompletableFuture<RpcEntity> future, int count, int tryCount, int retryInterval, long delay) {
+        try {
+            GlobalThreadPools.getRpcAsyncExecutor().schedule(() -> asyncAttempt(rpcEntity, future, count, tryCount, retryInterval), delay, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.printStackTrace(TAG, e);
+            future.complete(null);
+        }
+    }
+
+    private void asyncAttempt(RpcEntity rpcEntity, CompletableFuture<RpcEntity> future, int count, int tryCount, int retryInterval) {
+        if (future.isDone()) {
+            return;
+        }
+        if (newRpcCallMethod == null || ApplicationHook.isOffline()) {
+            future.complete(null);
+            return;
+        }
+        String method = rpcEntity.getRequestMethod();
+        if (!RpcIntervalLimit.INSTANCE.tryAcquire(method)) {
+            // 未取得令牌时不占用线程等待，按预计可用时间重新调度
+            scheduleAsyncAttempt(rpcEntity, future, count, tryCount, retryInterval, Math.max(1, RpcIntervalLimit.INSTANCE.nextAvailableDelay(method)));
+            return;
+        }
+        AtomicBoolean responded = new AtomicBoolean(false);
+        try {
+            long callId = invokeRpc(rpcEntity, () -> {
+                if (responded.compareAndSet(false, true)) {
+                    completeAsync(rpcEntity, future, count, tryCount, retryInterval);
+                }
+            });
+            // 与同步请求一致：invoke 返回时仍未回调视为无结果，立即以 null 完成
+            if (responded.compareAndSet(false, true)) {
+                BridgeCallbackDispatcher dispatcher = callbackDispatcher;
+                if (dispatcher != null) {
+                    dispatcher.cancel(callId);
+                }
+                future.complete(null);
+            }
+        } catch (Throwable t) {
+            if (!responded.compareAndSet(false, true)) {
+                return;
+            }
+            Log.error(TAG, "new rpc async request | id: " + rpcEntity.hashCode() + " | method: " + rpcEntity.getRequestMethod() + " err:");
+            Log.printStackTrace(t);
+            retryAsync(rpcEntity, future, count, tryCount, retryInterval, t);
+        }
+    }
+
+    private void completeAsync(RpcEntity rpcEntity, CompletableFuture<RpcEntity> future, int count, int tryCount, int retryInterval) {
+        if (!rpcEntity.getHasError()) {
+            future.complete(rpcEntity);
+            return;
+        }
+        try {
+            future.complete(checkErrorResponse(rpcEntity));
+        } catch (Exception e) {
+            Log.error(TAG, "new rpc async response | id: " + rpcEntity.hashCode() + " | method: " + rpcEntity.getRequestMethod() + " get err:");
+            Log.printStackTrace(e);
+            retryAsync(rpcEntity, future, count, tryCount, retryInterval, e);
+        }
+    }
+
+    /**
+     * 重试次数用完时以最后一次的异常完成，由调用方处理失败，不再另行同步请求
+     */
+    private void retryAsync(RpcEntity rpcEntity, CompletableFuture<RpcEntity> future, int count, int tryCount, int retryInterval, Throwable cause) {
+        if (count >= tryCount) {
+            future.completeExceptionally(cause);
+            return;
+        }
+        scheduleAsyncAttempt(rpcEntity, future, count + 1, tryCount, retryInterval, getRetryDelay(retryInterval));
+    }
+
+    /**
+     * 发起一次 rpc 调用，响应写入 rpcEntity
+     *
+     * @param rpcEntity  请求实体
+     * @param onResponse 收到 sendJSONResponse 回调后执行，可为 null
+     * @return 本次调用的关联 id，可用于 {@link BridgeCallbackDispatcher#cancel(long)}
+     */
+    private long invokeRpc(RpcEntity rpcEntity, Runnable onResponse) throws Exception {
+        BridgeCallbackDispatcher dispatcher = callbackDispatcher;
+        if (dispatcher == null) {
+            throw new IllegalStateException("rpc bridge unloaded");
+        }
+        BridgeCallbackDispatcher.Lease lease = dispatcher.register(new PendingCall(rpcEntity, onResponse));
+        rpcEntity.setRequestTime(System.currentTimeMillis());
+        try {
+            newRpcCallMethod.invoke(
+                    newRpcInstance, rpcEntity.getRequestMethod(), false, false, "json", parseObjectMethod.invoke(null,
+                            rpcEntity.getRpcFullRequestData()), "", null, true, false, 0, false, "", null, null, null, lease.callback
+            );
+        } catch (Exception e) {
+            dispatcher.cancel(lease.id);
+            throw e;
+        }
+        return lease.id;
+    }
+
+    /**
+     * 处理 sendJSONResponse 回调的响应对象
+     */
+    private void handleResponse(PendingCall call, Object obj) {
+        RpcEntity rpcEntity = call.rpcEntity;
+        try {
+            // 卸载后仍可能读取响应字符串，这里持有方法句柄
+            Method toJSONString = toJSONStringMethod;
+            rpcEntity.setResponseObject(obj, () -> toJSONString(toJSONString, obj));
+            if (!(Boolean) containsKeyMethod.invoke(obj, "success")
+                    && !(Boolean) containsKeyMethod.invoke(obj, "isSuccess")) {
+                rpcEntity.setError();
+                Log.error(TAG, "new rpc response | id: " + rpcEntity.hashCode() + " | method: " + rpcEntity.getRequestMethod() + "\n " +
+                        "args: " + rpcEntity.getRequestData() + " |\n data: " + rpcEntity.getResponseString());
+            }
+        } catch (Exception e) {
+            rpcEntity.setError();
+            Log.error(TAG, "new rpc response | id: " + rpcEntity.hashCode() + " | method: " + rpcEntity.getRequestMethod() +
+                    " err:");
+            Log.printStackTrace(e);
+        }
+        if (call.onResponse != null) {
+            call.onResponse.run();
+        }
+    }
+
+    private static String toJSONString(Method toJSONStringMethod, Object obj) {
+        try {
+            return (String) toJSONStringMethod.invoke(obj);
+        } catch (Exception e) {
+            Log.printStackTrace(TAG, e);
+            return null;
+        }
+    }
+
+    /**
+     * 处理带错误标记的响应，网络类错误计数并可能进入离线模式
+     *
+     * @return 网络类错误返回 null，其余错误原样返回 rpcEntity
+     * @throws Exception 读取错误字段失败，调用方应重试
+     */
+    private RpcEntity checkErrorResponse(RpcEntity rpcEntity) throws Exception {
+        String errorCode = (String) getStringMethod.invoke(rpcEntity.getResponseObject(), "error");
+        String errorMessage = (String) getStringMethod.invoke(rpcEntity.getResponseObject(), "errorMessage");
+        String response = rpcEntity.getResponseString();
+        String methodName = rpcEntity.getRequestMethod();
+
+        if (errorMark.contains(errorCode) || errorStringMark.contains(errorMessage)) {
+            int currentErrorCount = maxErrorCount.incrementAndGet();
+            if (!ApplicationHook.isOffline()) {
+                if (currentErrorCount > setMaxErrorCount) {
+                    ApplicationHook.setOffline(true);
+                    Notify.updateStatusText("网络连接异常，已进入离线模式");
+                    if (BaseModel.getErrNotify().getValue()) {
+                        Notify.sendErrorNotification(TimeUtil.getTimeStr() + " | 网络异常次数超过阈值[" + setMaxErrorCount + "]", response);
+                    }
+                }
+                if (BaseModel.getErrNotify().getValue()) {
+                    Notify.sendErrorNotification(TimeUtil.getTimeStr() + " | 网络异常: " + methodName, response);
+                }
+                if (BaseModel.getTimeoutRestart().getValue()) {
+                    Log.record(TAG, "尝试重新登录");
+                    ApplicationHook.reLoginByBroadcast();
+                }
+            }
+            return null;
+        }
+        return rpcEntity;
+    }
+
+    private static long getRetryDelay(int retryInterval) {
+        if (retryInterval < 0) {
+            return 600 + RandomUtil.delay();
+        }
+        return retryInterval;
+    }
+
+    private static void sleepBeforeRetry(int retryInterval) {
+        long delay = getRetryDelay(retryInterval);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Log.printStackTrace(e);
+            }
+        }
+    }
+
+    private static void logRequest(RpcEntity rpcEntity) {
+        Log.system(TAG, () -> "New RPC\n方法: " + rpcEntity.getRequestMethod() + "\n参数: " + rpcEntity.getRequestData() + "\n数据: " + rpcEntity.getResponseString() + "\n");
+    }
+
+    /**
+     * 一次等待回调的调用
+     */
+    private static final class PendingCall {
+        final RpcEntity rpcEntity;
+        final Runnable onResponse;
+
+        PendingCall(RpcEntity rpcEntity, Runnable onResponse) {
+            this.rpcEntity = rpcEntity;
+            this.onResponse = onResponse;
+        }
+    }
+
+    /**
+     * 复用的 BridgeCallback 分发器。
+     * <p>
+     * 代理类构造器在 load 时解析一次，所有代理共用同一个 InvocationHandler；
+     * 每个代理实例只绑定一次调用，回调时按代理找回对应的 RpcEntity。
+     * 代理不复用：宿主对同一代理迟到或重复的 sendJSONResponse 找不到调用，直接丢弃，不会串到其他请求上。
+     */
+    private final class BridgeCallbackDispatcher implements InvocationHandler {
+        private final String callbackName;
+        private final Constructor<?> proxyConstructor;
+        private final AtomicLong idGenerator = new AtomicLong();
+        /**
+         * 代理实例 -> 当前绑定的关联 id，代理的 equals/hashCode 为对象标识
+         */
+        private final Map<Object, Long> callbackIds = new ConcurrentHashMap<>();
+        private final Map<Long, PendingCall> pendingCalls = new ConcurrentHashMap<>();
+
+        final class Lease {
+            final long id;
+            final Object callback;
+
+            Lease(long id, Object callback) {
+                this.id = id;
+                this.callback = callback;
+            }
+        }
+
+        @SuppressWarnings("deprecation")
+        BridgeCallbackDispatcher(ClassLoader loader, Class<?> bridgeCallbackClazz) throws NoSuchMethodException {
+            callbackName = "Proxy for " + bridgeCallbackClazz.getName();
+            proxyConstructor = Proxy.getProxyClass(loader, bridgeCallbackClazz).getConstructor(InvocationHandler.class);
+        }
+
+        Lease register(PendingCall call) throws Exception {
+            Object callback = proxyConstructor.newInstance(this);
+            long id = idGenerator.incrementAndGet();
+            pendingCalls.put(id, call);
+            callbackIds.put(callback, id);
+            return new Lease(id, callback);
+        }
+
+        /**
+         * 放弃等待指定调用
+         */
+        void cancel(long id) {
+            if (pendingCalls.remove(id) != null) {
+                callbackIds.values().remove(id);
+            }
+        }
+
+        void clear() {
+            pendingCalls.clear();
+            callbackIds.clear();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            if ("toString".equals(name)) {
+                return callbackName;
+            }
+            if (args != null && args.length == 1 && "sendJSONResponse".equals(name)) {
+                Long id = callbackIds.remove(proxy);
+                if (id == null) {
+                    return null;
+                }
+                PendingCall call = pendingCalls.remove(id);
+                if (call == null) {
+                    return null;
+                }
+                handleResponse(call, args[0]);
+            }
+            return null;
         }
     }
 }
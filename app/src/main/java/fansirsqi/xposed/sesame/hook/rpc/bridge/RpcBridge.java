@@ -1,5 +1,8 @@
 package fansirsqi.xposed.sesame.hook.rpc.bridge;
+import java.util.concurrent.CompletableFuture;
+
 import fansirsqi.xposed.sesame.entity.RpcEntity;
+import fansirsqi.xposed.sesame.util.GlobalThreadPools;
 public interface RpcBridge {
     RpcVersion getVersion();
     void load() throws Exception;
@@ -37,4 +40,24 @@ public interface RpcBridge {
     default RpcEntity requestObject(String method, String data, String relation, int tryCount, int retryInterval) {
         return requestObject(new RpcEntity(method, data, relation), tryCount, retryInterval);
     }
+
+    /**
+     * 异步请求。离线、无结果或网络类错误时 Future 以 null 完成，与 requestObject 的返回约定一致；
+     * 重试用完仍异常时以异常完成，调用方应直接处理失败，不要再发一次同步请求。
+     * 默认实现把阻塞调用放到 {@link GlobalThreadPools.Workload#RPC_BLOCKING} 线程池，不占用 RPC 调度线程；
+     * 支持回调的实现应覆盖此方法。
+     *
+     * @param rpcEntity     要发送的 RPC 实体
+     * @param tryCount      重试次数
+     * @param retryInterval 重试间隔
+     * @return 响应实体的 Future
+     */
+    default CompletableFuture<RpcEntity> requestAsync(RpcEntity rpcEntity, int tryCount, int retryInterval) {
+        return CompletableFuture.supplyAsync(() -> requestObject(rpcEntity, tryCount, retryInterval),
+                GlobalThreadPools.getPool(GlobalThreadPools.Workload.RPC_BLOCKING));
+    }
+
+    default CompletableFuture<RpcEntity> requestAsync(RpcEntity rpcEntity) {
+        return requestAsync(rpcEntity, 3, -1);
+    }
 }
@@ -1,14 +1,61 @@
 package fansirsqi.xposed.sesame.hook.rpc.intervallimit
 
-import fansirsqi.xposed.sesame.util.GlobalThreadPools
 import fansirsqi.xposed.sesame.util.Log
+import java.util.IdentityHashMap
+import java.util.PriorityQueue
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
 
+/**
+ * RPC 限流器。
+ *
+ * 每个间隔限制对象对应一个令牌桶，共用同一个限制对象的方法共用一个桶；更新方法的限制时，
+ * 原桶不再被其他方法使用则迁移到新的限制对象下原地更新，已积攒的令牌与排队的等待者都保留，不会因换桶而突发；
+ * 另有一个可选的全局桶限制所有方法的总速率。
+ * 等待时不持有任何监视器，同一个桶的等待者按 [RpcPriority] 高者优先、同优先级先来后到取令牌；
+ * 多个等待者同时就绪时高优先级先发出，是否开启全局限速都一样。
+ */
 object RpcIntervalLimit {
     private const val TAG = "RpcIntervalLimit"
     private const val DEFAULT_INTERVAL = 500
+
+    /**
+     * 让给已就绪的高优先级等待者时的等待，对方取走令牌后会通知，这里只是兜底
+     */
+    private const val PRIORITY_YIELD_WAIT = 10L
+
     private val DEFAULT_INTERVAL_LIMIT = DefaultIntervalLimit(DEFAULT_INTERVAL)
     private val intervalLimitMap = ConcurrentHashMap<String, IntervalLimit>()
+    private val priorityMap = ConcurrentHashMap<String, RpcPriority>()
+
+    private val lock = ReentrantLock(true)
+    private val condition = lock.newCondition()
+
+    /**
+     * 以限制对象为键，保证共用限制对象的方法共用同一个桶，仅在持锁时访问
+     */
+    private val bucketMap = IdentityHashMap<IntervalLimit, TokenBucket>()
+    private var globalBucket: TokenBucket? = null
+    private val waiters = PriorityQueue<Waiter>()
+    private var waiterSeq = 0L
+
+    /**
+     * 等待者只记录方法，桶在每次计算时按当前限制查找，限制更新后排队中的等待者也使用新桶
+     */
+    private class Waiter(
+        val method: String,
+        val priority: RpcPriority,
+        val seq: Long
+    ) : Comparable<Waiter> {
+        val bucket: TokenBucket
+            get() = bucketOf(limitOf(method))
+
+        override fun compareTo(other: Waiter): Int {
+            val byPriority = other.priority.compareTo(priority)
+            return if (byPriority != 0) byPriority else seq.compareTo(other.seq)
+        }
+    }
 
     /**
      * 为指定方法添加间隔限制。
@@ -27,6 +74,17 @@ object RpcIntervalLimit {
      * @param intervalLimit 自定义的间隔限制对象
      */
     fun addIntervalLimit(method: String, intervalLimit: IntervalLimit) {
+        addIntervalLimit(method, intervalLimit, 1)
+    }
+
+    /**
+     * 为指定方法添加间隔限制，并允许积攒 burst 个令牌用于突发请求。
+     *
+     * @param method 方法名称
+     * @param intervalLimit 自定义的间隔限制对象
+     * @param burst 令牌桶容量
+     */
+    fun addIntervalLimit(method: String, intervalLimit: IntervalLimit, burst: Int) {
         synchronized(intervalLimitMap) {
             if (intervalLimitMap.containsKey(method)) {
                 Log.runtime(TAG, "方法：$method 间隔限制已存在")
@@ -34,6 +92,7 @@ object RpcIntervalLimit {
             }
             intervalLimitMap[method] = intervalLimit
         }
+        withLock { bucketOf(intervalLimit).update(intervalLimit, burst) }
     }
 
     /**
@@ -53,7 +112,54 @@ object RpcIntervalLimit {
      * @param intervalLimit 新的自定义间隔限制对象
      */
     fun updateIntervalLimit(method: String, intervalLimit: IntervalLimit) {
-        intervalLimitMap[method] = intervalLimit
+        updateIntervalLimit(method, intervalLimit, 1)
+    }
+
+    /**
+     * 更新指定方法的间隔限制对象与令牌桶容量。
+     *
+     * @param method 方法名称
+     * @param intervalLimit 新的自定义间隔限制对象
+     * @param burst 令牌桶容量
+     */
+    fun updateIntervalLimit(method: String, intervalLimit: IntervalLimit, burst: Int) {
+        withLock {
+            val old = intervalLimitMap.put(method, intervalLimit)
+            if (old != null && old !== intervalLimit && intervalLimitMap.values.none { it === old }) {
+                // 原桶已无其他方法使用，移除旧键，新限制还没有桶时沿用原桶
+                val oldBucket = bucketMap.remove(old)
+                if (oldBucket != null && !bucketMap.containsKey(intervalLimit)) {
+                    bucketMap[intervalLimit] = oldBucket
+                }
+            }
+            bucketOf(intervalLimit).update(intervalLimit, burst)
+            condition.signalAll()
+        }
+    }
+
+    /**
+     * 设置方法的优先级，未设置的方法为 [RpcPriority.NORMAL]
+     */
+    fun setPriority(method: String, priority: RpcPriority) {
+        priorityMap[method] = priority
+        withLock { condition.signalAll() }
+    }
+
+    /**
+     * 设置所有方法共享的全局速率。
+     *
+     * @param permitsPerSecond 每秒允许的请求数，小于等于 0 表示不限制
+     * @param burst 全局令牌桶容量
+     */
+    fun setGlobalLimit(permitsPerSecond: Int, burst: Int = permitsPerSecond) {
+        withLock {
+            globalBucket = if (permitsPerSecond > 0) {
+                TokenBucket(DefaultIntervalLimit(1000 / permitsPerSecond), burst)
+            } else {
+                null
+            }
+            condition.signalAll()
+        }
     }
 
     /**
@@ -62,21 +168,80 @@ object RpcIntervalLimit {
      * @param method 方法名称
      */
     fun enterIntervalLimit(method: String) {
-        val intervalLimit = intervalLimitMap.getOrDefault(method, DEFAULT_INTERVAL_LIMIT)
-        val lock = requireNotNull(intervalLimit) { "间隔限制对象不能为空" }
+        try {
+            acquire(method, -1, TimeUnit.MILLISECONDS)
+        } catch (e: InterruptedException) {
+            Log.error(TAG, "Thread sleep interrupted " + e.message)
+            Thread.currentThread().interrupt()
+        }
+    }
 
-        synchronized(lock) {
-            // 解决 Int? 的问题，使用默认值兜底
-            val interval = intervalLimit.interval ?: DEFAULT_INTERVAL
+    /**
+     * 非阻塞地尝试取得一次调用许可，排在同一个桶内同优先级及更高优先级的阻塞等待者之后。
+     *
+     * @param method 方法名称
+     * @return 是否取得许可
+     */
+    fun tryAcquire(method: String): Boolean {
+        return withLock {
+            val waiter = asyncWaiter(method)
             val now = System.currentTimeMillis()
-            val lastTime = intervalLimit.time
-            val sleep = interval - (now - lastTime)
-
-            if (sleep > 0) {
-                GlobalThreadPools.sleep(sleep)
+            if (waitTimeFor(waiter, now) == 0L) {
+                take(waiter, now)
+                true
+            } else {
+                false
             }
+        }
+    }
 
-            intervalLimit.time = now
+    /**
+     * 估算指定方法最早可取得许可的等待时间，供非阻塞调用方安排重试。
+     *
+     * @param method 方法名称
+     * @return 等待毫秒数，0 表示当前可取
+     */
+    fun nextAvailableDelay(method: String): Long {
+        return withLock {
+            waitTimeFor(asyncWaiter(method), System.currentTimeMillis())
+        }
+    }
+
+    /**
+     * 在超时时间内等待一次调用许可。
+     *
+     * @param method 方法名称
+     * @param timeout 超时时间，小于 0 表示一直等待
+     * @param unit 时间单位
+     * @return 是否取得许可
+     */
+    @Throws(InterruptedException::class)
+    fun acquire(method: String, timeout: Long, unit: TimeUnit): Boolean {
+        val deadline = if (timeout < 0) Long.MAX_VALUE else System.currentTimeMillis() + unit.toMillis(timeout)
+        lock.lockInterruptibly()
+        try {
+            val waiter = Waiter(method, priorityOf(method), waiterSeq++)
+            waiters.add(waiter)
+            try {
+                while (true) {
+                    val now = System.currentTimeMillis()
+                    val wait = waitTimeFor(waiter, now)
+                    if (wait == 0L) {
+                        take(waiter, now)
+                        return true
+                    }
+                    val remaining = deadline - now
+                    if (remaining <= 0) {
+                        return false
+                    }
+                    condition.await(minOf(wait, remaining), TimeUnit.MILLISECONDS)
+                }
+            } finally {
+                waiters.remove(waiter)
+                condition.signalAll()
+            }
+        } finally {
+            lock.unlock()
         }
     }
 
@@ -85,5 +250,78 @@ object RpcIntervalLimit {
      */
     fun clearIntervalLimit() {
         intervalLimitMap.clear()
+        priorityMap.clear()
+        withLock {
+            bucketMap.clear()
+            globalBucket = null
+            condition.signalAll()
+        }
+    }
+
+    private inline fun <T> withLock(block: () -> T): T {
+        lock.lock()
+        try {
+            return block()
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    private fun limitOf(method: String): IntervalLimit {
+        return intervalLimitMap[method] ?: DEFAULT_INTERVAL_LIMIT
+    }
+
+    private fun priorityOf(method: String): RpcPriority {
+        return priorityMap[method] ?: RpcPriority.NORMAL
+    }
+
+    /**
+     * 需持锁调用
+     */
+    private fun bucketOf(intervalLimit: IntervalLimit): TokenBucket {
+        return bucketMap.getOrPut(intervalLimit) { TokenBucket(intervalLimit) }
+    }
+
+    /**
+     * 非阻塞调用方不进入等待队列，序号取最大，排在所有同优先级等待者之后，需持锁调用
+     */
+    private fun asyncWaiter(method: String): Waiter {
+        return Waiter(method, priorityOf(method), Long.MAX_VALUE)
+    }
+
+    /**
+     * 计算等待者还需等待的时间，需持锁调用
+     */
+    private fun waitTimeFor(waiter: Waiter, now: Long): Long {
+        val localWait = localWaitTime(waiter, now)
+        if (localWait > 0) {
+            return localWait
+        }
+        // 其他桶中已就绪的高优先级等待者先发出
+        for (other in waiters) {
+            if (other !== waiter && other.priority > waiter.priority && localWaitTime(other, now) == 0L) {
+                return PRIORITY_YIELD_WAIT
+            }
+        }
+        return globalBucket?.waitTime(now, DEFAULT_INTERVAL) ?: 0
+    }
+
+    /**
+     * 只考虑自身桶时还需等待的时间：同一个桶中排在前面的等待者先取令牌
+     */
+    private fun localWaitTime(waiter: Waiter, now: Long): Long {
+        val bucket = waiter.bucket
+        var ahead = 0
+        for (other in waiters) {
+            if (other !== waiter && other < waiter && other.bucket === bucket) {
+                ahead++
+            }
+        }
+        return bucket.waitTime(now, DEFAULT_INTERVAL, ahead)
+    }
+
+    private fun take(waiter: Waiter, now: Long) {
+        waiter.bucket.take(now, DEFAULT_INTERVAL)
+        globalBucket?.take(now, DEFAULT_INTERVAL)
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,10 @@
+package fansirsqi.xposed.sesame.hook.rpc.intervallimit
+
+/**
+ * RPC 限流优先级，多个方法同时等待全局配额时高优先级先取
+ */
+enum class RpcPriority {
+    LOW,
+    NORMAL,
+    HIGH,
+}
@@ -0,0 +1,81 @@
+package fansirsqi.xposed.sesame.hook.rpc.intervallimit
+
+/**
+ * 令牌桶，令牌按 [IntervalLimit.interval] 逐个生成，最多积攒 [capacity] 个。
+ * 范围间隔每生成一个令牌重新取一次随机值，因此 [FixedOrRangeIntervalLimit] 的语义保持不变。
+ * 容量为 1 时等价于原来的“两次调用间隔不小于 interval”。
+ *
+ * 非线程安全，由 [RpcIntervalLimit] 在持锁状态下访问。
+ */
+class TokenBucket(intervalLimit: IntervalLimit, capacity: Int = 1) {
+
+    var intervalLimit: IntervalLimit = intervalLimit
+        private set
+
+    var capacity: Int = capacity.coerceAtLeast(1)
+        private set
+
+    private var tokens: Int = this.capacity
+
+    /**
+     * 下一个令牌生成的时间，仅在令牌未满时有效
+     */
+    private var nextTokenTime: Long = 0
+
+    /**
+     * 替换间隔与容量，已积攒的令牌按新容量截断
+     */
+    fun update(intervalLimit: IntervalLimit, capacity: Int) {
+        this.intervalLimit = intervalLimit
+        this.capacity = capacity.coerceAtLeast(1)
+        tokens = tokens.coerceAtMost(this.capacity)
+    }
+
+    private fun nextInterval(defaultInterval: Int): Long {
+        return (intervalLimit.interval ?: defaultInterval).coerceAtLeast(0).toLong()
+    }
+
+    private fun refill(now: Long, defaultInterval: Int) {
+        while (tokens < capacity && now >= nextTokenTime) {
+            tokens++
+            if (tokens < capacity) {
+                nextTokenTime += nextInterval(defaultInterval)
+            }
+        }
+    }
+
+    /**
+     * 距离有可用令牌还需等待的毫秒数，0 表示当前可取
+     */
+    fun waitTime(now: Long, defaultInterval: Int): Long {
+        refill(now, defaultInterval)
+        return if (tokens > 0) 0 else (nextTokenTime - now).coerceAtLeast(1)
+    }
+
+    /**
+     * 前面还有 [ahead] 个等待者时，距离轮到自己取令牌还需等待的毫秒数，0 表示当前可取。
+     * 范围间隔按当前取到的间隔估算。
+     */
+    fun waitTime(now: Long, defaultInterval: Int, ahead: Int): Long {
+        refill(now, defaultInterval)
+        if (tokens > ahead) {
+            return 0
+        }
+        val interval = nextInterval(defaultInterval)
+        // 桶满时下一个令牌在有人取走之后才开始计时
+        val firstToken = if (tokens < capacity) nextTokenTime else now + interval
+        return (firstToken - now + (ahead - tokens) * interval).coerceAtLeast(1)
+    }
+
+    /**
+     * 取走一个令牌，调用前需确认 [waitTime] 为 0
+     */
+    fun take(now: Long, defaultInterval: Int) {
+        refill(now, defaultInterval)
+        if (tokens == capacity) {
+            nextTokenTime = now + nextInterval(defaultInterval)
+        }
+        tokens--
+        intervalLimit.time = now
+    }
+}
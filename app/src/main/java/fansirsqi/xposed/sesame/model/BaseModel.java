@@ -6,6 +6,7 @@ import fansirsqi.xposed.sesame.model.modelFieldExt.ChoiceModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.IntegerModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.ListModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.StringModelField;
+import fansirsqi.xposed.sesame.hook.rpc.intervallimit.RpcIntervalLimit;
 import fansirsqi.xposed.sesame.util.ListUtil;
 import fansirsqi.xposed.sesame.util.Log;
 import fansirsqi.xposed.sesame.util.maps.BeachMap;
@@ -64,6 +65,11 @@ public class BaseModel extends Model {
      */
     @Getter
     public static final ChoiceModelField timedTaskModel = new ChoiceModelField("timedTaskModel", "定时任务模式", TimedTaskModel.SYSTEM, TimedTaskModel.nickNames);
+    /**
+     * 支持协程的任务是否以协程方式执行
+     */
+    @Getter
+    public static final BooleanModelField coroutineTask = new BooleanModelField("coroutineTask", "协程执行任务(实验)", false);
     /**
      * 超时是否重启
      */
@@ -88,6 +94,11 @@ public class BaseModel extends Model {
      */
     @Getter
     public static final BooleanModelField newRpc = new BooleanModelField("newRpc", "使用新接口(最低支持v10.3.96.8100)", true);
+    /**
+     * 所有 RPC 共享的全局速率，0 表示不限制
+     */
+    @Getter
+    public static final IntegerModelField rpcRateLimit = new IntegerModelField("rpcRateLimit", "RPC全局限速(次/秒|关闭:0)", 0, 0, 50);
     /**
      * 是否开启抓包调试模式
      */
@@ -104,6 +115,16 @@ public class BaseModel extends Model {
      */
     @Getter
     public static final BooleanModelField recordLog = new BooleanModelField("recordLog", "全部 | 记录日志", true);
+    /**
+     * 是否异步写日志，开启后日志由单独线程批量写入文件
+     */
+    @Getter
+    public static final BooleanModelField asyncLog = new BooleanModelField("asyncLog", "异步写日志", true);
+    /**
+     * 是否延迟合并保存状态文件，开启后短时间内的多次修改只写一次文件
+     */
+    @Getter
+    public static final BooleanModelField statusWriteBehind = new BooleanModelField("statusWriteBehind", "延迟合并保存状态", true);
     /**
      * 是否显示气泡提示
      */
@@ -150,6 +171,20 @@ public class BaseModel extends Model {
         return "启用模块";
     }
 
+    /**
+     * 运行时直接读取的字段可以就地生效，其余字段影响闹钟、唤醒锁或 RPC 桥，需要重新初始化
+     */
+    @Override
+    public boolean onConfigChanged(ModelField<?> field) {
+        if (field == rpcRateLimit) {
+            RpcIntervalLimit.INSTANCE.setGlobalLimit(rpcRateLimit.getValue(), rpcRateLimit.getValue());
+            return true;
+        }
+        return field == energyTime || field == modelSleepTime || field == coroutineTask
+                || field == errNotify || field == recordLog || field == asyncLog || field == statusWriteBehind
+                || field == showToast || field == toastOffsetY;
+    }
+
     @Override
     public ModelFields getFields() {
         ModelFields modelFields = new ModelFields();
@@ -160,16 +195,20 @@ public class BaseModel extends Model {
         modelFields.addField(wakenAtTimeList);//定时唤醒的时间点列表
         modelFields.addField(energyTime);//能量收集的时间范围
         modelFields.addField(timedTaskModel);//定时任务模式选择
+        modelFields.addField(coroutineTask);//协程执行任务
         modelFields.addField(timeoutRestart);//超时是否重启
         modelFields.addField(waitWhenException);//异常发生时的等待时间
         modelFields.addField(errNotify);//异常通知开关
         modelFields.addField(setMaxErrorCount);//异常次数阈值
         modelFields.addField(newRpc);//是否启用新接口
+        modelFields.addField(rpcRateLimit);//RPC全局限速
         modelFields.addField(debugMode);//是否开启抓包调试模式
         modelFields.addField(sendHookData);//启用Hook数据转发
         modelFields.addField(sendHookDataUrl);//Hook数据转发地址
         modelFields.addField(batteryPerm);//是否申请支付宝的后台运行权限
         modelFields.addField(recordLog);//是否记录日志
+        modelFields.addField(asyncLog);//是否异步写日志
+        modelFields.addField(statusWriteBehind);//是否延迟合并保存状态
         modelFields.addField(showToast);//是否显示气泡提示
         modelFields.addField(enableOnGoing);//是否开启状态栏禁删
         modelFields.addField(languageSimplifiedChinese);//是否只显示中文并设置时区
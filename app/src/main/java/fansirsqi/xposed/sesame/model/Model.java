@@ -6,6 +6,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import fansirsqi.xposed.sesame.model.modelFieldExt.BooleanModelField;
 import fansirsqi.xposed.sesame.task.ModelTask;
@@ -22,7 +23,31 @@ public abstract class Model {
     private static final List<Class<? extends Model>> modelClazzList = ModelOrder.INSTANCE.getAllConfig();
     @Getter
     private static final Model[] modelArray = new Model[modelClazzList.size()];
+    /**
+     * 本次配置热更新中是否有字段无法就地生效
+     */
+    private static final AtomicBoolean configRejected = new AtomicBoolean();
+    /**
+     * 是否处于配置热更新中，正常加载配置时不分发字段变化
+     */
+    private static volatile boolean configReloading = false;
     private final BooleanModelField enableField;
+    private final ModelField.ChangeListener configListener = (field, oldValue) -> {
+        if (!configReloading) {
+            return;
+        }
+        boolean applied;
+        try {
+            applied = onConfigChanged(field);
+        } catch (Exception e) {
+            Log.printStackTrace(TAG, e);
+            applied = false;
+        }
+        if (!applied) {
+            Log.record(TAG, getName() + " 配置[" + field.getName() + "]需要重新初始化");
+            configRejected.set(true);
+        }
+    };
 
     public final BooleanModelField getEnableField() {
         return enableField;
@@ -58,6 +83,34 @@ public abstract class Model {
 
     public void destroy() {}
 
+    /**
+     * 配置热更新时，本模型的字段值发生变化后回调。
+     * 默认不就地生效：字段可能已在 boot 中缓存，只有确认能就地应用的字段才由子类处理并返回 true
+     *
+     * @param field 发生变化的字段
+     * @return 改动已就地生效时返回 true，返回 false 则重新初始化全部模型
+     */
+    public boolean onConfigChanged(ModelField<?> field) {
+        return false;
+    }
+
+    /**
+     * 执行一次配置更新，期间字段变化会分发给所属模型
+     *
+     * @param apply 写入新配置的操作
+     * @return 所有改动都已就地生效时返回 true
+     */
+    public static synchronized boolean applyConfigChanges(Runnable apply) {
+        configRejected.set(false);
+        configReloading = true;
+        try {
+            apply.run();
+        } finally {
+            configReloading = false;
+        }
+        return !configRejected.get();
+    }
+
     public static Map<String, ModelConfig> getModelConfigMap() {
         return readOnlyModelConfigMap;
     }
@@ -89,6 +142,9 @@ public abstract class Model {
                 ModelConfig modelConfig = new ModelConfig(model);
                 modelArray[i] = model;
                 modelMap.put(modelClazz, model);
+                for (ModelField<?> modelField : modelConfig.getFields().values()) {
+                    modelField.addChangeListener(model.configListener);
+                }
                 String modelCode = modelConfig.getCode();
                 modelConfigMap.put(modelCode, modelConfig);
                 ModelGroup group = modelConfig.getGroup();
@@ -123,6 +179,14 @@ public abstract class Model {
     }
 
     public static synchronized void destroyAllModel() {
+        for (Model model : modelArray) {
+            ModelConfig modelConfig = model == null ? null : modelConfigMap.get(model.getClass().getSimpleName());
+            if (modelConfig != null) {
+                for (ModelField<?> modelField : modelConfig.getFields().values()) {
+                    modelField.removeChangeListener(model.configListener);
+                }
+            }
+        }
         for (int i = 0, len = modelArray.length; i < len; i++) {
             Model model = modelArray[i];
             if (model != null) {
@@ -17,14 +17,19 @@ import org.json.JSONException;
 
 import java.io.Serializable;
 import java.lang.reflect.Type;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import fansirsqi.xposed.sesame.R;
 import fansirsqi.xposed.sesame.util.JsonUtil;
 import fansirsqi.xposed.sesame.util.TypeUtil;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
+import lombok.ToString;
 
 @Data
 public class ModelField<T> implements Serializable {
@@ -41,6 +46,23 @@ public class ModelField<T> implements Serializable {
     @Setter
     @Getter
     public volatile T value; // 当前值
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private transient volatile List<ChangeListener> changeListeners; // 值变化监听器，首次注册时创建
+
+    /**
+     * 字段值变化监听器
+     */
+    public interface ChangeListener {
+        /**
+         * @param field    发生变化的字段，新值通过 getValue 获取
+         * @param oldValue 变化前的值
+         */
+        void onChanged(ModelField<?> field, Object oldValue);
+    }
 
     /**
      * 默认构造函数，初始化字段值类型
@@ -96,6 +118,40 @@ public class ModelField<T> implements Serializable {
         value = JsonUtil.parseObject(objectValue, valueType); // 解析并设置当前值
     }
 
+    /**
+     * 设置当前值，值与原来不同时通知监听器
+     *
+     * @param objectValue 要设置的值
+     * @return 值是否发生变化
+     */
+    public boolean updateObjectValue(Object objectValue) {
+        T oldValue = value;
+        setObjectValue(objectValue);
+        if (Objects.equals(oldValue, value)) {
+            return false;
+        }
+        List<ChangeListener> listeners = changeListeners;
+        if (listeners != null) {
+            for (ChangeListener listener : listeners) {
+                listener.onChanged(this, oldValue);
+            }
+        }
+        return true;
+    }
+
+    public synchronized void addChangeListener(ChangeListener listener) {
+        if (changeListeners == null) {
+            changeListeners = new CopyOnWriteArrayList<>();
+        }
+        changeListeners.add(listener);
+    }
+
+    public synchronized void removeChangeListener(ChangeListener listener) {
+        if (changeListeners != null) {
+            changeListeners.remove(listener);
+        }
+    }
+
     /**
      * 获取字段类型
      *
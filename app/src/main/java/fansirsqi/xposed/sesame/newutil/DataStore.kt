@@ -1,32 +1,97 @@
 package fansirsqi.xposed.sesame.newutil
 
-import android.os.Build
-import androidx.annotation.RequiresApi
 import com.fasterxml.jackson.core.type.TypeReference
 import com.fasterxml.jackson.core.util.DefaultIndenter
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter
+import com.fasterxml.jackson.databind.JavaType
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.node.ObjectNode
 import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
-import com.fasterxml.jackson.module.kotlin.readValue
+import fansirsqi.xposed.sesame.util.Files
+import fansirsqi.xposed.sesame.util.GlobalThreadPools
+import fansirsqi.xposed.sesame.util.Log
 import java.io.File
-import java.nio.file.StandardWatchEventKinds
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.FileLock
+import java.util.UUID
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.locks.ReentrantReadWriteLock
-import kotlin.concurrent.read
-import kotlin.concurrent.thread
 import kotlin.concurrent.write
 
+/**
+ * 键值存储，模块进程与支付宝进程共用同一目录。
+ *
+ * 数据由两部分组成：DataStore.json 为压缩后的快照，DataStore.log 为追加写入的变更记录，每行一条 `{"w":写入方,"k":键,"v":值}`，删除记录带 `"d":1`。
+ * 每次修改只追加一行，记录数或日志大小超过阈值时合并进快照并清空日志。
+ * 每个键保存解析后的 JSON 树，按类型解码后缓存，重复读取不再转换。
+ * 定时检查日志长度与快照修改时间，只读取新增的日志行，本进程写入的记录直接跳过。
+ */
 object DataStore {
+    private const val TAG = "DataStore"
+    private const val SNAPSHOT_NAME = "DataStore.json"
+    private const val LOG_NAME = "DataStore.log"
+
+    /**
+     * 日志记录数或字节数超过阈值时合并进快照
+     */
+    private const val COMPACT_RECORDS = 256
+    private const val COMPACT_BYTES = 256 * 1024L
+    private const val WATCH_INTERVAL = 1000L
+
     private val mapper = jacksonObjectMapper()
-    private val data = ConcurrentHashMap<String, Any>()
+    private val entries = ConcurrentHashMap<String, Entry>()
     private val lock = ReentrantReadWriteLock()
+    private val listeners = CopyOnWriteArrayList<(String) -> Unit>()
+
+    /**
+     * 本进程的写入方标识，读取日志时跳过自己写入的记录
+     */
+    private val writerId = UUID.randomUUID().toString().substring(0, 8)
     private lateinit var storageFile: File
+    private lateinit var logFile: File
+
+    /**
+     * 已应用的日志长度、日志记录数与快照修改时间，只在写锁内修改
+     */
+    private var logOffset = 0L
+    private var logRecords = 0
+    private var snapshotModified = 0L
+    private var watchFuture: ScheduledFuture<*>? = null
+
+    /**
+     * 单个键的值，保存 JSON 树与最近一次解码结果
+     */
+    private class Entry(val node: JsonNode) {
+        @Volatile
+        var typed: Pair<JavaType, Any>? = null
+
+        @Synchronized
+        @Suppress("UNCHECKED_CAST")
+        fun <T> decode(type: JavaType): T {
+            typed?.let { if (it.first == type) return it.second as T }
+            val value: T = mapper.convertValue(node, type)
+            if (value != null) typed = type to value
+            return value
+        }
+    }
 
-    fun init(dir: File) {
-        storageFile = File(dir, "DataStore.json").apply {
+    fun init(dir: File) = lock.write {
+        watchFuture?.cancel(false)
+        storageFile = File(dir, SNAPSHOT_NAME).apply {
             if (!exists()) createNewFile()
         }
-        loadFromDisk()
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) startWatcherNio() else startWatcher()
+        logFile = File(dir, LOG_NAME).apply {
+            if (!exists()) createNewFile()
+        }
+        reload(false)
+        watchFuture = GlobalThreadPools.getScheduledPool(GlobalThreadPools.Workload.TIMER)
+            .scheduleWithFixedDelay(::poll, WATCH_INTERVAL, WATCH_INTERVAL, TimeUnit.MILLISECONDS)
     }
 
     inline fun <reified T : Any> DataStore.getOrCreate(key: String) = getOrCreate(key, object : TypeReference<T>() {})
@@ -36,57 +101,71 @@ object DataStore {
             throw IllegalStateException("DataStore.init(dir) must be called first!")
     }
 
-    fun <T> get(key: String, clazz: Class<T>): T? = lock.read {
-        data[key]?.let { mapper.convertValue(it, clazz) }
+    /**
+     * 监听其它进程对某个键的修改，本进程的写入不会触发
+     */
+    fun addListener(listener: (String) -> Unit) {
+        listeners.add(listener)
+    }
+
+    fun removeListener(listener: (String) -> Unit) {
+        listeners.remove(listener)
     }
 
+    fun <T> get(key: String, clazz: Class<T>): T? =
+        entries[key]?.decode(mapper.typeFactory.constructType(clazz))
+
 
     /* -------------------------------------------------- */
     /*  类型安全读取：Class 版（基本 / 自定义对象）         */
     /* -------------------------------------------------- */
     @Suppress("UNCHECKED_CAST")
-    fun <T : Any> getOrCreate(key: String, clazz: Class<T>): T = lock.write {
-        data[key]?.let { return mapper.convertValue(it, clazz) }
-        val default: T = when (clazz) {
-            /* 基本容器 */
-            java.util.List::class.java -> mutableListOf<Any>() as T
-            java.util.Set::class.java -> mutableSetOf<Any>() as T
-            java.util.Map::class.java -> mutableMapOf<String, Any>() as T
+    fun <T : Any> getOrCreate(key: String, clazz: Class<T>): T {
+        val type = mapper.typeFactory.constructType(clazz)
+        entries[key]?.let { return it.decode(type) }
+        return lock.write {
+            entries[key]?.let { return it.decode(type) }
+            val default: T = when (clazz) {
+                /* 基本容器 */
+                java.util.List::class.java -> mutableListOf<Any>() as T
+                java.util.Set::class.java -> mutableSetOf<Any>() as T
+                java.util.Map::class.java -> mutableMapOf<String, Any>() as T
 
-            /* 基本包装类型 */
-            String::class.java -> "" as T
-            Boolean::class.java -> false as T
-            Int::class.java -> 0 as T
-            Long::class.java -> 0L as T
-            Double::class.java -> 0.0 as T
-            Float::class.java -> 0f as T
+                /* 基本包装类型 */
+                String::class.java -> "" as T
+                Boolean::class.java -> false as T
+                Int::class.java -> 0 as T
+                Long::class.java -> 0L as T
+                Double::class.java -> 0.0 as T
+                Float::class.java -> 0f as T
 
-            /* 其它：尝试无参构造 */
-            else -> clazz.getDeclaredConstructor().newInstance()
+                /* 其它：尝试无参构造 */
+                else -> clazz.getDeclaredConstructor().newInstance()
+            }
+            store(key, default, type)
+            default
         }
-        data[key] = default
-        saveToDisk()
-        default
     }
 
     /* -------------------------------------------------- */
     /*  类型安全读取：TypeReference 版（支持嵌套泛型）       */
     /* -------------------------------------------------- */
-    fun <T : Any> getOrCreate(key: String, typeRef: TypeReference<T>): T = lock.write {
-        data[key]?.let { return mapper.convertValue(it, typeRef) }
-        val default: T = createDefault(typeRef)
-        data[key] = default
-        saveToDisk()
-        default
+    fun <T : Any> getOrCreate(key: String, typeRef: TypeReference<T>): T {
+        val type = mapper.typeFactory.constructType(typeRef)
+        entries[key]?.let { return it.decode(type) }
+        return lock.write {
+            entries[key]?.let { return it.decode(type) }
+            val default: T = createDefault(type)
+            store(key, default, type)
+            default
+        }
     }
 
 
-    /* 根据 TypeReference 创建默认实例（支持嵌套） */
+    /* 根据类型创建默认实例（支持嵌套） */
     @Suppress("UNCHECKED_CAST")
-    private fun <T> createDefault(typeRef: TypeReference<T>): T {
-        mapper.typeFactory.constructType(typeRef)
-        val raw = mapper.typeFactory.constructType(typeRef).rawClass
-        return when (raw) {
+    private fun <T> createDefault(type: JavaType): T {
+        return when (val raw = type.rawClass) {
             java.util.List::class.java -> mutableListOf<Any>() as T
             java.util.Set::class.java -> mutableSetOf<Any>() as T
             java.util.Map::class.java -> mutableMapOf<String, Any>() as T
@@ -94,10 +173,72 @@ object DataStore {
         }
     }
 
-    private fun loadFromDisk() {
-        if (storageFile.length() == 0L) return
-        val loaded: Map<String, Any> = mapper.readValue(storageFile)
-        data.putAll(loaded)
+    /* -------------------------------------------------- */
+    /*  简易 put / remove（可选）                          */
+    /* -------------------------------------------------- */
+    fun put(key: String, value: Any) = lock.write {
+        checkInit()
+        // 写回的是之前取出的同一个对象时保留其类型缓存
+        val cached = entries[key]?.typed?.takeIf { it.second === value }
+        store(key, value, cached?.first)
+    }
+
+    fun remove(key: String) = lock.write {
+        checkInit()
+        if (entries.remove(key) != null) {
+            append(key, null)
+        }
+    }
+
+    /**
+     * 更新内存中的值并追加日志，值没有变化时不写文件
+     */
+    private fun store(key: String, value: Any, type: JavaType?) {
+        checkInit()
+        val node = mapper.valueToTree<JsonNode>(value)
+        val old = entries[key]
+        val entry = Entry(node)
+        if (type != null) entry.typed = type to value
+        entries[key] = entry
+        if (old == null || old.node != node) {
+            append(key, entry)
+        }
+    }
+
+    /**
+     * 追加一条记录，写入前先应用其它进程追加的记录，保证日志偏移连续
+     *
+     * @param entry 新的值，删除时为 null
+     */
+    private fun append(key: String, entry: Entry?) {
+        val record = mapper.createObjectNode().put("w", writerId).put("k", key)
+        if (entry == null) record.put("d", 1) else record.set<JsonNode>("v", entry.node)
+        val bytes = (mapper.writeValueAsString(record) + "\n").toByteArray(Charsets.UTF_8)
+        try {
+            FileOutputStream(logFile, true).use { out ->
+                val channel = out.channel
+                withFileLock(channel) {
+                    if (channel.size() != logOffset) {
+                        if (channel.size() < logOffset || storageFile.lastModified() != snapshotModified) {
+                            reload(true)
+                        } else {
+                            readLog(true)
+                        }
+                        // 其它进程的记录早于本条，重新放回本次写入的值
+                        if (entry == null) entries.remove(key) else entries[key] = entry
+                    }
+                    val buffer = ByteBuffer.wrap(bytes)
+                    while (buffer.hasRemaining()) channel.write(buffer)
+                    logOffset = channel.size()
+                    logRecords++
+                }
+                if (logRecords >= COMPACT_RECORDS || logOffset >= COMPACT_BYTES) {
+                    withFileLock(channel) { compact(channel) }
+                }
+            }
+        } catch (e: Exception) {
+            Log.printStackTrace(TAG, "写入 $key 失败", e)
+        }
     }
 
     private val prettyPrinter = DefaultPrettyPrinter().apply {
@@ -105,48 +246,153 @@ object DataStore {
         indentObjectsWith(DefaultIndenter("    ", DefaultIndenter.SYS_LF)) // 对象换行 + 4 空格
     }
 
-    private fun saveToDisk() {
-        storageFile.writeText(mapper.writer(prettyPrinter).writeValueAsString(data))
+    /**
+     * 把当前内容写成快照并清空日志，需持有文件锁
+     */
+    private fun compact(channel: FileChannel) {
+        val root = mapper.createObjectNode()
+        entries.toSortedMap().forEach { (key, entry) -> root.set<JsonNode>(key, entry.node) }
+        if (!Files.write2File(mapper.writer(prettyPrinter).writeValueAsString(root), storageFile)) {
+            return
+        }
+        channel.truncate(0)
+        logOffset = 0
+        logRecords = 0
+        snapshotModified = storageFile.lastModified()
     }
 
-    private fun startWatcher() {
-        Thread {
-            var last = storageFile.lastModified()
-            while (true) {
-                Thread.sleep(1000)
-                val current = storageFile.lastModified()
-                if (current > last) {
-                    last = current
-                    loadFromDisk()
-                }
+    private inline fun <R> withFileLock(channel: FileChannel, block: () -> R): R {
+        // 部分存储不支持文件锁，此时只依赖进程内写锁
+        val fileLock: FileLock? = try {
+            channel.lock()
+        } catch (e: Exception) {
+            null
+        }
+        try {
+            return block()
+        } finally {
+            try {
+                fileLock?.release()
+            } catch (_: Exception) {
+            }
+        }
+    }
+
+    /**
+     * 重新读取快照和完整日志，需持有写锁
+     *
+     * @param notify 是否对内容有变化的键发出通知
+     */
+    private fun reload(notify: Boolean) {
+        val loaded = HashMap<String, JsonNode>()
+        snapshotModified = storageFile.lastModified()
+        if (storageFile.length() > 0) {
+            try {
+                val root = mapper.readTree(storageFile)
+                if (root is ObjectNode) root.fields().forEach { loaded[it.key] = it.value }
+            } catch (e: Exception) {
+                Log.printStackTrace(TAG, "读取快照失败", e)
             }
-        }.apply { isDaemon = true }.start()
-    }
-
-    @RequiresApi(Build.VERSION_CODES.O)
-    fun startWatcherNio() = thread(isDaemon = true) {
-        val path = storageFile.toPath().parent
-        val watch = path.fileSystem.newWatchService()
-        path.register(watch, StandardWatchEventKinds.ENTRY_MODIFY)
-        while (true) {
-            val key = watch.take()
-            key.pollEvents().forEach {
-                if (it.context().toString() == storageFile.name) loadFromDisk()
+        }
+        logOffset = 0
+        logRecords = 0
+        scanLog { record ->
+            val key = record.path("k").asText()
+            if (record.has("d")) loaded.remove(key) else loaded[key] = record.path("v")
+        }
+        val changed = ArrayList<String>()
+        entries.keys.filter { it !in loaded }.forEach {
+            entries.remove(it)
+            changed.add(it)
+        }
+        loaded.forEach { (key, node) ->
+            if (entries[key]?.node != node) {
+                entries[key] = Entry(node)
+                changed.add(key)
             }
-            key.reset()
         }
+        if (notify) changed.forEach(::notifyChanged)
     }
 
-    /* -------------------------------------------------- */
-    /*  简易 put / remove（可选）                          */
-    /* -------------------------------------------------- */
-    fun put(key: String, value: Any) = lock.write {
-        data[key] = value
-        saveToDisk()
+    /**
+     * 应用 [logOffset] 之后新增的日志，需持有写锁
+     */
+    private fun readLog(notify: Boolean) {
+        scanLog { record ->
+            if (record.path("w").asText() == writerId) return@scanLog
+            val key = record.path("k").asText()
+            val changed = if (record.has("d")) {
+                entries.remove(key) != null
+            } else {
+                val node = record.path("v")
+                if (entries[key]?.node != node) {
+                    entries[key] = Entry(node)
+                    true
+                } else false
+            }
+            if (changed && notify) notifyChanged(key)
+        }
     }
 
-    fun remove(key: String) = lock.write {
-        data.remove(key)
-        saveToDisk()
+    /**
+     * 从 [logOffset] 读到最后一个完整行，逐条回调并推进偏移
+     */
+    private fun scanLog(consumer: (JsonNode) -> Unit) {
+        try {
+            RandomAccessFile(logFile, "r").use { raf ->
+                val length = raf.length()
+                if (length <= logOffset) return
+                val bytes = ByteArray((length - logOffset).toInt())
+                raf.seek(logOffset)
+                raf.readFully(bytes)
+                var start = 0
+                for (i in bytes.indices) {
+                    if (bytes[i] != '\n'.code.toByte()) continue
+                    if (i > start) {
+                        try {
+                            consumer(mapper.readTree(bytes, start, i - start))
+                        } catch (e: Exception) {
+                            Log.runtime(TAG, "跳过损坏的日志记录: ${e.message}")
+                        }
+                        logRecords++
+                    }
+                    start = i + 1
+                }
+                // 未写完的行留到下次读取
+                logOffset += start
+            }
+        } catch (e: Exception) {
+            Log.printStackTrace(TAG, "读取日志失败", e)
+        }
+    }
+
+    /**
+     * 定时检查其它进程的修改
+     */
+    private fun poll() {
+        try {
+            val snapshotChanged = storageFile.lastModified() != snapshotModified
+            val logLength = logFile.length()
+            if (!snapshotChanged && logLength == logOffset) return
+            lock.write {
+                if (storageFile.lastModified() != snapshotModified || logFile.length() < logOffset) {
+                    reload(true)
+                } else {
+                    readLog(true)
+                }
+            }
+        } catch (e: Exception) {
+            Log.printStackTrace(TAG, e)
+        }
+    }
+
+    private fun notifyChanged(key: String) {
+        listeners.forEach {
+            try {
+                it(key)
+            } catch (e: Exception) {
+                Log.printStackTrace(TAG, e)
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@ package fansirsqi.xposed.sesame.task.AnswerAI;
 import java.util.List;
 
 import fansirsqi.xposed.sesame.model.Model;
+import fansirsqi.xposed.sesame.model.ModelField;
 import fansirsqi.xposed.sesame.model.ModelFields;
 import fansirsqi.xposed.sesame.model.ModelGroup;
 import fansirsqi.xposed.sesame.model.modelFieldExt.ChoiceModelField;
@@ -112,6 +113,20 @@ public class AnswerAI extends Model {
         }
     }
 
+    /**
+     * 服务类型或令牌变化后按新配置重建AI服务
+     */
+    @Override
+    public boolean onConfigChanged(ModelField<?> field) {
+        if (field == getEnableField()) {
+            return super.onConfigChanged(field);
+        }
+        if (enable) {
+            initializeAIService(aiType.getValue());
+        }
+        return true;
+    }
+
     /**
      * 初始化AI服务
      *
@@ -0,0 +1,169 @@
+package fansirsqi.xposed.sesame.task;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fansirsqi.xposed.sesame.util.GlobalThreadPools;
+import fansirsqi.xposed.sesame.util.Log;
+
+/**
+ * 定时子任务调度器。
+ * <p>
+ * 所有定时子任务放在同一个 DelayQueue 中，由一个计时线程取出后交给执行线程池，
+ * 等待期间不占用线程；计时线程只负责计时，一个任务执行慢（重试、休眠）不会推迟其他到期任务。
+ * 到期时会重新计算一次 {@link ModelTask.ChildModelTask#getFireTime()}，估计值变化导致触发时间后移时重新入队。
+ */
+final class ChildTaskScheduler {
+    private static final String TAG = "ChildTaskScheduler";
+    /**
+     * 同时执行的子任务数
+     */
+    private static final int RUNNER_COUNT = 4;
+    /**
+     * 到期复查时允许的提前量，小于该值直接执行
+     */
+    private static final long FIRE_TOLERANCE = 5;
+
+    private static final DelayQueue<Entry> QUEUE = new DelayQueue<>();
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    /**
+     * 队列满时不由计时线程执行，避免执行慢的任务拖住计时
+     */
+    private static final ExecutorService RUNNERS = GlobalThreadPools.newThreadPool("ChildTaskRun", 0, RUNNER_COUNT, 4096, false);
+
+    static {
+        Thread timer = new Thread(ChildTaskScheduler::timerLoop, "ChildTaskTimer");
+        timer.setDaemon(true);
+        timer.start();
+    }
+
+    private ChildTaskScheduler() {
+    }
+
+    /**
+     * 一个已调度的子任务
+     */
+    static final class Entry implements Delayed {
+        final Object owner;
+        final ModelTask.ChildModelTask childTask;
+        private final long seq = SEQUENCE.getAndIncrement();
+        private volatile long fireTime;
+        private volatile boolean cancelled;
+        private volatile Thread runner;
+
+        Entry(Object owner, ModelTask.ChildModelTask childTask) {
+            this.owner = owner;
+            this.childTask = childTask;
+            this.fireTime = childTask.getFireTime();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(fireTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            if (o == this) {
+                return 0;
+            }
+            if (o instanceof Entry) {
+                Entry other = (Entry) o;
+                int byTime = Long.compare(fireTime, other.fireTime);
+                return byTime != 0 ? byTime : Long.compare(seq, other.seq);
+            }
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), o.getDelay(TimeUnit.MILLISECONDS));
+        }
+
+        /**
+         * 取消任务，正在执行时中断执行线程
+         */
+        void cancel() {
+            cancelled = true;
+            QUEUE.remove(this);
+            Thread thread = runner;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * 调度一个定时子任务
+     *
+     * @param owner     所属执行器，用于按执行器批量取消
+     * @param childTask 子任务
+     * @return 调度条目
+     */
+    static Entry schedule(Object owner, ModelTask.ChildModelTask childTask) {
+        Entry entry = new Entry(owner, childTask);
+        QUEUE.offer(entry);
+        return entry;
+    }
+
+    /**
+     * 取消指定执行器的子任务
+     *
+     * @param owner 所属执行器
+     * @param group 子任务组，为 null 时取消全部
+     */
+    static void cancel(Object owner, String group) {
+        for (Entry entry : QUEUE) {
+            if (entry.owner == owner && (group == null || group.equals(entry.childTask.getGroup()))) {
+                entry.cancel();
+            }
+        }
+    }
+
+    static int size() {
+        return QUEUE.size();
+    }
+
+    private static void timerLoop() {
+        while (true) {
+            Entry entry;
+            try {
+                entry = QUEUE.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                if (entry.cancelled || entry.childTask.getIsCancel()) {
+                    continue;
+                }
+                long fireTime = entry.childTask.getFireTime();
+                if (fireTime - System.currentTimeMillis() > FIRE_TOLERANCE) {
+                    entry.fireTime = fireTime;
+                    QUEUE.offer(entry);
+                    continue;
+                }
+                RUNNERS.execute(() -> run(entry));
+            } catch (RejectedExecutionException e) {
+                Log.error(TAG, "子任务[" + entry.childTask.getId() + "]未能执行: " + e.getMessage());
+                entry.childTask.getModelTask().removeChildTask(entry.childTask.getId());
+            } catch (Throwable t) {
+                Log.printStackTrace(TAG, t);
+            }
+        }
+    }
+
+    private static void run(Entry entry) {
+        entry.runner = Thread.currentThread();
+        try {
+            if (!entry.cancelled) {
+                entry.childTask.run();
+            }
+        } catch (Throwable t) {
+            Log.printStackTrace(TAG, t);
+        } finally {
+            entry.runner = null;
+            // 清除取消时可能留下的中断标记，避免影响下一个任务
+            Thread.interrupted();
+            entry.childTask.getModelTask().removeChildTask(entry.childTask.getId());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package fansirsqi.xposed.sesame.task
+
+import fansirsqi.xposed.sesame.hook.RequestManager
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+
+/**
+ * 可挂起执行的模型任务。
+ *
+ * 开启协程模式时由 [TaskCoroutineRunner] 在共享的少量线程上执行 [runSuspend]，
+ * 等待与请求都是挂起而非阻塞；未开启时 [run] 在原来的任务线程中阻塞执行，请求仍走同步接口，行为不变。
+ */
+abstract class CoroutineModelTask : ModelTask() {
+
+    /**
+     * 任务主体
+     */
+    abstract suspend fun runSuspend()
+
+    final override fun run() {
+        runBlocking(RequestManager.SyncRequests) { runSuspend() }
+    }
+
+    /**
+     * 挂起指定的毫秒数，对应阻塞模式下的 GlobalThreadPools.sleep
+     */
+    protected suspend fun sleep(millis: Long) {
+        delay(millis)
+    }
+}
@@ -4,9 +4,7 @@ import android.os.Build;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import fansirsqi.xposed.sesame.model.BaseModel;
 import fansirsqi.xposed.sesame.model.Model;
@@ -20,8 +18,8 @@ import lombok.Getter;
 import lombok.Setter;
 
 public abstract class ModelTask extends Model {
-    private static final Map<ModelTask, Thread> MAIN_TASK_MAP = new ConcurrentHashMap<>();
-    private static final ThreadPoolExecutor MAIN_THREAD_POOL = new ThreadPoolExecutor(getModelArray().length, Integer.MAX_VALUE, 30L, TimeUnit.SECONDS, new SynchronousQueue<>(), new ThreadPoolExecutor.CallerRunsPolicy());
+    private static final Map<ModelTask, Object> MAIN_TASK_MAP = new ConcurrentHashMap<>();
+    private static final ThreadPoolExecutor MAIN_THREAD_POOL = GlobalThreadPools.newThreadPool("ModelTask", getModelArray().length, getModelArray().length, 32);
     private final Map<String, ChildModelTask> childTaskMap = new ConcurrentHashMap<>();
     private ChildTaskExecutor childTaskExecutor;
     @Getter
@@ -30,22 +28,44 @@ public abstract class ModelTask extends Model {
 
         @Override
         public void run() {
-            if (MAIN_TASK_MAP.get(task) != null) {
+            Object token = task.enterMainTask();
+            if (token == null) {
                 return;
             }
-            MAIN_TASK_MAP.put(task, Thread.currentThread());
             try {
-                Notify.setStatusTextExec(task.getName());
                 task.run();
             } catch (Exception e) {
                 Log.printStackTrace(e);
             } finally {
-                MAIN_TASK_MAP.remove(task);
-                Notify.updateNextExecText(-1);
+                task.exitMainTask(token);
             }
         }
     };
 
+    /**
+     * 标记主任务开始执行
+     *
+     * @return 本次执行的标记，任务已在执行时返回 null
+     */
+    Object enterMainTask() {
+        Object token = new Object();
+        if (MAIN_TASK_MAP.putIfAbsent(this, token) != null) {
+            return null;
+        }
+        Notify.setStatusTextExec(getName());
+        return token;
+    }
+
+    /**
+     * 标记主任务执行结束，已被停止后重新启动的执行不受影响
+     *
+     * @param token {@link #enterMainTask()} 返回的标记
+     */
+    void exitMainTask(Object token) {
+        MAIN_TASK_MAP.remove(this, token);
+        Notify.updateNextExecText(-1);
+    }
+
     public ModelTask() {
     }
 
@@ -221,6 +241,8 @@ public abstract class ModelTask extends Model {
             if (isEnable() && check()) {
                 if (isSync()) {
                     mainRunnable.run();
+                } else if (this instanceof CoroutineModelTask && BaseModel.getCoroutineTask().getValue()) {
+                    TaskCoroutineRunner.INSTANCE.launch((CoroutineModelTask) this);
                 } else {
                     MAIN_THREAD_POOL.execute(mainRunnable);
                 }
@@ -247,6 +269,7 @@ public abstract class ModelTask extends Model {
             childTaskExecutor.clearAllChildTask();
         }
         childTaskMap.clear();
+        TaskCoroutineRunner.INSTANCE.cancel(this);
         MAIN_THREAD_POOL.remove(mainRunnable);
         MAIN_TASK_MAP.remove(this);
     }
@@ -359,6 +382,16 @@ public abstract class ModelTask extends Model {
             return null;
         }
 
+        /**
+         * 实际触发时间，默认等于 execTime。
+         * 子类可按时差等估计值修正，调度器在到期时会再取一次，以最新估计为准。
+         *
+         * @return 触发时间戳（毫秒）
+         */
+        public long getFireTime() {
+            return execTime;
+        }
+
         /**
          * 执行子任务
          */
@@ -8,45 +8,34 @@ import fansirsqi.xposed.sesame.util.GlobalThreadPools;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 /**
  * ProgramChildTaskExecutor 类实现了 ChildTaskExecutor 接口，用于管理和执行子任务。
- * 它现在使用全局线程池来执行任务。
+ * 即时任务按组放入线程池执行，定时任务由 {@link ChildTaskScheduler} 统一调度。
  */
 public class ProgramChildTaskExecutor implements ChildTaskExecutor {
     private static final String TAG = "ProgramChildTaskExecutor";
+    /**
+     * 每个子任务组的最大线程数与排队容量
+     */
+    private static final int GROUP_POOL_SIZE = 4;
+    private static final int GROUP_QUEUE_CAPACITY = 256;
     private final Map<String, ThreadPoolExecutor> groupChildTaskExecutorMap = new ConcurrentHashMap<>();
 
     @Override
     public Boolean addChildTask(ModelTask.ChildModelTask childTask) {
-        ThreadPoolExecutor threadPoolExecutor = getChildGroupThreadPool(childTask.getGroup());
-        Future<?> future;
         long execTime = childTask.getExecTime();
         if (execTime > 0) {
-            future = threadPoolExecutor.submit(() -> {
-                if (childTask.getIsCancel()) {
-                    return;
-                }
-                try {
-                    long delay = childTask.getExecTime() - System.currentTimeMillis();
-                    if (delay > 0) {
-                        try {
-                            Thread.sleep(delay);
-                        } catch (Exception e) {
-                            return;
-                        }
-                    }
-                    childTask.run();
-                } catch (Exception e) {
-                    Log.printStackTrace(e);
-                } finally {
-                    childTask.getModelTask().removeChildTask(childTask.getId());
-                }
-            });
-        } else {
+            // 定时任务交给共享调度器，等待期间不占用线程
+            ChildTaskScheduler.Entry entry = ChildTaskScheduler.schedule(this, childTask);
+            childTask.setCancelTask(entry::cancel);
+            return true;
+        }
+        ThreadPoolExecutor threadPoolExecutor = getChildGroupThreadPool(childTask.getGroup());
+        Future<?> future;
+        try {
             future = threadPoolExecutor.submit(() -> {
                 try {
                     childTask.run();
@@ -56,6 +45,10 @@ public class ProgramChildTaskExecutor implements ChildTaskExecutor {
                     childTask.getModelTask().removeChildTask(childTask.getId());
                 }
             });
+        } catch (RejectedExecutionException e) {
+            // 线程池已关闭（任务停止中），不再添加
+            Log.runtime(TAG, "子任务未能提交: " + childTask.getId() + " " + e.getMessage());
+            return false;
         }
         childTask.setCancelTask(() -> future.cancel(true));
         return true;
@@ -68,6 +61,7 @@ public class ProgramChildTaskExecutor implements ChildTaskExecutor {
 
     @Override
     public Boolean clearGroupChildTask(String group) {
+        ChildTaskScheduler.cancel(this, group);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             groupChildTaskExecutorMap.compute(group, (keyInner, valueInner) -> {
                 if (valueInner != null) {
@@ -89,6 +83,7 @@ public class ProgramChildTaskExecutor implements ChildTaskExecutor {
 
     @Override
     public void clearAllChildTask() {
+        ChildTaskScheduler.cancel(this, null);
         for (ThreadPoolExecutor pool : groupChildTaskExecutorMap.values()) {
             if (pool != null && !pool.isShutdown()) {
                 pool.shutdownNow();
@@ -105,7 +100,7 @@ public class ProgramChildTaskExecutor implements ChildTaskExecutor {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             threadPoolExecutor = groupChildTaskExecutorMap.compute(group, (keyInner, valueInner) -> {
                 if (valueInner == null) {
-                    valueInner = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30L, TimeUnit.SECONDS, new SynchronousQueue<>(), new ThreadPoolExecutor.CallerRunsPolicy());
+                    valueInner = GlobalThreadPools.newThreadPool("TaskGroup-" + group, 0, GROUP_POOL_SIZE, GROUP_QUEUE_CAPACITY);
                 }
                 return valueInner;
             });
@@ -113,7 +108,7 @@ public class ProgramChildTaskExecutor implements ChildTaskExecutor {
             synchronized (groupChildTaskExecutorMap) {
                 threadPoolExecutor = groupChildTaskExecutorMap.get(group);
                 if (threadPoolExecutor == null) {
-                    threadPoolExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30L, TimeUnit.SECONDS, new SynchronousQueue<>(), new ThreadPoolExecutor.CallerRunsPolicy());
+                    threadPoolExecutor = GlobalThreadPools.newThreadPool("TaskGroup-" + group, 0, GROUP_POOL_SIZE, GROUP_QUEUE_CAPACITY);
                     groupChildTaskExecutorMap.put(group, threadPoolExecutor);
                 }
             }
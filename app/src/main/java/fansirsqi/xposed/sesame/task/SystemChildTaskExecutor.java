@@ -7,22 +7,33 @@ import fansirsqi.xposed.sesame.util.GlobalThreadPools;
 import fansirsqi.xposed.sesame.util.Log;
 
 import java.util.Map;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * SystemChildTaskExecutor 类实现了 ChildTaskExecutor 接口，用于执行和管理子任务，
  * 支持在指定时间延迟后执行子任务，并且支持任务取消和任务组的管理。
+ * <p>
+ * 定时任务的长延时由系统消息队列计时，临近触发时转入 {@link ChildTaskScheduler} 按触发时间精确执行，
+ * 主线程只负责入队，等待期间不占用任何线程。
  */
 public class SystemChildTaskExecutor implements ChildTaskExecutor {
     private static final String TAG = "SystemChildTaskExecutor";
+    /**
+     * 每个子任务组的最大线程数与排队容量，只执行即时任务
+     */
+    private static final int GROUP_POOL_SIZE = 8;
+    private static final int GROUP_QUEUE_CAPACITY = 256;
+    /**
+     * 延时超过该值时先由消息队列计时
+     */
+    private static final long HANDLER_THRESHOLD = 3000;
+    /**
+     * 消息队列提前转入调度器的时间
+     */
+    private static final long HANDLER_LEAD = 2500;
     private final Handler handler;
 
     private final Map<String, ThreadPoolExecutor> groupChildTaskExecutorMap = new ConcurrentHashMap<>();
@@ -34,57 +45,50 @@ public class SystemChildTaskExecutor implements ChildTaskExecutor {
     @Override
     public Boolean addChildTask(ModelTask.ChildModelTask childTask) {
         long execTime = childTask.getExecTime();
-        Runnable runnable = () -> {
-            if (childTask.getIsCancel()) {
-                return;
+        if (execTime > 0) {
+            long delayMillis = childTask.getFireTime() - System.currentTimeMillis();
+            if (delayMillis > HANDLER_THRESHOLD) {
+                Runnable runnable = () -> schedule(childTask);
+                childTask.setCancelTask(() -> handler.removeCallbacks(runnable));
+                handler.postDelayed(runnable, delayMillis - HANDLER_LEAD);
+            } else {
+                schedule(childTask);
             }
-
-            ThreadPoolExecutor threadPoolExecutor = getChildGroupHandler(childTask.getGroup());
-            Future<?> future = threadPoolExecutor.submit((Callable<Void>) () -> {
+            return true;
+        }
+        // 即时任务在提交线程中直接入池，不经过主线程，队列满时的背压不会落到主线程上
+        ThreadPoolExecutor threadPoolExecutor = getChildGroupHandler(childTask.getGroup());
+        Future<?> future;
+        try {
+            future = threadPoolExecutor.submit(() -> {
                 try {
-                    long delay = execTime - System.currentTimeMillis();
-                    if (delay > 0) {
-                        try {
-                            Thread.sleep(delay);
-                        } catch (InterruptedException e) {
-                            Log.runtime(TAG, "延迟中断，任务可能已取消: " + childTask.getId());
-                            Thread.currentThread().interrupt(); // 恢复中断状态
-                            return null;
-                        }
-                    }
-
                     childTask.run();
-
                 } catch (Throwable t) {
                     Log.printStackTrace(TAG, "子任务执行异常: " + childTask.getId(), t);
                 } finally {
-                    // 可选：根据业务决定是否移除
                     childTask.getModelTask().removeChildTask(childTask.getId());
                 }
-                return null;
             });
-
-            childTask.setCancelTask(() -> future.cancel(true));
-        };
-
-        if (execTime > 0) {
-            long delayMillis = execTime - System.currentTimeMillis();
-            if (delayMillis > 3000) {
-                handler.postDelayed(runnable, delayMillis - 2500);
-                childTask.setCancelTask(() -> handler.removeCallbacks(runnable));
-            } else {
-                // 防止负数或过小 delay
-                delayMillis = Math.max(0, delayMillis);
-                childTask.setCancelTask(() -> handler.removeCallbacks(runnable));
-                handler.postDelayed(runnable, delayMillis);
-            }
-        } else {
-            handler.post(runnable);
+        } catch (RejectedExecutionException e) {
+            // 线程池已关闭（任务停止中），不再添加
+            Log.runtime(TAG, "子任务未能提交: " + childTask.getId() + " " + e.getMessage());
+            return false;
         }
-
+        childTask.setCancelTask(() -> future.cancel(true));
         return true;
     }
 
+    /**
+     * 转入定时调度器，由调度器在触发时间执行
+     */
+    private void schedule(ModelTask.ChildModelTask childTask) {
+        if (childTask.getIsCancel()) {
+            return;
+        }
+        ChildTaskScheduler.Entry entry = ChildTaskScheduler.schedule(this, childTask);
+        childTask.setCancelTask(entry::cancel);
+    }
+
     @Override
     public void removeChildTask(ModelTask.ChildModelTask childTask) {
         childTask.cancel();
@@ -92,6 +96,7 @@ public class SystemChildTaskExecutor implements ChildTaskExecutor {
 
     @Override
     public Boolean clearGroupChildTask(String group) {
+        ChildTaskScheduler.cancel(this, group);
         ThreadPoolExecutor pool = groupChildTaskExecutorMap.get(group);
         if (pool != null) {
             GlobalThreadPools.shutdownAndAwaitTermination(pool, 3, group);
@@ -102,6 +107,7 @@ public class SystemChildTaskExecutor implements ChildTaskExecutor {
 
     @Override
     public void clearAllChildTask() {
+        ChildTaskScheduler.cancel(this, null);
         for (Map.Entry<String, ThreadPoolExecutor> entry : groupChildTaskExecutorMap.entrySet()) {
             GlobalThreadPools.shutdownAndAwaitTermination(entry.getValue(), 3, entry.getKey());
         }
@@ -121,36 +127,9 @@ public class SystemChildTaskExecutor implements ChildTaskExecutor {
             return existing;
         }
 
-        ThreadPoolExecutor newPool = new ThreadPoolExecutor(
-                0,
-                Integer.MAX_VALUE,
-                30L,
-                TimeUnit.SECONDS,
-                new SynchronousQueue<>(),
-                new NamedThreadFactory("TaskGroup-" + group),
-                new ThreadPoolExecutor.CallerRunsPolicy()
-        );
+        ThreadPoolExecutor newPool = GlobalThreadPools.newThreadPool("TaskGroup-" + group, 0, GROUP_POOL_SIZE, GROUP_QUEUE_CAPACITY);
 
         groupChildTaskExecutorMap.put(group, newPool);
         return newPool;
     }
-
-    /**
-     * 自定义线程工厂，设置线程名前缀
-     */
-    private static class NamedThreadFactory implements ThreadFactory {
-        private final String namePrefix;
-        private final AtomicInteger threadNumber = new AtomicInteger(1);
-
-        public NamedThreadFactory(String namePrefix) {
-            this.namePrefix = namePrefix;
-        }
-
-        @Override
-        public Thread newThread(Runnable r) {
-            Thread t = new Thread(r, namePrefix + "-thread-" + threadNumber.getAndIncrement());
-            t.setDaemon(false); // 根据需要调整
-            return t;
-        }
-    }
-}
\ No newline at end of file
+}
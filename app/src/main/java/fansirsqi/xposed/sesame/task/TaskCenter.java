@@ -0,0 +1,330 @@
+package fansirsqi.xposed.sesame.task;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fansirsqi.xposed.sesame.newutil.DataStore;
+import fansirsqi.xposed.sesame.util.GlobalThreadPools;
+import fansirsqi.xposed.sesame.util.Log;
+import fansirsqi.xposed.sesame.util.maps.UserMap;
+
+/**
+ * 通用任务中心：查询任务列表 → 完成任务 → 领取奖励。
+ * <p>
+ * 各模块只需实现 {@link Adapter}，把任务列表解析为 {@link Task}，并提供完成与领取的 RPC；
+ * 答题、看视频等需要专门流程的任务通过 {@link Adapter#getActions()} 按任务类型注册 {@link Action}。
+ * 任务按 TODO → FINISHED → RECEIVED 推进：TODO 的任务调用完成，FINISHED 的任务调用领取，有进展时重新查询列表，
+ * 直到一轮没有任何进展。完成失败的次数记入 {@link TaskLedger}，达到预算后当天不再为该用户尝试，次日重新计数；
+ * 只有适配器返回 {@link Result#block} 的任务才被永久屏蔽。
+ * 请求之间不再固定休眠，节奏由 RPC 限流器控制，只有服务器返回了等待时间时才等待。
+ */
+public final class TaskCenter {
+    private static final String TAG = TaskCenter.class.getSimpleName();
+    /**
+     * 最多重新查询的轮数，防止服务器状态不更新时死循环
+     */
+    private static final int MAX_ROUNDS = 8;
+    /**
+     * 并发执行任务的线程池，与调用方所在的任务线程池分开，调用方阻塞等待时不会占满自己所在的池
+     */
+    private static final ThreadPoolExecutor POOL = GlobalThreadPools.newThreadPool("TaskCenter", 0, 4, 256, false);
+
+    private TaskCenter() {
+    }
+
+    /**
+     * 任务列表中的一个任务
+     */
+    public static final class Task {
+        public final String sceneCode;
+        public final String taskType;
+        public final String title;
+        public final TaskStatus status;
+        /**
+         * 奖励描述，仅用于日志
+         */
+        public final String award;
+        public final JSONObject raw;
+
+        public Task(String sceneCode, String taskType, String title, String status, String award, JSONObject raw) {
+            this.sceneCode = sceneCode;
+            this.taskType = taskType;
+            this.title = title;
+            this.status = parseStatus(status);
+            this.award = award;
+            this.raw = raw;
+        }
+
+        private static TaskStatus parseStatus(String status) {
+            for (TaskStatus value : TaskStatus.values()) {
+                if (value.name().equals(status)) {
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 完成或领取的结果
+     */
+    public static final class Result {
+        private static final Result OK = new Result(true, false, 0, null);
+        final boolean success;
+        /**
+         * 失败且以后也不可能成功，立即屏蔽，所有用户共用
+         */
+        final boolean block;
+        /**
+         * 服务器要求的等待时间
+         */
+        final long waitMillis;
+        final String reason;
+
+        private Result(boolean success, boolean block, long waitMillis, String reason) {
+            this.success = success;
+            this.block = block;
+            this.waitMillis = waitMillis;
+            this.reason = reason;
+        }
+
+        public static Result ok() {
+            return OK;
+        }
+
+        /**
+         * 成功，并按服务器返回的时间等待后再继续
+         */
+        public static Result ok(long waitMillis) {
+            return waitMillis > 0 ? new Result(true, false, waitMillis, null) : OK;
+        }
+
+        public static Result fail(String reason) {
+            return new Result(false, false, 0, reason);
+        }
+
+        public static Result block(String reason) {
+            return new Result(false, true, 0, reason);
+        }
+
+        public static Result of(boolean success, String reason) {
+            return success ? OK : fail(reason);
+        }
+    }
+
+    /**
+     * 单个任务的自定义完成动作
+     */
+    public interface Action {
+        Result run(Task task) throws JSONException;
+    }
+
+    /**
+     * 模块的任务中心接口
+     */
+    public interface Adapter {
+        /**
+         * 台账中的名称，同一任务中心保持不变
+         */
+        String getName();
+
+        /**
+         * 查询任务列表
+         *
+         * @return 查询失败时返回 null
+         */
+        List<Task> queryTasks() throws JSONException;
+
+        /**
+         * 完成没有注册自定义动作的任务
+         */
+        Result finishTask(Task task) throws JSONException;
+
+        Result receiveAward(Task task) throws JSONException;
+
+        /**
+         * 按任务类型注册的自定义完成动作，优先于 {@link #finishTask}；失败次数同样计入台账
+         */
+        default Map<String, Action> getActions() {
+            return Collections.emptyMap();
+        }
+
+        /**
+         * 每个任务每天最多完成失败的次数，成功不计入
+         */
+        default int getRetryBudget() {
+            return 3;
+        }
+
+        /**
+         * 同时执行的任务数，服务器允许并发时可大于 1
+         */
+        default int getParallelism() {
+            return 1;
+        }
+
+        /**
+         * 预置的不能完成的任务类型
+         */
+        default Collection<String> getPresetBlocked() {
+            return Collections.emptyList();
+        }
+
+        /**
+         * 旧版本在 DataStore 中保存屏蔽任务的键，首次运行时并入台账
+         */
+        default String getLegacyBlockedKey() {
+            return null;
+        }
+    }
+
+    /**
+     * 执行一个任务中心的全部任务
+     */
+    public static void run(Adapter adapter) {
+        String center = adapter.getName();
+        String userId = String.valueOf(UserMap.getCurrentUid());
+        preset(adapter);
+        Map<String, Action> customActions = adapter.getActions();
+        Set<String> received = Collections.synchronizedSet(new HashSet<>());
+        try {
+            for (int round = 0; round < MAX_ROUNDS; round++) {
+                List<Task> tasks = adapter.queryTasks();
+                if (tasks == null || tasks.isEmpty()) {
+                    return;
+                }
+                List<Runnable> actions = new ArrayList<>();
+                AtomicBoolean progress = new AtomicBoolean(false);
+                for (Task task : tasks) {
+                    if (task.status == TaskStatus.FINISHED) {
+                        // 同一次运行中只领取一次，领取失败留给下次运行
+                        if (received.add(task.sceneCode + "_" + task.taskType)) {
+                            actions.add(() -> receive(adapter, task, progress));
+                        }
+                    } else if (task.status == TaskStatus.TODO && !TaskLedger.isBlocked(center, task.taskType)) {
+                        // 只跳过当天，不屏蔽，次日重新尝试
+                        if (TaskLedger.getTries(center, task.taskType, userId) >= adapter.getRetryBudget()) {
+                            if (round == 0) {
+                                Log.record(TAG, center + "任务[" + task.title + "]今日多次完成失败，跳过");
+                            }
+                            continue;
+                        }
+                        Action action = customActions.get(task.taskType);
+                        actions.add(() -> finish(adapter, action, task, userId, progress));
+                    }
+                }
+                execute(actions, adapter.getParallelism());
+                if (!progress.get()) {
+                    return;
+                }
+            }
+            Log.record(TAG, center + "任务列表" + MAX_ROUNDS + "轮后仍有变化，停止本次执行");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (JSONException e) {
+            Log.error(TAG, center + "任务JSON解析错误: " + e.getMessage());
+            Log.printStackTrace(TAG, e);
+        } catch (Throwable t) {
+            Log.runtime(TAG, center + "任务执行错误:");
+            Log.printStackTrace(TAG, t);
+        }
+    }
+
+    private static void preset(Adapter adapter) {
+        Set<String> blocked = new HashSet<>(adapter.getPresetBlocked());
+        String legacyKey = adapter.getLegacyBlockedKey();
+        if (legacyKey != null) {
+            Collection<?> legacy = DataStore.INSTANCE.get(legacyKey, Collection.class);
+            if (legacy != null) {
+                for (Object taskType : legacy) {
+                    blocked.add(String.valueOf(taskType));
+                }
+            }
+        }
+        if (!blocked.isEmpty()) {
+            TaskLedger.preset(adapter.getName(), blocked);
+        }
+    }
+
+    private static void finish(Adapter adapter, Action action, Task task, String userId, AtomicBoolean progress) {
+        String center = adapter.getName();
+        try {
+            Result result = action != null ? action.run(task) : adapter.finishTask(task);
+            if (result.success) {
+                progress.set(true);
+            } else if (result.block) {
+                TaskLedger.block(center, task.taskType, result.reason);
+                Log.record(TAG, center + "任务[" + task.title + "]无法完成，已屏蔽：" + result.reason);
+            } else {
+                TaskLedger.addTry(center, task.taskType, userId);
+            }
+            await(result);
+        } catch (Throwable t) {
+            TaskLedger.addTry(center, task.taskType, userId);
+            Log.printStackTrace(TAG, center + "完成任务[" + task.title + "]错误", t);
+        }
+    }
+
+    private static void receive(Adapter adapter, Task task, AtomicBoolean progress) {
+        try {
+            Result result = adapter.receiveAward(task);
+            if (result.success) {
+                progress.set(true);
+            }
+            await(result);
+        } catch (Throwable t) {
+            Log.printStackTrace(TAG, adapter.getName() + "领取任务[" + task.title + "]奖励错误", t);
+        }
+    }
+
+    private static void await(Result result) {
+        if (result.waitMillis > 0) {
+            GlobalThreadPools.sleep(result.waitMillis);
+        }
+    }
+
+    /**
+     * 按并发数执行，并发为 1 时在当前线程依次执行；线程池满时在当前线程执行
+     */
+    private static void execute(List<Runnable> actions, int parallelism) throws InterruptedException {
+        if (parallelism <= 1 || actions.size() <= 1) {
+            for (Runnable action : actions) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                action.run();
+            }
+            return;
+        }
+        for (int start = 0; start < actions.size(); start += parallelism) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Runnable action : actions.subList(start, Math.min(actions.size(), start + parallelism))) {
+                try {
+                    futures.add(POOL.submit(action));
+                } catch (RejectedExecutionException e) {
+                    action.run();
+                }
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Log.printStackTrace(TAG, e.getCause());
+                }
+            }
+        }
+    }
+}
@@ -1,44 +1,78 @@
 package fansirsqi.xposed.sesame.task;
 
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import fansirsqi.xposed.sesame.model.BaseModel;
+import fansirsqi.xposed.sesame.util.GlobalThreadPools;
 import fansirsqi.xposed.sesame.util.Log;
-import fansirsqi.xposed.sesame.util.TimeUtil;
+import fansirsqi.xposed.sesame.util.TimeWindows;
 
 /**
  * 通用任务工具类
  * <p>
  * 提供任务相关的通用功能，包括时间判断和状态更新。
+ * 时间状态在配置加载时计算，之后在下一个范围起止时刻自动刷新。
  */
 public class TaskCommon {
+    private static final String TAG = TaskCommon.class.getSimpleName();
+    private static final int EIGHT_AM = 8 * 60 * 60 * 1000;
     public static volatile Boolean IS_ENERGY_TIME = false;
     public static volatile Boolean IS_AFTER_8AM = false;
     public static volatile Boolean IS_MODULE_SLEEP_TIME = false;
+    private static ScheduledFuture<?> refreshFuture;
 
     public static void update() {
 
         Log.runtime("TaskCommon Update:");
-        long currentTimeMillis = System.currentTimeMillis();
         List<String> isEnergyTime = BaseModel.getEnergyTime().getValue();
         Log.runtime("获取能量时间配置:" + isEnergyTime);
         if (isConfigDisabled(isEnergyTime)) {
             Log.runtime("只收能量时间配置已关闭");
-            IS_ENERGY_TIME = false;
-        } else {
-            IS_ENERGY_TIME = TimeUtil.checkInTimeRange(currentTimeMillis, isEnergyTime);
         }
 
         List<String> isModuleSleepTime = BaseModel.getModelSleepTime().getValue();
         Log.runtime("获取模块休眠配置:" + isModuleSleepTime);
         if (isConfigDisabled(isModuleSleepTime)) {
             Log.runtime("休眠配置已关闭");
-            IS_MODULE_SLEEP_TIME = false;
-        } else {
-            IS_MODULE_SLEEP_TIME = TimeUtil.checkInTimeRange(currentTimeMillis, isModuleSleepTime);
         }
+        refresh();
+    }
+
+    /**
+     * 按当前时间计算时间状态，并安排在最近的变化时刻再次计算
+     */
+    private static synchronized void refresh() {
+        long now = System.currentTimeMillis();
+        TimeWindows energyTime = TimeWindows.of(BaseModel.getEnergyTime());
+        TimeWindows modelSleepTime = TimeWindows.of(BaseModel.getModelSleepTime());
+        boolean energy = energyTime.contains(now);
+        boolean sleep = modelSleepTime.contains(now);
+        if (energy != IS_ENERGY_TIME || sleep != IS_MODULE_SLEEP_TIME) {
+            Log.runtime(TAG, "只收能量时间:" + energy + " 模块休眠时间:" + sleep);
+        }
+        IS_ENERGY_TIME = energy;
+        IS_MODULE_SLEEP_TIME = sleep;
+        int timeOfDay = TimeWindows.timeOfDay(now);
+        IS_AFTER_8AM = timeOfDay >= EIGHT_AM;
+
+        long next = now - timeOfDay + (timeOfDay < EIGHT_AM ? EIGHT_AM : TimeWindows.DAY);
+        next = earliest(next, energyTime.nextBoundary(now));
+        next = earliest(next, modelSleepTime.nextBoundary(now));
+        if (refreshFuture != null) {
+            refreshFuture.cancel(false);
+        }
+        try {
+            refreshFuture = GlobalThreadPools.getScheduledPool(GlobalThreadPools.Workload.TIMER)
+                    .schedule(TaskCommon::refresh, next - now, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            Log.printStackTrace(TAG, "安排时间状态刷新失败", e);
+        }
+    }
 
-        IS_AFTER_8AM = TimeUtil.isAfterOrCompareTimeStr(currentTimeMillis, "0800");
+    private static long earliest(long current, long boundary) {
+        return boundary < 0 ? current : Math.min(current, boundary);
     }
 
     /**
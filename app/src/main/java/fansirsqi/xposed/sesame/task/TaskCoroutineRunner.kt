@@ -0,0 +1,58 @@
+package fansirsqi.xposed.sesame.task
+
+import fansirsqi.xposed.sesame.util.GlobalThreadPools
+import fansirsqi.xposed.sesame.util.Log
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.launch
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 协程模式下模型任务的执行器，所有任务共用 [GlobalThreadPools.Workload.COROUTINE] 线程池
+ */
+object TaskCoroutineRunner {
+    private const val TAG = "TaskCoroutineRunner"
+
+    private val scope: CoroutineScope by lazy {
+        CoroutineScope(SupervisorJob() + GlobalThreadPools.getPool(GlobalThreadPools.Workload.COROUTINE).asCoroutineDispatcher())
+    }
+
+    private val jobMap = ConcurrentHashMap<ModelTask, Job>()
+
+    /**
+     * 启动任务，任务正在执行时忽略
+     */
+    fun launch(task: CoroutineModelTask) {
+        val job = scope.launch(start = CoroutineStart.LAZY) {
+            val token = task.enterMainTask() ?: return@launch
+            try {
+                task.runSuspend()
+            } catch (e: CancellationException) {
+                Log.runtime(TAG, task.getName() + " 已取消")
+            } catch (t: Throwable) {
+                Log.printStackTrace(TAG, t)
+            } finally {
+                task.exitMainTask(token)
+            }
+        }
+        // 已有任务在执行时不覆盖，否则原任务的 Job 脱离管理，无法再被取消
+        val existing = jobMap.putIfAbsent(task, job)
+        if (existing != null && (existing.isActive || !jobMap.replace(task, existing, job))) {
+            job.cancel()
+            return
+        }
+        job.invokeOnCompletion { jobMap.remove(task, job) }
+        job.start()
+    }
+
+    /**
+     * 取消任务
+     */
+    fun cancel(task: ModelTask) {
+        jobMap.remove(task)?.cancel()
+    }
+}
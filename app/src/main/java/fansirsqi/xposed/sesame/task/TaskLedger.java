@@ -0,0 +1,129 @@
+package fansirsqi.xposed.sesame.task;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import fansirsqi.xposed.sesame.newutil.DataStore;
+import fansirsqi.xposed.sesame.util.TimeUtil;
+import lombok.Data;
+
+/**
+ * 任务台账，保存在 DataStore 中，重启后仍然有效。
+ * <p>
+ * 每个任务中心的每种任务一条记录：当天各用户完成失败的次数，以及是否已被屏蔽。
+ * 失败次数按用户计、跨天清零，用于当天跳过；屏蔽只在确定无法完成时设置，一直保留，所有用户共用。
+ */
+public final class TaskLedger {
+    private static final String KEY = "taskLedger";
+    private static final TypeReference<Map<String, Entry>> TYPE = new TypeReference<>() {
+    };
+
+    private TaskLedger() {
+    }
+
+    @Data
+    public static class Entry {
+        private boolean blocked;
+        private String reason;
+        /**
+         * tries 对应的日期，yyyy-MM-dd
+         */
+        private String day;
+        /**
+         * 用户 ID 到当天失败次数
+         */
+        private Map<String, Integer> tries = new HashMap<>();
+    }
+
+    private static String key(String center, String taskType) {
+        return center + "|" + taskType;
+    }
+
+    private static Map<String, Entry> entries() {
+        return DataStore.INSTANCE.getOrCreate(KEY, TYPE);
+    }
+
+    private static void save(Map<String, Entry> entries) {
+        DataStore.INSTANCE.put(KEY, entries);
+    }
+
+    public static synchronized boolean isBlocked(String center, String taskType) {
+        Entry entry = entries().get(key(center, taskType));
+        return entry != null && entry.blocked;
+    }
+
+    /**
+     * 当天的失败次数
+     */
+    public static synchronized int getTries(String center, String taskType, String userId) {
+        Entry entry = entries().get(key(center, taskType));
+        if (entry == null || !TimeUtil.getDateStr2().equals(entry.day)) {
+            return 0;
+        }
+        Integer tries = entry.tries.get(userId);
+        return tries == null ? 0 : tries;
+    }
+
+    /**
+     * 失败次数加一
+     *
+     * @return 加一后的当天失败次数
+     */
+    public static synchronized int addTry(String center, String taskType, String userId) {
+        Map<String, Entry> entries = entries();
+        Entry entry = entryOf(entries, center, taskType);
+        String today = TimeUtil.getDateStr2();
+        if (!today.equals(entry.day)) {
+            entry.day = today;
+            entry.tries.clear();
+        }
+        Integer tries = entry.tries.get(userId);
+        int count = tries == null ? 1 : tries + 1;
+        entry.tries.put(userId, count);
+        save(entries);
+        return count;
+    }
+
+    /**
+     * 永久屏蔽，所有用户都不再尝试
+     */
+    public static synchronized void block(String center, String taskType, String reason) {
+        Map<String, Entry> entries = entries();
+        Entry entry = entryOf(entries, center, taskType);
+        entry.blocked = true;
+        entry.reason = reason;
+        save(entries);
+    }
+
+    /**
+     * 预置不能完成的任务，只对台账中还没有记录的任务生效，用户解除的屏蔽不会被恢复
+     */
+    public static synchronized void preset(String center, Collection<String> taskTypes) {
+        Map<String, Entry> entries = entries();
+        boolean changed = false;
+        for (String taskType : taskTypes) {
+            if (!entries.containsKey(key(center, taskType))) {
+                Entry entry = entryOf(entries, center, taskType);
+                entry.blocked = true;
+                entry.reason = "preset";
+                changed = true;
+            }
+        }
+        if (changed) {
+            save(entries);
+        }
+    }
+
+    private static Entry entryOf(Map<String, Entry> entries, String center, String taskType) {
+        String key = key(center, taskType);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+}
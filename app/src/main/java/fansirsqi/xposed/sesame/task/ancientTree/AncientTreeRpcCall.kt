@@ -1,19 +1,19 @@
 package fansirsqi.xposed.sesame.task.ancientTree
 
-import fansirsqi.xposed.sesame.hook.RequestManager.requestString
+import fansirsqi.xposed.sesame.hook.RequestManager.requestStringAwait
 
 object AncientTreeRpcCall {
     private const val VERSION = "20230522"
-    fun homePage(selectCityCode: String?): String {
-        return requestString(
+    suspend fun homePage(selectCityCode: String?): String {
+        return requestStringAwait(
             "alipay.greenmatrix.rpc.h5.ancienttree.homePage",
             ("[{\"cityCode\":\"330100\",\"selectCityCode\":\"" + selectCityCode
                     + "\",\"source\":\"antforesthome\"}]")
         )
     }
 
-    fun queryTreeItemsForExchange(cityCode: String?): String {
-        return requestString(
+    suspend fun queryTreeItemsForExchange(cityCode: String?): String {
+        return requestStringAwait(
             "alipay.antforest.forest.h5.queryTreeItemsForExchange",
             ("[{\"cityCode\":\"" + cityCode
                     + "\",\"itemTypes\":\"\",\"source\":\"chInfo_ch_appcenter__chsub_9patch\",\"version\":\""
@@ -21,15 +21,15 @@ object AncientTreeRpcCall {
         )
     }
 
-    fun districtDetail(districtCode: String?): String {
-        return requestString(
+    suspend fun districtDetail(districtCode: String?): String {
+        return requestStringAwait(
             "alipay.greenmatrix.rpc.h5.ancienttree.districtDetail",
             "[{\"districtCode\":\"" + districtCode + "\",\"source\":\"antforesthome\"}]"
         )
     }
 
-    fun projectDetail(ancientTreeProjectId: String?, cityCode: String?): String {
-        return requestString(
+    suspend fun projectDetail(ancientTreeProjectId: String?, cityCode: String?): String {
+        return requestStringAwait(
             "alipay.greenmatrix.rpc.h5.ancienttree.projectDetail",
             ("[{\"ancientTreeProjectId\":\"" + ancientTreeProjectId
                     + "\",\"channel\":\"ONLINE\",\"cityCode\":\"" + cityCode
@@ -37,8 +37,8 @@ object AncientTreeRpcCall {
         )
     }
 
-    fun protect(activityId: String?, ancientTreeProjectId: String?, cityCode: String?): String {
-        return requestString(
+    suspend fun protect(activityId: String?, ancientTreeProjectId: String?, cityCode: String?): String {
+        return requestStringAwait(
             "alipay.greenmatrix.rpc.h5.ancienttree.protect",
             ("[{\"ancientTreeActivityId\":\"" + activityId + "\",\"ancientTreeProjectId\":\""
                     + ancientTreeProjectId + "\",\"cityCode\":\"" + cityCode
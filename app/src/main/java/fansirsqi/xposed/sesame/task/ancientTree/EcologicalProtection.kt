@@ -6,17 +6,18 @@ import fansirsqi.xposed.sesame.model.ModelFields
 import fansirsqi.xposed.sesame.model.ModelGroup
 import fansirsqi.xposed.sesame.model.modelFieldExt.BooleanModelField
 import fansirsqi.xposed.sesame.model.modelFieldExt.SelectModelField
-import fansirsqi.xposed.sesame.task.ModelTask
+import fansirsqi.xposed.sesame.task.CoroutineModelTask
 import fansirsqi.xposed.sesame.task.TaskCommon
-import fansirsqi.xposed.sesame.util.GlobalThreadPools
 import fansirsqi.xposed.sesame.util.Log
 import fansirsqi.xposed.sesame.util.ResChecker
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.delay
 import org.json.JSONObject
 import java.text.SimpleDateFormat
 import java.util.Date
 import java.util.Locale
 
-class EcologicalProtection : ModelTask() {
+class EcologicalProtection : CoroutineModelTask() {
     override fun getName(): String {
         return "生态保护"
     }
@@ -55,10 +56,12 @@ class EcologicalProtection : ModelTask() {
         return false
     }
 
-    override fun run() {
+    override suspend fun runSuspend() {
         try {
             Log.record(TAG, "开始执行" + getName())
             ancientTree(ancientTreeCityCodeList!!.value)
+        } catch (e: CancellationException) {
+            throw e
         } catch (t: Throwable) {
             Log.runtime(TAG, "start.run err:")
             Log.printStackTrace(TAG, t)
@@ -69,20 +72,22 @@ class EcologicalProtection : ModelTask() {
 
     companion object {
         private val TAG: String = EcologicalProtection::class.java.getSimpleName()
-        private fun ancientTree(ancientTreeCityCodeList: MutableCollection<String?>) {
+        private suspend fun ancientTree(ancientTreeCityCodeList: MutableCollection<String?>) {
             try {
                 for (cityCode in ancientTreeCityCodeList) {
                     if (!Status.canAncientTreeToday(cityCode)) continue
                     ancientTreeProtect(cityCode)
-                    GlobalThreadPools.sleep(1000L)
+                    delay(1000L)
                 }
+            } catch (e: CancellationException) {
+                throw e
             } catch (th: Throwable) {
                 Log.runtime(TAG, "ancientTree err:")
                 Log.printStackTrace(TAG, th)
             }
         }
 
-        private fun ancientTreeProtect(cityCode: String?) {
+        private suspend fun ancientTreeProtect(cityCode: String?) {
             try {
                 val jo = JSONObject(AncientTreeRpcCall.homePage(cityCode))
                 if (ResChecker.checkRes(TAG, jo)) {
@@ -98,17 +103,19 @@ class EcologicalProtection : ModelTask() {
                         val districtInfo = districtBriefInfo.getJSONObject("districtInfo")
                         val districtCode = districtInfo.getString("districtCode")
                         districtDetail(districtCode)
-                        GlobalThreadPools.sleep(1000L)
+                        delay(1000L)
                     }
                     Status.ancientTreeToday(cityCode)
                 }
+            } catch (e: CancellationException) {
+                throw e
             } catch (th: Throwable) {
                 Log.runtime(TAG, "ancientTreeProtect err:")
                 Log.printStackTrace(TAG, th)
             }
         }
 
-        private fun districtDetail(districtCode: String?) {
+        private suspend fun districtDetail(districtCode: String?) {
             try {
                 var jo = JSONObject(AncientTreeRpcCall.districtDetail(districtCode))
                 if (ResChecker.checkRes(TAG, jo)) {
@@ -143,7 +150,7 @@ class EcologicalProtection : ModelTask() {
                                 val protectExpense = ancientTreeInfo.getInt("protectExpense")
                                 cityCode = ancientTreeInfo.getString("cityCode")
                                 if (currentEnergy < protectExpense) break
-                                GlobalThreadPools.sleep(200)
+                                delay(200)
                                 jo = JSONObject(AncientTreeRpcCall.protect(activityId, projectId, cityCode))
                                 if (ResChecker.checkRes(TAG, jo)) {
                                     Log.forest(
@@ -159,9 +166,11 @@ class EcologicalProtection : ModelTask() {
                             Log.record(jo.getString("resultDesc"))
                             Log.runtime(ancientTreeDetail.toString())
                         }
-                        GlobalThreadPools.sleep(500L)
+                        delay(500L)
                     }
                 }
+            } catch (e: CancellationException) {
+                throw e
             } catch (th: Throwable) {
                 Log.runtime(TAG, "districtDetail err:")
                 Log.printStackTrace(TAG, th)
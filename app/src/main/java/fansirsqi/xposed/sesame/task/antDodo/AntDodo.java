@@ -1,11 +1,11 @@
 package fansirsqi.xposed.sesame.task.antDodo;
-import com.fasterxml.jackson.core.type.TypeReference;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
@@ -19,10 +19,9 @@ import fansirsqi.xposed.sesame.model.ModelGroup;
 import fansirsqi.xposed.sesame.model.modelFieldExt.BooleanModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.ChoiceModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.SelectModelField;
-import fansirsqi.xposed.sesame.newutil.DataStore;
 import fansirsqi.xposed.sesame.task.ModelTask;
+import fansirsqi.xposed.sesame.task.TaskCenter;
 import fansirsqi.xposed.sesame.task.TaskCommon;
-import fansirsqi.xposed.sesame.task.TaskStatus;
 import fansirsqi.xposed.sesame.util.GlobalThreadPools;
 import fansirsqi.xposed.sesame.util.Log;
 import fansirsqi.xposed.sesame.util.maps.UserMap;
@@ -252,85 +251,80 @@ public class AntDodo extends ModelTask {
      * 查询任务列表，完成待完成的任务，领取已完成任务的奖励
      */
     private void receiveTaskAward() {
-        try {
-            // 获取不能完成的任务列表
-            Set<String> presetBad = new LinkedHashSet<>(List.of("HELP_FRIEND_COLLECT"));
-            TypeReference<Set<String>> typeRef = new TypeReference<>() {};
-            Set<String> badTaskSet = DataStore.INSTANCE.getOrCreate("badDodoTaskList", typeRef);
-            if (badTaskSet.isEmpty()) {
-                badTaskSet.addAll(presetBad);
-                DataStore.INSTANCE.put("badDodoTaskList", badTaskSet);
+        TaskCenter.run(new DodoTaskAdapter());
+    }
+
+    /**
+     * 神奇物种任务中心
+     */
+    private static class DodoTaskAdapter implements TaskCenter.Adapter {
+        @Override
+        public String getName() {
+            return "dodo";
+        }
+
+        @Override
+        public List<TaskCenter.Task> queryTasks() throws JSONException {
+            String response = AntDodoRpcCall.taskList();
+            JSONObject jsonResponse = new JSONObject(response);
+            if (!ResChecker.checkRes(TAG + "查询任务列表失败:", jsonResponse)) {
+                Log.record(TAG, "查询任务列表失败：" + jsonResponse.optString("resultDesc"));
+                Log.runtime(response);
+                return null;
             }
-            while (true) {
-                boolean doubleCheck = false;
-                String response = AntDodoRpcCall.taskList(); // 调用任务列表接口
-                JSONObject jsonResponse = new JSONObject(response); // 解析响应为 JSON 对象
-                // 检查响应结果码是否成功
-                if (!ResChecker.checkRes(TAG + "查询任务列表失败:", jsonResponse)) {
-                    Log.record(TAG, "查询任务列表失败：" + jsonResponse.getString("resultDesc"));
-                    Log.runtime(response);
-                    break;
+            List<TaskCenter.Task> tasks = new ArrayList<>();
+            JSONArray taskGroupInfoList = jsonResponse.getJSONObject("data").optJSONArray("taskGroupInfoList");
+            if (taskGroupInfoList == null) {
+                return tasks;
+            }
+            for (int i = 0; i < taskGroupInfoList.length(); i++) {
+                JSONArray taskInfoList = taskGroupInfoList.getJSONObject(i).getJSONArray("taskInfoList");
+                for (int j = 0; j < taskInfoList.length(); j++) {
+                    JSONObject taskInfo = taskInfoList.getJSONObject(j);
+                    JSONObject taskBaseInfo = taskInfo.getJSONObject("taskBaseInfo");
+                    JSONObject bizInfo = new JSONObject(taskBaseInfo.getString("bizInfo"));
+                    String taskType = taskBaseInfo.getString("taskType");
+                    tasks.add(new TaskCenter.Task(taskBaseInfo.getString("sceneCode"), taskType, bizInfo.optString("taskTitle", taskType),
+                            taskBaseInfo.getString("taskStatus"), bizInfo.optString("awardCount", "1"), taskInfo));
                 }
-                // 获取任务组信息列表
-                JSONArray taskGroupInfoList = jsonResponse.getJSONObject("data").optJSONArray("taskGroupInfoList");
-                if (taskGroupInfoList == null) return; // 如果任务组为空则返回
-                // 遍历每个任务组
-                for (int i = 0; i < taskGroupInfoList.length(); i++) {
-                    JSONObject antDodoTask = taskGroupInfoList.getJSONObject(i);
-                    JSONArray taskInfoList = antDodoTask.getJSONArray("taskInfoList"); // 获取任务信息列表
-                    // 遍历每个任务
-                    for (int j = 0; j < taskInfoList.length(); j++) {
-                        JSONObject taskInfo = taskInfoList.getJSONObject(j);
-                        JSONObject taskBaseInfo = taskInfo.getJSONObject("taskBaseInfo"); // 获取任务基本信息
-                        JSONObject bizInfo = new JSONObject(taskBaseInfo.getString("bizInfo")); // 获取业务信息
-                        String taskType = taskBaseInfo.getString("taskType"); // 获取任务类型
-                        String taskTitle = bizInfo.optString("taskTitle", taskType); // 获取任务标题
-                        String awardCount = bizInfo.optString("awardCount", "1"); // 获取奖励数量
-                        String sceneCode = taskBaseInfo.getString("sceneCode"); // 获取场景代码
-                        String taskStatus = taskBaseInfo.getString("taskStatus"); // 获取任务状态
-                        // 如果任务已完成，领取任务奖励
-                        if (TaskStatus.FINISHED.name().equals(taskStatus)) {
-                            JSONObject joAward = new JSONObject(
-                                    AntDodoRpcCall.receiveTaskAward(sceneCode, taskType)); // 领取奖励请求
-                            if (joAward.optBoolean("success")) {
-                                doubleCheck = true;
-                                Log.forest("任务奖励🎖️[" + taskTitle + "]#" + awardCount + "个");
-                            } else {
-                                Log.record(TAG,"领取失败，" + response); // 记录领取失败信息
-                            }
-                            Log.runtime(joAward.toString()); // 打印奖励响应
-                        }
-                        // 如果任务待完成，处理特定类型的任务
-                        else if (TaskStatus.TODO.name().equals(taskStatus)) {
-                            if (!badTaskSet.contains(taskType)) {
-                                // 尝试完成任务
-                                JSONObject joFinishTask = new JSONObject(
-                                        AntDodoRpcCall.finishTask(sceneCode, taskType)); // 完成任务请求
-                                if (joFinishTask.optBoolean("success")) {
-                                    Log.forest("物种任务🧾️[" + taskTitle + "]");
-                                    doubleCheck = true;
-                                } else {
-                                    Log.record(TAG,"完成任务失败，" + taskTitle); // 记录完成任务失败信息
-                                    badTaskSet.add(taskType);
-                                    DataStore.INSTANCE.put("badDodoTaskList", badTaskSet);
-                                }
+            }
+            return tasks;
+        }
 
-                            }
-                        }
-                        GlobalThreadPools.sleep(500);
-                    }
-                }
-                if (!doubleCheck) break;
+        @Override
+        public TaskCenter.Result finishTask(TaskCenter.Task task) throws JSONException {
+            JSONObject joFinishTask = new JSONObject(AntDodoRpcCall.finishTask(task.sceneCode, task.taskType));
+            if (joFinishTask.optBoolean("success")) {
+                Log.forest("物种任务🧾️[" + task.title + "]");
+                return TaskCenter.Result.ok();
             }
-        } catch (JSONException e) {
-            Log.error(TAG, "JSON解析错误: " + e.getMessage());
-            Log.printStackTrace(TAG, e);
-        } catch (Throwable t) {
-            Log.runtime(TAG, "AntDodo ReceiveTaskAward 错误:");
-            Log.printStackTrace(TAG, t); // 打印异常栈
+            Log.record(TAG, "完成任务失败，" + task.title);
+            return TaskCenter.Result.block(joFinishTask.optString("resultDesc"));
+        }
+
+        @Override
+        public TaskCenter.Result receiveAward(TaskCenter.Task task) throws JSONException {
+            JSONObject joAward = new JSONObject(AntDodoRpcCall.receiveTaskAward(task.sceneCode, task.taskType));
+            Log.runtime(joAward.toString());
+            if (joAward.optBoolean("success")) {
+                Log.forest("任务奖励🎖️[" + task.title + "]#" + task.award + "个");
+                return TaskCenter.Result.ok();
+            }
+            Log.record(TAG, "领取失败，" + joAward);
+            return TaskCenter.Result.fail(joAward.optString("resultDesc"));
+        }
+
+        @Override
+        public Collection<String> getPresetBlocked() {
+            return List.of("HELP_FRIEND_COLLECT");
+        }
+
+        @Override
+        public String getLegacyBlockedKey() {
+            return "badDodoTaskList";
         }
     }
-    
+
     /**
      * 使用道具列表
      * 查询用户拥有的道具，根据配置使用相应的道具
@@ -672,7 +672,7 @@ class AntFarm : ModelTask() {
     private fun enterFarm(): JSONObject? {
         try {
             val userId = UserMap.currentUid
-            val jo = JSONObject(AntFarmRpcCall.enterFarm(userId, userId))
+            val jo = AntFarmRpcCall.enterFarmJson(userId, userId)
             if (ResChecker.checkRes(TAG + "进入庄园失败:", jo)) {
                 rewardProductNum = jo.getJSONObject("dynamicGlobalConfig").getString("rewardProductNum")
                 val joFarmVO = jo.getJSONObject("farmVO")
@@ -1,5 +1,7 @@
 package fansirsqi.xposed.sesame.task.antFarm
 
+import fansirsqi.xposed.sesame.entity.RpcEntity
+import fansirsqi.xposed.sesame.hook.RequestManager.requestJson
 import fansirsqi.xposed.sesame.hook.RequestManager.requestString
 import fansirsqi.xposed.sesame.util.RandomUtil
 import org.json.JSONArray
@@ -23,6 +25,24 @@ object AntFarmRpcCall {
      */
     @Throws(JSONException::class)
     fun enterFarm(userId: String?, targetUserId: String?): String {
+        return requestString(enterFarmRpcEntity(userId, targetUserId))
+    }
+
+    /**
+     * 进入农场，直接返回响应的 JSONObject 视图
+     *
+     * @param userId       自己的用户id
+     * @param targetUserId 所在农场的用户id
+     * @return 返回结果
+     * @throws JSONException 异常内容
+     */
+    @Throws(JSONException::class)
+    fun enterFarmJson(userId: String?, targetUserId: String?): JSONObject {
+        return requestJson(enterFarmRpcEntity(userId, targetUserId))
+    }
+
+    @Throws(JSONException::class)
+    private fun enterFarmRpcEntity(userId: String?, targetUserId: String?): RpcEntity {
         val args = JSONObject()
         args.put("animalId", "")
         args.put("bizCode", "")
@@ -46,7 +66,7 @@ object AntFarmRpcCall {
         args.put("userToken", "")
         args.put("version", VERSION)
         val pamras = "[" + args + "]"
-        return requestString("com.alipay.antfarm.enterFarm", pamras)
+        return RpcEntity("com.alipay.antfarm.enterFarm", pamras)
     }
 
 
@@ -5,8 +5,6 @@ import static fansirsqi.xposed.sesame.task.antForest.ForestUtil.hasShield;
 
 import androidx.annotation.NonNull;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -14,7 +12,7 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -30,6 +28,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import de.robv.android.xposed.XposedHelpers;
 import fansirsqi.xposed.sesame.data.RuntimeInfo;
+import fansirsqi.xposed.sesame.data.Statistics;
 import fansirsqi.xposed.sesame.data.Status;
 import fansirsqi.xposed.sesame.entity.AlipayUser;
 import fansirsqi.xposed.sesame.entity.CollectEnergyEntity;
@@ -41,7 +40,9 @@ import fansirsqi.xposed.sesame.hook.RequestManager;
 import fansirsqi.xposed.sesame.hook.Toast;
 import fansirsqi.xposed.sesame.hook.rpc.intervallimit.FixedOrRangeIntervalLimit;
 import fansirsqi.xposed.sesame.hook.rpc.intervallimit.RpcIntervalLimit;
+import fansirsqi.xposed.sesame.hook.rpc.intervallimit.RpcPriority;
 import fansirsqi.xposed.sesame.model.BaseModel;
+import fansirsqi.xposed.sesame.model.ModelField;
 import fansirsqi.xposed.sesame.model.ModelFields;
 import fansirsqi.xposed.sesame.model.ModelGroup;
 import fansirsqi.xposed.sesame.model.modelFieldExt.BooleanModelField;
@@ -51,11 +52,10 @@ import fansirsqi.xposed.sesame.model.modelFieldExt.ListModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.SelectAndCountModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.SelectModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.StringModelField;
-import fansirsqi.xposed.sesame.newutil.DataStore;
 import fansirsqi.xposed.sesame.task.ModelTask;
+import fansirsqi.xposed.sesame.task.TaskCenter;
 import fansirsqi.xposed.sesame.task.TaskCommon;
-import fansirsqi.xposed.sesame.task.TaskStatus;
-import fansirsqi.xposed.sesame.util.Average;
+import fansirsqi.xposed.sesame.util.ClockSkewEstimator;
 import fansirsqi.xposed.sesame.util.GlobalThreadPools;
 import fansirsqi.xposed.sesame.util.ListUtil;
 import fansirsqi.xposed.sesame.util.Log;
@@ -64,6 +64,7 @@ import fansirsqi.xposed.sesame.util.Notify;
 import fansirsqi.xposed.sesame.util.RandomUtil;
 import fansirsqi.xposed.sesame.util.ResChecker;
 import fansirsqi.xposed.sesame.util.TimeUtil;
+import fansirsqi.xposed.sesame.util.TimeWindows;
 import lombok.Getter;
 
 /**
@@ -72,7 +73,11 @@ import lombok.Getter;
 public class AntForest extends ModelTask {
     public static final String TAG = AntForest.class.getSimpleName();
 
-    private static final Average offsetTimeMath = new Average(5);
+    private static final String COLLECT_ENERGY_METHOD = "alipay.antmember.forest.h5.collectEnergy";
+    /**
+     * 服务器时差与收取请求的网络延迟
+     */
+    private static final ClockSkewEstimator serverClock = new ClockSkewEstimator();
 
     private final AtomicInteger taskCount = new AtomicInteger(0);
     private String selfId;
@@ -106,7 +111,14 @@ public class AntForest extends ModelTask {
      */
     private volatile long robExpandCardEndTime = 0;
 
-    private final Average delayTimeMath = new Average(5);
+    /**
+     * 同一好友的能量球成熟时间相差不超过该值时合并为一次蹲点收取
+     */
+    private static final long ENERGY_TIMER_MERGE_WINDOW = 500;
+    /**
+     * 能量球蹲点ID -> 负责收取的蹲点任务，合并后多个能量球指向同一个任务
+     */
+    private final Map<String, EnergyTimerTask> energyTimerTasks = new ConcurrentHashMap<>();
     //    private final ObjReference<Long> collectEnergyLockLimit = new ObjReference<>(0L);
     private final AtomicLong collectEnergyLockLimit = new AtomicLong(0L);
     private final Object doubleCardLockObj = new Object();
@@ -121,6 +133,7 @@ public class AntForest extends ModelTask {
     private BooleanModelField collectWateringBubble;
     private BooleanModelField batchRobEnergy;
     private BooleanModelField balanceNetworkDelay;
+    private IntegerModelField timerConfidence;
     private BooleanModelField closeWhackMole;
     private BooleanModelField collectProp;
     private StringModelField queryInterval;
@@ -174,7 +187,11 @@ public class AntForest extends ModelTask {
      */
     private ChoiceModelField energyBombCardType;
 
-    private final Map<String, String> cacheCollectedMap = new HashMap<>();
+    private final Map<String, String> cacheCollectedMap = new ConcurrentHashMap<>();
+    /**
+     * 好友能量状态索引，跨轮次保存
+     */
+    private FriendWatch friendWatch;
     /**
      * 加速器定时
      */
@@ -182,11 +199,13 @@ public class AntForest extends ModelTask {
 
     private BooleanModelField forestChouChouLe;//森林抽抽乐
     private static boolean canConsumeAnimalProp;
-    private static int totalCollected = 0;
-    private static int totalHelpCollected = 0;
-    private static int totalWatered = 0;
+    /**
+     * 本次累计的收取、帮收、浇水能量，好友巡检的多个线程同时累加
+     */
+    private static final AtomicInteger totalCollected = new AtomicInteger();
+    private static final AtomicInteger totalHelpCollected = new AtomicInteger();
+    private static final AtomicInteger totalWatered = new AtomicInteger();
 
-    private final Map<String, AtomicInteger> forestTaskTryCount = new ConcurrentHashMap<>();
 
     @Getter
     private Set<String> dontCollectMap = new HashSet<>();
@@ -307,6 +326,7 @@ public class AntForest extends ModelTask {
         modelFields.addField(doubleCollectInterval = new StringModelField("doubleCollectInterval", "双击间隔(毫秒或毫秒范围)", "800-2400"));
         modelFields.addField(balanceNetworkDelay = new BooleanModelField("balanceNetworkDelay", "平衡网络延迟", true));
         modelFields.addField(advanceTime = new IntegerModelField("advanceTime", "提前时间(毫秒)", 0, Integer.MIN_VALUE, 500));
+        modelFields.addField(timerConfidence = new IntegerModelField("timerConfidence", "蹲点 | 不提前到达的置信度(%)", 90, 50, 99));
         modelFields.addField(tryCount = new IntegerModelField("tryCount", "尝试收取(次数)", 1, 0, 5));
         modelFields.addField(retryInterval = new IntegerModelField("retryInterval", "重试间隔(毫秒)", 1200, 0, 10000));
         return modelFields;
@@ -333,12 +353,12 @@ public class AntForest extends ModelTask {
     @Override
     public void boot(ClassLoader classLoader) {
         super.boot(classLoader);
-        FixedOrRangeIntervalLimit queryIntervalLimit = new FixedOrRangeIntervalLimit(queryInterval.getValue(), 200, 10000);//限制查询间隔
-        RpcIntervalLimit.INSTANCE.addIntervalLimit("alipay.antforest.forest.h5.queryHomePage", queryIntervalLimit);
-        RpcIntervalLimit.INSTANCE.addIntervalLimit("alipay.antforest.forest.h5.queryFriendHomePage", queryIntervalLimit);
+        applyQueryInterval();
         RpcIntervalLimit.INSTANCE.addIntervalLimit("alipay.antmember.forest.h5.collectEnergy", 200);
         RpcIntervalLimit.INSTANCE.addIntervalLimit("alipay.antmember.forest.h5.queryEnergyRanking", 200);
         RpcIntervalLimit.INSTANCE.addIntervalLimit("alipay.antforest.forest.h5.fillUserRobFlag", 500);
+        RpcIntervalLimit.INSTANCE.setPriority("alipay.antmember.forest.h5.collectEnergy", RpcPriority.HIGH);
+        RpcIntervalLimit.INSTANCE.setPriority("alipay.antforest.forest.h5.queryFriendHomePage", RpcPriority.LOW);
         tryCountInt = tryCount.getValue();
         retryIntervalInt = retryInterval.getValue();
         advanceTimeInt = advanceTime.getValue();
@@ -346,10 +366,43 @@ public class AntForest extends ModelTask {
         dontCollectMap = dontCollectList.getValue();
         collectIntervalEntity = new FixedOrRangeIntervalLimit(collectInterval.getValue(), 200, 10000);//收取间隔
         doubleCollectIntervalEntity = new FixedOrRangeIntervalLimit(doubleCollectInterval.getValue(), 200, 5000);//双击间隔
-        delayTimeMath.clear();
+        serverClock.clear();
+        energyTimerTasks.clear();
         AntForestRpcCall.init();
     }
 
+    private void applyQueryInterval() {
+        FixedOrRangeIntervalLimit queryIntervalLimit = new FixedOrRangeIntervalLimit(queryInterval.getValue(), 200, 10000);//限制查询间隔
+        RpcIntervalLimit.INSTANCE.addIntervalLimit("alipay.antforest.forest.h5.queryHomePage", queryIntervalLimit);
+        RpcIntervalLimit.INSTANCE.addIntervalLimit("alipay.antforest.forest.h5.queryFriendHomePage", queryIntervalLimit);
+    }
+
+    /**
+     * 热更新时只刷新 boot 中缓存的参数，已排队的蹲点任务保留，
+     * 蹲点触发时间按最新的提前时间重新计算
+     */
+    @Override
+    public boolean onConfigChanged(ModelField<?> field) {
+        if (field == tryCount) {
+            tryCountInt = tryCount.getValue();
+        } else if (field == retryInterval) {
+            retryIntervalInt = retryInterval.getValue();
+        } else if (field == advanceTime) {
+            advanceTimeInt = advanceTime.getValue();
+        } else if (field == dontCollectList) {
+            dontCollectMap = dontCollectList.getValue();
+        } else if (field == collectInterval) {
+            collectIntervalEntity = new FixedOrRangeIntervalLimit(collectInterval.getValue(), 200, 10000);
+        } else if (field == doubleCollectInterval) {
+            doubleCollectIntervalEntity = new FixedOrRangeIntervalLimit(doubleCollectInterval.getValue(), 200, 5000);
+        } else if (field == queryInterval) {
+            applyQueryInterval();
+        } else {
+            return super.onConfigChanged(field);
+        }
+        return true;
+    }
+
     @Override
     public void run() {
         try {
@@ -357,9 +410,11 @@ public class AntForest extends ModelTask {
             Log.record(TAG, "执行开始-蚂蚁" + getName());
             taskCount.set(0);
             selfId = UserMap.getCurrentUid();
+            if (friendWatch == null || !Objects.equals(friendWatch.getUserId(), selfId)) {
+                friendWatch = FriendWatch.load(selfId);
+            }
             usePropBeforeCollectEnergy(selfId);
-            collectPKEnergy();
-            collectFriendEnergy();// 优先收取好友能量
+            sweepFriendEnergy();// 优先收取好友能量
             JSONObject selfHomeObj = querySelfHome();
             selfHomeObj = collectEnergy(UserMap.getCurrentUid(), selfHomeObj, "self"); //收取自己的能量
 
@@ -466,7 +521,10 @@ public class AntForest extends ModelTask {
                 Log.record(TAG, "执行中断-蚂蚁森林");
             }
             cacheCollectedMap.clear();
-            String str_totalCollected = "本次总 收:" + totalCollected + "g 帮:" + totalHelpCollected + "g 浇:" + totalWatered + "g";
+            if (friendWatch != null) {
+                friendWatch.save();
+            }
+            String str_totalCollected = "本次总 收:" + totalCollected.get() + "g 帮:" + totalHelpCollected.get() + "g 浇:" + totalWatered.get() + "g";
             Notify.updateLastExecText(str_totalCollected);
         }
     }
@@ -672,7 +730,8 @@ public class AntForest extends ModelTask {
                 JSONObject responseObj = new JSONObject(response);
                 if (ResChecker.checkRes(TAG + "收取动物派遣能量失败:", responseObj)) {
                     int energy = extInfo.optInt("energy", 0);
-                    totalCollected += energy;
+                    totalCollected.addAndGet(energy);
+                    Statistics.recordCollect(selfId, selfId, energy, 0, false, false);
                     String str = "收取[" + animalName + "]派遣能量🦩[" + energy + "g]";
                     Toast.show(str);
                     Log.forest(str);
@@ -787,8 +846,8 @@ public class AntForest extends ModelTask {
             updateSelfHomePage(userHomeObj);
             long end = System.currentTimeMillis();
             long serverTime = userHomeObj.getLong("now");
-            int offsetTime = offsetTimeMath.nextInteger((int) ((start + end) / 2 - serverTime));
-            Log.runtime(TAG, "服务器时间：" + serverTime + "，本地与服务器时间差：" + offsetTime);
+            serverClock.sampleClock("alipay.antforest.forest.h5.queryHomePage", start, end, serverTime);
+            Log.runtime(TAG, "服务器时间：" + serverTime + "，本地与服务器时间差：" + serverClock.offset() + "±" + serverClock.offsetError());
         } catch (Throwable t) {
             Log.printStackTrace(t);
         }
@@ -809,8 +868,8 @@ public class AntForest extends ModelTask {
             friendHomeObj = new JSONObject(AntForestRpcCall.queryFriendHomePage(userId, fromAct));
             long end = System.currentTimeMillis();
             long serverTime = friendHomeObj.getLong("now");
-            int offsetTime = offsetTimeMath.nextInteger((int) ((start + end) / 2 - serverTime));
-            Log.runtime(TAG, "服务器时间：" + serverTime + "，本地与服务器时间差：" + offsetTime);
+            serverClock.sampleClock("alipay.antforest.forest.h5.queryFriendHomePage", start, end, serverTime);
+            Log.runtime(TAG, "服务器时间：" + serverTime + "，本地与服务器时间差：" + serverClock.offset() + "±" + serverClock.offsetError());
         } catch (Throwable t) {
             Log.printStackTrace(t);
         }
@@ -901,6 +960,9 @@ public class AntForest extends ModelTask {
                 return userHomeObj;
             } //该次已缓存，标记为已收取
             Log.record(TAG, "进入[" + userName + "]的蚂蚁森林");
+            if (!isSelf && friendWatch != null) {
+                friendWatch.recordHome(userId, userHomeObj, serverTime);
+            }
             // 3. 判断是否允许收取能量
             if (!collectEnergy.getValue() || dontCollectMap.contains(userId)) {
                 return userHomeObj;
@@ -916,6 +978,11 @@ public class AntForest extends ModelTask {
                     return userHomeObj;
                 }
             }
+            // 好友榜与PK榜同时巡检，通过检查后再占位，避免重复收取
+            if (cacheCollectedMap.putIfAbsent(userId, userName) != null) {
+                Log.runtime(TAG, userName + "已缓存，跳过");
+                return userHomeObj;
+            }
             // 5. 获取所有可收集的能量球
             List<Long> availableBubbles = new ArrayList<>();
             List<Pair<Long, Long>> waitingBubbles = new ArrayList<>();
@@ -924,7 +991,6 @@ public class AntForest extends ModelTask {
             scheduleWaitingBubbles(userId, waitingBubbles);
             // 7. 收集可直接收取的能量
             collectAvailableEnergy(userId, userHomeObj, availableBubbles, bizType);
-            cacheCollectedMap.put(userId, userName);
             return userHomeObj;
         } catch (JSONException | NullPointerException e) {
             Log.printStackTrace(TAG, "collectUserEnergy JSON解析错误", e);
@@ -977,24 +1043,64 @@ public class AntForest extends ModelTask {
     }
 
     /**
-     * 调度蹲点收取
+     * 调度蹲点收取，同一好友在同一时间窗口内成熟的能量球合并为一次批量收取
      *
      * @param userId         用户ID
      * @param waitingBubbles 等待成熟的能量球ID列表
      */
     private void scheduleWaitingBubbles(String userId, List<Pair<Long, Long>> waitingBubbles) {
-        for (Pair<Long, Long> pair : waitingBubbles) {
+        List<Pair<Long, Long>> sortedBubbles = new ArrayList<>(waitingBubbles);
+        sortedBubbles.sort((a, b) -> Long.compare(a.second(), b.second()));
+        EnergyTimerTask current = null;
+        for (Pair<Long, Long> pair : sortedBubbles) {
             long bubbleId = pair.first();
             long produceTime = pair.second();
-            if (!hasChildTask(AntForest.getEnergyTimerTid(userId, bubbleId))) {
-                addChildTask(new EnergyTimerTask(userId, bubbleId, produceTime));
-                Log.record(TAG, "添加蹲点⏰[" + UserMap.getMaskName(userId) + "]在[" + TimeUtil.getCommonDate(produceTime) + "]执行");
-            } else {
-                Log.record(TAG, "蹲点⏰[" + UserMap.getMaskName(userId) + "]在[" + TimeUtil.getCommonDate(produceTime) + "]已存在");
+            EnergyTimerTask scheduled = getScheduledEnergyTimer(userId, bubbleId);
+            if (scheduled != null) {
+                Log.record(TAG, "蹲点⏰[" + UserMap.getMaskName(userId) + "]在[" + TimeUtil.getCommonDate(scheduled.produceTime) + "]已存在");
+                continue;
+            }
+            if (current == null || !current.tryMerge(bubbleId, produceTime)) {
+                current = findMergeableEnergyTimer(userId, bubbleId, produceTime);
             }
+            if (current != null) {
+                energyTimerTasks.put(getEnergyTimerTid(userId, bubbleId), current);
+                Log.record(TAG, "合并蹲点⏰[" + UserMap.getMaskName(userId) + "]在[" + TimeUtil.getCommonDate(current.produceTime) + "]执行");
+                continue;
+            }
+            current = new EnergyTimerTask(userId, bubbleId, produceTime);
+            energyTimerTasks.put(current.getId(), current);
+            addChildTask(current);
+            Log.record(TAG, "添加蹲点⏰[" + UserMap.getMaskName(userId) + "]在[" + TimeUtil.getCommonDate(produceTime) + "]执行");
+        }
+    }
+
+    /**
+     * 获取仍然有效的、已包含该能量球的蹲点任务
+     */
+    private EnergyTimerTask getScheduledEnergyTimer(String userId, long bubbleId) {
+        String tid = getEnergyTimerTid(userId, bubbleId);
+        EnergyTimerTask task = energyTimerTasks.get(tid);
+        if (task != null && getChildTask(task.getId()) == task) {
+            return task;
         }
+        if (task != null) {
+            energyTimerTasks.remove(tid, task);
+        }
+        return null;
     }
 
+    /**
+     * 查找可合并该能量球的同一好友的蹲点任务，合并成功时返回该任务
+     */
+    private EnergyTimerTask findMergeableEnergyTimer(String userId, long bubbleId, long produceTime) {
+        for (EnergyTimerTask task : energyTimerTasks.values()) {
+            if (userId.equals(task.userId) && getChildTask(task.getId()) == task && task.tryMerge(bubbleId, produceTime)) {
+                return task;
+            }
+        }
+        return null;
+    }
 
     /**
      * 批量或逐一收取能量
@@ -1018,110 +1124,94 @@ public class AntForest extends ModelTask {
         }
     }
 
-    private void collectPKEnergy() {
-        try {
-            JSONObject pkObject = new JSONObject(AntForestRpcCall.queryTopEnergyChallengeRanking());
-            if (!ResChecker.checkRes(TAG + "获取PK排行榜失败:", pkObject)) {
-                Log.error(TAG, "获取PK排行榜失败: " + pkObject.optString("resultDesc"));
-            } else {
-                if (!pkObject.getString("rankMemberStatus").equals("JOIN")) {
-                    Log.runtime(TAG, "未加入PK排行榜,跳过,尝试关闭");
-                    pkEnergy.setValue(false);
-                }
-                collectUserEnergy(pkObject, "pk");
-                //继续处理靠后的PK好友
-                JSONArray totalData = pkObject.optJSONArray("totalData");
-                if (totalData == null || totalData.length() == 0) {
-                    Log.runtime(TAG, "pk好友排行榜为空，跳过");
-                    return;
-                }
-                ;
-                List<String> pkIdList = new ArrayList<>();
-                for (int pos = 20; pos < totalData.length(); pos++) {
-                    JSONObject pkFriend = totalData.getJSONObject(pos);
-                    String userId = pkFriend.getString("userId");
-                    if (Objects.equals(userId, selfId)) continue; //如果是自己则跳过
-                    pkIdList.add(userId);
-                    if (pkIdList.size() == 20) {
-                        processLastdEnergy(pkIdList, "pk");//20个id 一次处理
-                        pkIdList.clear();
-                    }
-                }
-                if (!pkIdList.isEmpty()) {
-                    processLastdEnergy(pkIdList, "pk");
-                }
-                Log.runtime(TAG, "收取PK能量完成！");
-            }
-        } catch (Exception e) {
-            Log.printStackTrace(TAG, "collectPKEnergy 异常", e);
+    /**
+     * 巡检好友榜与PK榜，收取好友能量
+     */
+    private void sweepFriendEnergy() {
+        if (errorWait) return;
+        FriendSweepEngine engine = new FriendSweepEngine(new FriendSweepHandler(), selfId);
+        if (pkEnergy.getValue()) {
+            engine.sweep(FriendSweepEngine.Source.PK, FriendSweepEngine.Source.FRIEND);
+        } else {
+            engine.sweep(FriendSweepEngine.Source.FRIEND);
         }
+        Log.runtime(TAG, "收取好友能量完成！");
     }
 
+    private class FriendSweepHandler implements FriendSweepEngine.Handler {
+        @Override
+        public boolean isStopped() {
+            return errorWait;
+        }
 
-    private void collectFriendEnergy() {
-        try {
-            JSONObject friendsObject = new JSONObject(AntForestRpcCall.queryFriendsEnergyRanking());
-            if (!ResChecker.checkRes(TAG + "获取好友排行榜失败:", friendsObject)) {
-                Log.error(TAG, "获取好友排行榜失败: " + friendsObject.optString("resultDesc"));
-                return;
-            }
-            // 处理排名靠前的好友（通常自己也在其中） 20个
-            collectUserEnergy(friendsObject, "");
-            // 分批处理其他好友（从第20位开始）
-            JSONArray totalDatas = friendsObject.optJSONArray("totalDatas");
-            if (totalDatas == null || totalDatas.length() == 0) {
-                Log.runtime(TAG, "好友排行榜为空，跳过");
-                return;
-            }
-            List<String> idList = new ArrayList<>();
-            for (int pos = 20; pos < totalDatas.length(); pos++) {
-                JSONObject friend = totalDatas.getJSONObject(pos);
-                String userId = friend.getString("userId");
-                if (Objects.equals(userId, selfId)) continue; //如果是自己则跳过
-                idList.add(userId);
-                if (idList.size() == 20) {
-                    processLastdEnergy(idList, "");//20个id 一次处理
-                    idList.clear();
-                }
-            }
-            if (!idList.isEmpty()) {
-                processLastdEnergy(idList, "");
+        @Override
+        public void onRanking(FriendSweepEngine.Source source, JSONObject ranking) {
+            if (source == FriendSweepEngine.Source.PK && !"JOIN".equals(ranking.optString("rankMemberStatus"))) {
+                Log.runtime(TAG, "未加入PK排行榜,跳过,尝试关闭");
+                pkEnergy.setValue(false);
             }
-            Log.runtime(TAG, "收取好友能量完成！");
-        } catch (JSONException e) {
-            Log.printStackTrace(TAG, "解析好友排行榜 JSON 异常", e);
-        } catch (Throwable t) {
-            Log.printStackTrace(TAG, "queryEnergyRanking 异常", t);
+        }
+
+        @Override
+        public boolean needVisit(JSONObject friendObj, String flag) {
+            String userId = friendObj.optString("userId");
+            boolean needCollect = needCollectEnergy(userId, flag) && !cacheCollectedMap.containsKey(userId) && canCollectSoon(friendObj);
+            if (needCollect && friendWatch != null && friendWatch.isUnchanged(userId, friendObj, System.currentTimeMillis(), checkIntervalInt)) {
+                // 与上次进入主页时相比没有变化，按已知成熟时间蹲点即可
+                scheduleKnownBubbles(userId);
+                needCollect = false;
+            }
+            boolean needVisit = flag.equals("pk") ? needCollect : needCollect || needHelpProtect(friendObj) || needCollectGiftBox(friendObj);
+            if (needVisit && friendWatch != null) {
+                friendWatch.recordRanking(userId, friendObj);
+            }
+            return needVisit;
+        }
+
+        @Override
+        public void visit(JSONObject friendObj, String flag) {
+            processEnergy(friendObj, flag);
         }
     }
 
+    /**
+     * 按好友索引中已知的成熟时间直接添加蹲点，不再进入主页
+     */
+    private void scheduleKnownBubbles(String userId) {
+        List<Pair<Long, Long>> waitingBubbles = new ArrayList<>();
+        for (long[] bubble : friendWatch.getBubblesBefore(userId, System.currentTimeMillis() + checkIntervalInt + checkIntervalInt / 2)) {
+            waitingBubbles.add(new Pair<>(bubble[0], bubble[1]));
+        }
+        scheduleWaitingBubbles(userId, waitingBubbles);
+    }
 
     /**
-     * 收取排名靠后的能量
-     *
-     * @param userIds 用户id列表
+     * 是否开启了对该好友的收能量
      */
-    private void processLastdEnergy(List<String> userIds, String flag) {
-        try {
-            if (errorWait) return;
-            String jsonStr;
-            if (flag.equals("pk")) {
-                jsonStr = AntForestRpcCall.fillUserRobFlag(new JSONArray(userIds), true);
-            } else {
-                jsonStr = AntForestRpcCall.fillUserRobFlag(new JSONArray(userIds));
-            }
-            JSONObject batchObj = new JSONObject(jsonStr);
-            JSONArray friendList = batchObj.optJSONArray("friendRanking");
-            if (friendList == null) return;
-            for (int i = 0; i < friendList.length(); i++) {
-                JSONObject friendObj = friendList.getJSONObject(i);
-                processEnergy(friendObj, flag);
-            }
-        } catch (JSONException e) {
-            Log.printStackTrace(TAG, "解析批量好友数据失败", e);
-        } catch (Exception e) {
-            Log.printStackTrace(TAG, "处理批量好友出错", e);
+    private boolean needCollectEnergy(String userId, String flag) {
+        if (flag.equals("pk")) {
+            return collectEnergy.getValue() && pkEnergy.getValue();
+        }
+        return collectEnergy.getValue() && !dontCollectMap.contains(userId); //开启了收能量功能并且不在排除名单中
+    }
+
+    private boolean needHelpProtect(JSONObject obj) {
+        return helpFriendCollectType.getValue() != HelpFriendCollectType.NONE && obj.optBoolean("canProtectBubble") && Status.hasFlagToday("help_friend_collect_protect::" + selfId);
+    }
+
+    private boolean needCollectGiftBox(JSONObject obj) {
+        return collectGiftBox.getValue() && obj.optBoolean("canCollectGiftBox");
+    }
+
+    /**
+     * 排行榜数据显示该好友在执行间隔内有能量可收，超出检查窗口的好友不再进入主页
+     */
+    private boolean canCollectSoon(JSONObject obj) {
+        if (!obj.optBoolean("canCollectEnergy")) {
+            return false;
         }
+        long canCollectLaterTime = obj.optLong("canCollectLaterTime");
+        return canCollectLaterTime > 0 && canCollectLaterTime - System.currentTimeMillis() < checkIntervalInt;//如果收取时间在执行时间范围内，则可以收取
     }
 
     /**
@@ -1136,43 +1226,24 @@ public class AntForest extends ModelTask {
             String userId = obj.getString("userId");
             if (flag.equals("pk")) {
                 if (Objects.equals(userId, selfId)) return;//如果是自己，则跳过
-                boolean needCollectEnergy = collectEnergy.getValue() && pkEnergy.getValue();
-                boolean canCollect = false;
-                if (!needCollectEnergy) {
+                if (!needCollectEnergy(userId, flag)) {
                     return;
-                } else {
-                    if (obj.optBoolean("canCollectEnergy")) {
-                        long canCollectLaterTime = obj.getLong("canCollectLaterTime");
-                        if (canCollectLaterTime > 0 && canCollectLaterTime - System.currentTimeMillis() < checkIntervalInt) {//如果收取时间在执行时间范围内，则可以收取
-                            canCollect = true;
-                        }
-                    }
                 }
                 // 开始执行收集能量
-                if (canCollect) {
+                if (canCollectSoon(obj)) {
                     collectEnergy(userId, queryFriendHome(userId, "PKContest"), "pk");
                 }
             } else {
                 if (Objects.equals(userId, selfId)) return;//如果是自己，则跳过
-                boolean needCollectEnergy = collectEnergy.getValue() && !dontCollectMap.contains(userId); //开启了收能量功能并且不在排除名单中
-                boolean needHelpProtect = helpFriendCollectType.getValue() != HelpFriendCollectType.NONE && obj.optBoolean("canProtectBubble") && Status.hasFlagToday("help_friend_collect_protect::" + selfId);
-                boolean needCollectGiftBox = collectGiftBox.getValue() && obj.optBoolean("canCollectGiftBox");
+                boolean needCollectEnergy = needCollectEnergy(userId, flag);
+                boolean needHelpProtect = needHelpProtect(obj);
+                boolean needCollectGiftBox = needCollectGiftBox(obj);
                 if (!needCollectEnergy && !needHelpProtect && !needCollectGiftBox) {
                     return;
                 }
-                // 是否需要收集能量
-                boolean canCollect = false;
-                if (needCollectEnergy) {
-                    if (obj.optBoolean("canCollectEnergy")) {
-                        long canCollectLaterTime = obj.getLong("canCollectLaterTime");
-                        if (canCollectLaterTime > 0 && canCollectLaterTime - System.currentTimeMillis() < checkIntervalInt) {//如果收取时间在执行时间范围内，则可以收取
-                            canCollect = true;
-                        }
-                    }
-                }
                 JSONObject userHomeObj = null;
                 // 开始执行收集能量
-                if (needCollectEnergy && canCollect) {
+                if (needCollectEnergy && canCollectSoon(obj)) {
                     userHomeObj = collectEnergy(userId, queryFriendHome(userId, null), "friend");
                 }
                 if (needHelpProtect) {
@@ -1206,31 +1277,6 @@ public class AntForest extends ModelTask {
         }
     }
 
-    /**
-     * 收取排名靠前好友能量
-     *
-     * @param friendsObject 好友列表的JSON对象
-     */
-    private void collectUserEnergy(JSONObject friendsObject, String flag) {
-        try {
-            if (errorWait) return;
-            JSONArray friendRanking = friendsObject.optJSONArray("friendRanking");
-            if (friendRanking == null) {
-                Log.runtime(TAG, "无好友数据可处理");
-                return;
-            }
-            for (int i = 0; i < friendRanking.length(); i++) {
-                JSONObject friendObj = friendRanking.getJSONObject(i);
-                processEnergy(friendObj, flag); // 处理单个好友
-            }
-        } catch (JSONException e) {
-            Log.printStackTrace(TAG, "解析好友排行榜子项失败", e);
-        } catch (Exception e) {
-            Log.printStackTrace(TAG, "处理好友列表异常", e);
-        }
-    }
-
-
     private void collectGiftBox(JSONObject userHomeObj) {
         try {
             JSONObject giftBoxInfo = userHomeObj.optJSONObject("giftBoxInfo");
@@ -1292,6 +1338,8 @@ public class AntForest extends ModelTask {
                         }
                         int vitalityAmount = joProtect.optInt("vitalityAmount", 0);
                         int fullEnergy = wateringBubble.optInt("fullEnergy", 0);
+                        totalHelpCollected.addAndGet(fullEnergy);
+                        Statistics.recordHelp(selfId, userId, fullEnergy);
                         String str = "复活能量🚑[" + UserMap.getMaskName(userId) + "-" + fullEnergy + "g]" + (vitalityAmount > 0 ? "#活力值+" + vitalityAmount : "");
                         Log.forest(str);
                         break;
@@ -1354,7 +1402,7 @@ public class AntForest extends ModelTask {
                         RequestManager.requestString(rpcEntity, 0, 0);
                         long spendTime = System.currentTimeMillis() - startTime;
                         if (balanceNetworkDelay.getValue()) {
-                            delayTimeMath.nextInteger((int) (spendTime / 3));
+                            serverClock.sampleLatency(COLLECT_ENERGY_METHOD, startTime, startTime + spendTime);
                         }
                         if (rpcEntity.getHasError()) {
                             String errorCode = (String) XposedHelpers.callMethod(rpcEntity.getResponseObject(), "getString", "error");
@@ -1376,7 +1424,7 @@ public class AntForest extends ModelTask {
                             }
                             return;
                         }
-                        JSONObject jo = new JSONObject(rpcEntity.getResponseString());
+                        JSONObject jo = rpcEntity.getResponseJson();
                         String resultCode = jo.getString("resultCode");
                         if (!"SUCCESS".equalsIgnoreCase(resultCode)) {
                             if ("PARAM_ILLEGAL2".equals(resultCode)) {
@@ -1392,6 +1440,18 @@ public class AntForest extends ModelTask {
                         }
                         JSONArray jaBubbles = jo.getJSONArray("bubbles");
                         int jaBubbleLength = jaBubbles.length();
+                        if (friendWatch != null && !Objects.equals(userId, selfId)) {
+                            List<Long> collectedIds = new ArrayList<>();
+                            for (int i = 0; i < jaBubbleLength; i++) {
+                                JSONObject bubble = jaBubbles.getJSONObject(i);
+                                if (bubble.optInt("collectedEnergy") > 0) {
+                                    collectedIds.add(bubble.getLong("id"));
+                                }
+                            }
+                            if (!collectedIds.isEmpty()) {
+                                friendWatch.recordCollected(userId, collectedIds);
+                            }
+                        }
                         if (jaBubbleLength > 1) {
                             List<Long> newBubbleIdList = new ArrayList<>();
                             for (int i = 0; i < jaBubbleLength; i++) {
@@ -1405,13 +1465,14 @@ public class AntForest extends ModelTask {
                                 int randomIndex = random.nextInt(emojiList.size());
                                 String randomEmoji = emojiList.get(randomIndex);
                                 String str = "一键收取️" + randomEmoji + collected + "g[" + cacheCollectedMap.get(userId) + "]#";
-                                totalCollected += collected;
+                                totalCollected.addAndGet(collected);
+                                Statistics.recordCollect(selfId, userId, collected, spendTime, needDouble, collectEnergyEntity.isFromTimer());
                                 if (needDouble) {
                                     Log.forest(str + "耗时[" + spendTime + "]ms[双击]");
-                                    Toast.show(str + "[双击]");
+                                    Toast.showEnergy(userId, collected, str + "[双击]");
                                 } else {
                                     Log.forest(str + "耗时[" + spendTime + "]ms");
-                                    Toast.show(str);
+                                    Toast.showEnergy(userId, collected, str);
                                 }
                             } else {
                                 Log.record(TAG, "一键收取❌[" + cacheCollectedMap.get(userId) + "]的能量失败" + " " + "，UserID：" + userId + "，BubbleId：" + newBubbleIdList);
@@ -1429,13 +1490,14 @@ public class AntForest extends ModelTask {
                                 int randomIndex = random.nextInt(emojiList.size());
                                 String randomEmoji = emojiList.get(randomIndex);
                                 String str = "普通收取" + randomEmoji + collected + "g[" + cacheCollectedMap.get(userId) + "]";
-                                totalCollected += collected;
+                                totalCollected.addAndGet(collected);
+                                Statistics.recordCollect(selfId, userId, collected, spendTime, needDouble, collectEnergyEntity.isFromTimer());
                                 if (needDouble) {
                                     Log.forest(str + "耗时[" + spendTime + "]ms[双击]");
-                                    Toast.show(str + "[双击]");
+                                    Toast.showEnergy(userId, collected, str + "[双击]");
                                 } else {
                                     Log.forest(str + "耗时[" + spendTime + "]ms");
-                                    Toast.show(str);
+                                    Toast.showEnergy(userId, collected, str);
                                 }
                             } else {
                                 Log.record(TAG, "普通收取❌[" + cacheCollectedMap.get(userId) + "]的能量失败");
@@ -1464,7 +1526,7 @@ public class AntForest extends ModelTask {
                         Log.runtime(TAG, "collectEnergy err");
                         Log.printStackTrace(e);
                     } finally {
-                        String str_totalCollected = "本次总 收:" + totalCollected + "g 帮:" + totalHelpCollected + "g 浇:" + totalWatered + "g";
+                        String str_totalCollected = "本次总 收:" + totalCollected.get() + "g 帮:" + totalHelpCollected.get() + "g 浇:" + totalWatered.get() + "g";
                         Notify.updateLastExecText(str_totalCollected);
                         notifyMain();
                     }
@@ -1589,6 +1651,8 @@ public class AntForest extends ModelTask {
                         String currentEnergy = jo.getJSONObject("treeEnergy").getString("currentEnergy");
                         Log.forest("好友浇水🚿[" + UserMap.getMaskName(userId) + "]#" + waterEnergy + "g，剩余能量[" + currentEnergy + "g]");
                         wateredTimes++;
+                        totalWatered.addAndGet(waterEnergy);
+                        Statistics.recordWater(selfId, userId, waterEnergy);
                         break;
                     case "WATERING_TIMES_LIMIT":
                         Log.record(TAG, "好友浇水🚿今日给[" + UserMap.getMaskName(userId) + "]浇水已达上限");
@@ -1687,98 +1751,89 @@ public class AntForest extends ModelTask {
      * 逛一逛点淘得红包,去一淘签到领红包
      */
     private void receiveTaskAward() {
-        try {
-            // 修复：使用new HashSet包装从缓存获取的数据，兼容List/Set类型
-            Set<String> presetBad = new LinkedHashSet<>(List.of(
+        TaskCenter.run(new ForestTaskAdapter());
+    }
+
+    /**
+     * 森林任务中心
+     */
+    private class ForestTaskAdapter implements TaskCenter.Adapter {
+        @Override
+        public String getName() {
+            return "forest";
+        }
+
+        @Override
+        public List<TaskCenter.Task> queryTasks() throws JSONException {
+            JSONObject jo = new JSONObject(AntForestRpcCall.queryTaskList());
+            if (!ResChecker.checkRes(TAG + "查询森林任务失败:", jo)) {
+                return null;
+            }
+            dailyTask(jo.getJSONArray("forestSignVOList"));
+            List<TaskCenter.Task> tasks = new ArrayList<>();
+            JSONArray forestTasksNew = jo.optJSONArray("forestTasksNew");
+            if (forestTasksNew == null) {
+                return tasks;
+            }
+            for (int i = 0; i < forestTasksNew.length(); i++) {
+                JSONArray taskInfoList = forestTasksNew.getJSONObject(i).getJSONArray("taskInfoList");
+                for (int j = 0; j < taskInfoList.length(); j++) {
+                    JSONObject taskInfo = taskInfoList.getJSONObject(j);
+                    JSONObject taskBaseInfo = taskInfo.getJSONObject("taskBaseInfo");
+                    String taskType = taskBaseInfo.getString("taskType");
+                    JSONObject bizInfo = new JSONObject(taskBaseInfo.getString("bizInfo"));
+                    JSONObject taskRights = new JSONObject(taskInfo.getString("taskRights"));
+                    tasks.add(new TaskCenter.Task(taskBaseInfo.getString("sceneCode"), taskType, bizInfo.optString("taskTitle", taskType),
+                            taskBaseInfo.getString("taskStatus"), String.valueOf(taskRights.optInt("awardCount", 0)), taskInfo));
+                }
+            }
+            return tasks;
+        }
+
+        @Override
+        public TaskCenter.Result finishTask(TaskCenter.Task task) throws JSONException {
+            JSONObject jo = new JSONObject(AntForestRpcCall.finishTask(task.sceneCode, task.taskType));
+            if (ResChecker.checkRes(TAG + "完成森林任务失败:", jo)) {
+                Log.forest("森林任务🧾️[" + task.title + "]");
+                return TaskCenter.Result.ok();
+            }
+            return TaskCenter.Result.fail(jo.toString());
+        }
+
+        @Override
+        public TaskCenter.Result receiveAward(TaskCenter.Task task) throws JSONException {
+            JSONObject jo = new JSONObject(AntForestRpcCall.receiveTaskAward(task.sceneCode, task.taskType));
+            if (ResChecker.checkRes(TAG + "领取森林任务奖励失败:", jo)) {
+                Log.forest("森林奖励🎖️[" + task.title + "]# " + task.award + "活力值");
+                return TaskCenter.Result.ok();
+            }
+            Log.error(TAG, "领取失败: " + task.title);
+            Log.runtime(jo.toString());
+            return TaskCenter.Result.fail(jo.toString());
+        }
+
+        @Override
+        public int getRetryBudget() {
+            return 6;
+        }
+
+        @Override
+        public Collection<String> getPresetBlocked() {
+            return List.of(
                     "ENERGYRAIN", //能量雨
                     "ENERGY_XUANJIAO", //践行绿色行为
                     "FOREST_TOTAL_COLLECT_ENERGY_3",//累积3天收自己能量
                     "TEST_LEAF_TASK",//逛农场得落叶肥料
                     "SHARETASK"//邀请好友助力
-            ));
-            TypeReference<Set<String>> typeRef = new TypeReference<>() {
-            };
-            Set<String> badTaskSet = DataStore.INSTANCE.getOrCreate("badForestTaskSet", typeRef);
-            if (badTaskSet.isEmpty()) {
-                badTaskSet.addAll(presetBad);
-                DataStore.INSTANCE.put("badForestTaskSet", badTaskSet);   // 持久化
-            }
-            while (true) {
-                boolean doubleCheck = false; // 标记是否需要再次检查任务
-                JSONObject jo = new JSONObject(AntForestRpcCall.queryTaskList()); // 解析响应为 JSON 对象
-                if (!ResChecker.checkRes(TAG + "查询森林任务失败:", jo)) {
-                    break;
-                }
-                JSONArray forestSignVOList = jo.getJSONArray("forestSignVOList");
-                int SumawardCount = 0;
-                int DailyawardCount = dailyTask(forestSignVOList);
-                SumawardCount = DailyawardCount + SumawardCount;
-                JSONArray forestTasksNew = jo.optJSONArray("forestTasksNew");
-                if (forestTasksNew == null || forestTasksNew.length() == 0) {
-                    break; // 如果没有新任务，则返回
-                }
-                for (int i = 0; i < forestTasksNew.length(); i++) {
-                    JSONObject forestTask = forestTasksNew.getJSONObject(i);
-                    JSONArray taskInfoList = forestTask.getJSONArray("taskInfoList"); // 获取任务信息列表
-                    for (int j = 0; j < taskInfoList.length(); j++) {
-                        JSONObject taskInfo = taskInfoList.getJSONObject(j);
-
-                        JSONObject taskBaseInfo = taskInfo.getJSONObject("taskBaseInfo"); // 获取任务基本信息
-                        String taskType = taskBaseInfo.getString("taskType"); // 获取任务类型
-                        String sceneCode = taskBaseInfo.getString("sceneCode"); // 获取场景代码
-                        String taskStatus = taskBaseInfo.getString("taskStatus"); // 获取任务状态
-
-                        JSONObject bizInfo = new JSONObject(taskBaseInfo.getString("bizInfo")); // 获取业务信息
-                        String taskTitle = bizInfo.optString("taskTitle", taskType); // 获取任务标题
-
-                        JSONObject taskRights = new JSONObject(taskInfo.getString("taskRights")); // 获取任务权益
-                        int awardCount = taskRights.optInt("awardCount", 0); // 获取奖励数量
-
-                        if (TaskStatus.FINISHED.name().equals(taskStatus)) {
-                            JSONObject joAward = new JSONObject(AntForestRpcCall.receiveTaskAward(sceneCode, taskType)); // 领取奖励请求
-                            if (ResChecker.checkRes(TAG + "领取森林任务奖励失败:", joAward)) {
-                                Log.forest("森林奖励🎖️[" + taskTitle + "]# " + awardCount + "活力值");
-                                SumawardCount = SumawardCount + awardCount;
-                                doubleCheck = true; // 标记需要重新检查任务
-                            } else {
-                                Log.error(TAG, "领取失败: " + taskTitle); // 记录领取失败信息
-                                Log.runtime(joAward.toString()); // 打印奖励响应
-                            }
-                        } else if (TaskStatus.TODO.name().equals(taskStatus)) {
-                            if (badTaskSet.contains(taskType)) continue;
-                            if (!badTaskSet.contains(taskType)) {
-                                String bizKey = sceneCode + "_" + taskType;
-                                int count = forestTaskTryCount
-                                        .computeIfAbsent(bizKey, k -> new AtomicInteger(0))
-                                        .incrementAndGet();
-
-                                JSONObject joFinishTask = new JSONObject(AntForestRpcCall.finishTask(sceneCode, taskType)); // 完成任务请求
-                                if (count > 6) {
-                                    Log.error(TAG, "完成森林任务失败超过6次" + taskTitle + "\n" + joFinishTask); // 记录完成任务失败信息
-                                    badTaskSet.add(taskType);
-                                    DataStore.INSTANCE.put("badForestTaskSet", badTaskSet);
-                                } else {
-                                    Log.forest("森林任务🧾️[" + taskTitle + "]");
-                                    doubleCheck = true; // 标记需要重新检查任务
-                                }
-                            }
+            );
+        }
 
-                        }
-                        GlobalThreadPools.sleep(500);
-                    }
-                }
-                if (!doubleCheck) break;
-            }
-        } catch (JSONException e) {
-            Log.error(TAG, "JSON解析错误: " + e.getMessage());
-            Log.printStackTrace(TAG, e);
-        } catch (Throwable t) {
-            Log.error(TAG, "receiveTaskAward 错误:");
-            Log.printStackTrace(TAG, t); // 打印异常栈
+        @Override
+        public String getLegacyBlockedKey() {
+            return "badForestTaskSet";
         }
     }
 
-
     /**
      * 在收集能量之前使用道具。
      * 这个方法检查是否需要使用增益卡
@@ -1840,8 +1895,7 @@ public class AntForest extends ModelTask {
      * @return 如果当前时间在双击卡的有效时间范围内，返回true；否则返回false。
      */
     private boolean hasDoubleCardTime() {
-        long currentTimeMillis = System.currentTimeMillis();
-        return TimeUtil.checkInTimeRange(currentTimeMillis, doubleCardTime.getValue());
+        return TimeWindows.of(doubleCardTime).contains(System.currentTimeMillis());
     }
 
     private void giveProp() {
@@ -2528,16 +2582,34 @@ public class AntForest extends ModelTask {
     public enum CollectStatus {AVAILABLE, WAITING, INSUFFICIENT, ROBBED}
 
     /**
-     * 能量定时任务类型
+     * 蹲点收取时扣除的网络延迟，关闭平衡网络延迟时为 0
+     */
+    private long timerLatency() {
+        if (!balanceNetworkDelay.getValue()) {
+            return 0;
+        }
+        return serverClock.latency(COLLECT_ENERGY_METHOD, 1 - timerConfidence.getValue() / 100.0);
+    }
+
+    /**
+     * 能量定时任务类型，可包含同一好友同一时间窗口内的多个能量球
      */
     private class EnergyTimerTask extends ChildModelTask {
 
         private final String userId;
 
-        private final long bubbleId;
+        /**
+         * 能量球ID -> 产生时间
+         */
+        private final Map<Long, Long> bubbles = new LinkedHashMap<>();
 
+        /**
+         * 最早成熟的能量球的产生时间
+         */
         private final long produceTime;
 
+        private boolean started = false;
+
         /**
          * 实例化一个新的能量收取定时任务
          *
@@ -2549,26 +2621,74 @@ public class AntForest extends ModelTask {
             // 调用父类构造方法，传入任务ID和提前执行时间
             super(AntForest.getEnergyTimerTid(uid, bid), pt - advanceTimeInt);
             userId = uid;
-            bubbleId = bid;
+            bubbles.put(bid, pt);
             produceTime = pt;
         }
 
+        /**
+         * 尝试把一个能量球并入本任务，任务已开始执行或成熟时间不在窗口内时失败
+         */
+        synchronized boolean tryMerge(long bid, long pt) {
+            if (started || pt < produceTime || pt - produceTime > ENERGY_TIMER_MERGE_WINDOW) {
+                return false;
+            }
+            bubbles.putIfAbsent(bid, pt);
+            return true;
+        }
+
+        private synchronized Map<Long, Long> start() {
+            started = true;
+            return new LinkedHashMap<>(bubbles);
+        }
+
+        /**
+         * 能量球按服务器时差与网络延迟的估计修正后的触发时间。
+         * 延迟取低分位，置信度越高，实际延迟小于估计而提前到达的可能越小
+         */
+        private long fireTimeOf(long pt) {
+            return pt - advanceTimeInt + serverClock.offset() - timerLatency();
+        }
+
+        /**
+         * 以最早成熟的能量球为准，其余能量球到时再复查，不让最早的能量球等待窗口内最晚的一个
+         */
+        @Override
+        public long getFireTime() {
+            return fireTimeOf(produceTime);
+        }
+
         @Override
         public Runnable setRunnable() {
             return () -> {
-                String userName = UserMap.getMaskName(userId);
-                int averageInteger = offsetTimeMath.getAverageInteger();
-                long readyTime = produceTime - advanceTimeInt + averageInteger - delayTimeMath.getAverageInteger() - System.currentTimeMillis() + 70;
-                if (readyTime > 0) {
-                    try {
-                        Thread.sleep(readyTime);
-                    } catch (InterruptedException e) {
-                        Log.runtime(TAG, "终止[" + userName + "]蹲点收取任务, 任务ID[" + getId() + "]");
-                        return;
+                Map<Long, Long> all = start();
+                long now = System.currentTimeMillis();
+                List<Long> ids = new ArrayList<>();
+                List<Pair<Long, Long>> pending = new ArrayList<>();
+                for (Map.Entry<Long, Long> bubble : all.entrySet()) {
+                    energyTimerTasks.remove(getEnergyTimerTid(userId, bubble.getKey()), this);
+                    if (bubble.getValue() == produceTime || fireTimeOf(bubble.getValue()) <= now) {
+                        ids.add(bubble.getKey());
+                    } else {
+                        pending.add(new Pair<>(bubble.getKey(), bubble.getValue()));
                     }
                 }
-                Log.record(TAG, "执行蹲点收取⏰ 任务ID " + getId() + " [" + userName + "]" + "时差[" + averageInteger + "]ms" + "提前[" + advanceTimeInt + "]ms");
-                collectEnergy(new CollectEnergyEntity(userId, null, AntForestRpcCall.energyRpcEntity("", userId, bubbleId)), true);
+                String userName = UserMap.getMaskName(userId);
+                Log.record(TAG, "执行蹲点收取⏰ 任务ID " + getId() + " [" + userName + "]" + "时差[" + serverClock.offset() + "±" + serverClock.offsetError() + "]ms"
+                        + "延迟[" + timerLatency() + "±" + serverClock.latencyError(COLLECT_ENERGY_METHOD) + "]ms" + "提前[" + advanceTimeInt + "]ms" + (ids.size() > 1 ? "合并[" + ids.size() + "]个" : ""));
+                try {
+                    RpcEntity rpcEntity = ids.size() > 1
+                            ? AntForestRpcCall.batchEnergyRpcEntity("", userId, ids)
+                            : AntForestRpcCall.energyRpcEntity("", userId, ids.get(0));
+                    CollectEnergyEntity collectEnergyEntity = new CollectEnergyEntity(userId, null, rpcEntity);
+                    collectEnergyEntity.setFromTimer(true);
+                    collectEnergy(collectEnergyEntity, true);
+                } catch (Throwable t) {
+                    Log.printStackTrace(TAG, t);
+                }
+                // 还没成熟的能量球重新蹲点
+                if (!pending.isEmpty()) {
+                    scheduleWaitingBubbles(userId, pending);
+                }
             };
         }
     }
@@ -34,43 +34,45 @@ public class AntForestRpcCall {
 
     public static String queryFriendsEnergyRanking() {
         try {
-            JSONObject arg = new JSONObject();
-            arg.put("source", "chInfo_ch_appcenter__chsub_9patch");
-            arg.put("periodType", "total");
-            arg.put("rankType", "energyRank");
-            arg.put("version", VERSION);
-            String param = "[" + arg + "]";
-            JSONObject jorelationLocal = new JSONObject();
-            jorelationLocal.put("pathList", new JSONArray().put("friendRanking").put("myself").put("totalDatas"));
-            String relationLocal = "[" + jorelationLocal + "]";
-            return RequestManager.requestString("alipay.antmember.forest.h5.queryEnergyRanking", param, relationLocal);
+            return RequestManager.requestString(friendsEnergyRankingRpcEntity());
         } catch (Exception e) {
+            Log.printStackTrace(e);
             return "";
         }
     }
 
+    public static RpcEntity friendsEnergyRankingRpcEntity() throws JSONException {
+        JSONObject arg = new JSONObject();
+        arg.put("source", "chInfo_ch_appcenter__chsub_9patch");
+        arg.put("periodType", "total");
+        arg.put("rankType", "energyRank");
+        arg.put("version", VERSION);
+        String param = "[" + arg + "]";
+        JSONObject jorelationLocal = new JSONObject();
+        jorelationLocal.put("pathList", new JSONArray().put("friendRanking").put("myself").put("totalDatas"));
+        String relationLocal = "[" + jorelationLocal + "]";
+        return new RpcEntity("alipay.antmember.forest.h5.queryEnergyRanking", param, relationLocal);
+    }
+
     public static String queryTopEnergyChallengeRanking() {
         try {
-            JSONObject arg = new JSONObject();
-            arg.put("source", "chInfo_ch_appcenter__chsub_9patch");
-            String param = "[" + arg + "]";
-            return RequestManager.requestString("alipay.antforest.forest.h5.queryTopEnergyChallengeRanking", param);
+            return RequestManager.requestString(topEnergyChallengeRankingRpcEntity());
         } catch (Exception e) {
             Log.printStackTrace(e);
             return "";
         }
     }
 
+    public static RpcEntity topEnergyChallengeRankingRpcEntity() throws JSONException {
+        JSONObject arg = new JSONObject();
+        arg.put("source", "chInfo_ch_appcenter__chsub_9patch");
+        String param = "[" + arg + "]";
+        return new RpcEntity("alipay.antforest.forest.h5.queryTopEnergyChallengeRanking", param);
+    }
+
     public static String fillUserRobFlag(JSONArray userIdList) {
         try {
-            JSONObject arg = new JSONObject();
-            arg.put("source", "chInfo_ch_appcenter__chsub_9patch");
-            arg.put("userIdList", userIdList);
-            String param = "[" + arg + "]";
-            JSONObject joRelationLocal = new JSONObject();
-            joRelationLocal.put("pathList", new JSONArray().put("friendRanking"));
-            String relationLocal = "[" + joRelationLocal + "]";
-            return RequestManager.requestString("alipay.antforest.forest.h5.fillUserRobFlag", param, relationLocal);
+            return RequestManager.requestString(fillUserRobFlagRpcEntity(userIdList, false));
         } catch (Exception e) {
             return "";
         }
@@ -89,6 +91,27 @@ public class AntForestRpcCall {
         }
     }
 
+    /**
+     * 批量补全好友的收取标记
+     *
+     * @param userIdList 好友ID列表，一次最多 20 个
+     * @param isPk       是否PK榜好友，PK榜需要补全用户信息
+     */
+    public static RpcEntity fillUserRobFlagRpcEntity(JSONArray userIdList, boolean isPk) throws JSONException {
+        JSONObject arg = new JSONObject();
+        arg.put("source", "chInfo_ch_appcenter__chsub_9patch");
+        arg.put("userIdList", userIdList);
+        if (isPk) {
+            arg.put("needFillUserInfo", true);
+            return new RpcEntity("alipay.antforest.forest.h5.fillUserRobFlag", "[" + arg + "]");
+        }
+        String param = "[" + arg + "]";
+        JSONObject joRelationLocal = new JSONObject();
+        joRelationLocal.put("pathList", new JSONArray().put("friendRanking"));
+        String relationLocal = "[" + joRelationLocal + "]";
+        return new RpcEntity("alipay.antforest.forest.h5.fillUserRobFlag", param, relationLocal);
+    }
+
     public static String queryHomePage() throws JSONException {
         JSONObject requestObject = new JSONObject()
                 .put("activityParam", new JSONObject())
@@ -106,26 +129,30 @@ public class AntForestRpcCall {
 
     public static String queryFriendHomePage(String userId, String fromAct) {
         try {
-            if (fromAct == null) {
-                fromAct = "TAKE_LOOK_FRIEND";
-            }
-            JSONObject arg = new JSONObject();
-            JSONObject arg1 = new JSONObject();
-            arg1.put("wateringBubbleConfig", "0");
-            arg.put("canRobFlags", "T,F,F,F,F");
-            arg.put("configVersionMap", arg1);
-            arg.put("source", "chInfo_ch_appid-60000002");
-            arg.put("userId", userId);
-            arg.put("fromAct", fromAct);
-            arg.put("version", VERSION);
-            String param = "[" + arg + "]";
-            return RequestManager.requestString("alipay.antforest.forest.h5.queryFriendHomePage", param, 3, 1000);
+            return RequestManager.requestString(friendHomePageRpcEntity(userId, fromAct), 3, 1000);
         } catch (Exception e) {
             Log.printStackTrace(e);
             return "";
         }
     }
 
+    private static RpcEntity friendHomePageRpcEntity(String userId, String fromAct) throws JSONException {
+        if (fromAct == null) {
+            fromAct = "TAKE_LOOK_FRIEND";
+        }
+        JSONObject arg = new JSONObject();
+        JSONObject arg1 = new JSONObject();
+        arg1.put("wateringBubbleConfig", "0");
+        arg.put("canRobFlags", "T,F,F,F,F");
+        arg.put("configVersionMap", arg1);
+        arg.put("source", "chInfo_ch_appid-60000002");
+        arg.put("userId", userId);
+        arg.put("fromAct", fromAct);
+        arg.put("version", VERSION);
+        String param = "[" + arg + "]";
+        return new RpcEntity("alipay.antforest.forest.h5.queryFriendHomePage", param);
+    }
+
     public static RpcEntity energyRpcEntity(String bizType, String userId, long bubbleId) {
         try {
             JSONObject args = new JSONObject();
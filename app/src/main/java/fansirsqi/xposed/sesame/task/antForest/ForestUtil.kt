@@ -16,6 +16,31 @@ object ForestUtil {
         return hasPropGroup(userHomeObj, "energyBombCard", serverTime)
     }
 
+    /**
+     * 能量罩与炸弹卡中最晚的到期时间，都没有生效时返回 0
+     */
+    @JvmStatic
+    fun getProtectEndTime(userHomeObj: JSONObject, serverTime: Long): Long {
+        return maxOf(propGroupEndTime(userHomeObj, "shield", serverTime), propGroupEndTime(userHomeObj, "energyBombCard", serverTime))
+    }
+
+    private fun propGroupEndTime(userHomeObj: JSONObject, group: String, serverTime: Long): Long {
+        val props = userHomeObj.optJSONArray("usingUserProps")
+            ?: userHomeObj.optJSONArray("usingUserPropsNew")
+            ?: return 0L
+        var endTime = 0L
+        for (i in 0 until props.length()) {
+            val prop = props.optJSONObject(i) ?: continue
+            if (prop.optString("propGroup") == group) {
+                val propEndTime = prop.optLong("endTime", 0L)
+                if (propEndTime > serverTime && propEndTime > endTime) {
+                    endTime = propEndTime
+                }
+            }
+        }
+        return endTime
+    }
+
     private fun hasPropGroup(userHomeObj: JSONObject, group: String, serverTime: Long): Boolean {
         val props = userHomeObj.optJSONArray("usingUserProps")
             ?: userHomeObj.optJSONArray("usingUserPropsNew")
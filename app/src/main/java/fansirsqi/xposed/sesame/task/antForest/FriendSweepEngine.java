@@ -0,0 +1,272 @@
+package fansirsqi.xposed.sesame.task.antForest;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import fansirsqi.xposed.sesame.entity.RpcEntity;
+import fansirsqi.xposed.sesame.hook.RequestManager;
+import fansirsqi.xposed.sesame.util.GlobalThreadPools;
+import fansirsqi.xposed.sesame.util.Log;
+import fansirsqi.xposed.sesame.util.ResChecker;
+
+/**
+ * 好友能量巡检引擎。
+ * <p>
+ * 巡检分三级流水线：查询排行榜 → 每 20 个好友一批调用 fillUserRobFlag 补全收取标记 → 有界线程池进入好友主页并发出收取请求。
+ * 前两级只发出异步请求，请求节奏全部交给 RpcIntervalLimit，整轮耗时由限速决定，而不是各次请求耗时之和。
+ * 排行榜数据显示能量在检查窗口之后才成熟的好友直接跳过，不进入主页。
+ * 异步响应只在 RPC 回调线程中入队，解析与派发都回到调用 {@link #sweep} 的巡检线程执行。
+ */
+final class FriendSweepEngine {
+    private static final String TAG = "FriendSweep";
+    /**
+     * 排行榜自带完整数据的好友数，也是 fillUserRobFlag 每批的好友数
+     */
+    static final int BATCH_SIZE = 20;
+    private static final int VISIT_THREADS = 4;
+    /**
+     * 进入主页是阻塞调用，队列满时不能由提交方（巡检线程）执行，只能放弃该好友
+     */
+    private static final ThreadPoolExecutor VISIT_POOL = GlobalThreadPools.newThreadPool("FriendSweep", VISIT_THREADS, VISIT_THREADS, 4096, false);
+
+    /**
+     * 巡检来源
+     */
+    enum Source {
+        FRIEND("", "好友排行榜", "totalDatas"),
+        PK("pk", "PK排行榜", "totalData");
+
+        final String flag;
+        final String title;
+        /**
+         * 排行榜中完整好友ID列表的字段名
+         */
+        final String totalKey;
+
+        Source(String flag, String title, String totalKey) {
+            this.flag = flag;
+            this.title = title;
+            this.totalKey = totalKey;
+        }
+
+        RpcEntity rankingRpcEntity() throws JSONException {
+            return this == PK ? AntForestRpcCall.topEnergyChallengeRankingRpcEntity() : AntForestRpcCall.friendsEnergyRankingRpcEntity();
+        }
+    }
+
+    /**
+     * 巡检回调，由森林任务实现
+     */
+    interface Handler {
+        /**
+         * 是否中止巡检，例如触发了异常等待
+         */
+        boolean isStopped();
+
+        /**
+         * 排行榜返回后回调，在巡检线程中执行
+         */
+        void onRanking(Source source, JSONObject ranking);
+
+        /**
+         * 根据排行榜数据判断是否需要进入好友主页，在巡检线程中执行
+         */
+        boolean needVisit(JSONObject friendObj, String flag);
+
+        /**
+         * 进入好友主页并处理，在巡检线程池中执行
+         */
+        void visit(JSONObject friendObj, String flag);
+    }
+
+    private final Handler handler;
+    private final String selfId;
+    /**
+     * 未完成的异步请求与主页任务数，归零时本轮巡检结束
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+    /**
+     * 待巡检线程执行的回调；主页任务结束时放入空任务唤醒巡检线程
+     */
+    private final LinkedBlockingQueue<Runnable> callbacks = new LinkedBlockingQueue<>();
+    /**
+     * 本轮已派发的好友，同一来源中重复出现的好友只处理一次
+     */
+    private final Set<String> dispatched = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger batchCount = new AtomicInteger();
+    private final AtomicInteger visitCount = new AtomicInteger();
+    private final AtomicInteger skipCount = new AtomicInteger();
+    private volatile boolean cancelled;
+
+    FriendSweepEngine(Handler handler, String selfId) {
+        this.handler = handler;
+        this.selfId = selfId;
+    }
+
+    /**
+     * 执行一轮巡检，所有来源同时进行，全部处理完成后返回
+     *
+     * @param sources 巡检来源
+     */
+    void sweep(Source... sources) {
+        long start = System.currentTimeMillis();
+        for (Source source : sources) {
+            requestRanking(source);
+        }
+        try {
+            while (pending.get() > 0) {
+                callbacks.take().run();
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+            Log.record(TAG, "巡检被中断");
+            return;
+        }
+        Log.runtime(TAG, "巡检完成 批次:" + batchCount.get() + " 进入主页:" + visitCount.get()
+                + " 跳过:" + skipCount.get() + " 耗时:" + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private boolean isStopped() {
+        return cancelled || handler.isStopped();
+    }
+
+    private void requestRanking(Source source) {
+        try {
+            track(source.rankingRpcEntity(), ranking -> onRanking(source, ranking));
+        } catch (JSONException e) {
+            Log.printStackTrace(TAG, "构造" + source.title + "请求失败", e);
+        }
+    }
+
+    private void onRanking(Source source, JSONObject ranking) {
+        if (!ResChecker.checkRes(TAG + "获取" + source.title + "失败:", ranking)) {
+            Log.error(TAG, "获取" + source.title + "失败: " + ranking.optString("resultDesc"));
+            return;
+        }
+        handler.onRanking(source, ranking);
+        // 排名靠前的好友排行榜已带完整数据
+        dispatchAll(source, ranking.optJSONArray("friendRanking"));
+        JSONArray totalData = ranking.optJSONArray(source.totalKey);
+        if (totalData == null || totalData.length() == 0) {
+            Log.runtime(TAG, source.title + "为空，跳过");
+            return;
+        }
+        JSONArray userIds = new JSONArray();
+        for (int pos = BATCH_SIZE; pos < totalData.length() && !isStopped(); pos++) {
+            JSONObject friend = totalData.optJSONObject(pos);
+            if (friend == null) continue;
+            String userId = friend.optString("userId");
+            if (userId.isEmpty() || Objects.equals(userId, selfId)) continue;
+            userIds.put(userId);
+            if (userIds.length() == BATCH_SIZE) {
+                requestBatch(source, userIds);
+                userIds = new JSONArray();
+            }
+        }
+        if (userIds.length() > 0) {
+            requestBatch(source, userIds);
+        }
+    }
+
+    private void requestBatch(Source source, JSONArray userIds) {
+        try {
+            batchCount.incrementAndGet();
+            track(AntForestRpcCall.fillUserRobFlagRpcEntity(userIds, source == Source.PK),
+                    batchObj -> dispatchAll(source, batchObj.optJSONArray("friendRanking")));
+        } catch (JSONException e) {
+            Log.printStackTrace(TAG, "构造批量好友请求失败", e);
+        }
+    }
+
+    private void dispatchAll(Source source, JSONArray friendList) {
+        if (friendList == null) {
+            return;
+        }
+        for (int i = 0; i < friendList.length() && !isStopped(); i++) {
+            JSONObject friendObj = friendList.optJSONObject(i);
+            if (friendObj != null) {
+                dispatch(source, friendObj);
+            }
+        }
+    }
+
+    private void dispatch(Source source, JSONObject friendObj) {
+        String userId = friendObj.optString("userId");
+        if (userId.isEmpty() || Objects.equals(userId, selfId)) {
+            return;
+        }
+        if (!dispatched.add(source.flag + "|" + userId)) {
+            return;
+        }
+        if (!handler.needVisit(friendObj, source.flag)) {
+            skipCount.incrementAndGet();
+            return;
+        }
+        pending.incrementAndGet();
+        try {
+            VISIT_POOL.execute(() -> {
+                try {
+                    if (!isStopped()) {
+                        visitCount.incrementAndGet();
+                        handler.visit(friendObj, source.flag);
+                    }
+                } catch (Throwable t) {
+                    Log.printStackTrace(TAG, "处理好友[" + userId + "]异常", t);
+                } finally {
+                    pending.decrementAndGet();
+                    callbacks.add(() -> {
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            Log.error(TAG, "好友[" + userId + "]未能派发: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 发出异步请求并计入未完成数，响应回到巡检线程解析成功后交给 consumer 处理
+     */
+    private void track(RpcEntity rpcEntity, Consumer<JSONObject> consumer) {
+        pending.incrementAndGet();
+        CompletableFuture<RpcEntity> future;
+        try {
+            future = RequestManager.requestObjectAsync(rpcEntity, 3, -1);
+        } catch (Throwable t) {
+            pending.decrementAndGet();
+            Log.printStackTrace(TAG, t);
+            return;
+        }
+        future.whenComplete((entity, t) -> callbacks.add(() -> {
+            try {
+                if (t != null) {
+                    Log.printStackTrace(TAG, t);
+                    return;
+                }
+                if (entity == null || isStopped()) {
+                    return;
+                }
+                JSONObject jo = entity.getResponseJson();
+                if (jo != null) {
+                    consumer.accept(jo);
+                }
+            } catch (Throwable th) {
+                Log.printStackTrace(TAG, th);
+            } finally {
+                pending.decrementAndGet();
+            }
+        }));
+    }
+}
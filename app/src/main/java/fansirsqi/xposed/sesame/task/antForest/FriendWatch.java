@@ -0,0 +1,217 @@
+package fansirsqi.xposed.sesame.task.antForest;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fansirsqi.xposed.sesame.util.Files;
+import fansirsqi.xposed.sesame.util.JsonUtil;
+import fansirsqi.xposed.sesame.util.Log;
+import lombok.Data;
+
+/**
+ * 好友能量状态索引，按账号保存在 friendWatch.json。
+ * <p>
+ * 记录每个好友上次进入主页时看到的待成熟能量球、排行榜的 canCollectLaterTime、保护罩到期时间和上次成功收取时间。
+ * 下一轮巡检时，排行榜数据与记录一致且没有能量球成熟的好友不再进入主页，已知的成熟时间直接交给蹲点调度。
+ */
+@Data
+public class FriendWatch {
+    private static final String TAG = FriendWatch.class.getSimpleName();
+    /**
+     * 超过该时长未更新的好友记录在加载时丢弃
+     */
+    private static final long ENTRY_EXPIRE = 3 * 24 * 60 * 60 * 1000L;
+
+    @JsonIgnore
+    private String userId;
+    @JsonIgnore
+    private volatile boolean dirty;
+
+    private Map<String, Entry> friends = new ConcurrentHashMap<>();
+
+    @Data
+    public static class Entry {
+        /**
+         * 能量球ID到成熟时间，只记录尚未成熟的能量球
+         */
+        private Map<Long, Long> bubbles = new ConcurrentHashMap<>();
+        /**
+         * 进入主页时排行榜给出的最早可收取时间
+         */
+        private long canCollectLaterTime;
+        /**
+         * 能量罩或炸弹卡到期时间
+         */
+        private long protectEndTime;
+        private long lastCollectTime;
+        private long updateTime;
+
+        public void setBubbles(Map<Long, Long> bubbles) {
+            this.bubbles = bubbles == null ? new ConcurrentHashMap<>() : new ConcurrentHashMap<>(bubbles);
+        }
+
+        synchronized long earliestProduceTime() {
+            long earliest = Long.MAX_VALUE;
+            for (Long produceTime : bubbles.values()) {
+                earliest = Math.min(earliest, produceTime);
+            }
+            return earliest;
+        }
+    }
+
+    public void setFriends(Map<String, Entry> friends) {
+        this.friends = friends == null ? new ConcurrentHashMap<>() : new ConcurrentHashMap<>(friends);
+    }
+
+    /**
+     * 加载指定账号的索引，文件不存在或损坏时返回空索引
+     */
+    static FriendWatch load(String userId) {
+        FriendWatch watch = null;
+        File file = Files.getFriendWatchFile(userId);
+        try {
+            if (file != null && file.length() > 0) {
+                try (Reader reader = Files.openReader(file)) {
+                    watch = JsonUtil.parseObject(reader, FriendWatch.class);
+                }
+            }
+        } catch (Throwable t) {
+            Log.printStackTrace(TAG, "加载好友索引失败", t);
+        }
+        if (watch == null) {
+            watch = new FriendWatch();
+        }
+        watch.userId = userId;
+        watch.expire(System.currentTimeMillis());
+        return watch;
+    }
+
+    /**
+     * 有改动时写回文件
+     */
+    synchronized void save() {
+        if (!dirty || userId == null) {
+            return;
+        }
+        dirty = false;
+        if (!Files.write2File(JsonUtil.formatJson(this, false), Files.getFriendWatchFile(userId))) {
+            dirty = true;
+        }
+    }
+
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Entry>> iterator = friends.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry == null || now - entry.updateTime > ENTRY_EXPIRE) {
+                iterator.remove();
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * 判断排行榜数据相对上次进入主页时是否可能有变化
+     *
+     * @param friendObj     排行榜中的好友数据
+     * @param now           当前时间
+     * @param checkInterval 检查窗口
+     * @return 不需要进入主页时返回 true
+     */
+    boolean isUnchanged(String friendId, JSONObject friendObj, long now, long checkInterval) {
+        Entry entry = friends.get(friendId);
+        if (entry == null) {
+            return false;
+        }
+        synchronized (entry) {
+            if (entry.protectEndTime > now + checkInterval) {
+                return true;
+            }
+            if (entry.bubbles.isEmpty() || entry.canCollectLaterTime != friendObj.optLong("canCollectLaterTime")) {
+                return false;
+            }
+            return entry.earliestProduceTime() > now;
+        }
+    }
+
+    /**
+     * 已记录的在窗口内成熟的能量球
+     *
+     * @return 能量球ID与成熟时间，按成熟时间排序
+     */
+    List<long[]> getBubblesBefore(String friendId, long deadline) {
+        List<long[]> list = new ArrayList<>();
+        Entry entry = friends.get(friendId);
+        if (entry == null) {
+            return list;
+        }
+        for (Map.Entry<Long, Long> bubble : entry.bubbles.entrySet()) {
+            if (bubble.getValue() <= deadline) {
+                list.add(new long[]{bubble.getKey(), bubble.getValue()});
+            }
+        }
+        list.sort((a, b) -> Long.compare(a[1], b[1]));
+        return list;
+    }
+
+    /**
+     * 记录即将进入主页时排行榜给出的可收取时间
+     */
+    void recordRanking(String friendId, JSONObject friendObj) {
+        Entry entry = friends.computeIfAbsent(friendId, k -> new Entry());
+        synchronized (entry) {
+            entry.canCollectLaterTime = friendObj.optLong("canCollectLaterTime");
+        }
+        dirty = true;
+    }
+
+    /**
+     * 根据好友主页刷新待成熟能量球与保护状态
+     */
+    void recordHome(String friendId, JSONObject userHomeObj, long serverTime) {
+        Entry entry = friends.computeIfAbsent(friendId, k -> new Entry());
+        synchronized (entry) {
+            entry.bubbles.clear();
+            JSONArray jaBubbles = userHomeObj.optJSONArray("bubbles");
+            if (jaBubbles != null) {
+                for (int i = 0; i < jaBubbles.length(); i++) {
+                    JSONObject bubble = jaBubbles.optJSONObject(i);
+                    if (bubble != null && "WAITING".equals(bubble.optString("collectStatus"))) {
+                        entry.bubbles.put(bubble.optLong("id"), bubble.optLong("produceTime"));
+                    }
+                }
+            }
+            entry.protectEndTime = ForestUtil.getProtectEndTime(userHomeObj, serverTime);
+            entry.updateTime = System.currentTimeMillis();
+        }
+        dirty = true;
+    }
+
+    /**
+     * 记录一次成功收取，收走的能量球不再参与判断
+     */
+    void recordCollected(String friendId, List<Long> bubbleIds) {
+        Entry entry = friends.get(friendId);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            for (Long bubbleId : bubbleIds) {
+                entry.bubbles.remove(bubbleId);
+            }
+            entry.lastCollectTime = System.currentTimeMillis();
+            entry.updateTime = entry.lastCollectTime;
+        }
+        dirty = true;
+    }
+}
@@ -1,12 +1,11 @@
 package fansirsqi.xposed.sesame.task.antOcean;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -14,8 +13,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import fansirsqi.xposed.sesame.data.DataCache;
 import fansirsqi.xposed.sesame.entity.AlipayBeach;
@@ -28,10 +25,9 @@ import fansirsqi.xposed.sesame.model.modelFieldExt.BooleanModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.ChoiceModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.SelectAndCountModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.SelectModelField;
-import fansirsqi.xposed.sesame.newutil.DataStore;
 import fansirsqi.xposed.sesame.task.ModelTask;
+import fansirsqi.xposed.sesame.task.TaskCenter;
 import fansirsqi.xposed.sesame.task.TaskCommon;
-import fansirsqi.xposed.sesame.task.TaskStatus;
 import fansirsqi.xposed.sesame.task.antForest.AntForestRpcCall;
 import fansirsqi.xposed.sesame.util.GlobalThreadPools;
 import fansirsqi.xposed.sesame.util.Log;
@@ -158,8 +154,6 @@ public class AntOcean extends ModelTask {
         String[] nickNames = {"不保护", "保护全部", "仅保护沙滩"};
     }
 
-    private final Map<String, AtomicInteger> oceanTaskTryCount = new ConcurrentHashMap<>();
-
 
     @Override
     public ModelFields getFields() {
@@ -687,93 +681,89 @@ public class AntOcean extends ModelTask {
 
 
     private void receiveTaskAward() {
-        try {
-            Set<String> presetBad = new LinkedHashSet<>(List.of("DEMO", "DEMO1"));
-
-            TypeReference<Set<String>> typeRef = new TypeReference<>() {
-            };
-            Set<String> badTaskSet = DataStore.INSTANCE.getOrCreate("badOceanTaskSet", typeRef);
-            if (badTaskSet.isEmpty()) {
-                badTaskSet.addAll(presetBad);
-                DataStore.INSTANCE.put("badOceanTaskSet", badTaskSet);
+        TaskCenter.run(new OceanTaskAdapter());
+    }
+
+    /**
+     * 海洋任务中心
+     */
+    private static class OceanTaskAdapter implements TaskCenter.Adapter {
+        @Override
+        public String getName() {
+            return "ocean";
+        }
+
+        @Override
+        public List<TaskCenter.Task> queryTasks() throws JSONException {
+            JSONObject jo = new JSONObject(AntOceanRpcCall.queryTaskList());
+            if (!ResChecker.checkRes(TAG + "查询海洋任务列表失败:", jo)) {
+                Log.record(TAG, "查询任务列表失败：" + jo.optString("resultDesc"));
+                return null;
             }
-            while (true) {
-                boolean done = false;
-                String s = AntOceanRpcCall.queryTaskList();
-                JSONObject jo = new JSONObject(s);
-                if (!ResChecker.checkRes(TAG + "查询海洋任务列表失败:", jo)) {
-                    Log.record(TAG, "查询任务列表失败：" + jo.getString("resultDesc"));
-                }
-                JSONArray jaTaskList = jo.getJSONArray("antOceanTaskVOList");
-                for (int i = 0; i < jaTaskList.length(); i++) {
-                    JSONObject task = jaTaskList.getJSONObject(i);
-                    JSONObject bizInfo = new JSONObject(task.getString("bizInfo"));
-                    String taskTitle = bizInfo.optString("taskTitle");
-                    String awardCount = bizInfo.optString("awardCount", "0");
-                    String sceneCode = task.getString("sceneCode");
-                    String taskType = task.getString("taskType");
-                    String taskStatus = task.getString("taskStatus");
-                    if (TaskStatus.FINISHED.name().equals(taskStatus)) {
-                        JSONObject joAward = new JSONObject(AntOceanRpcCall.receiveTaskAward(sceneCode, taskType));
-                        if (ResChecker.checkRes(TAG + "领取海洋任务奖励失败:", joAward)) {
-                            Log.forest("海洋奖励🌊[" + taskTitle + "]# " + awardCount + "拼图");
-                            done = true;
-                        } else {
-                            Log.error(TAG, "海洋奖励🌊" + joAward);
-                        }
-                    } else if (TaskStatus.TODO.name().equals(taskStatus)) {
-                        if (badTaskSet.contains(taskType)) continue;
-                        if (!badTaskSet.contains(taskType)) {
-                            if (taskTitle.contains("答题")) {
-                                answerQuestion();
-                            } else {
-                                String bizKey = sceneCode + "_" + taskType;
-                                int count = oceanTaskTryCount
-                                        .computeIfAbsent(bizKey, k -> new AtomicInteger(0))
-                                        .incrementAndGet();
-
-                                JSONObject joFinishTask = new JSONObject(AntOceanRpcCall.finishTask(sceneCode, taskType));
-                                if (count > 5) {
-                                    Log.error(TAG, "完成任务失败，" + taskTitle);
-                                    badTaskSet.add(taskType);
-                                    DataStore.INSTANCE.put("badOceanTaskSet", badTaskSet);
-                                } else {
-                                    if (ResChecker.checkRes(TAG + "完成海洋任务失败:", joFinishTask)) {
-                                        Log.forest("海洋任务🧾️完成[" + taskTitle + "]");
-                                        done = true;
-                                    } else {
-                                        Log.error(TAG, "海洋任务🧾️完成失败：" + joFinishTask);
-                                        badTaskSet.add(taskType);
-                                        DataStore.INSTANCE.put("badOceanTaskSet", badTaskSet);
-                                    }
-                                }
-                            }
+            JSONArray jaTaskList = jo.getJSONArray("antOceanTaskVOList");
+            List<TaskCenter.Task> tasks = new ArrayList<>();
+            for (int i = 0; i < jaTaskList.length(); i++) {
+                JSONObject task = jaTaskList.getJSONObject(i);
+                JSONObject bizInfo = new JSONObject(task.getString("bizInfo"));
+                tasks.add(new TaskCenter.Task(task.getString("sceneCode"), task.getString("taskType"), bizInfo.optString("taskTitle"),
+                        task.getString("taskStatus"), bizInfo.optString("awardCount", "0"), task));
+            }
+            return tasks;
+        }
 
-                        }
-                    }
-                    GlobalThreadPools.sleep(500);
+        @Override
+        public TaskCenter.Result finishTask(TaskCenter.Task task) throws JSONException {
+            if (task.title.contains("答题")) {
+                return TaskCenter.Result.of(answerQuestion(), "海洋答题失败");
+            }
+            JSONObject joFinishTask = new JSONObject(AntOceanRpcCall.finishTask(task.sceneCode, task.taskType));
+            if (ResChecker.checkRes(TAG + "完成海洋任务失败:", joFinishTask)) {
+                Log.forest("海洋任务🧾️完成[" + task.title + "]");
+                return TaskCenter.Result.ok();
+            }
+            Log.error(TAG, "海洋任务🧾️完成失败：" + joFinishTask);
+            return TaskCenter.Result.block(joFinishTask.optString("resultDesc"));
+        }
 
-                }
-                if (!done) break;
+        @Override
+        public TaskCenter.Result receiveAward(TaskCenter.Task task) throws JSONException {
+            JSONObject joAward = new JSONObject(AntOceanRpcCall.receiveTaskAward(task.sceneCode, task.taskType));
+            if (ResChecker.checkRes(TAG + "领取海洋任务奖励失败:", joAward)) {
+                Log.forest("海洋奖励🌊[" + task.title + "]# " + task.award + "拼图");
+                return TaskCenter.Result.ok();
             }
-        } catch (JSONException e) {
-            Log.runtime(TAG, "JSON解析错误: " + e.getMessage());
-            Log.printStackTrace(TAG, e);
-        } catch (
-                Throwable t) {
-            Log.runtime(TAG, "receiveTaskAward err:");
-            Log.printStackTrace(TAG, t);
+            Log.error(TAG, "海洋奖励🌊" + joAward);
+            return TaskCenter.Result.fail(joAward.optString("resultDesc"));
+        }
+
+        @Override
+        public int getRetryBudget() {
+            return 5;
+        }
+
+        @Override
+        public Collection<String> getPresetBlocked() {
+            return List.of("DEMO", "DEMO1");
+        }
+
+        @Override
+        public String getLegacyBlockedKey() {
+            return "badOceanTaskSet";
         }
     }
 
-    // 海洋答题任务
-    private static void answerQuestion() {
+    /**
+     * 海洋答题任务
+     *
+     * @return 已答过或本次提交成功
+     */
+    private static boolean answerQuestion() {
         try {
             String questionResponse = AntOceanRpcCall.getQuestion();
             JSONObject questionJson = new JSONObject(questionResponse);
             if (questionJson.getBoolean("answered")) {
                 Log.runtime(TAG, "问题已经被回答过，跳过答题流程");
-                return;
+                return true;
             }
             if (questionJson.getInt("resultCode") == 200) {
                 String questionId = questionJson.getString("questionId");
@@ -784,15 +774,16 @@ public class AntOcean extends ModelTask {
                 JSONObject submitJson = new JSONObject(submitResponse);
                 if (submitJson.getInt("resultCode") == 200) {
                     Log.forest(TAG, "🌊海洋答题成功");
-                } else {
-                    Log.error(TAG, "海洋答题失败：" + submitJson);
+                    return true;
                 }
+                Log.error(TAG, "海洋答题失败：" + submitJson);
             } else {
                 Log.error(TAG, "海洋获取问题失败：" + questionJson);
             }
         } catch (Throwable t) {
             Log.printStackTrace(TAG, "海洋答题错误", t);
         }
+        return false;
     }
 
     /**
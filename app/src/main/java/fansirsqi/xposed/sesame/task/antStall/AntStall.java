@@ -1,12 +1,15 @@
 package fansirsqi.xposed.sesame.task.antStall;
 import android.util.Base64;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
@@ -19,6 +22,7 @@ import fansirsqi.xposed.sesame.model.modelFieldExt.ChoiceModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.IntegerModelField;
 import fansirsqi.xposed.sesame.model.modelFieldExt.SelectModelField;
 import fansirsqi.xposed.sesame.task.ModelTask;
+import fansirsqi.xposed.sesame.task.TaskCenter;
 import fansirsqi.xposed.sesame.task.TaskCommon;
 import fansirsqi.xposed.sesame.util.GlobalThreadPools;
 import fansirsqi.xposed.sesame.util.JsonUtil;
@@ -172,9 +176,7 @@ public class AntStall extends ModelTask {
                     openShop();
                 }
                 if (stallAutoTask.getValue()) {
-                    taskList();
-                    GlobalThreadPools.sleep(500);
-                    taskList();
+                    TaskCenter.run(new StallTaskAdapter());
                 }
                 assistFriend();
                 if (stallDonate.getValue() && Status.canStallDonateToday()) {
@@ -500,115 +502,136 @@ public class AntStall extends ModelTask {
             Log.printStackTrace(TAG, t);
         }
     }
-    private void taskList() {
-        try {
+    /**
+     * 新村任务中心，签到在查询任务列表时顺带完成
+     */
+    private class StallTaskAdapter implements TaskCenter.Adapter {
+        private final Map<String, TaskCenter.Action> actions = new HashMap<>();
+
+        StallTaskAdapter() {
+            actions.put("ANTSTALL_NORMAL_DAILY_QA", task -> TaskCenter.Result.of(ReadingDada.answerQuestion(bizInfo(task)), "新村答题失败"));
+            actions.put("ANTSTALL_NORMAL_INVITE_REGISTER", task -> TaskCenter.Result.of(inviteRegister(), "没有可邀请开通新村的好友"));
+            actions.put("ANTSTALL_TASK_taojinbihuanduan", AntStall.this::visitTaobaoFarm);
+            actions.put("ANTSTALL_XLIGHT_VARIABLE_AWARD", AntStall.this::browseXlight);
+        }
+
+        @Override
+        public String getName() {
+            return "stall";
+        }
+
+        @Override
+        public List<TaskCenter.Task> queryTasks() throws JSONException {
             String s = AntStallRpcCall.taskList();
             JSONObject jo = new JSONObject(s);
             if (!ResChecker.checkRes(TAG + "查询蚂蚁新村任务列表失败:", jo)) {
-                Log.record(TAG,"taskList err:" + " " + s);
-                return;
+                Log.record(TAG, "taskList err:" + " " + s);
+                return null;
             }
             JSONObject signListModel = jo.getJSONObject("signListModel");
             if (!signListModel.getBoolean("currentKeySigned")) {
                 signToday();
             }
             JSONArray taskModels = jo.getJSONArray("taskModels");
+            List<TaskCenter.Task> tasks = new ArrayList<>();
             for (int i = 0; i < taskModels.length(); i++) {
-                try {
-                    JSONObject task = taskModels.getJSONObject(i);
-                    String taskStatus = task.getString("taskStatus");
-                    String taskType = task.getString("taskType");
-                    if ("FINISHED".equals(taskStatus)) {
-                        receiveTaskAward(taskType);
-                        continue;
-                    }
-                    if (!"TODO".equals(taskStatus)) {
-                        continue;
-                    }
-                    JSONObject bizInfo = new JSONObject(task.getString("bizInfo"));
-                    String title = bizInfo.optString("title", taskType);
-                    if ("VISIT_AUTO_FINISH".equals(bizInfo.getString("actionType"))
-                            || taskTypeList.contains(taskType)) {
-                        if (!finishTask(taskType)) {
-                            continue;
-                        }
-                        Log.farm("蚂蚁新村👣任务[" + title + "]完成");
-                        GlobalThreadPools.sleep(200L);
-                        continue;
-                    }
-                    switch (taskType) {
-                        case "ANTSTALL_NORMAL_DAILY_QA":
-                            if (ReadingDada.answerQuestion(bizInfo)) {
-                                receiveTaskAward(taskType);
-                            }
-                            break;
-                        case "ANTSTALL_NORMAL_INVITE_REGISTER":
-                            if (inviteRegister()) {
-                                GlobalThreadPools.sleep(200L);
-                                continue;
-                            }
-                            break;
-                        case "ANTSTALL_P2P_DAILY_SHARER":
-                            //                                shareP2P();
-                            break;
-                        case "ANTSTALL_TASK_taojinbihuanduan":
-                            //进入淘宝芭芭农场
-                            String sceneCode = JsonUtil.getValueByPath(task, "bizInfo.targetUrl")
-                                    .replaceAll(".*sceneCode%3D([^&]+).*", "$1");
-                            if (sceneCode.isEmpty()) {
-                                continue;
-                            }
-                            s = AntStallRpcCall.queryCallAppSchema(sceneCode);
-                            jo = new JSONObject(s);
-                            if (!jo.optBoolean("success")) {
-                                Log.runtime(TAG, "taskList.queryCallAppSchema err:" + jo.optString("resultDesc"));
-                            }
-                            GlobalThreadPools.sleep(5000);
-                            AntStallRpcCall.home();
-                            AntStallRpcCall.taskList();
-                            break;
-                        case "ANTSTALL_XLIGHT_VARIABLE_AWARD":
-                            //【木兰市集】逛精选好物
-                            s = AntStallRpcCall.xlightPlugin();
-                            jo = new JSONObject(s);
-                            if (!jo.has("playingResult")) {
-                                Log.runtime(TAG, "taskList.xlightPlugin err:" + jo.optString("resultDesc"));
-                                continue;
-                            }
-                            jo = jo.getJSONObject("playingResult");
-                            String pid = jo.getString("playingBizId");
-                            JSONArray jsonArray = (JSONArray) JsonUtil.getValueByPathObject(jo, "eventRewardDetail.eventRewardInfoList");
-                            if (jsonArray == null || jsonArray.length() == 0) {
-                                continue;
-                            }
-                            GlobalThreadPools.sleep(5000);
-                            for (int j = 0; j < jsonArray.length(); j++) {
-                                try{
-                                    JSONObject jsonObject = jsonArray.getJSONObject(j);
-                                    s = AntStallRpcCall.finish(pid, jsonObject);
-                                    GlobalThreadPools.sleep(5000);
-                                    jo = new JSONObject(s);
-                                    if (!jo.optBoolean("success")) {
-                                        Log.runtime(TAG, "taskList.finish err:" + jo.optString("resultDesc"));
-                                    }
-                                } catch (Throwable t) {
-                                    Log.runtime(TAG, "taskList for err:");
-                                    Log.printStackTrace(TAG, t);
-                                }
-                            }
-                            break;
-                    }
-                    GlobalThreadPools.sleep(200L);
-                } catch (Throwable t) {
-                    Log.runtime(TAG, "taskList for err:");
-                    Log.printStackTrace(TAG, t);
+                JSONObject task = taskModels.getJSONObject(i);
+                String taskStatus = task.getString("taskStatus");
+                String taskType = task.getString("taskType");
+                JSONObject bizInfo = task.has("bizInfo") ? new JSONObject(task.getString("bizInfo")) : new JSONObject();
+                if ("FINISHED".equals(taskStatus) && !stallReceiveAward.getValue()) {
+                    continue;
+                }
+                // 既不能自动完成也没有专门流程的任务不交给任务中心，以免计入失败次数
+                if ("TODO".equals(taskStatus) && !"VISIT_AUTO_FINISH".equals(bizInfo.optString("actionType"))
+                        && !taskTypeList.contains(taskType) && !actions.containsKey(taskType)) {
+                    continue;
                 }
+                tasks.add(new TaskCenter.Task(task.optString("sceneCode"), taskType, bizInfo.optString("title", taskType),
+                        taskStatus, "", task));
+            }
+            return tasks;
+        }
+
+        @Override
+        public TaskCenter.Result finishTask(TaskCenter.Task task) {
+            if (!AntStall.this.finishTask(task.taskType)) {
+                return TaskCenter.Result.fail("完成任务失败");
+            }
+            Log.farm("蚂蚁新村👣任务[" + task.title + "]完成");
+            return TaskCenter.Result.ok();
+        }
+
+        @Override
+        public TaskCenter.Result receiveAward(TaskCenter.Task task) {
+            return TaskCenter.Result.of(receiveTaskAward(task.taskType), "领取奖励失败");
+        }
+
+        @Override
+        public Map<String, TaskCenter.Action> getActions() {
+            return actions;
+        }
+    }
+
+    private static JSONObject bizInfo(TaskCenter.Task task) throws JSONException {
+        return new JSONObject(task.raw.getString("bizInfo"));
+    }
+
+    /**
+     * 进入淘宝芭芭农场
+     */
+    private TaskCenter.Result visitTaobaoFarm(TaskCenter.Task task) throws JSONException {
+        String sceneCode = JsonUtil.getValueByPath(task.raw, "bizInfo.targetUrl")
+                .replaceAll(".*sceneCode%3D([^&]+).*", "$1");
+        if (sceneCode.isEmpty()) {
+            return TaskCenter.Result.fail("未找到sceneCode");
+        }
+        JSONObject jo = new JSONObject(AntStallRpcCall.queryCallAppSchema(sceneCode));
+        if (!jo.optBoolean("success")) {
+            Log.runtime(TAG, "taskList.queryCallAppSchema err:" + jo.optString("resultDesc"));
+            return TaskCenter.Result.fail(jo.optString("resultDesc"));
+        }
+        GlobalThreadPools.sleep(5000);
+        AntStallRpcCall.home();
+        return TaskCenter.Result.ok();
+    }
+
+    /**
+     * 【木兰市集】逛精选好物
+     */
+    private TaskCenter.Result browseXlight(TaskCenter.Task task) throws JSONException {
+        JSONObject jo = new JSONObject(AntStallRpcCall.xlightPlugin());
+        if (!jo.has("playingResult")) {
+            Log.runtime(TAG, "taskList.xlightPlugin err:" + jo.optString("resultDesc"));
+            return TaskCenter.Result.fail(jo.optString("resultDesc"));
+        }
+        jo = jo.getJSONObject("playingResult");
+        String pid = jo.getString("playingBizId");
+        JSONArray jsonArray = (JSONArray) JsonUtil.getValueByPathObject(jo, "eventRewardDetail.eventRewardInfoList");
+        if (jsonArray == null || jsonArray.length() == 0) {
+            return TaskCenter.Result.fail("没有可浏览的内容");
+        }
+        GlobalThreadPools.sleep(5000);
+        boolean finished = false;
+        for (int j = 0; j < jsonArray.length(); j++) {
+            try {
+                JSONObject jsonObject = jsonArray.getJSONObject(j);
+                String s = AntStallRpcCall.finish(pid, jsonObject);
+                GlobalThreadPools.sleep(5000);
+                jo = new JSONObject(s);
+                if (jo.optBoolean("success")) {
+                    finished = true;
+                } else {
+                    Log.runtime(TAG, "taskList.finish err:" + jo.optString("resultDesc"));
+                }
+            } catch (Throwable t) {
+                Log.runtime(TAG, "taskList for err:");
+                Log.printStackTrace(TAG, t);
             }
-        } catch (Throwable t) {
-            Log.runtime(TAG, "taskList err:");
-            Log.printStackTrace(TAG, t);
         }
+        return TaskCenter.Result.of(finished, "浏览失败");
     }
+
     private void signToday() {
         String s = AntStallRpcCall.signToday();
         try {
@@ -623,15 +646,16 @@ public class AntStall extends ModelTask {
             Log.printStackTrace(TAG, t);
         }
     }
-    private void receiveTaskAward(String taskType) {
+    private boolean receiveTaskAward(String taskType) {
         if (!stallReceiveAward.getValue()) {
-            return;
+            return false;
         }
         String s = AntStallRpcCall.receiveTaskAward(taskType);
         try {
             JSONObject jo = new JSONObject(s);
             if (jo.optBoolean("success")) {
                 Log.farm("蚂蚁新村⛪[领取奖励]");
+                return true;
             } else {
                 Log.record(TAG,"receiveTaskAward err:" + " " + s);
             }
@@ -639,6 +663,7 @@ public class AntStall extends ModelTask {
             Log.runtime(TAG, "receiveTaskAward err:");
             Log.printStackTrace(TAG, t);
         }
+        return false;
     }
     private boolean finishTask(String taskType) {
         String s = AntStallRpcCall.finishTask(taskType + "_" + System.currentTimeMillis(), taskType);
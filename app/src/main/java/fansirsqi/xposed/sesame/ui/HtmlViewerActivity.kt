@@ -11,6 +11,7 @@ import android.os.Handler
 import android.view.Menu
 import android.view.MenuItem
 import android.view.View
+import android.webkit.JavascriptInterface
 import android.webkit.WebChromeClient
 import android.webkit.WebSettings
 import android.webkit.WebView
@@ -22,11 +23,15 @@ import androidx.core.view.WindowInsetsCompat
 import androidx.webkit.WebSettingsCompat
 import androidx.webkit.WebViewFeature
 import fansirsqi.xposed.sesame.R
+import fansirsqi.xposed.sesame.hook.RpcCapture
 import fansirsqi.xposed.sesame.newui.WatermarkView.Companion.install
 import fansirsqi.xposed.sesame.util.Files
 import fansirsqi.xposed.sesame.util.LanguageUtil
 import fansirsqi.xposed.sesame.util.Log
+import fansirsqi.xposed.sesame.util.LogFileReader
 import fansirsqi.xposed.sesame.util.ToastUtil
+import org.json.JSONArray
+import org.json.JSONObject
 import java.io.File
 
 class HtmlViewerActivity : BaseActivity() {
@@ -39,6 +44,10 @@ class HtmlViewerActivity : BaseActivity() {
     private var refreshHandler: Handler? = null
     private var refreshRunnable: Runnable? = null
     private var isRefreshing: Boolean = false
+    /**
+     * 日志文件不再整个载入 WebView，而是由 log.html 通过 LOG 桥分页读取
+     */
+    private var logReader: LogFileReader? = null
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -134,7 +143,11 @@ class HtmlViewerActivity : BaseActivity() {
                 configureWebViewSettings(intent, settings!!)
                 uri = intent.data
                 if (uri != null) {
-                    mWebView!!.loadUrl(uri.toString())
+                    if (isLogFile(uri!!)) {
+                        openLogViewer(File(uri!!.path!!))
+                    } else {
+                        mWebView!!.loadUrl(uri.toString())
+                    }
                 }
                 canClear = intent.getBooleanExtra("canClear", false)
             }
@@ -144,6 +157,80 @@ class HtmlViewerActivity : BaseActivity() {
         }
     }
 
+    private fun isLogFile(uri: Uri): Boolean {
+        return "file".equals(uri.scheme, ignoreCase = true) && uri.path?.endsWith(".log") == true
+    }
+
+    /**
+     * 打开分页日志查看页，同一文件只创建一次读取器
+     */
+    @SuppressLint("JavascriptInterface", "SetJavaScriptEnabled")
+    private fun openLogViewer(file: File) {
+        if (logReader != null) {
+            return
+        }
+        val reader = LogFileReader(file)
+        reader.refresh()
+        logReader = reader
+        settings!!.javaScriptEnabled = true
+        mWebView!!.addJavascriptInterface(LogBridge(reader, file.name), "LOG")
+        mWebView!!.loadUrl("file:///android_asset/web/log.html")
+    }
+
+    /**
+     * 供 log.html 调用的分页接口，偏移均为字节偏移，返回 JSON
+     */
+    private class LogBridge(private val reader: LogFileReader, private val name: String) {
+        private fun toJson(page: LogFileReader.Page): String {
+            return JSONObject()
+                .put("start", page.start)
+                .put("end", page.end)
+                .put("text", page.text)
+                .put("length", reader.length())
+                .toString()
+        }
+
+        @JavascriptInterface
+        fun info(): String {
+            val length = reader.refresh()
+            return JSONObject()
+                .put("name", name)
+                .put("length", length)
+                .put("lines", reader.lineCount)
+                .put("indexing", reader.isIndexing)
+                .toString()
+        }
+
+        @JavascriptInterface
+        fun tail(count: Int): String = toJson(reader.tail(count))
+
+        @JavascriptInterface
+        fun before(offset: Long, count: Int): String = toJson(reader.before(offset, count))
+
+        @JavascriptInterface
+        fun after(offset: Long, count: Int): String = toJson(reader.after(offset, count))
+
+        /**
+         * 读取 offset 之后新写入的完整行，文件变小时返回 reset
+         */
+        @JavascriptInterface
+        fun follow(offset: Long): String {
+            if (reader.refresh() < offset) {
+                return JSONObject().put("reset", true).toString()
+            }
+            return toJson(reader.appended(offset))
+        }
+
+        @JavascriptInterface
+        fun search(query: String, from: Long, limit: Int): String {
+            val matches = JSONArray()
+            for (offset in reader.search(query, from, limit)) {
+                matches.put(JSONObject().put("offset", offset).put("line", reader.lineOf(offset)))
+            }
+            return JSONObject().put("matches", matches).toString()
+        }
+    }
+
     override fun onPause() {
         super.onPause()
 
@@ -201,10 +288,18 @@ class HtmlViewerActivity : BaseActivity() {
                 copyUrlToClipboard()
 
             5 ->                 // 滚动到顶部
-                mWebView!!.scrollTo(0, 0)
+                if (logReader != null) {
+                    mWebView!!.evaluateJavascript("logViewer.top()", null)
+                } else {
+                    mWebView!!.scrollTo(0, 0)
+                }
 
             6 ->                 // 滚动到底部
-                mWebView!!.scrollToBottom()
+                if (logReader != null) {
+                    mWebView!!.evaluateJavascript("logViewer.bottom()", null)
+                } else {
+                    mWebView!!.scrollToBottom()
+                }
 
         }
         return true
@@ -245,6 +340,10 @@ class HtmlViewerActivity : BaseActivity() {
                 val path = uri!!.path
                 if (path != null) {
                     val file = File(path)
+                    // 抓包查看的是导出的副本，源记录也要一起清空，否则下次打开又会导出
+                    if (file.absolutePath == Files.getCaptureLogFile().absolutePath) {
+                        RpcCapture.clear()
+                    }
                     if (Files.clearFile(file)) {
                         ToastUtil.makeText(this, "文件已清空", Toast.LENGTH_SHORT).show()
                         mWebView!!.reload()
@@ -279,7 +378,8 @@ class HtmlViewerActivity : BaseActivity() {
     private fun copyUrlToClipboard() {
         val clipboardManager = getSystemService(CLIPBOARD_SERVICE) as ClipboardManager?
         if (clipboardManager != null) {
-            clipboardManager.setPrimaryClip(ClipData.newPlainText(null, mWebView!!.getUrl()))
+            val url = if (logReader != null) uri.toString() else mWebView!!.getUrl()
+            clipboardManager.setPrimaryClip(ClipData.newPlainText(null, url))
             ToastUtil.makeText(this, getString(R.string.copy_success), Toast.LENGTH_SHORT).show()
         }
     }
@@ -9,6 +9,7 @@ import android.os.Bundle
 import android.view.Menu
 import android.view.MenuItem
 import android.view.View
+import android.widget.EditText
 import android.widget.TextView
 import android.widget.Toast
 import androidx.appcompat.app.AlertDialog
@@ -28,6 +29,7 @@ import fansirsqi.xposed.sesame.data.UIConfig
 import fansirsqi.xposed.sesame.data.ViewAppInfo
 import fansirsqi.xposed.sesame.data.ViewAppInfo.verifyId
 import fansirsqi.xposed.sesame.entity.UserEntity
+import fansirsqi.xposed.sesame.hook.RpcCapture
 import fansirsqi.xposed.sesame.net.SecureApiClient
 import fansirsqi.xposed.sesame.newui.DeviceInfoCard
 import fansirsqi.xposed.sesame.newui.DeviceInfoUtil
@@ -284,13 +286,14 @@ class MainActivity : BaseActivity() {
             }
 
             5 -> {
-                var captureData = "file://"
-                captureData += Files.getCaptureLogFile().absolutePath
-                val captureIt = Intent(this, HtmlViewerActivity::class.java)
-                captureIt.putExtra("nextLine", false)
-                captureIt.putExtra("canClear", true)
-                captureIt.data = captureData.toUri()
-                startActivity(captureIt)
+                val methodEditText = EditText(this)
+                methodEditText.hint = "方法名包含的文本，留空显示全部"
+                AlertDialog.Builder(this)
+                    .setTitle("查看抓包记录")
+                    .setView(methodEditText)
+                    .setPositiveButton(R.string.ok) { _, _ -> openCaptureLog(methodEditText.text.toString().trim()) }
+                    .setNegativeButton(R.string.cancel) { dialog, _ -> dialog.dismiss() }
+                    .show()
             }
 
             6 ->                 // 扩展功能
@@ -308,6 +311,22 @@ class MainActivity : BaseActivity() {
         return super.onOptionsItemSelected(item)
     }
 
+    /**
+     * 抓包记录为二进制，查看前按方法名过滤并导出为每行一条 JSON
+     */
+    private fun openCaptureLog(method: String) = lifecycleScope.launch {
+        val captureFile = Files.getCaptureLogFile()
+        val filter = if (method.isEmpty()) null else RpcCapture.Filter.byMethod(method)
+        withContext(Dispatchers.IO) { RpcCapture.export(filter, captureFile) }
+        var captureData = "file://"
+        captureData += captureFile.absolutePath
+        val captureIt = Intent(this@MainActivity, HtmlViewerActivity::class.java)
+        captureIt.putExtra("nextLine", false)
+        captureIt.putExtra("canClear", true)
+        captureIt.data = captureData.toUri()
+        startActivity(captureIt)
+    }
+
     private fun selectSettingUid() {
         val latch = CountDownLatch(1)
         val dialog = StringDialog.showSelectionDialog(this, "📌 请选择配置", userNameArray, { dialog1: DialogInterface, which: Int ->
@@ -0,0 +1,168 @@
+package fansirsqi.xposed.sesame.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * 异步日志写入器。
+ * <p>
+ * 调用线程只把日志条目放入环形队列，由单个写线程批量写入各个日志文件，每批写完后统一刷盘。
+ * 队列接近满时优先丢弃 system/debug/capture 这类低优先级日志，队列全满时丢弃并计数，调用线程从不等待 IO。
+ */
+final class AsyncLogWriter {
+    private static final String FQCN = Log.class.getName();
+    private static final int CAPACITY = 8192;
+    /**
+     * 低优先级日志最多占用的队列长度，剩余空间留给 record/error 等日志
+     */
+    private static final int LOW_PRIORITY_LIMIT = CAPACITY * 3 / 4;
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final Logger[] loggers;
+    private final LogRingBuffer<Entry> buffer = new LogRingBuffer<>(CAPACITY);
+    private final AtomicBoolean parked = new AtomicBoolean(false);
+    private final AtomicLong dropped = new AtomicLong();
+    /**
+     * 已写入日志提示的丢弃数，仅写线程访问
+     */
+    private long reportedDropped;
+    private final Thread writerThread;
+
+    static final class Entry {
+        final int targets;
+        final boolean error;
+        final Object message;
+        final long timeStamp;
+        final String threadName;
+
+        Entry(int targets, boolean error, Object message) {
+            this.targets = targets;
+            this.error = error;
+            this.message = message;
+            this.timeStamp = System.currentTimeMillis();
+            this.threadName = Thread.currentThread().getName();
+        }
+
+        String format() {
+            Object msg = message;
+            if (msg instanceof Supplier) {
+                msg = ((Supplier<?>) msg).get();
+            }
+            return String.valueOf(msg);
+        }
+    }
+
+    /**
+     * @param loggers 按目标位序排列的日志记录器
+     */
+    AsyncLogWriter(Logger[] loggers) {
+        this.loggers = loggers;
+        writerThread = new Thread(this::drainLoop, "LogWriter");
+        writerThread.setDaemon(true);
+        writerThread.setPriority(Thread.MIN_PRIORITY);
+        writerThread.start();
+    }
+
+    /**
+     * 放入一条日志，不阻塞
+     *
+     * @param lowPriority 是否可优先丢弃
+     * @return 队列已满被丢弃时返回 false
+     */
+    boolean offer(Entry entry, boolean lowPriority) {
+        if (!buffer.offer(entry, lowPriority ? LOW_PRIORITY_LIMIT : CAPACITY)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (parked.get() && parked.compareAndSet(true, false)) {
+            LockSupport.unpark(writerThread);
+        }
+        return true;
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    int getPendingCount() {
+        return buffer.size();
+    }
+
+    /**
+     * 等待队列写空
+     *
+     * @param timeoutMillis 最长等待时间
+     */
+    void flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (buffer.size() > 0 && System.currentTimeMillis() < deadline) {
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            int written = 0;
+            Entry entry;
+            while (written < BATCH_SIZE && (entry = buffer.poll()) != null) {
+                write(entry);
+                written++;
+            }
+            if (written > 0) {
+                reportDropped();
+                Logback.flushAppenders();
+                continue;
+            }
+            parked.set(true);
+            if (buffer.size() == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            parked.set(false);
+        }
+    }
+
+    private void write(Entry entry) {
+        String msg;
+        try {
+            msg = entry.format();
+        } catch (Throwable t) {
+            msg = "log format error: " + t;
+        }
+        int targets = entry.targets;
+        for (int i = 0; targets != 0 && i < loggers.length; i++, targets >>>= 1) {
+            if ((targets & 1) == 0) {
+                continue;
+            }
+            Logger logger = loggers[i];
+            Level level = entry.error && i == Log.ERROR_INDEX ? Level.ERROR : Level.INFO;
+            if (!logger.isEnabledFor(level)) {
+                continue;
+            }
+            try {
+                LoggingEvent event = new LoggingEvent(FQCN, logger, level, msg, null, null);
+                event.setTimeStamp(entry.timeStamp);
+                event.setThreadName(entry.threadName);
+                logger.callAppenders(event);
+            } catch (Throwable t) {
+                android.util.Log.e("LogWriter", "write log failed", t);
+            }
+        }
+    }
+
+    private void reportDropped() {
+        long count = dropped.get();
+        if (count != reportedDropped) {
+            write(new Entry(1 << Log.RUNTIME_INDEX | 1 << Log.SYSTEM_INDEX, false, "日志队列已满，累计丢弃 " + count + " 条"));
+            reportedDropped = count;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package fansirsqi.xposed.sesame.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fansirsqi.xposed.sesame.util.stats.Ewma;
+import fansirsqi.xposed.sesame.util.stats.LongRingBuffer;
+
+/**
+ * 本地与服务器的时钟偏差、网络延迟估计。
+ * <p>
+ * 每个 RPC 方法在环形缓冲中保留最近 {@link #WINDOW} 个样本，样本只存原始类型。
+ * 时钟偏差按 NTP 的做法取往返时间最短的样本：往返越短，上下行不对称带来的误差越小，误差上限为往返时间的一半。
+ * 网络延迟取往返时间的分位数，由调用方按需要的置信度选择分位，异常慢的样本（GC、网络唤醒）不会拉偏结果。
+ */
+public final class ClockSkewEstimator {
+    private static final int WINDOW = 16;
+    /**
+     * 超过这个时间的偏差样本不再参与估计
+     */
+    private static final long MAX_AGE = 10 * 60 * 1000;
+    /**
+     * 单程延迟占往返时间的比例，往返时间中包含服务端处理时间，沿用原来的经验值
+     */
+    private static final int ONE_WAY_DIVISOR = 3;
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * 单个 RPC 方法的样本，偏差样本与耗时样本分开保存
+     */
+    private static final class Channel {
+        private final LongRingBuffer clockTimes = new LongRingBuffer(WINDOW);
+        private final LongRingBuffer clockRtts = new LongRingBuffer(WINDOW);
+        private final LongRingBuffer offsets = new LongRingBuffer(WINDOW);
+        private final LongRingBuffer rtts = new LongRingBuffer(WINDOW);
+        private final Ewma oneWay = Ewma.ofHalfLife(WINDOW / 2.0);
+        private final long[] scratch = new long[WINDOW];
+
+        synchronized void addClock(long time, long rtt, long offset) {
+            clockTimes.push(time);
+            clockRtts.push(rtt);
+            offsets.push(offset);
+            addRtt(rtt);
+        }
+
+        synchronized void addRtt(long rtt) {
+            rtts.push(rtt);
+            oneWay.add((double) rtt / ONE_WAY_DIVISOR);
+        }
+
+        /**
+         * 丢弃过期的偏差样本，返回剩余样本中往返最短的下标，没有时返回 -1
+         */
+        int bestOffset(long now) {
+            while (!clockTimes.isEmpty() && now - clockTimes.first() > MAX_AGE) {
+                clockTimes.removeOldest();
+                clockRtts.removeOldest();
+                offsets.removeOldest();
+            }
+            return clockRtts.isEmpty() ? -1 : clockRtts.minIndex();
+        }
+
+        synchronized long rttQuantile(double quantile) {
+            return rtts.isEmpty() ? -1 : rtts.quantile(quantile, scratch);
+        }
+    }
+
+    private Channel channel(String method) {
+        Channel channel = channels.get(method);
+        if (channel == null) {
+            channel = channels.computeIfAbsent(method, k -> new Channel());
+        }
+        return channel;
+    }
+
+    /**
+     * 记录一次带服务器时间的响应
+     *
+     * @param method     RPC 方法
+     * @param send       本地发送时间
+     * @param receive    本地收到响应时间
+     * @param serverTime 响应中的服务器时间
+     */
+    public void sampleClock(String method, long send, long receive, long serverTime) {
+        channel(method).addClock(receive, receive - send, (send + receive) / 2 - serverTime);
+    }
+
+    /**
+     * 记录一次不带服务器时间的请求耗时
+     */
+    public void sampleLatency(String method, long send, long receive) {
+        channel(method).addRtt(receive - send);
+    }
+
+    /**
+     * 本地时间减服务器时间，没有有效样本时为 0
+     */
+    public long offset() {
+        long[] best = best();
+        return best == null ? 0 : best[1];
+    }
+
+    /**
+     * {@link #offset()} 的误差上限，没有有效样本时返回 -1
+     */
+    public long offsetError() {
+        long[] best = best();
+        return best == null ? -1 : best[0] / 2;
+    }
+
+    /**
+     * 所有方法中往返最短的样本，返回 {往返时间, 偏差}
+     */
+    private long[] best() {
+        long now = System.currentTimeMillis();
+        long[] best = null;
+        for (Channel channel : channels.values()) {
+            synchronized (channel) {
+                int index = channel.bestOffset(now);
+                if (index >= 0 && (best == null || channel.clockRtts.get(index) < best[0])) {
+                    best = new long[]{channel.clockRtts.get(index), channel.offsets.get(index)};
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 单程网络延迟的分位数
+     *
+     * @param method   RPC 方法
+     * @param quantile 0~1，越小越不容易高估延迟
+     * @return 没有样本时为 0
+     */
+    public long latency(String method, double quantile) {
+        Channel channel = channels.get(method);
+        long rtt = channel == null ? -1 : channel.rttQuantile(quantile);
+        return rtt < 0 ? 0 : rtt / ONE_WAY_DIVISOR;
+    }
+
+    /**
+     * 单程网络延迟的加权标准差，作为延迟估计的误差范围
+     */
+    public long latencyError(String method) {
+        Channel channel = channels.get(method);
+        if (channel == null) {
+            return 0;
+        }
+        synchronized (channel) {
+            return Math.round(channel.oneWay.stdDev());
+        }
+    }
+
+    public void clear() {
+        channels.clear();
+    }
+}
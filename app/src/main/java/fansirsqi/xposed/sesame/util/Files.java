@@ -3,19 +3,25 @@ package fansirsqi.xposed.sesame.util;
 import android.annotation.SuppressLint;
 import android.os.Environment;
 
+import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.zip.CRC32;
 
 import fansirsqi.xposed.sesame.data.General;
 
@@ -38,6 +44,13 @@ public class Files {
      * 日志文件夹路径
      */
     public static final File LOG_DIR = getLogDir();
+    /**
+     * 校验尾前缀，完整的校验尾为前缀加 8 位十六进制 CRC32，写在文件末尾
+     */
+    private static final String CHECKSUM_PREFIX = "\n//crc32:";
+    private static final byte[] CHECKSUM_PREFIX_BYTES = CHECKSUM_PREFIX.getBytes(StandardCharsets.UTF_8);
+    private static final int CHECKSUM_FOOTER_LENGTH = CHECKSUM_PREFIX_BYTES.length + 8;
+    private static final String TEMP_SUFFIX = ".tmp";
 
     /**
      * 确保指定的目录存在且不是一个文件。
@@ -294,6 +307,13 @@ public class Files {
         return getTargetFileofUser(userId, "friendWatch.json");
     }
 
+    /**
+     * 能量统计事件文件
+     */
+    public static File getStatisticsDataFile(String userId) {
+        return getTargetFileofUser(userId, "statistics.dat");
+    }
+
     public static File getWuaFile() {
         return getTargetFileofDir(MAIN_DIR, "wua.list");
     }
@@ -408,6 +428,13 @@ public class Files {
         return ensureLogFile(getLogFile("capture"));
     }
 
+    /**
+     * 抓包记录文件，格式见 RpcCapture
+     */
+    public static File getCaptureDataFile() {
+        return new File(LOG_DIR, "capture.bin");
+    }
+
     public static File getForestLogFile() {
         return ensureLogFile(getLogFile("forest"));
     }
@@ -440,10 +467,10 @@ public class Files {
     }
 
     /**
-     * 从文件中读取内容
+     * 从文件中读取内容，带校验尾的文件会校验并去掉校验尾
      *
      * @param f 要读取的文件
-     * @return 文件内容，如果读取失败或没有权限，返回空字符串
+     * @return 文件内容，如果读取失败、校验不通过或没有权限，返回空字符串
      */
     public static String readFromFile(File f) {
         // 检查文件是否存在
@@ -456,25 +483,170 @@ public class Files {
             ToastUtil.showToast(f.getName() + "没有读取权限！");
             return "";
         }
-        StringBuilder result = new StringBuilder();
-        FileReader fr = null;
         try {
-            // 使用 FileReader 读取文件内容
-            fr = new FileReader(f);
-            char[] chs = new char[1024];
-            int len;
-            // 按块读取文件内容
-            while ((len = fr.read(chs)) >= 0) {
-                result.append(chs, 0, len);
-            }
+            return StandardCharsets.UTF_8.decode(readBuffer(f)).toString();
         } catch (Throwable t) {
             // 捕获并记录异常
             Log.printStackTrace(TAG, t);
-        } finally {
-            // 关闭文件流
-            close(fr);
+            return "";
+        }
+    }
+
+    /**
+     * 按文件大小一次性读入直接缓冲区
+     *
+     * @return 去掉校验尾后的内容
+     * @throws IOException 读取失败或校验不通过
+     */
+    private static ByteBuffer readBuffer(File f) throws IOException {
+        try (FileChannel channel = new FileInputStream(f).getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + f.getAbsolutePath());
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // 读满为止
+            }
+            buffer.flip();
+            long expected = readChecksumFooter(buffer, buffer.limit());
+            if (expected >= 0) {
+                buffer.limit(buffer.limit() - CHECKSUM_FOOTER_LENGTH);
+                CRC32 crc = new CRC32();
+                byte[] chunk = new byte[8192];
+                ByteBuffer view = buffer.duplicate();
+                while (view.hasRemaining()) {
+                    int len = Math.min(chunk.length, view.remaining());
+                    view.get(chunk, 0, len);
+                    crc.update(chunk, 0, len);
+                }
+                if (crc.getValue() != expected) {
+                    throw new IOException("Checksum mismatch: " + f.getAbsolutePath());
+                }
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * 解析位于 end 之前的校验尾
+     *
+     * @return 校验值，没有校验尾时返回 -1
+     */
+    private static long readChecksumFooter(ByteBuffer buffer, int end) {
+        int start = end - CHECKSUM_FOOTER_LENGTH;
+        if (start < 0) {
+            return -1;
+        }
+        for (int i = 0; i < CHECKSUM_PREFIX_BYTES.length; i++) {
+            if (buffer.get(start + i) != CHECKSUM_PREFIX_BYTES[i]) {
+                return -1;
+            }
+        }
+        long value = 0;
+        for (int i = start + CHECKSUM_PREFIX_BYTES.length; i < end; i++) {
+            int digit = Character.digit(buffer.get(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * 以流的方式读取文件，供 Jackson 等直接解析。
+     * 带校验尾的文件不会读出校验尾，读到末尾时校验，不一致时抛出 IOException
+     *
+     * @param f 要读取的文件
+     * @return 输入流，需由调用方关闭
+     */
+    public static InputStream openInputStream(File f) throws IOException {
+        FileChannel channel = new FileInputStream(f).getChannel();
+        try {
+            long size = channel.size();
+            long expected = -1;
+            if (size >= CHECKSUM_FOOTER_LENGTH) {
+                ByteBuffer footer = ByteBuffer.allocate(CHECKSUM_FOOTER_LENGTH);
+                long position = size - CHECKSUM_FOOTER_LENGTH;
+                while (footer.hasRemaining() && channel.read(footer, position + footer.position()) >= 0) {
+                    // 读满为止
+                }
+                expected = readChecksumFooter(footer, footer.position());
+            }
+            return new ChannelInputStream(channel, expected >= 0 ? size - CHECKSUM_FOOTER_LENGTH : size, expected, f);
+        } catch (IOException e) {
+            close(channel);
+            throw e;
+        }
+    }
+
+    /**
+     * 以 UTF-8 字符流读取文件，规则同 {@link #openInputStream(File)}
+     */
+    public static Reader openReader(File f) throws IOException {
+        return new BufferedReader(new InputStreamReader(openInputStream(f), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 从文件通道读取指定长度，并在读完时校验
+     */
+    private static final class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long limit;
+        private final long expected;
+        private final File file;
+        private final CRC32 crc = new CRC32();
+        private long position;
+
+        ChannelInputStream(FileChannel channel, long limit, long expected, File file) {
+            this.channel = channel;
+            this.limit = limit;
+            this.expected = expected;
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long remaining = limit - position;
+            if (remaining <= 0) {
+                verify();
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file: " + file.getAbsolutePath());
+            }
+            crc.update(b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, limit - position);
+        }
+
+        private void verify() throws IOException {
+            if (expected >= 0 && crc.getValue() != expected) {
+                throw new IOException("Checksum mismatch: " + file.getAbsolutePath());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
         }
-        return result.toString();
     }
 
     public static boolean beforWrite(File f) {
@@ -508,17 +680,74 @@ public class Files {
      * @return 写入是否成功
      */
     public static synchronized boolean write2File(String s, File f) {
+        return write2File(s, f, false);
+    }
+
+    /**
+     * 将字符串写入文件。
+     * 先写入同目录下的临时文件并刷到磁盘，再重命名覆盖目标文件，写入过程中进程被杀也不会留下半个文件
+     *
+     * @param s        要写入的字符串
+     * @param f        目标文件
+     * @param checksum 是否在末尾追加 CRC32 校验尾
+     * @return 写入是否成功
+     */
+    public static synchronized boolean write2File(String s, File f, boolean checksum) {
+        byte[] data = s.getBytes(StandardCharsets.UTF_8);
+        byte[] footer = null;
+        if (checksum) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            footer = (CHECKSUM_PREFIX + String.format(Locale.ROOT, "%08x", crc.getValue())).getBytes(StandardCharsets.UTF_8);
+        }
+        return replaceFile(f, data, footer);
+    }
+
+    /**
+     * 将二进制内容写入文件，写入方式同 {@link #write2File(String, File, boolean)}
+     *
+     * @param data 要写入的内容
+     * @param f    目标文件
+     * @return 写入是否成功
+     */
+    public static synchronized boolean write2File(byte[] data, File f) {
+        return replaceFile(f, data, null);
+    }
+
+    private static boolean replaceFile(File f, byte[] data, byte[] footer) {
         if (beforWrite(f)) return false;
-        try {
-            try (FileWriter fw = new FileWriter(f, false)) {
-                fw.write(s);
-                fw.flush();
-                return true;
+        File tempFile = new File(f.getParentFile(), f.getName() + TEMP_SUFFIX);
+        try (FileChannel channel = new FileOutputStream(tempFile, false).getChannel()) {
+            writeFully(channel, ByteBuffer.wrap(data));
+            if (footer != null) {
+                writeFully(channel, ByteBuffer.wrap(footer));
             }
+            channel.force(true);
         } catch (IOException e) {
             Log.printStackTrace(TAG, e);
+            if (tempFile.exists() && !tempFile.delete()) {
+                Log.error(TAG, "Failed to delete temp file: " + tempFile.getAbsolutePath());
+            }
             return false;
         }
+        if (tempFile.renameTo(f)) {
+            return true;
+        }
+        // 个别文件系统不支持覆盖式重命名，退化为先删除再重命名
+        if (f.delete() && tempFile.renameTo(f)) {
+            return true;
+        }
+        Log.error(TAG, "Failed to replace file: " + f.getAbsolutePath());
+        if (tempFile.exists() && !tempFile.delete()) {
+            Log.error(TAG, "Failed to delete temp file: " + tempFile.getAbsolutePath());
+        }
+        return false;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
     }
 
     /**
@@ -1,18 +1,370 @@
 package fansirsqi.xposed.sesame.util;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * 全局线程池管理类
+ * 全局线程池管理类。
+ * <p>
+ * 按负载类型提供有界、具名的共享线程池，其他地方新建的线程池也通过这里创建并登记，
+ * 可通过 {@link #getPoolStats()} 查看各线程池的实时状态。
+ * 队列满时默认由提交线程自己执行（CallerRuns），以此形成背压；提交线程不能执行阻塞任务时可改为抛出
+ * {@link RejectedExecutionException}。两种情况都计入拒绝次数，线程池关闭后的提交一律抛出异常。
  */
 public class GlobalThreadPools {
     private static final String TAG = "GlobalThreadPools";
+    private static final long KEEP_ALIVE_SECONDS = 30L;
+
+    /**
+     * 共享线程池的负载类型
+     */
+    public enum Workload {
+        /**
+         * RPC 请求的调度与重试，线程数也是异步在途请求数的上限
+         */
+        RPC_IO("RpcIO", true, 4, 4, 0),
+        /**
+         * 不支持回调的 RPC 桥接在异步请求中阻塞等待响应，与调度线程分开
+         */
+        RPC_BLOCKING("RpcBlocking", false, 0, 8, 256),
+        /**
+         * 通用延时任务
+         */
+        TIMER("Timer", true, 2, 2, 0),
+        /**
+         * JSON 解析等计算任务
+         */
+        CPU("Cpu", false, 2, Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())), 128),
+        /**
+         * 文件读写，单线程保证写入顺序
+         */
+        PERSIST("Persist", false, 1, 1, 512),
+        /**
+         * 协程模式下的模型任务，挂起期间不占用线程
+         */
+        COROUTINE("Coroutine", false, 0, 4, 256);
+
+        private final String poolName;
+        private final boolean scheduled;
+        private volatile int coreSize;
+        private volatile int maxSize;
+        private final int queueCapacity;
+
+        Workload(String poolName, boolean scheduled, int coreSize, int maxSize, int queueCapacity) {
+            this.poolName = poolName;
+            this.scheduled = scheduled;
+            this.coreSize = coreSize;
+            this.maxSize = maxSize;
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    /**
+     * 可统计的线程池
+     */
+    private interface MonitoredPool {
+        ThreadPoolStats getStats();
+    }
+
+    private static final Map<Workload, ThreadPoolExecutor> WORKLOAD_POOLS = new EnumMap<>(Workload.class);
+    private static final Set<MonitoredPool> REGISTRY = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * 获取指定负载类型的共享线程池，首次调用时创建
+     *
+     * @param workload 负载类型
+     * @return 线程池
+     */
+    public static ExecutorService getPool(Workload workload) {
+        synchronized (WORKLOAD_POOLS) {
+            ThreadPoolExecutor executor = WORKLOAD_POOLS.get(workload);
+            if (executor == null || executor.isShutdown()) {
+                if (workload.scheduled) {
+                    executor = newScheduledPool(workload.poolName, workload.coreSize);
+                } else {
+                    executor = newThreadPool(workload.poolName, workload.coreSize, workload.maxSize, workload.queueCapacity);
+                }
+                WORKLOAD_POOLS.put(workload, executor);
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * 获取指定负载类型的共享调度线程池
+     *
+     * @param workload 负载类型，必须是调度类型
+     * @return 调度线程池
+     */
+    public static ScheduledExecutorService getScheduledPool(Workload workload) {
+        if (!workload.scheduled) {
+            throw new IllegalArgumentException(workload + " is not a scheduled workload");
+        }
+        return (ScheduledExecutorService) getPool(workload);
+    }
+
+    /**
+     * 获取异步 RPC 使用的调度线程池。
+     * 重试通过延时调度完成，不占用等待中的线程。
+     *
+     * @return 调度线程池
+     */
+    public static ScheduledExecutorService getRpcAsyncExecutor() {
+        return getScheduledPool(Workload.RPC_IO);
+    }
+
+    /**
+     * 调整负载类型的线程数，已创建的线程池立即生效
+     *
+     * @param workload 负载类型
+     * @param coreSize 核心线程数
+     * @param maxSize  最大线程数，调度线程池忽略该值
+     */
+    public static void setPoolSize(Workload workload, int coreSize, int maxSize) {
+        int core = Math.max(1, coreSize);
+        int max = Math.max(core, maxSize);
+        synchronized (WORKLOAD_POOLS) {
+            workload.coreSize = core;
+            workload.maxSize = max;
+            ThreadPoolExecutor executor = WORKLOAD_POOLS.get(workload);
+            if (executor == null) {
+                return;
+            }
+            if (workload.scheduled) {
+                executor.setCorePoolSize(core);
+            } else {
+                ((MonitoredThreadPool) executor).resize(core, max);
+            }
+        }
+    }
+
+    /**
+     * 新建一个有界、具名并登记统计的线程池。
+     * 线程数先增长到 maxSize 再开始排队，空闲线程超时回收。
+     *
+     * @param name          线程池名称，也是线程名前缀
+     * @param coreSize      常驻线程数
+     * @param maxSize       最大线程数
+     * @param queueCapacity 排队容量，队列满时由提交线程执行
+     * @return 线程池
+     */
+    public static ThreadPoolExecutor newThreadPool(String name, int coreSize, int maxSize, int queueCapacity) {
+        return newThreadPool(name, coreSize, maxSize, queueCapacity, true);
+    }
+
+    /**
+     * 新建一个有界、具名并登记统计的线程池
+     *
+     * @param name          线程池名称，也是线程名前缀
+     * @param coreSize      常驻线程数
+     * @param maxSize       最大线程数
+     * @param queueCapacity 排队容量
+     * @param callerRuns    队列满时是否由提交线程执行，为 false 时抛出 {@link RejectedExecutionException}
+     * @return 线程池
+     */
+    public static ThreadPoolExecutor newThreadPool(String name, int coreSize, int maxSize, int queueCapacity, boolean callerRuns) {
+        MonitoredThreadPool executor = new MonitoredThreadPool(name, Math.max(0, coreSize), Math.max(1, maxSize), queueCapacity, callerRuns);
+        REGISTRY.add(executor);
+        return executor;
+    }
+
+    /**
+     * 新建一个具名并登记统计的调度线程池
+     *
+     * @param name     线程池名称，也是线程名前缀
+     * @param coreSize 线程数
+     * @return 调度线程池
+     */
+    public static ScheduledThreadPoolExecutor newScheduledPool(String name, int coreSize) {
+        MonitoredScheduledPool executor = new MonitoredScheduledPool(name, Math.max(1, coreSize));
+        REGISTRY.add(executor);
+        return executor;
+    }
+
+    /**
+     * 获取所有已登记线程池的实时状态
+     *
+     * @return 状态列表
+     */
+    public static List<ThreadPoolStats> getPoolStats() {
+        List<ThreadPoolStats> list = new ArrayList<>();
+        for (MonitoredPool pool : REGISTRY) {
+            list.add(pool.getStats());
+        }
+        return list;
+    }
+
+    /**
+     * 把所有线程池的状态写入运行日志
+     */
+    public static void logPoolStats() {
+        for (ThreadPoolStats stats : getPoolStats()) {
+            Log.runtime(TAG, stats.toString());
+        }
+    }
+
+    private static ThreadFactory newThreadFactory(String name) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return r -> {
+            Thread t = new Thread(r, name + "-thread-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 统计排队时间与拒绝次数的线程池
+     */
+    private static final class MonitoredThreadPool extends ThreadPoolExecutor implements MonitoredPool {
+        private final String name;
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+
+        MonitoredThreadPool(String name, int coreSize, int maxSize, int queueCapacity, boolean callerRuns) {
+            super(maxSize, maxSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    queueCapacity > 0 ? new LinkedBlockingQueue<>(queueCapacity) : new SynchronousQueue<>(),
+                    newThreadFactory(name));
+            this.name = name;
+            // 线程数先涨到 maxSize 再排队，低于 coreSize 的空闲线程超时回收
+            allowCoreThreadTimeOut(coreSize < maxSize);
+            setRejectedExecutionHandler((r, executor) -> {
+                rejected.incrementAndGet();
+                // 关闭后静默丢弃会让等待任务完成的调用方永远等下去
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException(name + " is shut down");
+                }
+                if (!callerRuns) {
+                    throw new RejectedExecutionException(name + " queue is full");
+                }
+                r.run();
+            });
+        }
+
+        void resize(int coreSize, int maxSize) {
+            if (maxSize >= getMaximumPoolSize()) {
+                setMaximumPoolSize(maxSize);
+                setCorePoolSize(maxSize);
+            } else {
+                setCorePoolSize(maxSize);
+                setMaximumPoolSize(maxSize);
+            }
+            allowCoreThreadTimeOut(coreSize < maxSize);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(new TimedRunnable(command));
+        }
+
+        @Override
+        public boolean remove(Runnable task) {
+            for (Runnable queued : getQueue()) {
+                if (queued instanceof TimedRunnable && ((TimedRunnable) queued).delegate == task) {
+                    return super.remove(queued);
+                }
+            }
+            return super.remove(task);
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            if (r instanceof TimedRunnable) {
+                updateMax(maxLatency, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ((TimedRunnable) r).submitTime));
+            }
+            super.beforeExecute(t, r);
+        }
+
+        @Override
+        protected void terminated() {
+            REGISTRY.remove(this);
+            super.terminated();
+        }
+
+        @Override
+        public ThreadPoolStats getStats() {
+            return new ThreadPoolStats(name, getPoolSize(), getMaximumPoolSize(), getActiveCount(), getQueue().size(),
+                    getCompletedTaskCount(), rejected.get(), maxLatency.get());
+        }
+    }
+
+    /**
+     * 统计延迟执行时间的调度线程池，延迟为实际开始时间晚于计划时间的部分
+     */
+    private static final class MonitoredScheduledPool extends ScheduledThreadPoolExecutor implements MonitoredPool {
+        private final String name;
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+
+        MonitoredScheduledPool(String name, int coreSize) {
+            super(coreSize, newThreadFactory(name));
+            this.name = name;
+            setRemoveOnCancelPolicy(true);
+            setRejectedExecutionHandler((r, executor) -> {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException(name + " is shut down");
+            });
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            if (r instanceof RunnableScheduledFuture) {
+                updateMax(maxLatency, Math.max(0, -((RunnableScheduledFuture<?>) r).getDelay(TimeUnit.MILLISECONDS)));
+            }
+            super.beforeExecute(t, r);
+        }
+
+        @Override
+        protected void terminated() {
+            REGISTRY.remove(this);
+            super.terminated();
+        }
+
+        @Override
+        public ThreadPoolStats getStats() {
+            return new ThreadPoolStats(name, getPoolSize(), getCorePoolSize(), getActiveCount(), getQueue().size(),
+                    getCompletedTaskCount(), rejected.get(), maxLatency.get());
+        }
+    }
+
+    private static final class TimedRunnable implements Runnable {
+        final Runnable delegate;
+        final long submitTime = System.nanoTime();
+
+        TimedRunnable(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            delegate.run();
+        }
+    }
 
     /**
      * 使当前线程暂停指定的毫秒数。
@@ -15,15 +15,19 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.lang.reflect.Type;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
 public class JsonUtil {
@@ -150,6 +154,18 @@ public class JsonUtil {
         return parseObjectInternal(() -> MAPPER.readValue(body, clazz)); // 执行解析
     }
 
+    /**
+     * 从字符流解析为指定类型的对象，不必先把整个文件读成字符串
+     *
+     * @param reader 字符流，由调用方关闭
+     * @param clazz  目标类
+     * @param <T>    目标类型泛型
+     * @return 解析后的对象
+     */
+    public static <T> T parseObject(Reader reader, Class<T> clazz) {
+        return parseObjectInternal(() -> MAPPER.readValue(reader, clazz)); // 执行解析
+    }
+
     /**
      * 从 JsonParser 解析为指定类型的对象
      *
@@ -411,6 +427,55 @@ public class JsonUtil {
         return list; // 返回列表
     }
 
+    /**
+     * 直接从 Map 对象图构建 JSONObject，不经过字符串序列化与再解析，
+     * 用于把支付宝 fastjson 的 JSONObject（实现了 Map）转成 org.json 对象
+     *
+     * @param map 源对象
+     * @return JSONObject
+     */
+    public static JSONObject toJSONObject(Map<?, ?> map) throws JSONException {
+        JSONObject jo = new JSONObject();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            Object key = entry.getKey();
+            if (key != null) {
+                jo.put(key.toString(), toJSONValue(entry.getValue()));
+            }
+        }
+        return jo;
+    }
+
+    /**
+     * 直接从集合构建 JSONArray
+     *
+     * @param collection 源集合
+     * @return JSONArray
+     */
+    public static JSONArray toJSONArray(Collection<?> collection) throws JSONException {
+        JSONArray ja = new JSONArray();
+        for (Object item : collection) {
+            ja.put(toJSONValue(item));
+        }
+        return ja;
+    }
+
+    private static Object toJSONValue(Object value) throws JSONException {
+        if (value == null) {
+            return JSONObject.NULL;
+        }
+        if (value instanceof Map) {
+            return toJSONObject((Map<?, ?>) value);
+        }
+        if (value instanceof Collection) {
+            return toJSONArray((Collection<?>) value);
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof String
+                || value instanceof JSONObject || value instanceof JSONArray) {
+            return value;
+        }
+        return value.toString();
+    }
+
     /**
      * 内部方法，执行 JSON 操作并处理异常
      *
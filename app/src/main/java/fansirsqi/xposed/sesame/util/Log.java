@@ -3,6 +3,8 @@ package fansirsqi.xposed.sesame.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.function.Supplier;
+
 import fansirsqi.xposed.sesame.BuildConfig;
 import fansirsqi.xposed.sesame.model.BaseModel;
 
@@ -21,6 +23,36 @@ public class Log {
     private static final Logger ERROR_LOGGER;
     private static final Logger CAPTURE_LOGGER;
 
+    /**
+     * 日志目标位序，与 {@link #LOGGERS} 下标一致
+     */
+    static final int RUNTIME_INDEX = 0;
+    static final int SYSTEM_INDEX = 1;
+    static final int RECORD_INDEX = 2;
+    static final int DEBUG_INDEX = 3;
+    static final int FOREST_INDEX = 4;
+    static final int FARM_INDEX = 5;
+    static final int OTHER_INDEX = 6;
+    static final int ERROR_INDEX = 7;
+    static final int CAPTURE_INDEX = 8;
+
+    private static final int RUNTIME = 1 << RUNTIME_INDEX;
+    private static final int SYSTEM = 1 << SYSTEM_INDEX;
+    private static final int RECORD = 1 << RECORD_INDEX;
+    private static final int DEBUG = 1 << DEBUG_INDEX;
+    private static final int FOREST = 1 << FOREST_INDEX;
+    private static final int FARM = 1 << FARM_INDEX;
+    private static final int OTHER = 1 << OTHER_INDEX;
+    private static final int ERROR = 1 << ERROR_INDEX;
+    private static final int CAPTURE = 1 << CAPTURE_INDEX;
+    /**
+     * 只写入这些文件的日志在队列紧张时优先丢弃
+     */
+    private static final int LOW_PRIORITY_TARGETS = SYSTEM | DEBUG | CAPTURE;
+
+    private static final Logger[] LOGGERS;
+    private static volatile AsyncLogWriter asyncWriter;
+
     static {
         Logback.configureLogbackDirectly();
         RUNTIME_LOGGER = LoggerFactory.getLogger("runtime");
@@ -32,6 +64,8 @@ public class Log {
         OTHER_LOGGER = LoggerFactory.getLogger("other");
         ERROR_LOGGER = LoggerFactory.getLogger("error");
         CAPTURE_LOGGER = LoggerFactory.getLogger("capture");
+        LOGGERS = new Logger[]{RUNTIME_LOGGER, SYSTEM_LOGGER, RECORD_LOGGER, DEBUG_LOGGER, FOREST_LOGGER,
+                FARM_LOGGER, OTHER_LOGGER, ERROR_LOGGER, CAPTURE_LOGGER};
     }
 
     private static String truncateLogmsg(String msg) {
@@ -41,17 +75,105 @@ public class Log {
         return msg;
     }
 
+    private static boolean isAsync() {
+        try {
+            return BaseModel.getAsyncLog().getValue();
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    private static AsyncLogWriter getAsyncWriter() {
+        AsyncLogWriter writer = asyncWriter;
+        if (writer == null) {
+            synchronized (Log.class) {
+                writer = asyncWriter;
+                if (writer == null) {
+                    ch.qos.logback.classic.Logger[] loggers = new ch.qos.logback.classic.Logger[LOGGERS.length];
+                    for (int i = 0; i < LOGGERS.length; i++) {
+                        loggers[i] = (ch.qos.logback.classic.Logger) LOGGERS[i];
+                    }
+                    Logback.setImmediateFlush(false);
+                    writer = new AsyncLogWriter(loggers);
+                    asyncWriter = writer;
+                }
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * 写入日志，消息只生成一次，按目标分发到各个文件
+     *
+     * @param targets 目标日志位
+     * @param error   是否以 error 级别写入错误日志
+     * @param msg     消息，可以是 {@link Supplier}，异步模式下在写线程中才生成
+     */
+    private static void log(int targets, boolean error, Object msg) {
+        if (isAsync()) {
+            getAsyncWriter().offer(new AsyncLogWriter.Entry(targets, error, msg), (targets & ~LOW_PRIORITY_TARGETS) == 0 || (targets & DEBUG) != 0);
+            return;
+        }
+        if (asyncWriter != null) {
+            // 从异步切回同步时先写完队列中的日志
+            asyncWriter.flush(1000);
+            Logback.setImmediateFlush(true);
+        }
+        String text = msg instanceof Supplier ? String.valueOf(((Supplier<?>) msg).get()) : String.valueOf(msg);
+        for (int i = 0; targets != 0 && i < LOGGERS.length; i++, targets >>>= 1) {
+            if ((targets & 1) == 0) {
+                continue;
+            }
+            if (error && i == ERROR_INDEX) {
+                LOGGERS[i].error(TAG + "{}", text);
+            } else {
+                LOGGERS[i].info(TAG + "{}", text);
+            }
+        }
+    }
+
+    private static int withRecord(int targets) {
+        if (BaseModel.getRecordLog().getValue()) {
+            return targets | RECORD;
+        }
+        return targets;
+    }
+
+    /**
+     * 等待异步日志写完，用于退出前
+     */
+    public static void flush() {
+        AsyncLogWriter writer = asyncWriter;
+        if (writer != null) {
+            writer.flush(2000);
+        }
+    }
+
+    /**
+     * 异步模式下因队列满被丢弃的日志数
+     */
+    public static long getDroppedCount() {
+        AsyncLogWriter writer = asyncWriter;
+        return writer == null ? 0 : writer.getDroppedCount();
+    }
+
     public static void system(String msg) {
-        SYSTEM_LOGGER.info(TAG + "{}", msg);
+        log(SYSTEM, false, msg);
     }
 
     public static void system(String TAG, String msg) {
         system("[" + TAG + "]: " + msg);
     }
 
+    /**
+     * 延迟生成消息的系统日志，异步模式下拼接工作在写线程完成
+     */
+    public static void system(String TAG, Supplier<String> msg) {
+        log(SYSTEM, false, (Supplier<String>) () -> "[" + TAG + "]: " + msg.get());
+    }
+
     public static void runtime(String msg) {
-        system(msg);
-        RUNTIME_LOGGER.info(TAG + "{}", msg);
+        log(SYSTEM | RUNTIME, false, msg);
     }
 
     public static void runtime(String TAG, String msg) {
@@ -59,10 +181,7 @@ public class Log {
     }
 
     public static void record(String msg) {
-        runtime(msg);
-        if (BaseModel.getRecordLog().getValue()) {
-            RECORD_LOGGER.info(TAG + "{}", msg);
-        }
+        log(withRecord(SYSTEM | RUNTIME), false, msg);
     }
 
     public static void record(String TAG, String msg) {
@@ -70,8 +189,7 @@ public class Log {
     }
 
     public static void forest(String msg) {
-        record(msg);
-        FOREST_LOGGER.info("{}", msg);
+        log(withRecord(SYSTEM | RUNTIME) | FOREST, false, msg);
     }
 
     public static void forest(String TAG, String msg) {
@@ -79,8 +197,7 @@ public class Log {
     }
 
     public static void farm(String msg) {
-        record(msg);
-        FARM_LOGGER.info("{}", msg);
+        log(withRecord(SYSTEM | RUNTIME) | FARM, false, msg);
     }
 
     public static void farm(String TAG, String msg) {
@@ -88,8 +205,7 @@ public class Log {
     }
 
     public static void other(String msg) {
-        record(msg);
-        OTHER_LOGGER.info("{}", msg);
+        log(withRecord(SYSTEM | RUNTIME) | OTHER, false, msg);
     }
 
     public static void other(String TAG, String msg) {
@@ -97,8 +213,7 @@ public class Log {
     }
 
     public static void debug(String msg) {
-        runtime(msg);
-        DEBUG_LOGGER.info("{}", msg);
+        log(SYSTEM | RUNTIME | DEBUG, false, msg);
     }
 
     public static void debug(String TAG, String msg) {
@@ -106,8 +221,7 @@ public class Log {
     }
 
     public static void error(String msg) {
-        runtime(msg);
-        ERROR_LOGGER.error(TAG + "{}", msg);
+        log(SYSTEM | RUNTIME | ERROR, true, msg);
     }
 
     public static void error(String TAG, String msg) {
@@ -115,7 +229,7 @@ public class Log {
     }
 
     public static void capture(String msg) {
-        CAPTURE_LOGGER.info(TAG + "{}", msg);
+        log(CAPTURE, false, msg);
     }
 
     public static void capture(String TAG, String msg) {
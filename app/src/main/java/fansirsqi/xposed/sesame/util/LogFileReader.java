@@ -0,0 +1,311 @@
+package fansirsqi.xposed.sesame.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 大日志文件的分页读取。
+ * <p>
+ * 文件通过内存映射读取，只解码请求的那一页。后台线程扫描换行符建立稀疏行索引，每 {@link #INDEX_STEP} 行记录一次起始偏移，
+ * 用于行号与偏移之间的换算。翻页、跟随末尾都以字节偏移为游标，不依赖索引是否建完。
+ * 文件变大时重新映射并继续建索引，变小（被清空或轮转）时索引从头重建。
+ */
+public final class LogFileReader {
+    private static final String TAG = LogFileReader.class.getSimpleName();
+    private static final int INDEX_STEP = 64;
+    /**
+     * 建索引时每次持锁扫描的字节数
+     */
+    private static final int INDEX_CHUNK = 1024 * 1024;
+    /**
+     * 单次返回文本的最大字节数
+     */
+    public static final int MAX_PAGE_BYTES = 256 * 1024;
+
+    private final File file;
+    private ByteBuffer buffer = ByteBuffer.allocate(0);
+    private long[] marks = new long[1024];
+    /**
+     * 已扫描的字节数与其中的换行数
+     */
+    private long indexedEnd;
+    private int newlines;
+    private boolean indexing;
+
+    /**
+     * 一段文本及其在文件中的字节范围
+     */
+    public static final class Page {
+        public final long start;
+        public final long end;
+        public final String text;
+
+        Page(long start, long end, String text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+    }
+
+    public LogFileReader(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 按文件当前长度重新映射，并在后台补建索引
+     *
+     * @return 文件长度
+     */
+    public synchronized long refresh() {
+        long length = file.length();
+        if (length != buffer.capacity()) {
+            if (length < buffer.capacity()) {
+                marks = new long[1024];
+                indexedEnd = 0;
+                newlines = 0;
+            }
+            buffer = map(length);
+        }
+        if (!indexing && indexedEnd < buffer.capacity()) {
+            indexing = true;
+            GlobalThreadPools.getPool(GlobalThreadPools.Workload.CPU).execute(this::buildIndex);
+        }
+        return buffer.capacity();
+    }
+
+    private ByteBuffer map(long length) {
+        if (length <= 0) {
+            return ByteBuffer.allocate(0);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, Integer.MAX_VALUE));
+        } catch (IOException e) {
+            Log.printStackTrace(TAG, "映射" + file.getName() + "失败", e);
+            return ByteBuffer.allocate(0);
+        }
+    }
+
+    private void buildIndex() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    int size = buffer.capacity();
+                    if (indexedEnd >= size) {
+                        indexing = false;
+                        return;
+                    }
+                    int end = (int) Math.min(size, indexedEnd + INDEX_CHUNK);
+                    for (int i = (int) indexedEnd; i < end; i++) {
+                        if (buffer.get(i) == '\n') {
+                            newlines++;
+                            if (newlines % INDEX_STEP == 0) {
+                                int slot = newlines / INDEX_STEP;
+                                if (slot >= marks.length) {
+                                    marks = Arrays.copyOf(marks, marks.length * 2);
+                                }
+                                marks[slot] = i + 1;
+                            }
+                        }
+                    }
+                    indexedEnd = end;
+                }
+            }
+        } catch (Throwable t) {
+            synchronized (this) {
+                indexing = false;
+            }
+            Log.printStackTrace(TAG, t);
+        }
+    }
+
+    public synchronized long length() {
+        return buffer.capacity();
+    }
+
+    public synchronized boolean isIndexing() {
+        return indexing;
+    }
+
+    /**
+     * 已建索引部分的行数，索引建完后即为总行数
+     */
+    public synchronized int getLineCount() {
+        int size = buffer.capacity();
+        if (size == 0) {
+            return 0;
+        }
+        boolean openLine = indexedEnd == size && buffer.get(size - 1) != '\n';
+        return newlines + (openLine ? 1 : 0);
+    }
+
+    /**
+     * 偏移所在的行号，从 0 开始；超出已建索引范围时返回 -1
+     */
+    public synchronized int lineOf(long offset) {
+        if (offset > indexedEnd) {
+            return -1;
+        }
+        int low = 0;
+        int high = newlines / INDEX_STEP;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (marks[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int line = low * INDEX_STEP;
+        for (int i = (int) marks[low]; i < offset; i++) {
+            if (buffer.get(i) == '\n') {
+                line++;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * 行的起始偏移；超出已建索引范围时返回 -1
+     */
+    public synchronized long offsetOf(int line) {
+        if (line < 0 || line > newlines) {
+            return -1;
+        }
+        int slot = line / INDEX_STEP;
+        int pos = (int) marks[slot];
+        for (int remain = line - slot * INDEX_STEP; remain > 0; pos++) {
+            if (buffer.get(pos) == '\n') {
+                remain--;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * 从 offset 开始向后读取最多 count 行
+     */
+    public synchronized Page after(long offset, int count) {
+        int size = buffer.capacity();
+        int start = (int) Math.max(0, Math.min(offset, size));
+        int limit = (int) Math.min(size, (long) start + MAX_PAGE_BYTES);
+        int end = start;
+        while (end < limit && count > 0) {
+            if (buffer.get(end++) == '\n') {
+                count--;
+            }
+        }
+        return page(start, end);
+    }
+
+    /**
+     * 读取 offset 之后新写入的完整行，末尾未写完的行留到下次读取；单行超过一页时按页返回
+     */
+    public synchronized Page appended(long offset) {
+        int size = buffer.capacity();
+        int start = (int) Math.max(0, Math.min(offset, size));
+        int limit = (int) Math.min(size, (long) start + MAX_PAGE_BYTES);
+        int end = limit;
+        while (end > start && buffer.get(end - 1) != '\n') {
+            end--;
+        }
+        if (end == start && limit - start == MAX_PAGE_BYTES) {
+            end = limit;
+        }
+        return page(start, end);
+    }
+
+    /**
+     * 读取 offset 之前最多 count 行，offset 应为行首
+     */
+    public synchronized Page before(long offset, int count) {
+        int size = buffer.capacity();
+        int end = (int) Math.max(0, Math.min(offset, size));
+        if (count <= 0) {
+            return page(end, end);
+        }
+        int limit = Math.max(0, end - MAX_PAGE_BYTES);
+        int start = end;
+        // 跳过结尾的换行，它属于上一行
+        if (start > limit && buffer.get(start - 1) == '\n') {
+            start--;
+        }
+        while (start > limit) {
+            if (buffer.get(start - 1) == '\n' && --count == 0) {
+                break;
+            }
+            start--;
+        }
+        return page(start, end);
+    }
+
+    /**
+     * 文件末尾的 count 行
+     */
+    public Page tail(int count) {
+        return before(refresh(), count);
+    }
+
+    private Page page(int start, int end) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(end).position(start);
+        return new Page(start, end, StandardCharsets.UTF_8.decode(slice).toString());
+    }
+
+    /**
+     * 在映射区中逐字节查找，不为每行生成字符串
+     *
+     * @param query 关键字
+     * @param from  起始偏移
+     * @param limit 最多返回的匹配数
+     * @return 匹配所在行的起始偏移，同一行只返回一次
+     */
+    public synchronized long[] search(String query, long from, int limit) {
+        byte[] pattern = query.getBytes(StandardCharsets.UTF_8);
+        int size = buffer.capacity();
+        if (pattern.length == 0 || limit <= 0) {
+            return new long[0];
+        }
+        long[] result = new long[Math.min(limit, 64)];
+        int found = 0;
+        byte first = pattern[0];
+        int last = size - pattern.length;
+        long lastLine = -1;
+        for (int i = (int) Math.max(0, from); i <= last && found < limit; i++) {
+            if (buffer.get(i) != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < pattern.length && buffer.get(i + j) == pattern[j]) {
+                j++;
+            }
+            if (j < pattern.length) {
+                continue;
+            }
+            long lineStart = lineStart(i);
+            if (lineStart != lastLine) {
+                if (found == result.length) {
+                    result = Arrays.copyOf(result, Math.min(limit, found * 2));
+                }
+                result[found++] = lineStart;
+                lastLine = lineStart;
+            }
+            // 同一行剩余部分不再查找
+            while (i < size && buffer.get(i) != '\n') {
+                i++;
+            }
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    private int lineStart(int pos) {
+        while (pos > 0 && buffer.get(pos - 1) != '\n') {
+            pos--;
+        }
+        return pos;
+    }
+}
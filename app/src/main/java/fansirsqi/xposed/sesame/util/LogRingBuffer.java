@@ -0,0 +1,87 @@
+package fansirsqi.xposed.sesame.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界无锁环形队列，多生产者单消费者。
+ * <p>
+ * 每个槽位带一个序号，生产者通过 CAS 抢占写入位置，消费者只由日志写线程调用。
+ */
+final class LogRingBuffer<E> {
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicReferenceArray<E> items;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * @param capacity 容量，向上取整为 2 的幂
+     */
+    LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        items = new AtomicReferenceArray<>(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    /**
+     * 入队
+     *
+     * @param item  元素
+     * @param limit 本次允许占用的最大长度，用于给高优先级元素预留空间
+     * @return 队列已达到 limit 时返回 false
+     */
+    boolean offer(E item, int limit) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (pos - head >= limit) {
+                    return false;
+                }
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.set(index, item);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * 出队，仅限单个消费者线程调用
+     *
+     * @return 队列为空时返回 null
+     */
+    E poll() {
+        long pos = head;
+        int index = (int) (pos & mask);
+        if (sequences.get(index) != pos + 1) {
+            return null;
+        }
+        E item = items.get(index);
+        items.set(index, null);
+        sequences.set(index, pos + mask + 1);
+        head = pos + 1;
+        return item;
+    }
+}
@@ -3,7 +3,10 @@ package fansirsqi.xposed.sesame.util;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.android.LogcatAppender;
@@ -14,6 +17,8 @@ import ch.qos.logback.core.rolling.SizeAndTimeBasedRollingPolicy;
 import ch.qos.logback.core.util.FileSize;
 public class Logback {
     private static String LOG_DIR;
+    private static final List<RollingFileAppender<ILoggingEvent>> fileAppenders = new CopyOnWriteArrayList<>();
+    private static volatile boolean immediateFlush = true;
 
 
     public static List<String> logNames = List.of(
@@ -30,6 +35,7 @@ public class Logback {
 
         LoggerContext lc = (LoggerContext) LoggerFactory.getILoggerFactory();
         lc.stop();
+        fileAppenders.clear();
         for (String logName : logNames) {
             setupAppender(lc, logName);
         }
@@ -72,9 +78,41 @@ public class Logback {
         ple.start();
 
         rfa.setEncoder(ple);
+        rfa.setImmediateFlush(immediateFlush);
         rfa.start();
+        fileAppenders.add(rfa);
 
         ch.qos.logback.classic.Logger root = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(logName);
         root.addAppender(rfa);
     }
-}
\ No newline at end of file
+
+    /**
+     * 切换文件日志是否每条立即刷盘，异步写入时关闭，由写线程每批统一刷盘
+     */
+    static void setImmediateFlush(boolean flush) {
+        if (immediateFlush == flush) {
+            return;
+        }
+        immediateFlush = flush;
+        for (RollingFileAppender<ILoggingEvent> appender : fileAppenders) {
+            appender.setImmediateFlush(flush);
+        }
+        if (flush) {
+            flushAppenders();
+        }
+    }
+
+    static void flushAppenders() {
+        for (RollingFileAppender<ILoggingEvent> appender : fileAppenders) {
+            OutputStream os = appender.getOutputStream();
+            if (os == null) {
+                continue;
+            }
+            try {
+                os.flush();
+            } catch (IOException e) {
+                android.util.Log.e("Logback", "flush " + appender.getName() + " failed", e);
+            }
+        }
+    }
+}
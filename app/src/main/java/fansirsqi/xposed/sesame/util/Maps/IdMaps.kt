@@ -1,20 +1,22 @@
 package fansirsqi.xposed.sesame.util.maps
 
 import com.fasterxml.jackson.core.type.TypeReference
-import com.fasterxml.jackson.databind.ObjectMapper
-import java.util.Collections
-import java.util.concurrent.ConcurrentHashMap
 import fansirsqi.xposed.sesame.util.Files
 import fansirsqi.xposed.sesame.util.JsonUtil
 import fansirsqi.xposed.sesame.util.Log
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
 
 /**
- * 抽象通用映射工具类，支持任意类型的Key和Value。
+ * 抽象通用映射工具类，支持任意类型的Key和Value，Key 以字符串形式保存，数据由 [IdMapStore] 保存。
  */
 abstract class IdMaps private constructor() {
     companion object {
         private const val TAG = "IdMaps"
         private val instances = ConcurrentHashMap<Class<out IdMaps>, IdMaps>()
+        private val legacyParser = IdMapStore.LegacyParser<Any> { body ->
+            JsonUtil.parseObject(body, object : TypeReference<Map<String, Any>>() {})
+        }
 
         @Synchronized
         fun <T : IdMaps> getInstance(clazz: Class<T>): T {
@@ -34,89 +36,52 @@ abstract class IdMaps private constructor() {
 
     protected abstract fun thisFileName(): String
 
-    private val idMap = ConcurrentHashMap<Any, Any>()
-    val map: Map<Any, Any> = Collections.unmodifiableMap(idMap)
+    private val store = IdMapStore(IdMapStore.jsonCodec(Any::class.java))
+    @Suppress("UNCHECKED_CAST")
+    val map: Map<Any, Any>
+        get() = store.snapshot() as Map<Any, Any>
 
     @Suppress("UNCHECKED_CAST")
     fun <T> get(key: Any): T? {
         return try {
-            idMap[key] as? T
+            store.get(key.toString()) as? T
         } catch (e: Exception) {
             Log.printStackTrace(TAG, "Get value error for key: $key", e)
             null
         }
     }
 
-    @Synchronized
     fun put(key: Any, value: Any) {
-        idMap[key] = value
+        store.put(key.toString(), value)
     }
 
-    @Synchronized
     fun remove(key: Any) {
-        idMap.remove(key)
+        store.remove(key.toString())
     }
 
-    @Synchronized
     fun clear() {
-        idMap.clear()
+        store.clear()
     }
 
-    @Synchronized
     fun load(userId: String? = null) {
         if (userId.isNullOrEmpty()) {
             Log.runtime(TAG, "Skip loading map for empty userId")
-            doLoadGlobal()
+            store.load(globalFile(), legacyParser, File(Files.MAIN_DIR, thisFileName()))
         } else {
-            idMap.clear()
-            try {
-                val file = Files.getTargetFileofUser(userId, thisFileName())
-                val body = file?.let { Files.readFromFile(it) }.orEmpty()
-                if (body.isNotBlank()) {
-                    val newMap = ObjectMapper().readValue(body, object : TypeReference<Map<Any, Any>>() {})
-                    idMap.putAll(newMap)
-                }
-            } catch (e: Exception) {
-                Log.printStackTrace(e)
-            }
+            store.load(
+                IdMapStore.userFile(userId, IdMapStore.binaryName(thisFileName())), legacyParser,
+                IdMapStore.userFile(userId, thisFileName())
+            )
         }
     }
 
-    private fun doLoadGlobal() {
-        idMap.clear()
-        try {
-            val file = Files.getTargetFileofDir(Files.MAIN_DIR, thisFileName())
-            val body = file?.let { Files.readFromFile(it) }.orEmpty()
-            if (body.isNotBlank()) {
-                val newMap = ObjectMapper().readValue(body, object : TypeReference<Map<Any, Any>>() {})
-                idMap.putAll(newMap)
-            }
-        } catch (e: Exception) {
-            Log.printStackTrace(e)
-        }
-    }
+    private fun globalFile() = File(Files.MAIN_DIR, IdMapStore.binaryName(thisFileName()))
 
-    @Synchronized
     fun save(userId: String): Boolean {
-        return try {
-            val json = JsonUtil.formatJson(idMap)
-            val file = Files.getTargetFileofUser(userId, thisFileName())
-            Files.write2File(json, file)
-        } catch (e: Exception) {
-            Log.printStackTrace(e)
-            false
-        }
+        return store.save(IdMapStore.userFile(userId, IdMapStore.binaryName(thisFileName())))
     }
 
-    @Synchronized
     fun save(): Boolean {
-        return try {
-            val json = JsonUtil.formatJson(idMap)
-            val file = Files.getTargetFileofDir(Files.MAIN_DIR, thisFileName())
-            Files.write2File(json, file)
-        } catch (e: Exception) {
-            Log.printStackTrace(e)
-            false
-        }
+        return store.save(globalFile())
     }
-}
\ No newline at end of file
+}
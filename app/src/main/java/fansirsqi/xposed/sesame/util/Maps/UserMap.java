@@ -2,19 +2,21 @@ package fansirsqi.xposed.sesame.util.maps;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 
-import java.io.File;
 import java.lang.reflect.Field;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import de.robv.android.xposed.XposedHelpers;
 import fansirsqi.xposed.sesame.entity.UserEntity;
 import fansirsqi.xposed.sesame.hook.ApplicationHook;
 import fansirsqi.xposed.sesame.util.Files;
+import fansirsqi.xposed.sesame.util.GlobalThreadPools;
 import fansirsqi.xposed.sesame.util.JsonUtil;
 import fansirsqi.xposed.sesame.util.Log;
 import lombok.Getter;
@@ -28,23 +30,46 @@ import lombok.Getter;
  */
 public class UserMap {
     private static final String TAG = UserMap.class.getSimpleName();
-    // 存储用户信息的线程安全映射
-    private static final Map<String, UserEntity> userMap = new ConcurrentHashMap<>();
-    // 只读的用户信息映射
-    private static final Map<String, UserEntity> readOnlyUserMap = Collections.unmodifiableMap(userMap);
+    private static final String FRIEND_FILE = IdMapStore.binaryName("friend.json");
+    private static final IdMapStore.Codec<UserEntity> CODEC = new IdMapStore.Codec<>() {
+        @Override
+        public byte[] encode(UserEntity value) {
+            return JsonUtil.formatJson(value, false).getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public UserEntity decode(ByteBuffer buffer) {
+            return JsonUtil.parseObject(StandardCharsets.UTF_8.decode(buffer).toString(), UserEntity.UserDto.class).toEntity();
+        }
+    };
+    private static final IdMapStore.LegacyParser<UserEntity> LEGACY_PARSER = body -> {
+        Map<String, UserEntity.UserDto> dtoMap = JsonUtil.parseObject(body, new TypeReference<>() {
+        });
+        Map<String, UserEntity> entityMap = new HashMap<>();
+        for (UserEntity.UserDto dto : dtoMap.values()) {
+            entityMap.put(dto.getUserId(), dto.toEntity());
+        }
+        return entityMap;
+    };
+    // 存储用户信息的引擎
+    private static final IdMapStore<UserEntity> userMap = new IdMapStore<>(CODEC);
     /**
      * 当前用户ID
      */
     @Getter
     public static String currentUid = null;
+    /**
+     * 每次加载或卸载递增，后台好友同步据此判断结果是否过期
+     */
+    private static long generation;
 
     /**
-     * 获取只读的用户信息映射
+     * 获取只读的用户信息映射快照
      *
      * @return 只读的用户映射
      */
     public static Map<String, UserEntity> getUserMap() {
-        return readOnlyUserMap;
+        return userMap.snapshot();
     }
 
     /**
@@ -57,73 +82,106 @@ public class UserMap {
     }
 
     /**
-     * 初始化用户数据
+     * 初始化用户数据：先加载已保存的好友表，再在后台与支付宝通讯录比对，只应用有变化的好友
      *
      * @param currentUserId 当前用户ID
      */
-    public static synchronized void initUser(String currentUserId) {
+    public static void initUser(String currentUserId) {
+        ClassLoader loader;
+        try {
+            // 获取类加载器
+            loader = ApplicationHook.getClassLoader();
+        } catch (Exception e) {
+            Log.runtime(TAG, "Error getting classloader");
+            return;
+        }
+        initUser(currentUserId, loader);
+    }
+
+    public static void initUser(String currentUserId, ClassLoader loader) {
         Log.runtime(TAG, "初始化用户数据: " + currentUserId);
         // 设置当前用户ID
         setCurrentUserId(currentUserId);
-        // 在主线程中执行初始化逻辑
-        ApplicationHook.getMainHandler().post(() -> {
-            ClassLoader loader;
-            try {
-                // 获取类加载器
-                loader = ApplicationHook.getClassLoader();
-            } catch (Exception e) {
-                Log.runtime(TAG, "Error getting classloader");
+        if (currentUid == null || loader == null) {
+            return;
+        }
+        long generation;
+        synchronized (UserMap.class) {
+            load(currentUserId);
+            generation = UserMap.generation;
+        }
+        GlobalThreadPools.getPool(GlobalThreadPools.Workload.CPU).execute(() -> syncFriends(currentUserId, loader, generation));
+    }
+
+    /**
+     * 读取支付宝通讯录并与当前好友表比对，在后台线程执行
+     *
+     * @param selfId     当前用户ID
+     * @param generation 发起同步时的加载代数，期间重新加载或卸载过则放弃本次结果
+     */
+    private static void syncFriends(String selfId, ClassLoader loader, long generation) {
+        try {
+            long start = System.currentTimeMillis();
+            // 反射加载类
+            Class<?> clsUserIndependentCache = loader.loadClass("com.alipay.mobile.socialcommonsdk.bizdata.UserIndependentCache");
+            Class<?> clsAliAccountDaoOp = loader.loadClass("com.alipay.mobile.socialcommonsdk.bizdata.contact.data.AliAccountDaoOp");
+            Object aliAccountDaoOp = XposedHelpers.callStaticMethod(clsUserIndependentCache, "getCacheObj", clsAliAccountDaoOp);
+            // 获取好友列表
+            List<?> allFriends = (List<?>) XposedHelpers.callMethod(aliAccountDaoOp, "getAllFriends", new Object[0]);
+            if (allFriends == null || allFriends.isEmpty()) {
                 return;
             }
-            try {
-                // 卸载现有数据
-                UserMap.unload();
-                String selfId = ApplicationHook.getUserId();
-                // 反射加载类
-                Class<?> clsUserIndependentCache = loader.loadClass("com.alipay.mobile.socialcommonsdk.bizdata.UserIndependentCache");
-                Class<?> clsAliAccountDaoOp = loader.loadClass("com.alipay.mobile.socialcommonsdk.bizdata.contact.data.AliAccountDaoOp");
-                Object aliAccountDaoOp = XposedHelpers.callStaticMethod(clsUserIndependentCache, "getCacheObj", clsAliAccountDaoOp);
-                // 获取好友列表
-                List<?> allFriends = (List<?>) XposedHelpers.callMethod(aliAccountDaoOp, "getAllFriends", new Object[0]);
-                if (!allFriends.isEmpty()) {
-                    Class<?> friendClass = allFriends.get(0).getClass();
-                    // 通过反射获取字段
-                    Field userIdField = XposedHelpers.findField(friendClass, "userId");
-                    Field accountField = XposedHelpers.findField(friendClass, "account");
-                    Field nameField = XposedHelpers.findField(friendClass, "name");
-                    Field nickNameField = XposedHelpers.findField(friendClass, "nickName");
-                    Field remarkNameField = XposedHelpers.findField(friendClass, "remarkName");
-                    Field friendStatusField = XposedHelpers.findField(friendClass, "friendStatus");
-                    UserEntity selfEntity = null;
-                    // 遍历所有好友数据并添加到映射中
-                    for (Object userObject : allFriends) {
-                        try {
-                            String userId = (String) userIdField.get(userObject);
-                            String account = (String) accountField.get(userObject);
-                            String name = (String) nameField.get(userObject);
-                            String nickName = (String) nickNameField.get(userObject);
-                            String remarkName = (String) remarkNameField.get(userObject);
-                            Integer friendStatus = (Integer) friendStatusField.get(userObject);
-                            // 创建用户实体
-                            UserEntity userEntity = new UserEntity(userId, account, friendStatus, name, nickName, remarkName);
-                            if (Objects.equals(selfId, userId)) {
-                                selfEntity = userEntity;
-                            }
-                            UserMap.add(userEntity);
-                        } catch (Throwable t) {
-                            Log.runtime(TAG, "addUserObject err:");
-                            Log.printStackTrace(t);
-                        }
+            Class<?> friendClass = allFriends.get(0).getClass();
+            // 通过反射获取字段
+            Field userIdField = XposedHelpers.findField(friendClass, "userId");
+            Field accountField = XposedHelpers.findField(friendClass, "account");
+            Field nameField = XposedHelpers.findField(friendClass, "name");
+            Field nickNameField = XposedHelpers.findField(friendClass, "nickName");
+            Field remarkNameField = XposedHelpers.findField(friendClass, "remarkName");
+            Field friendStatusField = XposedHelpers.findField(friendClass, "friendStatus");
+            UserEntity selfEntity = null;
+            Map<String, UserEntity> friends = new HashMap<>(allFriends.size() * 4 / 3 + 1);
+            for (Object userObject : allFriends) {
+                try {
+                    String userId = (String) userIdField.get(userObject);
+                    if (userId == null || userId.isEmpty()) {
+                        continue;
+                    }
+                    UserEntity userEntity = new UserEntity(userId, (String) accountField.get(userObject), (Integer) friendStatusField.get(userObject),
+                            (String) nameField.get(userObject), (String) nickNameField.get(userObject), (String) remarkNameField.get(userObject));
+                    if (Objects.equals(selfId, userId)) {
+                        selfEntity = userEntity;
                     }
-                    // 保存当前用户信息
-                    UserMap.saveSelf(selfEntity);
+                    friends.put(userId, userEntity);
+                } catch (Throwable t) {
+                    Log.runtime(TAG, "addUserObject err:");
+                    Log.printStackTrace(t);
                 }
-                UserMap.save(selfId);
-            } catch (Throwable t) {
-                Log.runtime(TAG, "checkUnknownId.run err:");
-                Log.printStackTrace(t);
             }
-        });
+            synchronized (UserMap.class) {
+                if (generation != UserMap.generation || !Objects.equals(selfId, currentUid)) {
+                    Log.runtime(TAG, "用户数据已重新加载，放弃本次好友同步");
+                    return;
+                }
+                List<String> removed = new ArrayList<>();
+                for (String userId : userMap.keySet()) {
+                    if (!friends.containsKey(userId)) {
+                        removed.add(userId);
+                    }
+                }
+                int changed = userMap.apply(friends, removed);
+                if (selfEntity != null) {
+                    saveSelf(selfEntity);
+                }
+                if (changed > 0) {
+                    save(selfId);
+                }
+                Log.runtime(TAG, "好友同步完成 共" + friends.size() + " 变化" + changed + " 耗时" + (System.currentTimeMillis() - start) + "ms");
+            }
+        } catch (Throwable t) {
+            Log.runtime(TAG, "checkUnknownId.run err:");
+            Log.printStackTrace(t);
+        }
     }
 
     /**
@@ -170,7 +228,7 @@ public class UserMap {
      *
      * @param userEntity 用户实体
      */
-    public static synchronized void add(UserEntity userEntity) {
+    public static void add(UserEntity userEntity) {
         if (userEntity.getUserId() != null && !userEntity.getUserId().isEmpty()) {
             userMap.put(userEntity.getUserId(), userEntity);
         }
@@ -181,7 +239,7 @@ public class UserMap {
      *
      * @param userId 用户ID
      */
-    public static synchronized void remove(String userId) {
+    public static void remove(String userId) {
         userMap.remove(userId);
     }
 
@@ -191,34 +249,20 @@ public class UserMap {
      * @param userId 用户ID
      */
     public static synchronized void load(String userId) {
-        userMap.clear();
+        generation++;
         if (userId == null || userId.isEmpty()) {
+            userMap.clear();
             Log.runtime(TAG, "Skip loading user map for empty userId");
             return;
         }
-        try {
-            File friendIdMapFile = Files.getFriendIdMapFile(userId);
-            if (friendIdMapFile == null) {
-                Log.runtime(TAG, "Friend ID map file is null for userId: " + userId);
-                return;
-            }
-            String body = Files.readFromFile(friendIdMapFile);
-            if (!body.isEmpty()) {
-                Map<String, UserEntity.UserDto> dtoMap = JsonUtil.parseObject(body, new TypeReference<>() {
-                });
-                for (UserEntity.UserDto dto : dtoMap.values()) {
-                    userMap.put(dto.getUserId(), dto.toEntity());
-                }
-            }
-        } catch (Exception e) {
-            Log.printStackTrace(e);
-        }
+        userMap.load(IdMapStore.userFile(userId, FRIEND_FILE), LEGACY_PARSER, Files.getFriendIdMapFile(userId));
     }
 
     /**
      * 卸载用户数据
      */
     public static synchronized void unload() {
+        generation++;
         userMap.clear();
     }
 
@@ -229,7 +273,7 @@ public class UserMap {
      * @return 保存结果
      */
     public static synchronized boolean save(String userId) {
-        return Files.write2File(JsonUtil.formatJson(userMap), Files.getFriendIdMapFile(userId));
+        return userMap.save(IdMapStore.userFile(userId, FRIEND_FILE));
     }
 
     /**
@@ -238,6 +282,7 @@ public class UserMap {
      * @param userId 用户ID
      */
     public static synchronized void loadSelf(String userId) {
+        generation++;
         userMap.clear();
         try {
             String body = Files.readFromFile(Files.getSelfIdFile(userId));
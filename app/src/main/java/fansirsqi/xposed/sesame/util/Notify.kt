@@ -19,6 +19,8 @@ import androidx.core.net.toUri
 import fansirsqi.xposed.sesame.data.RuntimeInfo
 import fansirsqi.xposed.sesame.hook.Toast
 import fansirsqi.xposed.sesame.model.BaseModel
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.concurrent.Volatile
 
 @SuppressLint("StaticFieldLeak")
@@ -38,9 +40,19 @@ object Notify {
     @Volatile
     private var isNotificationStarted = false
 
+    /**
+     * 通知刷新的最短间隔，期间的多次更新只发送最后一次的文本
+     */
+    private const val REFRESH_INTERVAL = 1000L
+    private val sendScheduled = AtomicBoolean(false)
+
+    @Volatile
     private var lastUpdateTime: Long = 0
     private var nextExecTimeCache: Long = 0
+    @Volatile
     private var titleText: String? = ""
+
+    @Volatile
     private var contentText = ""
 
 
@@ -195,9 +207,6 @@ object Notify {
                 titleText = "❌ 触发异常，等待至" + TimeUtil.getCommonDate(forestPauseTime) + "恢复运行"
             }
             titleText = "⚙️ 芝麻粒正在施工中..."
-            if (builder != null) {
-                builder!!.setContentTitle(titleText)
-            }
             sendText(true)
         } catch (e: Exception) {
             Log.printStackTrace(e)
@@ -211,10 +220,7 @@ object Notify {
     fun setStatusTextDisabled() {
         if (!isNotificationStarted || context == null || builder == null || mNotifyManager == null) return
         try {
-            builder!!.setContentTitle("🚫 芝麻粒已禁用")
-            if (!StringUtil.isEmpty(contentText)) {
-                builder!!.setContentText(contentText)
-            }
+            titleText = "🚫 芝麻粒已禁用"
             builder!!.setProgress(0, 0, false)
             sendText(true)
         } catch (e: Exception) {
@@ -228,23 +234,35 @@ object Notify {
     }
 
     /**
-     * 发送文本更新。 更新通知的内容文本，并重新发送通知。
+     * 发送文本更新。只记录待发送，由定时线程按 [REFRESH_INTERVAL] 合并发送最新的标题和内容，调用方不等待通知服务。
      *
-     * @param force 是否强制刷新
+     * @param force 是否立即刷新，仍与已排队的刷新合并
      */
     private fun sendText(force: Boolean) {
         if (!isNotificationStarted || context == null || builder == null || mNotifyManager == null) return
+        if (!sendScheduled.compareAndSet(false, true)) return
+        val delay = if (force) 0L else maxOf(0L, REFRESH_INTERVAL - (System.currentTimeMillis() - lastUpdateTime))
         try {
-            if (!force && System.currentTimeMillis() - lastUpdateTime < 500) {
-                return
-            }
+            GlobalThreadPools.getScheduledPool(GlobalThreadPools.Workload.TIMER).schedule({ flushText() }, delay, TimeUnit.MILLISECONDS)
+        } catch (e: Exception) {
+            sendScheduled.set(false)
+            Log.printStackTrace(e)
+        }
+    }
+
+    private fun flushText() {
+        sendScheduled.set(false)
+        if (!isNotificationStarted) return
+        try {
+            val builder = builder ?: return
+            val manager = mNotifyManager ?: return
             lastUpdateTime = System.currentTimeMillis()
-            if (builder != null) {
-                builder!!.setContentTitle(titleText)
+            synchronized(builder) {
+                builder.setContentTitle(titleText)
                 if (!StringUtil.isEmpty(contentText)) {
-                    builder!!.setContentText(contentText)
+                    builder.setContentText(contentText)
                 }
-                mNotifyManager!!.notify(NOTIFICATION_ID, builder!!.build())
+                manager.notify(NOTIFICATION_ID, builder.build())
             }
         } catch (e: Exception) {
             Log.printStackTrace(e)
@@ -0,0 +1,41 @@
+package fansirsqi.xposed.sesame.util;
+
+import androidx.annotation.NonNull;
+
+import lombok.Getter;
+
+/**
+ * 线程池运行状态快照
+ */
+@Getter
+public class ThreadPoolStats {
+    private final String name;
+    private final int poolSize;
+    private final int maxPoolSize;
+    private final int active;
+    private final int queued;
+    private final long completed;
+    private final long rejected;
+    /**
+     * 任务从提交到开始执行的最大等待时间（毫秒）
+     */
+    private final long maxLatency;
+
+    public ThreadPoolStats(String name, int poolSize, int maxPoolSize, int active, int queued, long completed, long rejected, long maxLatency) {
+        this.name = name;
+        this.poolSize = poolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.active = active;
+        this.queued = queued;
+        this.completed = completed;
+        this.rejected = rejected;
+        this.maxLatency = maxLatency;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return name + " 线程:" + poolSize + "/" + maxPoolSize + " 活跃:" + active + " 排队:" + queued
+                + " 完成:" + completed + " 拒绝:" + rejected + " 最大等待:" + maxLatency + "ms";
+    }
+}
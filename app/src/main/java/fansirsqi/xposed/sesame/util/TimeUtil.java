@@ -27,18 +27,22 @@ public class TimeUtil {
         return false;
     }
 
+    /**
+     * 时间是否在 "HHmm-HHmm" 范围内，包含两端，不跨零点：结束早于开始时不匹配。
+     * "2400" 作结束时表示当日结束，作开始时不匹配，与原来按当天时刻比较的结果一致；跨零点的范围请用 {@link TimeWindows}
+     */
     public static Boolean checkInTimeRange(Long timeMillis, String timeRange) {
-        try {
-            String[] timeRangeArray = timeRange.split("-");
-            if (timeRangeArray.length == 2) {
-                String min = timeRangeArray[0];
-                String max = timeRangeArray[1];
-                return isAfterOrCompareTimeStr(timeMillis, min) && isBeforeOrCompareTimeStr(timeMillis, max);
-            }
-        } catch (Exception e) {
-            Log.printStackTrace(e);
+        int sep = timeRange.indexOf('-');
+        if (sep < 0) {
+            return false;
         }
-        return false;
+        int min = TimeWindows.parseTime(timeRange, 0, sep);
+        int max = TimeWindows.parseTime(timeRange, sep + 1, timeRange.length());
+        if (min < 0 || max < 0) {
+            return false;
+        }
+        int time = TimeWindows.timeOfDay(timeMillis);
+        return time >= min && time <= max;
     }
 
     public static Boolean isNowBeforeTimeStr(String beforeTimeStr) {
@@ -89,18 +93,17 @@ public class TimeUtil {
         return false;
     }
 
+    /**
+     * 与今天的 compareTimeStr 时刻比较
+     *
+     * @return 小于、等于、大于时分别为负数、0、正数，时间格式错误时返回 null
+     */
     public static Integer isCompareTimeStr(Long timeMillis, String compareTimeStr) {
-        try {
-            Calendar timeCalendar = Calendar.getInstance();
-            timeCalendar.setTimeInMillis(timeMillis);
-            Calendar compareCalendar = getTodayCalendarByTimeStr(compareTimeStr);
-            if (compareCalendar != null) {
-                return timeCalendar.compareTo(compareCalendar);
-            }
-        } catch (Exception e) {
-            Log.printStackTrace(e);
+        int compareTime = TimeWindows.parseTime(compareTimeStr, 0, compareTimeStr.length());
+        if (compareTime < 0) {
+            return null;
         }
-        return null;
+        return Long.compare(timeMillis, TimeWindows.dayStart(System.currentTimeMillis()) + compareTime);
     }
 
     public static Calendar getTodayCalendarByTimeStr(String timeStr) {
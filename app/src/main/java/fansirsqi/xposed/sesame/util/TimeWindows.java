@@ -0,0 +1,265 @@
+package fansirsqi.xposed.sesame.util;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import fansirsqi.xposed.sesame.model.ModelField;
+
+/**
+ * 预编译的每日时间规则。
+ * <p>
+ * 配置中的 "HHmm-HHmm" 范围与 "HHmm" 时间点（也支持 HH、HHmmss）只解析一次，转为当日毫秒数的有序数组，
+ * "24"、"2400"、"240000" 表示当日结束，作为时间点与范围开始时等同次日零点。
+ * 之后的"是否在范围内"与"下一个变化时刻"都是二分查找，不创建 Calendar。
+ * 范围包含两端，结束早于开始时视为跨零点。首项为 -1 表示关闭，此时不含任何范围与时间点。
+ * 每份规则按编译时的时区计算当日时间；通过 {@link #of(ModelField)} 取得的规则按字段缓存，字段值被替换或时区变化后才重新编译。
+ */
+public final class TimeWindows {
+    private static final String TAG = TimeWindows.class.getSimpleName();
+    public static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final int[] NONE = new int[0];
+    private static final int[] FIELD_UNITS = {60 * 60 * 1000, 60 * 1000, 1000};
+    private static final int[] FIELD_LIMITS = {25, 60, 60};
+    private static final Map<ModelField<?>, TimeWindows> CACHE = new IdentityHashMap<>();
+
+    private final List<String> source;
+    private final TimeZone zone;
+    /**
+     * 合并后的范围，[starts[i], ends[i]) 为当日毫秒数
+     */
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] points;
+    /**
+     * 范围的起止与时间点合在一起，去重排序
+     */
+    private final int[] boundaries;
+
+    private TimeWindows(List<String> source, TimeZone zone, int[] starts, int[] ends, int[] points) {
+        this.source = source;
+        this.zone = zone;
+        this.starts = starts;
+        this.ends = ends;
+        this.points = points;
+        int[] all = new int[starts.length + ends.length + points.length];
+        int n = 0;
+        for (int start : starts) {
+            all[n++] = start;
+        }
+        for (int end : ends) {
+            if (end < DAY) {
+                all[n++] = end;
+            }
+        }
+        for (int point : points) {
+            all[n++] = point;
+        }
+        this.boundaries = distinct(all, n);
+    }
+
+    /**
+     * 取得字段对应的规则，字段值未变时直接返回缓存
+     */
+    public static TimeWindows of(ModelField<List<String>> field) {
+        List<String> value = field.getValue();
+        TimeZone zone = TimeZone.getDefault();
+        synchronized (CACHE) {
+            TimeWindows windows = CACHE.get(field);
+            if (windows == null || windows.source != value || !windows.zone.hasSameRules(zone)) {
+                windows = compile(value, zone);
+                CACHE.put(field, windows);
+            }
+            return windows;
+        }
+    }
+
+    /**
+     * 按当前默认时区解析时间规则列表
+     */
+    public static TimeWindows compile(List<String> list) {
+        return compile(list, TimeZone.getDefault());
+    }
+
+    /**
+     * 解析时间规则列表，当日时间按 zone 计算
+     */
+    public static TimeWindows compile(List<String> list, TimeZone zone) {
+        if (list == null || list.isEmpty() || "-1".equals(list.get(0).trim())) {
+            return new TimeWindows(list, zone, NONE, NONE, NONE);
+        }
+        int[] rangeStarts = new int[list.size() * 2];
+        int[] rangeEnds = new int[list.size() * 2];
+        int[] points = new int[list.size()];
+        int ranges = 0;
+        int pointCount = 0;
+        for (String item : list) {
+            if (item == null) {
+                continue;
+            }
+            int sep = item.indexOf('-');
+            if (sep < 0) {
+                int point = parseTime(item, 0, item.length());
+                if (point >= 0) {
+                    points[pointCount++] = (int) (point % DAY);
+                } else if (!item.trim().isEmpty()) {
+                    Log.runtime(TAG, "忽略无法解析的时间:" + item);
+                }
+                continue;
+            }
+            int start = (int) (parseTime(item, 0, sep) % DAY);
+            int end = parseTime(item, sep + 1, item.length());
+            if (start < 0 || end < 0) {
+                Log.runtime(TAG, "忽略无法解析的时间范围:" + item);
+                continue;
+            }
+            if (start <= end) {
+                rangeStarts[ranges] = start;
+                rangeEnds[ranges++] = (int) Math.min(end + 1, DAY);
+            } else {
+                rangeStarts[ranges] = start;
+                rangeEnds[ranges++] = (int) DAY;
+                rangeStarts[ranges] = 0;
+                rangeEnds[ranges++] = end + 1;
+            }
+        }
+        // 按开始排序后合并重叠的范围
+        long[] packed = new long[ranges];
+        for (int i = 0; i < ranges; i++) {
+            packed[i] = ((long) rangeStarts[i] << 32) | rangeEnds[i];
+        }
+        Arrays.sort(packed);
+        int merged = 0;
+        for (long range : packed) {
+            int start = (int) (range >>> 32);
+            int end = (int) range;
+            if (merged > 0 && start <= rangeEnds[merged - 1]) {
+                rangeEnds[merged - 1] = Math.max(rangeEnds[merged - 1], end);
+            } else {
+                rangeStarts[merged] = start;
+                rangeEnds[merged++] = end;
+            }
+        }
+        return new TimeWindows(list, zone, Arrays.copyOf(rangeStarts, merged), Arrays.copyOf(rangeEnds, merged), distinct(points, pointCount));
+    }
+
+    /**
+     * 解析 HH、HHmm 或 HHmmss，小时为 24 且分秒为 0 时表示当日结束
+     *
+     * @return 当日毫秒数，当日结束时为 {@link #DAY}，无法解析时返回 -1
+     */
+    public static int parseTime(CharSequence text, int from, int to) {
+        while (from < to && text.charAt(from) == ' ') {
+            from++;
+        }
+        while (to > from && text.charAt(to - 1) == ' ') {
+            to--;
+        }
+        int length = to - from;
+        if (length != 2 && length != 4 && length != 6) {
+            return -1;
+        }
+        int millis = 0;
+        for (int i = 0; i < length / 2; i++) {
+            int hi = text.charAt(from + i * 2) - '0';
+            int lo = text.charAt(from + i * 2 + 1) - '0';
+            if (hi < 0 || hi > 9 || lo < 0 || lo > 9 || hi * 10 + lo >= FIELD_LIMITS[i]) {
+                return -1;
+            }
+            millis += (hi * 10 + lo) * FIELD_UNITS[i];
+        }
+        // 小时允许到 24，此时分秒须为 0
+        return millis > DAY ? -1 : millis;
+    }
+
+    /**
+     * 时间戳在默认时区当天已过的毫秒数
+     */
+    public static int timeOfDay(long timeMillis) {
+        return timeOfDay(timeMillis, TimeZone.getDefault());
+    }
+
+    private static int timeOfDay(long timeMillis, TimeZone zone) {
+        long local = timeMillis + zone.getOffset(timeMillis);
+        return (int) (((local % DAY) + DAY) % DAY);
+    }
+
+    /**
+     * 时间戳在默认时区所在当天零点
+     */
+    public static long dayStart(long timeMillis) {
+        return timeMillis - timeOfDay(timeMillis);
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0 && points.length == 0;
+    }
+
+    public boolean hasPoints() {
+        return points.length > 0;
+    }
+
+    /**
+     * 是否在任一范围内，时间点不参与判断
+     */
+    public boolean contains(long timeMillis) {
+        int time = timeOfDay(timeMillis, zone);
+        int index = floor(starts, time);
+        return index >= 0 && time < ends[index];
+    }
+
+    /**
+     * 之后第一个时间点，没有时间点时返回 -1
+     */
+    public long nextPoint(long timeMillis) {
+        return next(points, timeMillis);
+    }
+
+    /**
+     * 之后第一个范围起止或时间点，即 {@link #contains} 可能变化的最早时刻，没有时返回 -1
+     */
+    public long nextBoundary(long timeMillis) {
+        return next(boundaries, timeMillis);
+    }
+
+    private long next(int[] sorted, long timeMillis) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        int time = timeOfDay(timeMillis, zone);
+        long dayStart = timeMillis - time;
+        int index = floor(sorted, time) + 1;
+        return index < sorted.length ? dayStart + sorted[index] : dayStart + DAY + sorted[0];
+    }
+
+    /**
+     * 不大于 value 的最后一个元素的下标，没有时返回 -1
+     */
+    private static int floor(int[] sorted, int value) {
+        int low = 0;
+        int high = sorted.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    private static int[] distinct(int[] values, int count) {
+        int[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (n == 0 || sorted[i] != sorted[n - 1]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+    }
+}
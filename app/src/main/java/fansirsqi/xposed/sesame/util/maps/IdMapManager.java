@@ -1,10 +1,8 @@
 package fansirsqi.xposed.sesame.util.maps;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.File;
-import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -14,21 +12,19 @@ import fansirsqi.xposed.sesame.util.Log;
 
 /**
  * 抽象ID映射工具类。
- * 提供通用的线程安全的ID映射功能，并支持单例管理。
+ * 提供通用的线程安全的ID映射功能，并支持单例管理，数据由 {@link IdMapStore} 保存。
  */
 public abstract class IdMapManager {
     private static final String TAG = IdMapManager.class.getSimpleName();
 
     private static final File OLD_CONFIG_DIR = Files.MAIN_DIR; // 旧配置目录
     private static final File CONFIG_DIR = Files.CONFIG_DIR; // 配置目录
+    private static final IdMapStore.LegacyParser<String> LEGACY_PARSER = body -> JsonUtil.parseObject(body, new TypeReference<Map<String, String>>() {
+    });
     /**
-     * 存储ID映射的并发HashMap。
+     * 存储ID映射的引擎。
      */
-    private final Map<String, String> idMap = new ConcurrentHashMap<>();
-    /**
-     * 只读的ID映射。
-     */
-    private final Map<String, String> readOnlyIdMap = Collections.unmodifiableMap(idMap);
+    private final IdMapStore<String> store = new IdMapStore<>(IdMapStore.STRING_CODEC);
     private static final Map<Class<? extends IdMapManager>, IdMapManager> instances = new ConcurrentHashMap<>();
 
     public static <T extends IdMapManager> T getInstance(Class<T> clazz) {
@@ -52,12 +48,12 @@ public abstract class IdMapManager {
     protected abstract String thisFileName();
 
     /**
-     * 获取只读的ID映射。
+     * 获取只读的ID映射快照。
      *
      * @return 只读的ID映射。
      */
     public Map<String, String> getMap() {
-        return readOnlyIdMap;
+        return store.snapshot();
     }
 
     /**
@@ -67,7 +63,7 @@ public abstract class IdMapManager {
      * @return 键对应的值，如果不存在则返回null。
      */
     public String get(String key) {
-        return idMap.get(key);
+        return store.get(key);
     }
 
     /**
@@ -76,8 +72,8 @@ public abstract class IdMapManager {
      * @param key   键。
      * @param value 值。
      */
-    public synchronized void add(String key, String value) {
-        idMap.put(key, value);
+    public void add(String key, String value) {
+        store.put(key, value);
     }
 
     /**
@@ -85,8 +81,8 @@ public abstract class IdMapManager {
      *
      * @param key 键。
      */
-    public synchronized void remove(String key) {
-        idMap.remove(key);
+    public void remove(String key) {
+        store.remove(key);
     }
 
     /**
@@ -94,76 +90,24 @@ public abstract class IdMapManager {
      *
      * @param userId 用户ID。
      */
-    public synchronized void load(String userId) {
+    public void load(String userId) {
         if (userId == null || userId.isEmpty()) {
             Log.runtime(TAG, "Skip loading map for empty userId");
             load();
         } else {
-            idMap.clear();
-            try {
-                File file = Files.getTargetFileofUser(userId, thisFileName());
-                assert file != null;
-                String body = Files.readFromFile(file);
-                if (!body.isEmpty()) {
-                    ObjectMapper objectMapper = new ObjectMapper();
-                    Map<String, String> newMap = objectMapper.readValue(body, new TypeReference<>() {
-                    });
-                    idMap.putAll(newMap);
-                }
-            } catch (Exception e) {
-                Log.printStackTrace(e);
-            }
+            store.load(IdMapStore.userFile(userId, IdMapStore.binaryName(thisFileName())), LEGACY_PARSER,
+                    IdMapStore.userFile(userId, thisFileName()));
         }
     }
 
-    public synchronized void load() {
-        idMap.clear();
+    public void load() {
         try {
-            File newFile = Files.getTargetFileofDir(CONFIG_DIR, thisFileName());
-            File oldFile = Files.getTargetFileofDir(OLD_CONFIG_DIR, thisFileName());
-            // 1. 新文件存在，直接加载
-            if (newFile.exists()) {
-                String body = Files.readFromFile(newFile);
-                if (!body.isEmpty()) {
-                    ObjectMapper objectMapper = new ObjectMapper();
-                    Map<String, String> newMap = objectMapper.readValue(body, new TypeReference<>() {
-                    });
-                    idMap.putAll(newMap);
-                }
-                if(oldFile.exists()){
-                    oldFile.delete();
-                }
-                return;
-            }
-            // 2. 新文件不存在，检查旧文件是否存在
-            if (oldFile.exists()) {
-                Log.runtime(TAG, "Old configuration file found, migrating to new path...");
-
-                try {
-                    String body = Files.readFromFile(oldFile);
-                    if (!body.isEmpty()) {
-                        ObjectMapper objectMapper = new ObjectMapper();
-                        Map<String, String> newMap = objectMapper.readValue(body, new TypeReference<>() {
-                        });
-                        String json = JsonUtil.formatJson(newMap);
-                        if (json != null && !json.isEmpty()) {
-                            Files.write2File(json, newFile);
-                            oldFile.delete();
-                            idMap.putAll(newMap);
-                        }
-                    }
-                } catch (Exception e) {
-                    Log.error(TAG, "Migration of old configuration files failed：" + e.getMessage());
-                }
-            }
-
-            // 3. 新旧文件都不存在，初始化默认配置
-            if (!newFile.exists()) {
-                Log.runtime(TAG, "Configuration file not found, initializing an empty configuration file...");
-                String json = JsonUtil.formatJson(idMap);
-                if (json != null && !json.isEmpty()) {
-                    Files.write2File(json, newFile);
-                }
+            File file = new File(CONFIG_DIR, IdMapStore.binaryName(thisFileName()));
+            File oldFile = new File(OLD_CONFIG_DIR, thisFileName());
+            // 新格式文件不存在时依次尝试新旧目录下的 JSON 文件
+            store.load(file, LEGACY_PARSER, new File(CONFIG_DIR, thisFileName()), oldFile);
+            if (file.length() > 0 && oldFile.exists() && !oldFile.delete()) {
+                Log.runtime(TAG, "Failed to delete old file: " + oldFile.getName());
             }
         } catch (Exception e) {
             Log.printStackTrace(TAG, "ID映射管理器初始化失败：", e);
@@ -176,36 +120,18 @@ public abstract class IdMapManager {
      * @param userId 用户ID。
      * @return 如果保存成功返回true，否则返回false。
      */
-    public synchronized boolean save(String userId) {
-        try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            String json = JsonUtil.formatJson(idMap);
-//             json = objectMapper.writeValueAsString(idMap);
-            File file = Files.getTargetFileofUser(userId, thisFileName());
-            return Files.write2File(json, file);
-        } catch (Exception e) {
-            Log.printStackTrace(e);
-            return false;
-        }
+    public boolean save(String userId) {
+        return store.save(IdMapStore.userFile(userId, IdMapStore.binaryName(thisFileName())));
     }
 
-    public synchronized boolean save() {
-        try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            String json = JsonUtil.formatJson(idMap);
-//            String json = objectMapper.writeValueAsString(idMap);
-            File file = Files.getTargetFileofDir(CONFIG_DIR, thisFileName());
-            return Files.write2File(json, file);
-        } catch (Exception e) {
-            Log.printStackTrace(e);
-            return false;
-        }
+    public boolean save() {
+        return store.save(new File(CONFIG_DIR, IdMapStore.binaryName(thisFileName())));
     }
 
     /**
      * 清除ID映射。
      */
-    public synchronized void clear() {
-        idMap.clear();
+    public void clear() {
+        store.clear();
     }
 }
@@ -0,0 +1,409 @@
+package fansirsqi.xposed.sesame.util.maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import fansirsqi.xposed.sesame.util.Files;
+import fansirsqi.xposed.sesame.util.JsonUtil;
+import fansirsqi.xposed.sesame.util.Log;
+
+/**
+ * ID映射的共用存储引擎，IdMapManager、IdMaps 与 UserMap 都基于它实现。
+ * <p>
+ * 文件格式为魔数、条目数，以及每个条目的 [键长度][键][值长度][值]，长度均为 int，键为 UTF-8。
+ * 加载时通过内存映射读取文件，只建立键到值所在位置的索引，值在第一次访问时才解码。
+ * 读取全部内容时返回按版本缓存的只读快照，修改后下次读取才重新生成。
+ * 批量修改先在副本上完成再整体替换，读取方不会看到改了一半的内容。
+ * 保存时未解码的值直接复制原始字节，内容没有变化时不写文件。
+ */
+public final class IdMapStore<V> {
+    private static final String TAG = IdMapStore.class.getSimpleName();
+    private static final int MAGIC = 0x49444d31; // "IDM1"
+
+    /**
+     * 值的编解码方式
+     */
+    public interface Codec<V> {
+        byte[] encode(V value);
+
+        V decode(ByteBuffer buffer);
+    }
+
+    /**
+     * 旧版 JSON 文件的解析方式
+     */
+    public interface LegacyParser<V> {
+        Map<String, V> parse(String body) throws Exception;
+    }
+
+    public static final Codec<String> STRING_CODEC = new Codec<>() {
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(ByteBuffer buffer) {
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        }
+    };
+
+    /**
+     * 以 JSON 保存值的编解码方式
+     */
+    public static <V> Codec<V> jsonCodec(Class<V> clazz) {
+        return new Codec<>() {
+            @Override
+            public byte[] encode(V value) {
+                return JsonUtil.formatJson(value, false).getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public V decode(ByteBuffer buffer) {
+                return JsonUtil.parseObject(StandardCharsets.UTF_8.decode(buffer).toString(), clazz);
+            }
+        };
+    }
+
+    /**
+     * 单个条目，持有解码后的值或映射文件中的原始字节
+     */
+    private final class Slot {
+        private volatile V value;
+        private ByteBuffer raw;
+
+        Slot(V value) {
+            this.value = value;
+        }
+
+        Slot(ByteBuffer raw) {
+            this.raw = raw;
+        }
+
+        Slot(V value, ByteBuffer raw) {
+            this.value = value;
+            this.raw = raw;
+        }
+
+        V get() {
+            V v = value;
+            if (v != null) {
+                return v;
+            }
+            synchronized (this) {
+                if (value == null && raw != null) {
+                    value = codec.decode(raw.duplicate());
+                }
+                return value;
+            }
+        }
+
+        synchronized ByteBuffer bytes() {
+            return raw != null ? raw.duplicate() : ByteBuffer.wrap(codec.encode(value));
+        }
+    }
+
+    private final Codec<V> codec;
+    private volatile Map<String, Slot> slots = new ConcurrentHashMap<>();
+    /**
+     * 单条修改持读锁，整体替换 slots 时持写锁
+     */
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    /**
+     * 每次修改递增，快照与之对应
+     */
+    private final AtomicLong version = new AtomicLong();
+    private volatile long snapshotVersion = -1;
+    private volatile Map<String, V> snapshot = Collections.emptyMap();
+    private volatile boolean dirty;
+    /**
+     * 最近一次加载或保存的文件，保存到同一文件且没有修改时跳过
+     */
+    private File syncedFile;
+
+    /**
+     * 由旧版 JSON 文件名得到数据文件名
+     */
+    public static String binaryName(String jsonName) {
+        String base = jsonName.endsWith(".json") ? jsonName.substring(0, jsonName.length() - 5) : jsonName;
+        return base + ".bin";
+    }
+
+    /**
+     * 用户目录下的文件，userId 为空时返回 null
+     */
+    public static File userFile(String userId, String fileName) {
+        if (userId == null || userId.isEmpty()) {
+            return null;
+        }
+        File dir = new File(Files.CONFIG_DIR, userId);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.error(TAG, "Failed to create dir: " + dir.getAbsolutePath());
+        }
+        return new File(dir, fileName);
+    }
+
+    public IdMapStore(Codec<V> codec) {
+        this.codec = codec;
+    }
+
+    public V get(String key) {
+        Slot slot = slots.get(key);
+        return slot == null ? null : slot.get();
+    }
+
+    public boolean containsKey(String key) {
+        return slots.containsKey(key);
+    }
+
+    public void put(String key, V value) {
+        swapLock.readLock().lock();
+        try {
+            slots.put(key, new Slot(value));
+            changed();
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    public void remove(String key) {
+        swapLock.readLock().lock();
+        try {
+            if (slots.remove(key) != null) {
+                changed();
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        replace(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * 批量修改，编码结果与现有内容相同的条目跳过，全部改动一次性对读取方可见
+     *
+     * @param puts    新增或更新的条目
+     * @param removes 删除的键
+     * @return 实际变化的条目数
+     */
+    public int apply(Map<String, V> puts, Collection<String> removes) {
+        Map<String, Slot> current = slots;
+        Map<String, Slot> changedSlots = new HashMap<>();
+        for (Map.Entry<String, V> entry : puts.entrySet()) {
+            ByteBuffer encoded = ByteBuffer.wrap(codec.encode(entry.getValue()));
+            Slot old = current.get(entry.getKey());
+            if (old == null || !old.bytes().equals(encoded)) {
+                changedSlots.put(entry.getKey(), new Slot(entry.getValue(), encoded));
+            }
+        }
+        int count = changedSlots.size();
+        for (String key : removes) {
+            if (current.containsKey(key) && !changedSlots.containsKey(key)) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        swapLock.writeLock().lock();
+        try {
+            Map<String, Slot> next = new ConcurrentHashMap<>(slots);
+            next.keySet().removeAll(removes);
+            next.putAll(changedSlots);
+            slots = next;
+            changed();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        return count;
+    }
+
+    private void replace(Map<String, Slot> next) {
+        swapLock.writeLock().lock();
+        try {
+            slots = next;
+            changed();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(slots.keySet());
+    }
+
+    private void changed() {
+        version.incrementAndGet();
+        dirty = true;
+    }
+
+    /**
+     * 获取当前内容的只读快照，没有修改时重复调用返回同一个对象
+     */
+    public Map<String, V> snapshot() {
+        long currentVersion = version.get();
+        if (snapshotVersion == currentVersion) {
+            return snapshot;
+        }
+        Map<String, Slot> current = slots;
+        Map<String, V> copy = new LinkedHashMap<>(current.size());
+        for (Map.Entry<String, Slot> entry : current.entrySet()) {
+            V value = entry.getValue().get();
+            if (value != null) {
+                copy.put(entry.getKey(), value);
+            }
+        }
+        Map<String, V> result = Collections.unmodifiableMap(copy);
+        synchronized (this) {
+            if (version.get() == currentVersion) {
+                snapshot = result;
+                snapshotVersion = currentVersion;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 加载文件，文件不存在时依次尝试旧版 JSON 文件并转存为新格式
+     *
+     * @param file        数据文件
+     * @param parser      旧版文件的解析方式
+     * @param legacyFiles 旧版 JSON 文件
+     */
+    public synchronized void load(File file, LegacyParser<V> parser, File... legacyFiles) {
+        if (file == null) {
+            clear();
+            return;
+        }
+        if (file.length() > 0) {
+            try {
+                replace(read(file));
+                dirty = false;
+                syncedFile = file;
+                return;
+            } catch (Exception e) {
+                Log.printStackTrace(TAG, "读取" + file.getName() + "失败", e);
+            }
+        }
+        Map<String, Slot> loaded = new ConcurrentHashMap<>();
+        for (File legacyFile : legacyFiles) {
+            if (legacyFile == null || legacyFile.length() == 0) {
+                continue;
+            }
+            try {
+                String body = Files.readFromFile(legacyFile);
+                if (body.trim().isEmpty()) {
+                    continue;
+                }
+                Map<String, V> map = parser.parse(body);
+                if (map != null) {
+                    for (Map.Entry<String, V> entry : map.entrySet()) {
+                        if (entry.getKey() != null && entry.getValue() != null) {
+                            loaded.put(entry.getKey(), new Slot(entry.getValue()));
+                        }
+                    }
+                }
+                Log.runtime(TAG, "转换 " + legacyFile.getName() + " 共" + loaded.size() + "条");
+                break;
+            } catch (Exception e) {
+                Log.printStackTrace(TAG, "读取" + legacyFile.getName() + "失败", e);
+            }
+        }
+        replace(loaded);
+        save(file);
+    }
+
+    private Map<String, Slot> read(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            // 映射在通道关闭后依然有效，文件被替换时旧映射指向的仍是旧内容
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException("bad header");
+        }
+        int count = buffer.getInt();
+        Map<String, Slot> loaded = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3 + 1));
+        for (int i = 0; i < count; i++) {
+            String key = StandardCharsets.UTF_8.decode(slice(buffer)).toString();
+            loaded.put(key, new Slot(slice(buffer)));
+        }
+        return loaded;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("bad entry length: " + length);
+        }
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    /**
+     * 保存到文件
+     *
+     * @return 写入成功或无需写入时返回 true
+     */
+    public synchronized boolean save(File file) {
+        if (file == null) {
+            return false;
+        }
+        if (!dirty && file.equals(syncedFile)) {
+            return true;
+        }
+        dirty = false;
+        try {
+            Map<String, Slot> current = slots;
+            List<byte[]> keys = new ArrayList<>(current.size());
+            List<ByteBuffer> values = new ArrayList<>(current.size());
+            int size = 8;
+            for (Map.Entry<String, Slot> entry : current.entrySet()) {
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer value = entry.getValue().bytes();
+                keys.add(key);
+                values.add(value);
+                size += 8 + key.length + value.remaining();
+            }
+            ByteBuffer out = ByteBuffer.allocate(size);
+            out.putInt(MAGIC).putInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                out.putInt(keys.get(i).length).put(keys.get(i));
+                ByteBuffer value = values.get(i);
+                out.putInt(value.remaining()).put(value);
+            }
+            if (Files.write2File(out.array(), file)) {
+                syncedFile = file;
+                return true;
+            }
+        } catch (Exception e) {
+            Log.printStackTrace(TAG, "保存" + file.getName() + "失败", e);
+        }
+        dirty = true;
+        return false;
+    }
+}
@@ -0,0 +1,63 @@
+package fansirsqi.xposed.sesame.util.stats;
+
+/**
+ * 指数加权移动平均，同时维护加权方差。
+ * <p>
+ * 新样本权重为 alpha，旧估计按 1 - alpha 衰减；第一个样本直接作为初值。非线程安全。
+ */
+public final class Ewma {
+    private final double alpha;
+    private double mean;
+    private double variance;
+    private long count;
+
+    /**
+     * @param alpha 新样本的权重，0~1，越大越跟随最近的样本
+     */
+    public Ewma(double alpha) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]");
+        }
+        this.alpha = alpha;
+    }
+
+    /**
+     * 按半衰样本数创建，halfLife 个样本后旧估计的权重减半
+     */
+    public static Ewma ofHalfLife(double halfLife) {
+        return new Ewma(1 - Math.pow(0.5, 1 / halfLife));
+    }
+
+    public void add(double value) {
+        if (count++ == 0) {
+            mean = value;
+            variance = 0;
+            return;
+        }
+        double diff = value - mean;
+        double incr = alpha * diff;
+        mean += incr;
+        variance = (1 - alpha) * (variance + diff * incr);
+    }
+
+    /**
+     * 当前平均值，没有样本时为 0
+     */
+    public double mean() {
+        return mean;
+    }
+
+    public double stdDev() {
+        return Math.sqrt(variance);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public void clear() {
+        mean = 0;
+        variance = 0;
+        count = 0;
+    }
+}
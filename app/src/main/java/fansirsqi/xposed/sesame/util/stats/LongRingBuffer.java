@@ -0,0 +1,199 @@
+package fansirsqi.xposed.sesame.util.stats;
+
+import java.util.Arrays;
+
+/**
+ * 定长 long 环形缓冲。
+ * <p>
+ * 满了以后新值覆盖最旧的值。和、最小值、最大值随写入维护：和直接累加，最小值与最大值各用一个单调队列，
+ * 均摊 O(1)，不需要遍历窗口，也不装箱。非线程安全，由调用方加锁。
+ */
+public final class LongRingBuffer {
+    private final long[] values;
+    private final int capacity;
+    /**
+     * 已写入的总数，最旧元素的序号为 written - size
+     */
+    private long written;
+    private int size;
+    private long sum;
+    /**
+     * 单调队列中存元素序号，队首是当前最小（最大）值
+     */
+    private final long[] minQueue;
+    private final long[] maxQueue;
+    private int minHead, minTail, maxHead, maxTail;
+
+    public LongRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The size must be greater than 0");
+        }
+        this.capacity = capacity;
+        values = new long[capacity];
+        minQueue = new long[capacity];
+        maxQueue = new long[capacity];
+    }
+
+    /**
+     * 写入一个值，满时覆盖最旧的值
+     */
+    public void push(long value) {
+        if (size == capacity) {
+            removeOldest();
+        }
+        long seq = written++;
+        values[(int) (seq % capacity)] = value;
+        size++;
+        sum += value;
+        while (minTail > minHead && valueAt(minQueue[(minTail - 1) % capacity]) >= value) {
+            minTail--;
+        }
+        minQueue[minTail++ % capacity] = seq;
+        while (maxTail > maxHead && valueAt(maxQueue[(maxTail - 1) % capacity]) <= value) {
+            maxTail--;
+        }
+        maxQueue[maxTail++ % capacity] = seq;
+        normalize();
+    }
+
+    /**
+     * 移除最旧的值
+     *
+     * @return 被移除的值
+     */
+    public long removeOldest() {
+        if (size == 0) {
+            throw new IllegalStateException("empty");
+        }
+        long seq = written - size;
+        long value = valueAt(seq);
+        size--;
+        sum -= value;
+        if (minQueue[minHead % capacity] == seq) {
+            minHead++;
+        }
+        if (maxQueue[maxHead % capacity] == seq) {
+            maxHead++;
+        }
+        return value;
+    }
+
+    /**
+     * 队列下标只增不减，回绕前整体平移，避免溢出
+     */
+    private void normalize() {
+        if (minHead >= capacity) {
+            minHead -= capacity;
+            minTail -= capacity;
+        }
+        if (maxHead >= capacity) {
+            maxHead -= capacity;
+            maxTail -= capacity;
+        }
+    }
+
+    private long valueAt(long seq) {
+        return values[(int) (seq % capacity)];
+    }
+
+    /**
+     * 第 index 旧的值，0 为最旧
+     */
+    public long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return valueAt(written - size + index);
+    }
+
+    public long first() {
+        return get(0);
+    }
+
+    public long last() {
+        return get(size - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long sum() {
+        return sum;
+    }
+
+    /**
+     * 平均值，空时为 0
+     */
+    public double mean() {
+        return size == 0 ? 0 : (double) sum / size;
+    }
+
+    public long min() {
+        return valueAt(minSeq());
+    }
+
+    public long max() {
+        if (size == 0) {
+            throw new IllegalStateException("empty");
+        }
+        return valueAt(maxQueue[maxHead % capacity]);
+    }
+
+    /**
+     * 最小值的下标，0 为最旧，有相同值时取最新的
+     */
+    public int minIndex() {
+        return (int) (minSeq() - (written - size));
+    }
+
+    private long minSeq() {
+        if (size == 0) {
+            throw new IllegalStateException("empty");
+        }
+        return minQueue[minHead % capacity];
+    }
+
+    /**
+     * 窗口内的分位数，按最近秩取值
+     *
+     * @param quantile 0~1
+     * @param scratch  长度不小于 {@link #capacity()} 的临时数组，用于排序
+     */
+    public long quantile(double quantile, long[] scratch) {
+        if (size == 0) {
+            throw new IllegalStateException("empty");
+        }
+        int n = copyTo(scratch);
+        Arrays.sort(scratch, 0, n);
+        return scratch[(int) Math.round(Math.max(0, Math.min(1, quantile)) * (n - 1))];
+    }
+
+    /**
+     * 按从旧到新的顺序复制到 dest
+     *
+     * @return 复制的个数
+     */
+    public int copyTo(long[] dest) {
+        int start = (int) ((written - size) % capacity);
+        int head = Math.min(size, capacity - start);
+        System.arraycopy(values, start, dest, 0, head);
+        System.arraycopy(values, 0, dest, head, size - head);
+        return size;
+    }
+
+    public void clear() {
+        written = 0;
+        size = 0;
+        sum = 0;
+        minHead = minTail = maxHead = maxTail = 0;
+    }
+}
@@ -0,0 +1,113 @@
+package fansirsqi.xposed.sesame.util.stats;
+
+import java.util.Arrays;
+
+/**
+ * 流式分位数估计（P² 算法，Jain &amp; Chlamtac 1985）。
+ * <p>
+ * 只保存 5 个标记点，每个样本 O(1) 更新，不保存样本本身，适合数据量未知的扫描。
+ * 样本不超过 5 个时结果是精确的，之后是近似值。非线程安全。
+ */
+public final class P2Quantile {
+    private final double quantile;
+    /**
+     * 标记点高度、实际位置、期望位置与期望位置增量
+     */
+    private final double[] heights = new double[5];
+    private final double[] positions = new double[5];
+    private final double[] desired = new double[5];
+    private final double[] increments;
+    private long count;
+
+    /**
+     * @param quantile 0~1
+     */
+    public P2Quantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be in [0, 1]");
+        }
+        this.quantile = quantile;
+        increments = new double[]{0, quantile / 2, quantile, (1 + quantile) / 2, 1};
+        clear();
+    }
+
+    public void add(double value) {
+        if (count < 5) {
+            heights[(int) count++] = value;
+            if (count == 5) {
+                Arrays.sort(heights);
+            }
+            return;
+        }
+        count++;
+        int cell;
+        if (value < heights[0]) {
+            heights[0] = value;
+            cell = 0;
+        } else if (value >= heights[4]) {
+            heights[4] = Math.max(heights[4], value);
+            cell = 3;
+        } else {
+            cell = 0;
+            while (value >= heights[cell + 1]) {
+                cell++;
+            }
+        }
+        for (int i = cell + 1; i < 5; i++) {
+            positions[i]++;
+        }
+        for (int i = 0; i < 5; i++) {
+            desired[i] += increments[i];
+        }
+        for (int i = 1; i < 4; i++) {
+            double d = desired[i] - positions[i];
+            if ((d >= 1 && positions[i + 1] - positions[i] > 1) || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int sign = d > 0 ? 1 : -1;
+                double h = parabolic(i, sign);
+                if (heights[i - 1] < h && h < heights[i + 1]) {
+                    heights[i] = h;
+                } else {
+                    heights[i] = linear(i, sign);
+                }
+                positions[i] += sign;
+            }
+        }
+    }
+
+    private double parabolic(int i, int d) {
+        double n0 = positions[i - 1], n1 = positions[i], n2 = positions[i + 1];
+        return heights[i] + d / (n2 - n0) * ((n1 - n0 + d) * (heights[i + 1] - heights[i]) / (n2 - n1)
+                + (n2 - n1 - d) * (heights[i] - heights[i - 1]) / (n1 - n0));
+    }
+
+    private double linear(int i, int d) {
+        return heights[i] + d * (heights[i + d] - heights[i]) / (positions[i + d] - positions[i]);
+    }
+
+    /**
+     * 当前估计值，没有样本时返回 NaN
+     */
+    public double value() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (count <= 5) {
+            double[] sorted = Arrays.copyOf(heights, (int) count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.round(quantile * (count - 1))];
+        }
+        return heights[2];
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public void clear() {
+        count = 0;
+        for (int i = 0; i < 5; i++) {
+            positions[i] = i;
+            desired[i] = 4 * increments[i];
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package fansirsqi.xposed.sesame.hook
+
+import com.sun.net.httpserver.HttpServer
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.net.InetSocketAddress
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.GZIPInputStream
+
+/**
+ * 用本地桩服务器验证 [HookSender.Shipper] 的攒批、落盘与补发顺序
+ */
+class HookSenderShipperTest {
+    @get:Rule
+    val tmp = TemporaryFolder()
+
+    private lateinit var server: HttpServer
+    private lateinit var url: String
+
+    /**
+     * 服务器成功接收的数据序号，按到达顺序
+     */
+    private val received = CopyOnWriteArrayList<Int>()
+    private val requests = AtomicInteger()
+
+    @Volatile
+    private var failing = false
+
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/hook") { exchange ->
+            requests.incrementAndGet()
+            val lines = GZIPInputStream(exchange.requestBody).bufferedReader().readLines()
+            if (failing) {
+                exchange.sendResponseHeaders(503, -1)
+            } else {
+                lines.filter { it.isNotBlank() }.forEach { received.add(JSONObject(it).getInt("seq")) }
+                exchange.sendResponseHeaders(200, -1)
+            }
+            exchange.close()
+        }
+        server.start()
+        url = "http://127.0.0.1:${server.address.port}/hook"
+    }
+
+    @After
+    fun tearDown() {
+        server.stop(0)
+    }
+
+    private fun shipper(spillDir: File, batchSize: Int, flushIntervalMs: Long): HookSender.Shipper {
+        return HookSender.Shipper(url, spillDir, batchSize = batchSize, flushIntervalMs = flushIntervalMs, log = { _, _ -> })
+    }
+
+    private fun offer(shipper: HookSender.Shipper, range: IntRange) {
+        for (i in range) {
+            assertTrue(shipper.offer(JSONObject().put("seq", i)))
+        }
+    }
+
+    /**
+     * 落盘文件名中记录的条数之和
+     */
+    private fun spilledCount(spillDir: File): Int {
+        return spillDir.listFiles()?.filter { it.name.endsWith(".ndjson.gz") }
+            ?.sumOf { it.name.removeSuffix(".ndjson.gz").substringAfterLast('_').toInt() } ?: 0
+    }
+
+    private fun waitUntil(timeoutMs: Long = 10_000, condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + timeoutMs
+        while (!condition()) {
+            assertTrue("等待超时", System.currentTimeMillis() < deadline)
+            Thread.sleep(10)
+        }
+    }
+
+    @Test
+    fun batchesBySize() {
+        val shipper = shipper(tmp.newFolder("spill"), batchSize = 4, flushIntervalMs = 500)
+        shipper.start()
+        try {
+            offer(shipper, 0..9)
+            waitUntil { received.size == 10 }
+            assertEquals((0..9).toList(), received)
+            assertEquals(3, requests.get())
+            // 服务器先记录数据再返回响应，计数稍后才更新
+            waitUntil { shipper.sent.get() == 10L }
+            assertEquals(0L, shipper.pending)
+        } finally {
+            shipper.stop()
+        }
+    }
+
+    @Test
+    fun spilledBatchesAreSentBeforeNewOnes() {
+        val spillDir = tmp.newFolder("spill")
+        val shipper = shipper(spillDir, batchSize = 2, flushIntervalMs = 50)
+        failing = true
+        shipper.start()
+        try {
+            offer(shipper, 0..5)
+            waitUntil { spilledCount(spillDir) == 6 }
+            assertTrue(received.isEmpty())
+
+            failing = false
+            offer(shipper, 6..9)
+            waitUntil { received.size == 10 }
+            assertEquals((0..9).toList(), received)
+            waitUntil { shipper.sent.get() == 10L && shipper.pending == 0L && spilledCount(spillDir) == 0 }
+            assertEquals(0L, shipper.dropped.get())
+        } finally {
+            shipper.stop()
+        }
+    }
+
+    @Test
+    fun stopSpillsAndRestartResends() {
+        val spillDir = tmp.newFolder("spill")
+        val first = shipper(spillDir, batchSize = 100, flushIntervalMs = 60_000)
+        first.start()
+        offer(first, 0..2)
+        first.stop()
+        waitUntil { spilledCount(spillDir) == 3 }
+        assertTrue(received.isEmpty())
+
+        val second = shipper(spillDir, batchSize = 100, flushIntervalMs = 50)
+        second.start()
+        try {
+            assertEquals(3L, second.pending)
+            waitUntil { received.size == 3 }
+            assertEquals((0..2).toList(), received)
+            waitUntil { second.pending == 0L }
+        } finally {
+            second.stop()
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package fansirsqi.xposed.sesame.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TimeZone;
+
+public class TimeWindowsTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long MINUTE = 60 * 1000L;
+    /**
+     * 2025-01-01 00:00:00 UTC
+     */
+    private static final long DAY_START = 1735689600000L;
+
+    private TimeZone defaultZone;
+
+    @Before
+    public void setUp() {
+        defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultZone);
+    }
+
+    private static int parse(String text) {
+        return TimeWindows.parseTime(text, 0, text.length());
+    }
+
+    @Test
+    public void parseTime() {
+        assertEquals(0, parse("00"));
+        assertEquals(8 * HOUR + 30 * MINUTE, parse("0830"));
+        assertEquals(23 * HOUR + 59 * MINUTE + 59_000, parse("235959"));
+        assertEquals(TimeWindows.DAY, parse("24"));
+        assertEquals(TimeWindows.DAY, parse("2400"));
+        assertEquals(TimeWindows.DAY, parse("240000"));
+        assertEquals(-1, parse("2401"));
+        assertEquals(-1, parse("240001"));
+        assertEquals(-1, parse("2500"));
+        assertEquals(-1, parse("0860"));
+        assertEquals(-1, parse("830"));
+    }
+
+    /**
+     * AntFarm 小鸡游戏时间的默认值
+     */
+    @Test
+    public void rangeEndingAtMidnight() {
+        TimeWindows windows = TimeWindows.compile(Collections.singletonList("2200-2400"));
+        assertFalse(windows.isEmpty());
+        assertFalse(windows.contains(DAY_START + 21 * HOUR + 59 * MINUTE));
+        assertTrue(windows.contains(DAY_START + 22 * HOUR));
+        assertTrue(windows.contains(DAY_START + TimeWindows.DAY - 1));
+        assertFalse(windows.contains(DAY_START + TimeWindows.DAY));
+        assertEquals(DAY_START + 22 * HOUR, windows.nextBoundary(DAY_START + 12 * HOUR));
+        assertEquals(DAY_START + TimeWindows.DAY + 22 * HOUR, windows.nextBoundary(DAY_START + 23 * HOUR));
+
+        assertFalse(TimeUtil.checkInTimeRange(DAY_START + 21 * HOUR + 59 * MINUTE, "2200-2400"));
+        assertTrue(TimeUtil.checkInTimeRange(DAY_START + 22 * HOUR, "2200-2400"));
+        assertTrue(TimeUtil.checkInTimeRange(DAY_START + TimeWindows.DAY - 1, "2200-2400"));
+        assertFalse(TimeUtil.checkInTimeRange(DAY_START + TimeWindows.DAY + HOUR, "2200-2400"));
+    }
+
+    @Test
+    public void rangeStartingAtMidnight() {
+        TimeWindows windows = TimeWindows.compile(Collections.singletonList("2400-0600"));
+        assertTrue(windows.contains(DAY_START));
+        assertTrue(windows.contains(DAY_START + 6 * HOUR));
+        assertFalse(windows.contains(DAY_START + 7 * HOUR));
+        // TimeUtil 保持原来的语义：开始为次日零点，当天任何时刻都不匹配
+        assertFalse(TimeUtil.checkInTimeRange(DAY_START + HOUR, "2400-0600"));
+        assertFalse(TimeUtil.checkInTimeRange(DAY_START + 12 * HOUR, "2400-0600"));
+        assertTrue(TimeUtil.checkInTimeRange(DAY_START + HOUR, "0000-0600"));
+    }
+
+    @Test
+    public void crossMidnightAndMerge() {
+        TimeWindows windows = TimeWindows.compile(Arrays.asList("2300-0100", "0030-0200", "1200-1300"));
+        assertTrue(windows.contains(DAY_START + 23 * HOUR + 30 * MINUTE));
+        assertTrue(windows.contains(DAY_START + HOUR + 30 * MINUTE));
+        assertFalse(windows.contains(DAY_START + 3 * HOUR));
+        assertTrue(windows.contains(DAY_START + 12 * HOUR + 30 * MINUTE));
+        assertFalse(windows.contains(DAY_START + 22 * HOUR));
+        // TimeUtil 不跨零点
+        assertFalse(TimeUtil.checkInTimeRange(DAY_START + 23 * HOUR + 30 * MINUTE, "2300-0100"));
+        assertFalse(TimeUtil.checkInTimeRange(DAY_START + 30 * MINUTE, "2300-0100"));
+    }
+
+    /**
+     * 时区在编译时确定，之后修改默认时区不影响已编译的规则
+     */
+    @Test
+    public void zonePerInstance() {
+        TimeWindows utc = TimeWindows.compile(Collections.singletonList("0800-0900"));
+        TimeWindows shanghai = TimeWindows.compile(Collections.singletonList("0800-0900"), TimeZone.getTimeZone("Asia/Shanghai"));
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+        TimeWindows.compile(Collections.singletonList("0800-0900"));
+        assertTrue(utc.contains(DAY_START + 8 * HOUR + 30 * MINUTE));
+        assertFalse(utc.contains(DAY_START + 30 * MINUTE));
+        assertTrue(shanghai.contains(DAY_START + 30 * MINUTE));
+        assertEquals(DAY_START + TimeWindows.DAY, shanghai.nextBoundary(DAY_START + 2 * HOUR));
+    }
+
+    @Test
+    public void pointAtMidnight() {
+        TimeWindows windows = TimeWindows.compile(Arrays.asList("0800", "2400"));
+        assertTrue(windows.hasPoints());
+        assertEquals(DAY_START + 8 * HOUR, windows.nextPoint(DAY_START + HOUR));
+        assertEquals(DAY_START + TimeWindows.DAY, windows.nextPoint(DAY_START + 9 * HOUR));
+    }
+
+    @Test
+    public void disabled() {
+        assertTrue(TimeWindows.compile(Collections.singletonList("-1")).isEmpty());
+        assertTrue(TimeWindows.compile(Collections.emptyList()).isEmpty());
+    }
+}
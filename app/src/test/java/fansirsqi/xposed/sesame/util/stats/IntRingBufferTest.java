@@ -0,0 +1,100 @@
+package fansirsqi.xposed.sesame.util.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+public class IntRingBufferTest {
+
+    /**
+     * 与 ArrayDeque 逐步对照，写入量为容量的多倍，覆盖回绕与单调队列下标平移
+     */
+    @Test
+    public void matchesReferenceAcrossWraparound() {
+        for (int capacity : new int[]{1, 2, 7, 64}) {
+            Random random = new Random(capacity);
+            IntRingBuffer buffer = new IntRingBuffer(capacity);
+            ArrayDeque<Integer> reference = new ArrayDeque<>();
+            int[] scratch = new int[capacity];
+            for (int step = 0; step < capacity * 50 + 100; step++) {
+                if (!reference.isEmpty() && random.nextInt(5) == 0) {
+                    assertEquals((int) reference.removeFirst(), buffer.removeOldest());
+                } else {
+                    // 取值范围小，制造大量相同值
+                    int value = random.nextInt(20) - 10;
+                    buffer.push(value);
+                    reference.addLast(value);
+                    if (reference.size() > capacity) {
+                        reference.removeFirst();
+                    }
+                }
+                check(reference, buffer, scratch);
+            }
+        }
+    }
+
+    private static void check(ArrayDeque<Integer> reference, IntRingBuffer buffer, int[] scratch) {
+        assertEquals(reference.size(), buffer.size());
+        if (reference.isEmpty()) {
+            assertTrue(buffer.isEmpty());
+            return;
+        }
+        int[] expected = new int[reference.size()];
+        int i = 0;
+        for (int value : reference) {
+            expected[i++] = value;
+        }
+        long sum = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        int minIndex = -1;
+        for (i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], buffer.get(i));
+            sum += expected[i];
+            max = Math.max(max, expected[i]);
+            if (expected[i] <= min) {
+                min = expected[i];
+                minIndex = i;
+            }
+        }
+        assertEquals(sum, buffer.sum());
+        assertEquals(min, buffer.min());
+        assertEquals(max, buffer.max());
+        assertEquals(minIndex, buffer.minIndex());
+        assertEquals(expected[0], buffer.first());
+        assertEquals(expected[expected.length - 1], buffer.last());
+
+        int[] copy = new int[buffer.capacity()];
+        assertEquals(expected.length, buffer.copyTo(copy));
+        assertEquals(Arrays.toString(expected), Arrays.toString(Arrays.copyOf(copy, expected.length)));
+
+        int[] sorted = expected.clone();
+        Arrays.sort(sorted);
+        for (double q : new double[]{0, 0.25, 0.5, 0.9, 1}) {
+            assertEquals(sorted[(int) Math.round(q * (sorted.length - 1))], buffer.quantile(q, scratch));
+        }
+    }
+
+    /**
+     * 和以 long 累加，不随 int 溢出
+     */
+    @Test
+    public void sumDoesNotOverflow() {
+        IntRingBuffer buffer = new IntRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            buffer.push(Integer.MAX_VALUE);
+        }
+        assertEquals(4L * Integer.MAX_VALUE, buffer.sum());
+        assertEquals(Integer.MAX_VALUE, buffer.mean(), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void maxOfEmptyThrows() {
+        new IntRingBuffer(4).max();
+    }
+}
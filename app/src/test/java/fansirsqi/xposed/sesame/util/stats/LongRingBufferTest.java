@@ -0,0 +1,102 @@
+package fansirsqi.xposed.sesame.util.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+public class LongRingBufferTest {
+
+    /**
+     * 与 ArrayDeque 逐步对照，写入量为容量的多倍，覆盖回绕与单调队列下标平移
+     */
+    @Test
+    public void matchesReferenceAcrossWraparound() {
+        for (int capacity : new int[]{1, 2, 7, 64}) {
+            Random random = new Random(capacity);
+            LongRingBuffer buffer = new LongRingBuffer(capacity);
+            ArrayDeque<Long> reference = new ArrayDeque<>();
+            long[] scratch = new long[capacity];
+            for (int step = 0; step < capacity * 50 + 100; step++) {
+                if (!reference.isEmpty() && random.nextInt(5) == 0) {
+                    assertEquals((long) reference.removeFirst(), buffer.removeOldest());
+                } else {
+                    // 取值范围小，制造大量相同值
+                    long value = random.nextInt(20) - 10;
+                    buffer.push(value);
+                    reference.addLast(value);
+                    if (reference.size() > capacity) {
+                        reference.removeFirst();
+                    }
+                }
+                check(reference, buffer, scratch);
+            }
+        }
+    }
+
+    private static void check(ArrayDeque<Long> reference, LongRingBuffer buffer, long[] scratch) {
+        assertEquals(reference.size(), buffer.size());
+        if (reference.isEmpty()) {
+            assertTrue(buffer.isEmpty());
+            return;
+        }
+        long[] expected = new long[reference.size()];
+        int i = 0;
+        for (long value : reference) {
+            expected[i++] = value;
+        }
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        int minIndex = -1;
+        for (i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], buffer.get(i));
+            sum += expected[i];
+            max = Math.max(max, expected[i]);
+            if (expected[i] <= min) {
+                min = expected[i];
+                minIndex = i;
+            }
+        }
+        assertEquals(sum, buffer.sum());
+        assertEquals(min, buffer.min());
+        assertEquals(max, buffer.max());
+        assertEquals(minIndex, buffer.minIndex());
+        assertEquals(expected[0], buffer.first());
+        assertEquals(expected[expected.length - 1], buffer.last());
+
+        long[] copy = new long[buffer.capacity()];
+        assertEquals(expected.length, buffer.copyTo(copy));
+        assertEquals(Arrays.toString(expected), Arrays.toString(Arrays.copyOf(copy, expected.length)));
+
+        long[] sorted = expected.clone();
+        Arrays.sort(sorted);
+        for (double q : new double[]{0, 0.25, 0.5, 0.9, 1}) {
+            assertEquals(sorted[(int) Math.round(q * (sorted.length - 1))], buffer.quantile(q, scratch));
+        }
+    }
+
+    @Test
+    public void clearResets() {
+        LongRingBuffer buffer = new LongRingBuffer(3);
+        for (long i = 0; i < 10; i++) {
+            buffer.push(i);
+        }
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.sum());
+        buffer.push(5);
+        assertEquals(5, buffer.min());
+        assertEquals(5, buffer.max());
+        assertEquals(0, buffer.minIndex());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void minOfEmptyThrows() {
+        new LongRingBuffer(4).min();
+    }
+}
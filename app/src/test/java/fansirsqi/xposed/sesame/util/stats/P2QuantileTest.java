@@ -0,0 +1,82 @@
+package fansirsqi.xposed.sesame.util.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+public class P2QuantileTest {
+    private static final int SAMPLES = 100_000;
+
+    /**
+     * 估计值在精确排序结果中的秩与目标分位数之差不超过 1%
+     */
+    private static void assertConverges(String name, DoubleSupplier source) {
+        double[] samples = new double[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[i] = source.getAsDouble();
+        }
+        double[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        for (double q : new double[]{0.1, 0.5, 0.9, 0.99}) {
+            P2Quantile estimator = new P2Quantile(q);
+            for (double sample : samples) {
+                estimator.add(sample);
+            }
+            double estimate = estimator.value();
+            int rank = Arrays.binarySearch(sorted, estimate);
+            if (rank < 0) {
+                rank = -rank - 1;
+            }
+            double rankError = Math.abs((double) rank / SAMPLES - q);
+            assertTrue(name + " p" + q + " 估计 " + estimate + " 精确 " + sorted[(int) (q * (SAMPLES - 1))] + " 秩误差 " + rankError,
+                    rankError < 0.01);
+            assertEquals(SAMPLES, estimator.count());
+        }
+    }
+
+    @Test
+    public void convergesOnUniform() {
+        Random random = new Random(1);
+        assertConverges("uniform", random::nextDouble);
+    }
+
+    @Test
+    public void convergesOnNormal() {
+        Random random = new Random(2);
+        assertConverges("normal", random::nextGaussian);
+    }
+
+    /**
+     * 长尾分布，接近接口耗时的形状
+     */
+    @Test
+    public void convergesOnExponential() {
+        Random random = new Random(3);
+        assertConverges("exponential", () -> -Math.log(1 - random.nextDouble()) * 200);
+    }
+
+    @Test
+    public void convergesOnSortedInput() {
+        double[] next = {0};
+        assertConverges("ascending", () -> next[0]++);
+    }
+
+    @Test
+    public void exactForFewSamples() {
+        P2Quantile median = new P2Quantile(0.5);
+        assertTrue(Double.isNaN(median.value()));
+        median.add(30);
+        median.add(10);
+        median.add(20);
+        assertEquals(20, median.value(), 0);
+        median.clear();
+        assertEquals(0, median.count());
+        median.add(7);
+        assertEquals(7, median.value(), 0);
+    }
+}
@@ -0,0 +1,129 @@
+package fansirsqi.xposed.sesame.util.stats;
+
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import fansirsqi.xposed.sesame.util.CircularFifoQueue;
+
+/**
+ * 仿 JMH 的微基准，作为普通单元测试运行：每项先预热，再计时多轮，输出每次操作的纳秒数（取中位数）。
+ * 与 stats 包替换前的写法对照：装箱的 {@link CircularFifoQueue} 逐次遍历求最值，收集全部样本后排序求分位数。
+ * 只输出结果，不对耗时断言，避免机器负载导致测试不稳定。
+ * 默认跳过，需要时运行：./gradlew testNormalDebugUnitTest -Pbenchmark=true --tests '*StatsBenchmarkTest'
+ */
+public class StatsBenchmarkTest {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 10;
+    private static final int OPS = 100_000;
+    private static final int WINDOW = 64;
+
+    /**
+     * 结果汇入此处，防止 JIT 消除计算
+     */
+    private static volatile long sink;
+
+    @Before
+    public void requireBenchmark() {
+        Assume.assumeTrue("未开启 -Pbenchmark=true，跳过微基准", Boolean.getBoolean("benchmark"));
+    }
+
+    private interface Body {
+        long run(long[] input);
+    }
+
+    private static long[] input(long seed) {
+        Random random = new Random(seed);
+        long[] values = new long[OPS];
+        for (int i = 0; i < OPS; i++) {
+            values[i] = 50 + (long) (-Math.log(1 - random.nextDouble()) * 200);
+        }
+        return values;
+    }
+
+    private static void bench(String name, Body body) {
+        long[] input = input(name.hashCode());
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += body.run(input);
+        }
+        long[] nanos = new long[MEASURE_ROUNDS];
+        for (int i = 0; i < MEASURE_ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += body.run(input);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%-36s %10.1f ns/op (min %.1f, max %.1f)%n", name,
+                (double) nanos[MEASURE_ROUNDS / 2] / OPS, (double) nanos[0] / OPS, (double) nanos[MEASURE_ROUNDS - 1] / OPS);
+    }
+
+    @Test
+    public void ringBufferWindow() {
+        bench("LongRingBuffer push+min+max", input -> {
+            LongRingBuffer buffer = new LongRingBuffer(WINDOW);
+            long acc = 0;
+            for (long value : input) {
+                buffer.push(value);
+                acc += buffer.min() + buffer.max() + buffer.sum();
+            }
+            return acc;
+        });
+        bench("CircularFifoQueue<Long> push+scan", input -> {
+            CircularFifoQueue<Long> queue = new CircularFifoQueue<>(WINDOW);
+            long acc = 0;
+            for (long value : input) {
+                queue.add(value);
+                long min = Long.MAX_VALUE;
+                long max = Long.MIN_VALUE;
+                long sum = 0;
+                for (Long item : queue) {
+                    min = Math.min(min, item);
+                    max = Math.max(max, item);
+                    sum += item;
+                }
+                acc += min + max + sum;
+            }
+            return acc;
+        });
+        assertNotEquals(0, sink);
+    }
+
+    @Test
+    public void streamingQuantile() {
+        bench("P2Quantile add (p90)", input -> {
+            P2Quantile quantile = new P2Quantile(0.9);
+            for (long value : input) {
+                quantile.add(value);
+            }
+            return (long) quantile.value();
+        });
+        bench("ArrayList<Long> collect+sort (p90)", input -> {
+            ArrayList<Long> list = new ArrayList<>();
+            for (long value : input) {
+                list.add(value);
+            }
+            Collections.sort(list);
+            return list.get((int) Math.round(0.9 * (list.size() - 1)));
+        });
+        assertNotEquals(0, sink);
+    }
+
+    @Test
+    public void ewma() {
+        bench("Ewma add", input -> {
+            Ewma ewma = new Ewma(0.2);
+            for (long value : input) {
+                ewma.add(value);
+            }
+            return (long) (ewma.mean() + ewma.stdDev());
+        });
+        assertNotEquals(0, sink);
+    }
+}